@@ -6,7 +6,9 @@
 package com.metabit.custom.safe.iip;
 
 import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
 import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
 
 import javax.crypto.*;
 import javax.crypto.spec.SecretKeySpec;
@@ -25,8 +27,9 @@ public class ECDHEWithIntegrityPadding implements AsymmetricEncryptionWithIIP
 {
     private final CryptoFactory cf;
     private final AlgorithmSpec algorithmSpec;
-    private SecureRandom rng;
+    private RandomnessProvider randomness;
     private KeyAgreement keyAgreement;
+    private SharedSecretCache secretCache;
     private SymmetricEncryptionWithIntegrityPadding symmetricEncryption;
 
     
@@ -60,13 +63,29 @@ public class ECDHEWithIntegrityPadding implements AsymmetricEncryptionWithIIP
     public ECDHEWithIntegrityPadding(final CryptoFactory cryptoFactory, final AlgorithmSpec spec)
             throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, NoSuchProviderException
         {
+        this(cryptoFactory, spec, AlgorithmSpecCollection.ECDH); // default key agreement
+        }
+
+    /**
+     * constructor for ECDHE IIP with a specific key agreement
+     * @param cryptoFactory cryptoFactory handle for JCE and algorithm lookup/instantiation
+     * @param spec (symmetric) encryption algorithm to be used
+     * @param keyAgreementSpec key agreement to derive the ephemeral key with; ECDH or X25519. The keys passed in later must match.
+     * @throws NoSuchAlgorithmException if algorithm lookup failed
+     * @throws NoSuchProviderException if crypto provider was not available
+     * @throws NoSuchPaddingException if padding or operation mode of cipher was not available
+     * @throws InvalidKeyException if a key was invalid (unlikely)
+     */
+    public ECDHEWithIntegrityPadding(final CryptoFactory cryptoFactory, final AlgorithmSpec spec, final AlgorithmSpec keyAgreementSpec)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, NoSuchProviderException
+        {
         this.cf = cryptoFactory;
         this.algorithmSpec = spec;
-        this.rng = new SecureRandom();
-        this.keyAgreement = KeyAgreement.getInstance("ECDH"); // default key agreement
-        // Cipher symmetricCipher = Cipher.getInstance("AES/ECB/NoPadding"); // default cipher
-        Cipher symmetricCipher = cryptoFactory.getCipherFromCipherSpec(spec);
-        symmetricEncryption = new SymmetricEncryptionWithIntegrityPadding(symmetricCipher,cryptoFactory); // default cipher spec
+        this.randomness = cryptoFactory.getRandomnessProvider();
+        this.keyAgreement = cryptoFactory.getKeyAgreement(keyAgreementSpec);
+        this.secretCache = SharedSecretCache.getSharedInstance();
+        // ciphers are leased from the factory per operation, so instances are reused across messages.
+        symmetricEncryption = new SymmetricEncryptionWithIntegrityPadding(cryptoFactory, spec);
         }
 
     
@@ -83,20 +102,7 @@ public class ECDHEWithIntegrityPadding implements AsymmetricEncryptionWithIIP
     SecretKey createEphemeralAESKey(final PublicKey otherSideECPublicKey, final PrivateKey ourECPrivateKey, final byte[] uniqueID)
             throws InvalidKeyException, NoSuchAlgorithmException, InvalidKeySpecException
         {
-        keyAgreement.init(ourECPrivateKey);
-        keyAgreement.doPhase(otherSideECPublicKey,true); // just a two-sided DH
-        
-        // this is where we use SHA for key derivation. It is *not* related to the input data in any way!
-        //@TODO delegate to CryptoFactory
-        MessageDigest kdf = MessageDigest.getInstance("SHA-256"); // SHA-512 would produce 64 byte keys instead.
-        kdf.update(uniqueID);
-        kdf.update(keyAgreement.generateSecret());
-        //@TODO improvement variable size of AES key
-        // kdf.digest(); will provide now 64 bytes since it is SHA-512. AES can take only 16, 24, 32 byte for 128, 192, 256 bit keys.
-        // we would need to cut "n"byte out of the hash result here depending on the AES size specified.
-        SecretKeySpec secretKeySpec = new SecretKeySpec(kdf.digest(), "AES"); // prepare the key input
-        SecretKey ephKey = SecretKeyFactory.getInstance("AES").generateSecret(secretKeySpec); // and turn it into an AES key
-        return ephKey;
+        return createEphemeralAESKey(new PublicKey[]{otherSideECPublicKey}, ourECPrivateKey, uniqueID); // just a two-sided DH
         }
     
     
@@ -104,15 +110,18 @@ public class ECDHEWithIntegrityPadding implements AsymmetricEncryptionWithIIP
     SecretKey createEphemeralAESKey(final PublicKey[] multipleRecipientKeys, final PrivateKey ourECPrivateKey, final byte[] uniqueID)
             throws InvalidKeyException, NoSuchAlgorithmException, InvalidKeySpecException
         {
-        keyAgreement.init(ourECPrivateKey);
-        for (PublicKey publicKey: multipleRecipientKeys)
-            keyAgreement.doPhase(publicKey,true); // multi-recipient DH.
-       
         // this is where we use SHA, for key derivation. It is *not* related to the input data in any way!
         //@TODO delegate to CryptoFactory
         MessageDigest kdf = MessageDigest.getInstance("SHA-256"); // SHA-512 would produce 64 byte keys instead.
         kdf.update(uniqueID);
-        kdf.update(keyAgreement.generateSecret());
+        // the raw DH secret depends on the keys only; the cache saves the scalar multiplication for repeated pairs.
+        secretCache.update(kdf, ourECPrivateKey, multipleRecipientKeys, ()->
+            {
+            keyAgreement.init(ourECPrivateKey);
+            for (PublicKey publicKey: multipleRecipientKeys)
+                keyAgreement.doPhase(publicKey,true); // multi-recipient DH.
+            return keyAgreement.generateSecret();
+            });
         //@TODO improvement variable size of AES key
         // kdf.digest(); will provide now 64 bytes since it is SHA-512. AES can take only 16, 24, 32 byte for 128, 192, 256 bit keys.
         // we would need to cut "n"byte out of the hash result here depending on the AES size specified.
@@ -121,6 +130,18 @@ public class ECDHEWithIntegrityPadding implements AsymmetricEncryptionWithIIP
         return ephKey;
         }
     
+    /**
+     * replace the cache for raw ECDH secrets; by default, the shared instance is used.
+     *
+     * @param cache the cache to use
+     */
+    public void setSharedSecretCache(final SharedSecretCache cache)
+        {
+        if (cache == null)
+            throw new IllegalArgumentException("cache must not be null");
+        this.secretCache = cache;
+        }
+    
     
     /**
      * {@inheritDoc}
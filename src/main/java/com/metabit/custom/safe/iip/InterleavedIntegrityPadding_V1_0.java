@@ -5,10 +5,13 @@
  */
 package com.metabit.custom.safe.iip;
 
+import com.metabit.custom.safe.iip.shared.DefaultRandomnessProvider;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
+
 import javax.crypto.BadPaddingException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.security.SecureRandom;
 
 import static com.metabit.custom.safe.iip.SharedCode.*;
 
@@ -37,12 +40,23 @@ public final class InterleavedIntegrityPadding_V1_0
      *                        though possible in theory (shortening nonce and payload length size)
      */
     public InterleavedIntegrityPadding_V1_0(int cipherBlockSize)
+        {
+        this(cipherBlockSize, DefaultRandomnessProvider.getSharedInstance());
+        }
+
+    /**
+     * constructor.
+     *
+     * @param cipherBlockSize required parameter: size of the cipher blocks, in byte. see {@link #InterleavedIntegrityPadding_V1_0(int)}.
+     * @param randomness      source of random data for nonces and padding bytes.
+     */
+    public InterleavedIntegrityPadding_V1_0(int cipherBlockSize, final RandomnessProvider randomness)
         {
         if (cipherBlockSize<NONCE_SIZE+PAYLOAD_LENGTH_SIZE+1) // we need at least this number of bytes.
             throw new IllegalArgumentException("cipher block size too small"); // DES e.g. is not acceptable.
         this.cipherBlockSize = cipherBlockSize;
         this.payloadBytesPerBlock = cipherBlockSize-NONCE_SIZE;
-        this.rng = new SecureRandom();
+        this.randomness = randomness;
         }
 
     /**
@@ -58,7 +72,7 @@ public final class InterleavedIntegrityPadding_V1_0
             throw new IllegalArgumentException("payload too large, maximum size in byte is "+Integer.MAX_VALUE);
         int bufferSizeRequired = Math.toIntExact(bufferSizeRequiredLong);
         byte[] buffer = new byte[bufferSizeRequired];
-        performPaddingInPlace(payload, buffer);
+        performPadding(ByteBuffer.wrap(payload), ByteBuffer.wrap(buffer));
         return buffer;
         }
 
@@ -74,66 +88,98 @@ public final class InterleavedIntegrityPadding_V1_0
         // check input parameters
         assert (input!=null);
         assert (outputBuffer!=null);
-        // prepare the protection nonce
-        byte[] nonce = new byte[NONCE_SIZE];
-        rng.nextBytes(nonce);
-        long nonceWithCounter = get4ByteUnsignedIntFromBuffer(nonce, 0); // optimisation: instead of modulating the value every time on the nonce value.
-
-        // prepare the buffer
-        ByteBuffer bb = ByteBuffer.wrap(outputBuffer);
-        bb.order(ByteOrder.BIG_ENDIAN); // network byte order defined.
-        if (bb.hasArray()==false)
-            throw new UnsupportedOperationException("something's really wrong with the ByteBuffer in this JRE");
-
-        // heading ("header") block
-        // write ID, shortened if need be.
-        int idSizeUsed = calculateIDsizeUsed();
-        bb.put(MAGIC_ID_VERSION_1_0, 0, idSizeUsed);
-        // add R0 padding.
-        int numHeaderPaddingBytes = cipherBlockSize-(idSizeUsed+NONCE_SIZE+PAYLOAD_LENGTH_SIZE);
-        while (numHeaderPaddingBytes>0)
+        return performPadding(ByteBuffer.wrap(input), ByteBuffer.wrap(outputBuffer));
+        }
+
+    /**
+     * core IIP function: perform the Integrity Padding, from and into caller-supplied buffers.
+     * Heap and direct buffers are both supported; their byte order is left unchanged.
+     *
+     * @param input  payload data, from its position to its limit. The position is advanced to the limit.
+     * @param output buffer to place the padded data into, starting at its position.
+     *               Must have at least {@link #calculateNumberOfBytesOverall(int, int)} bytes remaining;
+     *               the position is advanced by that number.
+     * @return number of bytes written to the output.
+     * @throws java.lang.IllegalArgumentException if the output buffer is too small, or the payload too large.
+     */
+    public int performPadding(final ByteBuffer input, ByteBuffer output)
+        {
+        final int payloadLength = input.remaining();
+        long bytesOverallLong = calculateNumberOfBytesOverall(payloadLength, this.cipherBlockSize);
+        if (bytesOverallLong>Integer.MAX_VALUE)
+            throw new IllegalArgumentException("payload too large, maximum size in byte is "+Integer.MAX_VALUE);
+        final int bytesOverall = (int) bytesOverallLong;
+        if (output.remaining()<bytesOverall)
+            throw new IllegalArgumentException("output buffer too small, "+bytesOverall+" bytes required");
+        final int outputStart = output.position();
+        final ByteOrder callerOrder = output.order();
+        output.order(ByteOrder.BIG_ENDIAN); // network byte order defined.
+        try
             {
-            bb.put((byte) rng.nextInt(256)); // add random byte
-            numHeaderPaddingBytes--;
-            }
-        // we can't use padToBlockSizeWithRandom here since we pad R0 in the *middle* of the header block.
+            // prepare the protection nonce
+            byte[] nonce = new byte[NONCE_SIZE];
+            randomness.nextBytes(nonce);
+            long nonceWithCounter = get4ByteUnsignedIntFromBuffer(nonce, 0); // optimisation: instead of modulating the value every time on the nonce value.
+
+            // heading ("header") block
+            // write ID, shortened if need be.
+            int idSizeUsed = calculateIDsizeUsed(cipherBlockSize);
+            output.put(MAGIC_ID_VERSION_1_0, 0, idSizeUsed);
+            // add R0 padding.
+            int numHeaderPaddingBytes = cipherBlockSize-(idSizeUsed+NONCE_SIZE+PAYLOAD_LENGTH_SIZE);
+            if (numHeaderPaddingBytes>0)
+                {
+                byte[] headerPadding = new byte[numHeaderPaddingBytes];
+                randomness.nextBytes(headerPadding); // in bulk
+                output.put(headerPadding);
+                }
+            // we can't use padToBlockSizeWithRandom here since we pad R0 in the *middle* of the header block.
 
-        // write the nonce
-        bb.put(nonce); // always written at offset cipherBlockSize - (NONCE_SIZE + PAYLOAD_LENGTH_SIZE)
+            // write the nonce
+            output.put(nonce); // always written at offset cipherBlockSize - (NONCE_SIZE + PAYLOAD_LENGTH_SIZE)
 
-        // write the length of the payload to be reconstructed at recipient side.
-        bb.putInt(input.length); // always written at offset cipherBlockSize - PAYLOAD_LENGTH_SIZE
-        assert (bb.position()==cipherBlockSize); // implementation check: header block exactly complete?
-        // header block complete.
+            // write the length of the payload to be reconstructed at recipient side.
+            output.putInt(payloadLength); // always written at offset cipherBlockSize - PAYLOAD_LENGTH_SIZE
+            assert (output.position()-outputStart==cipherBlockSize); // implementation check: header block exactly complete?
+            // header block complete.
 
-        // now loop through input data and place it to the buffer
-        int offset;
-        for (offset = 0; offset<input.length; offset += payloadBytesPerBlock)
-            {
-            // pre-increment (not post)
-            nonceWithCounter++;
-            // java.lang.Math.toIntExact would fail here at wraparound. We have to perform this cast ourselves:
-            bb.putInt((int) (nonceWithCounter&0x0FFFFFFFFL)); // place 4 byte integer counter CTR first.
-            // wenn wir dem ende des blocks näher kommen...
-            int remainder = input.length-offset;
-            bb.put(input, offset, (remainder>payloadBytesPerBlock) ? payloadBytesPerBlock : remainder); // min(remainder,payloadBytesPerBlock)
-            }
+            // now loop through input data and place it to the buffer
+            final int inputLimit = input.limit();
+            for (int offset = 0; offset<payloadLength; offset += payloadBytesPerBlock)
+                {
+                // pre-increment (not post)
+                nonceWithCounter++;
+                // java.lang.Math.toIntExact would fail here at wraparound. We have to perform this cast ourselves:
+                output.putInt((int) (nonceWithCounter&0x0FFFFFFFFL)); // place 4 byte integer counter CTR first.
+                // wenn wir dem ende des blocks näher kommen...
+                int remainder = payloadLength-offset;
+                input.limit(input.position()+((remainder>payloadBytesPerBlock) ? payloadBytesPerBlock : remainder)); // min(remainder,payloadBytesPerBlock)
+                output.put(input);
+                input.limit(inputLimit);
+                }
 
-        // if last block needs padding, apply it here
-        padToBlockSizeWithRandom(bb);
+            // if last block needs padding, apply it here
+            padToBlockSizeWithRandom(output, outputStart);
 
-        // check if remainder != 0
-        if (input.length % payloadBytesPerBlock == 0) // perfect match means trailing block
+            // check if remainder != 0
+            if (payloadLength%payloadBytesPerBlock==0) // perfect match means trailing block
+                {
+                // append trailing block; only necessary if the r1 was empty
+                nonceWithCounter++;
+                //@CHECK the java Math.toIntExact() function on signedness. we want an unsigned wrap-around, that's why we use long and Math.toIntExact().
+                output.putInt((int) (nonceWithCounter&0x0FFFFFFFFL)); // place 4 byte integer counter CTR.
+                padToBlockSizeWithRandom(output, outputStart); // fill up
+                }
+
+            // a freshly allocated array would leave the remaining bytes zeroed; caller-owned buffers may hold old data.
+            while (output.position()-outputStart<bytesOverall)
+                output.put((byte) 0);
+            }
+        finally
             {
-            // append trailing block; only necessary if the r1 was empty
-            nonceWithCounter++;
-            //@CHECK the java Math.toIntExact() function on signedness. we want an unsigned wrap-around, that's why we use long and Math.toIntExact().
-            bb.putInt((int) (nonceWithCounter&0x0FFFFFFFFL)); // place 4 byte integer counter CTR.
-            padToBlockSizeWithRandom(bb); // fill up
+            output.order(callerOrder);
             }
-
-        // with clean block input, this should equal block length
-        return bb.position(); // number of bytes used
+        return bytesOverall;
         }
 
     /**
@@ -150,16 +196,45 @@ public final class InterleavedIntegrityPadding_V1_0
         // guard clause
         if (paddedData.length%cipherBlockSize!=0)
             throw new IllegalArgumentException("buffer size invalid");
+        long payloadLength = peekPayloadLength(ByteBuffer.wrap(paddedData));
+        // first rough check; in this case, we have to quit early, since we cannot predict the number of subsequent blocks correctly
+        if (payloadLength>=paddedData.length)
+            throw new BadPaddingException();
+        byte[] payloadBuffer = new byte[(int) payloadLength];
+        checkAndExtract(ByteBuffer.wrap(paddedData), ByteBuffer.wrap(payloadBuffer));
+        return payloadBuffer;
+        }
+
+    /**
+     * core IIP function: validate the Integrity Padding, and extract payload data into a caller-supplied buffer.
+     * Heap and direct buffers are both supported; their byte order is left unchanged.
+     * <p>
+     * On failure, the bytes written to the destination are zeroed again, and its position is left unchanged.
+     *
+     * @param paddedData  data to perform validation on, from its position to its limit.
+     *                    On success, the position is advanced to the limit.
+     * @param destination buffer to place the payload into, starting at its position.
+     *                    Use {@link #peekPayloadLength(ByteBuffer)} to size it.
+     * @return number of payload bytes written to the destination.
+     * @throws javax.crypto.BadPaddingException   in all cases where the validation fails.
+     * @throws java.lang.IllegalArgumentException if the padded data is of incorrect size, or the destination too small.
+     */
+    public int checkAndExtract(final ByteBuffer paddedData, ByteBuffer destination) throws BadPaddingException
+        {
+        // guard clause
+        if (paddedData.remaining()%cipherBlockSize!=0)
+            throw new IllegalArgumentException("buffer size invalid");
         // preparition of local variables
+        final int paddedLength = paddedData.remaining();
         byte[] id = new byte[MAGIC_ID_LENGTH];
         byte[] nonce = new byte[NONCE_SIZE];
-        byte[] lengthBuffer = new byte[PAYLOAD_LENGTH_SIZE];
-        byte[] payloadBuffer = null;
-        int idLengthExpected = calculateIDsizeUsed();
+        int idLengthExpected = calculateIDsizeUsed(cipherBlockSize);
         int numHeaderPaddingBytes = cipherBlockSize-(idLengthExpected+NONCE_SIZE+PAYLOAD_LENGTH_SIZE);
+        final int destinationStart = destination.position();
+        int payloadLength = 0;
         boolean success = true;
 
-        ByteBuffer bb = ByteBuffer.wrap(paddedData);
+        ByteBuffer bb = paddedData.slice(); // own cursor and byte order
         bb.order(ByteOrder.BIG_ENDIAN);
         try
             {
@@ -171,8 +246,7 @@ public final class InterleavedIntegrityPadding_V1_0
                 numHeaderPaddingBytes--;
                 }
             bb.get(nonce);
-            bb.get(lengthBuffer);
-            int payloadLength = Math.toIntExact(get4ByteUnsignedIntFromBuffer(lengthBuffer, 0)); // implementation limit 2GB
+            long payloadLengthUnsigned = Integer.toUnsignedLong(bb.getInt());
 
             // 2. check ID
             if (compareBytes(id, 0, MAGIC_ID_VERSION_1_0, 0, idLengthExpected)==false)
@@ -181,41 +255,44 @@ public final class InterleavedIntegrityPadding_V1_0
 
             // 3. convert and check length
             // first rough check
-            if (payloadLength>=paddedData.length)
+            if (payloadLengthUnsigned>=paddedLength)
                 throw new BadPaddingException(); // in this case, we have to quit early, since we cannot predict the number of subsequent blocks correctly
+            payloadLength = (int) payloadLengthUnsigned;
+            if (destination.remaining()<payloadLength)
+                throw new IllegalArgumentException("destination buffer too small, "+payloadLength+" bytes required");
             int expectedPayloadBlocks = calculateNumberOfPayloadBlocks(payloadLength, payloadBytesPerBlock);
             //@IMPROVEMENT different calculation allowing us to delay the exit, eg. from overall length and cipherBlockSize
 
             // 3. get nonce counter ready
             long nonceCounter = get4ByteUnsignedIntFromBuffer(nonce, 0);
 
-            // 4. prepare output buffer. -- for supplied buffers, there is a requirement of minimum size to be checked.
-            payloadBuffer = new byte[payloadLength];
-
             // 5. loop through all expected blocks
+            final int bbLimit = bb.limit();
             int payloadOffset = 0;
             for (int i = 0; i<expectedPayloadBlocks; i++)
                 {
                 nonceCounter++;
                 long givenCounterValue = Integer.toUnsignedLong(bb.getInt());
-                if (givenCounterValue!=nonceCounter)
+                if (givenCounterValue!=(nonceCounter&0x0FFFFFFFFL)) // the counter wraps around, unsigned.
                     success = false; // foil timing attacks here by not exiting right away.
                 // copy payload data over
                 int remainder = payloadLength-payloadOffset;
-                bb.get(payloadBuffer, payloadOffset, (remainder>payloadBytesPerBlock) ? payloadBytesPerBlock : remainder);
+                bb.limit(bb.position()+((remainder>payloadBytesPerBlock) ? payloadBytesPerBlock : remainder));
+                destination.put(bb);
+                bb.limit(bbLimit);
                 payloadOffset += payloadBytesPerBlock;
                 }
 
             // check whether to expect a trailing block or not
 
-            if (payloadLength % payloadBytesPerBlock == 0) // perfect match means trailing block
+            if (payloadLength%payloadBytesPerBlock==0) // perfect match means trailing block
                 {
                 // 6. skip optional padding to next block start
                 skipToBlockSize(bb);
                 // 7. check trailing nonce copy to match to the heading one.
                 nonceCounter++;
                 long givenCounterValue = Integer.toUnsignedLong(bb.getInt());
-                if (givenCounterValue!=nonceCounter)
+                if (givenCounterValue!=(nonceCounter&0x0FFFFFFFFL))
                     success = false; // foil timing attacks here by not exiting right away.
 
                 // 8. omit/ignore trailing random data after that.
@@ -225,21 +302,43 @@ public final class InterleavedIntegrityPadding_V1_0
             // plausibility check whether we've accurately reached the end.
             if (payloadOffset<payloadLength)
                 success = false;
-            // plausibility check whether the remaining # of bytes is less than blocksize. otherwise, something's off.
-            if (bb.hasArray()) // arrayOffset is available only if this is given.
-                {
-                if (bb.arrayOffset()%cipherBlockSize>payloadBytesPerBlock)
-                    success = false;
-                }
             }
-        catch (ArithmeticException ex)
+        catch (BufferUnderflowException ex)
             {
-            success = false; //integer overflow from Math.toIntExact if one of those values is corrupted
+            success = false; // length field claims more blocks than there are
             }
         // 8. result: OK or failure.
         if (success!=true)
+            {
+            // do not leave unvalidated payload in caller-owned buffers.
+            for (int i = destinationStart; i<destination.position(); i++)
+                destination.put(i, (byte) 0);
+            destination.position(destinationStart);
             throw new BadPaddingException();
-        return payloadBuffer;
+            }
+        paddedData.position(paddedData.limit());
+        return payloadLength;
+        }
+
+    /**
+     * read the payload length from the header block, without validating anything.
+     * Intended to size destination buffers for {@link #checkAndExtract(ByteBuffer, ByteBuffer)}.
+     * <p>
+     * The value is not authenticated at this point; callers must not allocate more than
+     * the padded data size for it, since a larger value will be rejected anyhow.
+     *
+     * @param paddedData padded data, starting at its position; the position is not changed.
+     * @return the payload length announced in the header block, unsigned.
+     * @throws java.lang.IllegalArgumentException if less than a block is available.
+     */
+    public long peekPayloadLength(final ByteBuffer paddedData)
+        {
+        if (paddedData.remaining()<cipherBlockSize)
+            throw new IllegalArgumentException("buffer size invalid");
+        int lengthOffset = paddedData.position()+cipherBlockSize-PAYLOAD_LENGTH_SIZE;
+        int value = ((paddedData.get(lengthOffset)&0xFF)<<24)|((paddedData.get(lengthOffset+1)&0xFF)<<16)
+                |((paddedData.get(lengthOffset+2)&0xFF)<<8)|(paddedData.get(lengthOffset+3)&0xFF); // big endian, whatever the buffer order
+        return Integer.toUnsignedLong(value);
         }
 
 //------------------------------------------------------------------------------------------------------------------
@@ -249,16 +348,18 @@ public final class InterleavedIntegrityPadding_V1_0
      * support function: pad to cipher block size, filling with random data.
      *
      * @param bb handle for byte array, with numerical position cursor (offset)
+     * @param start position in the buffer the padded data started at
      */
-    private void padToBlockSizeWithRandom(ByteBuffer bb)
+    private void padToBlockSizeWithRandom(ByteBuffer bb, final int start)
         {
         // fill up to block size with random data.
-        int currentOffset=bb.position();
+        int currentOffset=bb.position()-start;
         int currentDiff=calculatePadding(currentOffset, cipherBlockSize);
-        while (currentDiff!=0) // if not at block boundary, fill with random data.
+        if (currentDiff!=0) // if not at block boundary, fill with random data.
             {
-            bb.put((byte) rng.nextInt(256));
-            currentDiff--;
+            byte[] padding = new byte[currentDiff];
+            randomness.nextBytes(padding); // in bulk
+            bb.put(padding);
             }
         return;
         }
@@ -281,10 +382,12 @@ public final class InterleavedIntegrityPadding_V1_0
 
     /**
      * specific support function: calculate number of bytes from the ID value to be used in given circumstances.
+     * shared with the streaming variant, which has to produce the very same header block.
      *
+     * @param cipherBlockSize size of the cipher blocks, in byte.
      * @return number of ID bytes to be used.
      */
-    private int calculateIDsizeUsed()
+    static int calculateIDsizeUsed(final int cipherBlockSize)
         {
         int headerPad=cipherBlockSize-(MAGIC_ID_LENGTH+NONCE_SIZE+PAYLOAD_LENGTH_SIZE);
         if (headerPad==0) // a perfect match would leave no space for the R0, so we shorten the ID by 1.
@@ -322,7 +425,7 @@ public final class InterleavedIntegrityPadding_V1_0
     public final static int NONCE_SIZE = 4; // 4 byte.
     final static int PAYLOAD_LENGTH_SIZE = 4; // 4 byte.
     // --- class member variables ---
-    private final SecureRandom rng;
+    private final RandomnessProvider randomness;
     private final int payloadBytesPerBlock;
     private final int cipherBlockSize;
 }
@@ -9,9 +9,15 @@ import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
 import com.metabit.custom.safe.iip.shared.CryptoFactory;
 
 import javax.crypto.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.*;
 import java.security.interfaces.RSAPrivateKey;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * <p>RSAWithIntegrityPadding class.</p>
@@ -30,9 +36,10 @@ public class RSAWithIntegrityPadding implements AsymmetricEncryptionWithIIP
 {
     private final CryptoFactory cf;
     private final AlgorithmSpec algorithmSpec;
-    private final Cipher cipher;
-    private final SecureRandom rng;
     private final InterleavedIntegrityPadding_V1_0 integrityPaddingInstance;
+    private final StreamingIntegrityPadding_V1_0 streamingPaddingInstance;
+    private ForkJoinPool parallelPool;
+    private int parallelThresholdBlocks;
 
     /**
      * <p>Constructor for RSAWithIntegrityPadding.</p>
@@ -49,13 +56,34 @@ public class RSAWithIntegrityPadding implements AsymmetricEncryptionWithIIP
         {
         this.cf = cryptoFactory;
         this.algorithmSpec = spec;
-        this.rng = new SecureRandom();
 
-        cipher = cf.getCipherFromCipherSpec(algorithmSpec);
-        integrityPaddingInstance = new InterleavedIntegrityPadding_V1_0(algorithmSpec.getUsableBlockSize());
+        // ciphers are leased from the factory per operation; instantiating one here fails early on bad settings,
+        // and leaves it in the factory's pool for the first operation.
+        cf.releaseCipher(algorithmSpec, cf.leaseCipher(algorithmSpec));
+        integrityPaddingInstance = new InterleavedIntegrityPadding_V1_0(algorithmSpec.getUsableBlockSize(), cf.getRandomnessProvider());
+        // one block of working buffer: each IIP block is encrypted right after it has been produced.
+        streamingPaddingInstance = new StreamingIntegrityPadding_V1_0(algorithmSpec.getUsableBlockSize(), 1, cf.getRandomnessProvider());
         }
 
 
+    /**
+     * enable parallel processing of the RSA blocks.
+     * every RSA block is independent (ECB over IIP blocks), so block ranges are spread across the pool,
+     * each worker using a Cipher instance of its own, obtained from the CryptoFactory.
+     * Parallel processing needs the complete padded data in memory; below the threshold,
+     * the sequential, block-by-block processing is used.
+     *
+     * @param pool            pool to run on; null disables parallel processing (default).
+     * @param thresholdBlocks minimum number of RSA blocks for parallel processing to be used.
+     */
+    public void setParallelProcessing(final ForkJoinPool pool, final int thresholdBlocks)
+        {
+        if (thresholdBlocks < 1)
+            throw new IllegalArgumentException("threshold must be at least one block");
+        this.parallelPool = pool;
+        this.parallelThresholdBlocks = thresholdBlocks;
+        }
+
     /**
      * <p>padEncryptAndPackage.</p>
      *
@@ -78,23 +106,46 @@ public class RSAWithIntegrityPadding implements AsymmetricEncryptionWithIIP
         RSAPrivateKey rsaPrivKey = (RSAPrivateKey) ourPrivateKey; // cast checks for correct key type for the algorithms
         assert (rsaPrivKey.getModulus().bitLength() == algorithmSpec.getKeySizeInBit()); // must match expected size
 
-        // pad
-        byte[] padded = integrityPaddingInstance.performPaddingWithAllocation(data);
-        assert (padded.length % usable_blocksize == 0); // if not, our padding has a bug
-
-        // encrypt
-        cipher.init(Cipher.ENCRYPT_MODE, ourPrivateKey, rng);
         // rsa will support single blocks only, so we have to split ourselves.
-        int inputLength = padded.length;
-        int outputLength = (inputLength / usable_blocksize) * RSA_blocksize; // scaling from one to the other
-        byte[] encrypted = new byte[outputLength];
-        int numBlocksInput = outputLength / RSA_blocksize;
-        for (int i = 0; i < numBlocksInput; i++)
+        // the padding is produced block by block, and each block is encrypted right away;
+        // no buffer for the complete padded data is needed.
+        long paddedLength = StreamingIntegrityPadding_V1_0.calculateNumberOfBytesOverall((long) data.length, usable_blocksize);
+        long outputLength = (paddedLength / usable_blocksize) * RSA_blocksize; // scaling from one to the other
+        if (outputLength > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("payload too large, maximum size in byte is "+Integer.MAX_VALUE);
+        byte[] encrypted = new byte[(int) outputLength];
+        int numBlocks = (int) (outputLength / RSA_blocksize);
+        if (useParallelProcessing(numBlocks))
+            {
+            byte[] padded = integrityPaddingInstance.performPaddingWithAllocation(data);
+            try
+                {
+                processBlocksInParallel(Cipher.ENCRYPT_MODE, ourPrivateKey, padded, usable_blocksize, encrypted, RSA_blocksize, numBlocks);
+                }
+            finally
+                {
+                // cleanup as far as possible
+                Arrays.fill(padded, (byte) 0x00);
+                }
+            return encrypted;
+            }
+        final Cipher cipher = lease();
+        BlockEncryptingChannel encryptingChannel = new BlockEncryptingChannel(cipher, encrypted);
+        try
             {
-            cipher.doFinal(padded, i * usable_blocksize, usable_blocksize, encrypted, i * RSA_blocksize); // different blocksizes. Details matter.
+            // encrypt
+            cipher.init(Cipher.ENCRYPT_MODE, ourPrivateKey, cf.getRandomnessProvider().getSecureRandom());
+            streamingPaddingInstance.performPadding(ByteBuffer.wrap(data), encryptingChannel);
             }
-        // cleanup as far as possible
-        Arrays.fill(padded, (byte) 0x00);
+        catch (IOException ex)
+            {
+            rethrowCipherFailure(ex);
+            }
+        finally
+            {
+            cf.releaseCipher(algorithmSpec, cipher);
+            }
+        assert (encryptingChannel.outputOffset == encrypted.length); // if not, our padding has a bug
         // return result
         return encrypted;
         }
@@ -130,34 +181,396 @@ public class RSAWithIntegrityPadding implements AsymmetricEncryptionWithIIP
 
         if (encryptedData.length % RSA_blocksize != 0)
             throw new IllegalArgumentException("input length doesn't fit with key size");
-
         int numBlocks = encryptedData.length / RSA_blocksize; // because of previous check, this is clean
-        int decryptedLength = encryptedData.length; // same
-
-        byte[] decrypted = new byte[numBlocks * usable_blocksize];
-
-        // decrypt
-        cipher.init(Cipher.DECRYPT_MODE, senderPublicKey, rng);
-        // we're to process the blocks ourselves.
-        int i = numBlocks;
-        int inputOffset = 0;
-        int outputOffset = 0;
-        while (i > 0)
+        if (useParallelProcessing(numBlocks))
             {
-            cipher.doFinal(encryptedData, inputOffset, RSA_blocksize, decrypted, outputOffset);
-            inputOffset += RSA_blocksize;
-            outputOffset += usable_blocksize;
-            i--;
+            byte[] decrypted = new byte[numBlocks * usable_blocksize];
+            try
+                {
+                processBlocksInParallel(Cipher.DECRYPT_MODE, senderPublicKey, encryptedData, RSA_blocksize, decrypted, usable_blocksize, numBlocks);
+                // now validate padding and extract payload
+                return integrityPaddingInstance.checkAndExtract(decrypted);
+                }
+            finally
+                {
+                // cleanup as far as possible
+                Arrays.fill(decrypted, (byte) 0x00);
+                }
             }
 
-        // now validate padding and extract payload
-        byte[] payload = integrityPaddingInstance.checkAndExtract(decrypted);
-        // cleanup as far as possible
-        Arrays.fill(decrypted, (byte) 0x00);
+        // we're to process the blocks ourselves; they are decrypted one by one, as the validation asks for them.
+        final Cipher cipher = lease();
+        BlockDecryptingChannel decryptingChannel = new BlockDecryptingChannel(cipher, encryptedData);
+        byte[] payload = null;
+        try
+            {
+            // decrypt
+            cipher.init(Cipher.DECRYPT_MODE, senderPublicKey, cf.getRandomnessProvider().getSecureRandom());
+            // the header block tells us how much payload to expect.
+            if (decryptingChannel.prefetchFirstBlock() == false)
+                throw new BadPaddingException();
+            long payloadLength = integrityPaddingInstance.peekPayloadLength(ByteBuffer.wrap(decryptingChannel.block));
+            if (payloadLength >= (long) (encryptedData.length / RSA_blocksize) * usable_blocksize)
+                throw new BadPaddingException(); // cannot be right; same early exit as with the array-based validation
+            payload = new byte[(int) payloadLength];
+            // now validate padding and extract payload
+            streamingPaddingInstance.checkAndExtract(decryptingChannel, new ByteArrayChannel(payload));
+            }
+        catch (IOException ex)
+            {
+            if (payload != null)
+                Arrays.fill(payload, (byte) 0x00);
+            rethrowCipherFailure(ex);
+            }
+        catch (BadPaddingException ex)
+            {
+            if (payload != null)
+                Arrays.fill(payload, (byte) 0x00); // do not leave unvalidated data around
+            throw ex;
+            }
+        finally
+            {
+            // cleanup as far as possible
+            Arrays.fill(decryptingChannel.block, (byte) 0x00);
+            cf.releaseCipher(algorithmSpec, cipher);
+            }
         // return result
         return payload;
         }
 
+    // the constructor has instantiated the spec once already, so a failure here is a problem of the environment.
+    private Cipher lease()
+        {
+        try
+            {
+            return cf.leaseCipher(algorithmSpec);
+            }
+        catch (GeneralSecurityException ex)
+            {
+            throw new IllegalStateException("could not get cipher for "+algorithmSpec, ex);
+            }
+        }
+
+    private boolean useParallelProcessing(final int numBlocks)
+        {
+        return (parallelPool != null) && (numBlocks >= parallelThresholdBlocks) && (numBlocks > 1);
+        }
+
+    /**
+     * run the RSA block operation on all blocks, spread across the pool.
+     */
+    private void processBlocksInParallel(final int mode, final Key key, final byte[] input, final int inputBlockSize,
+                                         final byte[] output, final int outputBlockSize, final int numBlocks)
+            throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, ShortBufferException
+        {
+        // a few ranges per worker, so uneven progress evens out.
+        int blocksPerTask = Math.max(1, numBlocks / (parallelPool.getParallelism() * 4));
+        try
+            {
+            parallelPool.invoke(new BlockRangeTask(mode, key, input, inputBlockSize, output, outputBlockSize, 0, numBlocks, blocksPerTask));
+            }
+        catch (BlockRangeFailure ex)
+            {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidKeyException)
+                throw (InvalidKeyException) cause;
+            if (cause instanceof IllegalBlockSizeException)
+                throw (IllegalBlockSizeException) cause;
+            if (cause instanceof BadPaddingException)
+                throw (BadPaddingException) cause;
+            if (cause instanceof ShortBufferException)
+                throw (ShortBufferException) cause;
+            throw new IllegalStateException("could not get cipher for "+algorithmSpec, cause);
+            }
+        return;
+        }
+
+    /**
+     * range of RSA blocks, split in halves until small enough; each leaf uses its own Cipher.
+     */
+    private final class BlockRangeTask extends RecursiveAction
+    {
+        private final int mode;
+        private final Key key;
+        private final byte[] input;
+        private final int inputBlockSize;
+        private final byte[] output;
+        private final int outputBlockSize;
+        private final int fromBlock;
+        private final int toBlock;
+        private final int blocksPerTask;
+
+        BlockRangeTask(int mode, Key key, byte[] input, int inputBlockSize, byte[] output, int outputBlockSize, int fromBlock, int toBlock, int blocksPerTask)
+            {
+            this.mode = mode;
+            this.key = key;
+            this.input = input;
+            this.inputBlockSize = inputBlockSize;
+            this.output = output;
+            this.outputBlockSize = outputBlockSize;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.blocksPerTask = blocksPerTask;
+            }
+
+        @Override
+        protected void compute()
+            {
+            if (toBlock - fromBlock > blocksPerTask)
+                {
+                int middle = (fromBlock + toBlock) >>> 1;
+                invokeAll(new BlockRangeTask(mode, key, input, inputBlockSize, output, outputBlockSize, fromBlock, middle, blocksPerTask),
+                          new BlockRangeTask(mode, key, input, inputBlockSize, output, outputBlockSize, middle, toBlock, blocksPerTask));
+                return;
+                }
+            Cipher workerCipher = null;
+            try
+                {
+                workerCipher = cf.leaseCipher(algorithmSpec);
+                workerCipher.init(mode, key, cf.getRandomnessProvider().getSecureRandom()); // the worker thread's own instance
+                for (int i = fromBlock; i < toBlock; i++)
+                    {
+                    if (mode == Cipher.DECRYPT_MODE)
+                        decryptBlock(workerCipher, input, i * inputBlockSize, inputBlockSize, output, i * outputBlockSize, outputBlockSize);
+                    else
+                        workerCipher.doFinal(input, i * inputBlockSize, inputBlockSize, output, i * outputBlockSize); // different blocksizes. Details matter.
+                    }
+                }
+            catch (GeneralSecurityException ex)
+                {
+                throw new BlockRangeFailure(ex);
+                }
+            finally
+                {
+                cf.releaseCipher(algorithmSpec, workerCipher);
+                }
+            }
+    }
+
+    /**
+     * carries checked exceptions out of the pool.
+     */
+    private static final class BlockRangeFailure extends RuntimeException
+    {
+        BlockRangeFailure(GeneralSecurityException cause)
+            {
+            super(cause);
+            }
+    }
+
+    /**
+     * RSA-decrypt a single block into a slot of usable block size.
+     * BC returns the plaintext as unsigned number, dropping leading zero bytes; these are restored here.
+     * A result larger than the slot can only come from manipulated ciphertext.
+     */
+    private static void decryptBlock(final Cipher blockCipher, final byte[] input, final int inputOffset, final int inputLength,
+                                     byte[] output, final int outputOffset, final int outputLength)
+            throws IllegalBlockSizeException, BadPaddingException
+        {
+        byte[] plain;
+        try
+            {
+            plain = blockCipher.doFinal(input, inputOffset, inputLength);
+            }
+        catch (RuntimeException ex) // BC signals ciphertext values beyond the modulus with a DataLengthException
+            {
+            throw new BadPaddingException(ex.getMessage());
+            }
+        try
+            {
+            if (plain.length > outputLength)
+                throw new BadPaddingException();
+            int leadingZeroes = outputLength - plain.length;
+            Arrays.fill(output, outputOffset, outputOffset + leadingZeroes, (byte) 0x00);
+            System.arraycopy(plain, 0, output, outputOffset + leadingZeroes, plain.length);
+            }
+        finally
+            {
+            Arrays.fill(plain, (byte) 0x00);
+            }
+        return;
+        }
+
+    /**
+     * unwrap cipher exceptions tunneled through the channel interfaces.
+     */
+    private static void rethrowCipherFailure(IOException ex)
+            throws IllegalBlockSizeException, BadPaddingException, ShortBufferException
+        {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IllegalBlockSizeException)
+            throw (IllegalBlockSizeException) cause;
+        if (cause instanceof BadPaddingException)
+            throw (BadPaddingException) cause;
+        if (cause instanceof ShortBufferException)
+            throw (ShortBufferException) cause;
+        throw new IllegalStateException("unexpected I/O failure on in-memory buffers", ex);
+        }
+
+    /**
+     * takes IIP blocks of usable block size, and RSA-encrypts each into the output array.
+     */
+    private final class BlockEncryptingChannel implements WritableByteChannel
+    {
+        private final Cipher cipher;
+        private final byte[] output;
+        private int outputOffset;
+
+        BlockEncryptingChannel(Cipher cipher, byte[] output)
+            {
+            this.cipher = cipher;
+            this.output = output;
+            this.outputOffset = 0;
+            }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+            {
+            final int usable_blocksize = algorithmSpec.getUsableBlockSize();
+            assert (src.hasArray()); // the streaming padding uses heap buffers
+            assert (src.remaining() % usable_blocksize == 0);
+            int count = 0;
+            try
+                {
+                while (src.remaining() >= usable_blocksize)
+                    {
+                    int inputOffset = src.arrayOffset()+src.position();
+                    cipher.doFinal(src.array(), inputOffset, usable_blocksize, output, outputOffset); // different blocksizes. Details matter.
+                    Arrays.fill(src.array(), inputOffset, inputOffset+usable_blocksize, (byte) 0x00); // cleanup as far as possible
+                    src.position(src.position()+usable_blocksize);
+                    outputOffset += algorithmSpec.getCipherBlockSize();
+                    count += usable_blocksize;
+                    }
+                }
+            catch (IllegalBlockSizeException|BadPaddingException|ShortBufferException ex)
+                {
+                throw new IOException(ex);
+                }
+            return count;
+            }
+
+        @Override
+        public boolean isOpen()
+            {
+            return true;
+            }
+
+        @Override
+        public void close()
+            {
+            return;
+            }
+    }
+
+    /**
+     * RSA-decrypts the input array block by block, into a block-sized scratch buffer, on demand.
+     */
+    private final class BlockDecryptingChannel implements ReadableByteChannel
+    {
+        private final Cipher cipher;
+        private final byte[] input;
+        private final byte[] block;
+        private int inputOffset;
+        private int blockOffset;
+
+        BlockDecryptingChannel(Cipher cipher, byte[] input)
+            {
+            this.cipher = cipher;
+            this.input = input;
+            this.block = new byte[algorithmSpec.getUsableBlockSize()];
+            this.inputOffset = 0;
+            this.blockOffset = block.length; // nothing decrypted yet
+            }
+
+        /**
+         * decrypt the first block, so it can be inspected before reading.
+         * @return false if there is no input at all.
+         */
+        boolean prefetchFirstBlock() throws IOException
+            {
+            return decryptNextBlock();
+            }
+
+        private boolean decryptNextBlock() throws IOException
+            {
+            final int RSA_blocksize = algorithmSpec.getCipherBlockSize();
+            if (inputOffset >= input.length)
+                return false;
+            try
+                {
+                decryptBlock(cipher, input, inputOffset, RSA_blocksize, block, 0, block.length);
+                }
+            catch (IllegalBlockSizeException|BadPaddingException ex)
+                {
+                throw new IOException(ex);
+                }
+            inputOffset += RSA_blocksize;
+            blockOffset = 0;
+            return true;
+            }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+            {
+            int count = 0;
+            while (dst.hasRemaining())
+                {
+                if ((blockOffset == block.length) && (decryptNextBlock() == false))
+                    break;
+                int chunk = Math.min(dst.remaining(), block.length-blockOffset);
+                dst.put(block, blockOffset, chunk);
+                blockOffset += chunk;
+                count += chunk;
+                }
+            return ((count == 0) && (inputOffset >= input.length)) ? -1 : count;
+            }
+
+        @Override
+        public boolean isOpen()
+            {
+            return true;
+            }
+
+        @Override
+        public void close()
+            {
+            return;
+            }
+    }
+
+    /**
+     * writes into a fixed-size array.
+     */
+    private static final class ByteArrayChannel implements WritableByteChannel
+    {
+        private final ByteBuffer target;
+
+        ByteArrayChannel(byte[] target)
+            {
+            this.target = ByteBuffer.wrap(target);
+            }
+
+        @Override
+        public int write(ByteBuffer src)
+            {
+            int count = src.remaining();
+            target.put(src); // BufferOverflowException if the validation would hand out more than announced
+            return count;
+            }
+
+        @Override
+        public boolean isOpen()
+            {
+            return true;
+            }
+
+        @Override
+        public void close()
+            {
+            return;
+            }
+    }
+
     // not used with RSA
     /**
      * <p>getSymmetricIV.</p>
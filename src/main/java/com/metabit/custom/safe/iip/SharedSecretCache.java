@@ -0,0 +1,230 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.iip;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * cache for raw ECDH shared secrets, so a sender/recipient pair sealing many messages pays for the
+ * scalar multiplication once; per message, only the KDF hash with the key diversification remains.
+ * <p>
+ * Entries are keyed by the private key and the list of public keys, compared with the keys' own equals().
+ * The cache is bounded, least recently used entries are evicted first; entries expire a fixed time after
+ * they were created, no matter how often they are used. Secrets are zeroed when evicted, expired or cleared,
+ * and never leave the cache: they are fed into the caller's KDF directly.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class SharedSecretCache
+{
+    /** default maximum number of entries. */
+    public static final int      DEFAULT_MAX_ENTRIES = 1024;
+    /** default time to live of an entry. */
+    public static final Duration DEFAULT_TTL         = Duration.ofMinutes(10);
+
+    private static final SharedSecretCache SHARED_INSTANCE = new SharedSecretCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+
+    private final int                              maxEntries;
+    private final long                             ttlNanos;
+    private final LinkedHashMap<KeyPairing, Secret> entries;
+    private final LongAdder                        hits        = new LongAdder();
+    private final LongAdder                        misses      = new LongAdder();
+    private final LongAdder                        evictions   = new LongAdder();
+    private final LongAdder                        expirations = new LongAdder();
+
+    /**
+     * computes the raw shared secret on a cache miss.
+     */
+    @FunctionalInterface
+    interface SecretComputation
+    {
+        byte[] compute() throws InvalidKeyException;
+    }
+
+    /**
+     * get the instance used when no other has been configured.
+     *
+     * @return the shared instance
+     */
+    public static SharedSecretCache getSharedInstance()
+        {
+        return SHARED_INSTANCE;
+        }
+
+    /**
+     * constructor.
+     *
+     * @param maxEntries maximum number of secrets kept, at least 1.
+     * @param ttl        time after which an entry is discarded; must be positive.
+     */
+    public SharedSecretCache(final int maxEntries, final Duration ttl)
+        {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("invalid maximum number of entries");
+        if ((ttl == null) || ttl.isNegative() || ttl.isZero())
+            throw new IllegalArgumentException("invalid time to live");
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) // access order, for LRU eviction
+            {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<KeyPairing, Secret> eldest)
+                {
+                if (size() <= SharedSecretCache.this.maxEntries)
+                    return false;
+                eldest.getValue().destroy();
+                evictions.increment();
+                return true;
+                }
+            };
+        }
+
+    /**
+     * feed the shared secret of the given keys into the KDF; from the cache if possible, computed otherwise.
+     *
+     * @param kdf         digest to update with the secret
+     * @param privateKey  our private key
+     * @param publicKeys  the other side's public keys, in the order they enter the key agreement
+     * @param computation key agreement to run on a cache miss
+     * @throws InvalidKeyException from the key agreement
+     */
+    void update(final MessageDigest kdf, final PrivateKey privateKey, final PublicKey[] publicKeys, final SecretComputation computation)
+            throws InvalidKeyException
+        {
+        final KeyPairing pairing = new KeyPairing(privateKey, publicKeys);
+        synchronized (entries)
+            {
+            Secret cached = entries.get(pairing);
+            if (cached != null)
+                {
+                if (System.nanoTime()-cached.expiresAt < 0)
+                    {
+                    hits.increment();
+                    kdf.update(cached.bytes);
+                    return;
+                    }
+                entries.remove(pairing);
+                cached.destroy();
+                expirations.increment();
+                }
+            }
+        misses.increment();
+        // the key agreement is the expensive part; it runs outside the lock.
+        final byte[] secret = computation.compute();
+        kdf.update(secret);
+        synchronized (entries)
+            {
+            Secret previous = entries.put(pairing, new Secret(secret, System.nanoTime()+ttlNanos));
+            if (previous != null) // a concurrent miss was faster
+                previous.destroy();
+            }
+        }
+
+    /**
+     * discard all entries, zeroing their secrets; e.g. after a key has been revoked.
+     */
+    public void clear()
+        {
+        synchronized (entries)
+            {
+            for (Secret secret : entries.values())
+                secret.destroy();
+            entries.clear();
+            }
+        }
+
+    /**
+     * @return number of entries currently held, including expired ones not yet discarded.
+     */
+    public int size()
+        {
+        synchronized (entries)
+            {
+            return entries.size();
+            }
+        }
+
+    /**
+     * @return hits, misses, evictions, expirations since startup, and the current size; for monitoring.
+     */
+    public Map<String, Long> getMetrics()
+        {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("expirations", expirations.sum());
+        metrics.put("size", (long) size());
+        return metrics;
+        }
+
+    /**
+     * @return maximum number of entries.
+     */
+    public int getMaxEntries()
+        { return maxEntries; }
+
+    /**
+     * @return time to live of an entry.
+     */
+    public Duration getTtl()
+        { return Duration.ofNanos(ttlNanos); }
+
+    private static final class Secret
+    {
+        final byte[] bytes;
+        final long   expiresAt; // System.nanoTime()
+
+        Secret(final byte[] bytes, final long expiresAt)
+            {
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+            }
+
+        void destroy()
+            { Arrays.fill(bytes, (byte) 0x00); }
+    }
+
+    // cache key: the key objects themselves; JCE keys implement equals() on their encoding.
+    private static final class KeyPairing
+    {
+        private final PrivateKey  privateKey;
+        private final PublicKey[] publicKeys;
+        private final int         hash;
+
+        KeyPairing(final PrivateKey privateKey, final PublicKey[] publicKeys)
+            {
+            this.privateKey = privateKey;
+            this.publicKeys = publicKeys.clone();
+            this.hash = 31*privateKey.hashCode()+Arrays.hashCode(this.publicKeys);
+            }
+
+        @Override
+        public boolean equals(final Object other)
+            {
+            if (this == other)
+                return true;
+            if (!(other instanceof KeyPairing))
+                return false;
+            KeyPairing that = (KeyPairing) other;
+            return (hash == that.hash) && privateKey.equals(that.privateKey) && Arrays.equals(publicKeys, that.publicKeys);
+            }
+
+        @Override
+        public int hashCode()
+            { return hash; }
+    }
+}
+//___EOF___
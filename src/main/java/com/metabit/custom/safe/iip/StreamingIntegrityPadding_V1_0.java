@@ -0,0 +1,433 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.iip;
+
+import com.metabit.custom.safe.iip.shared.DefaultRandomnessProvider;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
+
+import javax.crypto.BadPaddingException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static com.metabit.custom.safe.iip.InterleavedIntegrityPadding_V1_0.*;
+import static com.metabit.custom.safe.iip.SharedCode.compareBytes;
+import static com.metabit.custom.safe.iip.SharedCode.get4ByteUnsignedIntFromBuffer;
+
+/**
+ * streaming variant of the Integrity Padding with Nonce process.
+ * <p>
+ * produces and validates the very same wire format as {@link InterleavedIntegrityPadding_V1_0},
+ * but reads and writes through channels, using fixed-size working buffers.
+ * memory use is constant regardless of payload size.
+ * <p>
+ * implementation limitations:
+ * - the payload length is limited by the 4-byte length field of the header block (4 GB-1),
+ *   not by the Java array size.
+ * - the payload length must be known before the first block is written, since it is part of the header block.
+ * - the streaming validator cannot withhold the payload until all checks are done.
+ *   payload data written to the output before a BadPaddingException is thrown must be discarded by the caller.
+ * - channels are expected to be blocking.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class StreamingIntegrityPadding_V1_0
+{
+    /**
+     * constructor, using the default working buffer size.
+     *
+     * @param cipherBlockSize size of the cipher blocks, in byte. see {@link InterleavedIntegrityPadding_V1_0}.
+     */
+    public StreamingIntegrityPadding_V1_0(int cipherBlockSize)
+        {
+        this(cipherBlockSize, DEFAULT_BLOCKS_PER_BUFFER);
+        }
+
+    /**
+     * constructor.
+     *
+     * @param cipherBlockSize size of the cipher blocks, in byte. see {@link InterleavedIntegrityPadding_V1_0}.
+     * @param blocksPerBuffer number of cipher blocks the working buffers hold. 1 is the minimum.
+     */
+    public StreamingIntegrityPadding_V1_0(int cipherBlockSize, int blocksPerBuffer)
+        {
+        this(cipherBlockSize, blocksPerBuffer, DefaultRandomnessProvider.getSharedInstance());
+        }
+
+    /**
+     * constructor.
+     *
+     * @param cipherBlockSize size of the cipher blocks, in byte. see {@link InterleavedIntegrityPadding_V1_0}.
+     * @param blocksPerBuffer number of cipher blocks the working buffers hold. 1 is the minimum.
+     * @param randomness      source of random data for nonces and padding bytes.
+     */
+    public StreamingIntegrityPadding_V1_0(int cipherBlockSize, int blocksPerBuffer, final RandomnessProvider randomness)
+        {
+        if (cipherBlockSize<NONCE_SIZE+PAYLOAD_LENGTH_SIZE+1) // same restriction as the array-based variant
+            throw new IllegalArgumentException("cipher block size too small");
+        if (blocksPerBuffer<1)
+            throw new IllegalArgumentException("working buffer must hold at least one block");
+        this.cipherBlockSize = cipherBlockSize;
+        this.payloadBytesPerBlock = cipherBlockSize-NONCE_SIZE;
+        this.workingBufferSize = Math.multiplyExact(cipherBlockSize, blocksPerBuffer);
+        this.randomness = randomness;
+        }
+
+    /**
+     * perform the Integrity Padding on a stream of payload data.
+     *
+     * @param input         channel to read the payload from. exactly payloadLength bytes are read.
+     * @param payloadLength number of payload bytes; this goes into the header block.
+     * @param output        channel to write the padded blocks to.
+     * @return number of bytes written; equal to {@link #calculateNumberOfBytesOverall(long, int)}.
+     * @throws java.io.IOException  on channel errors, or EOFException if the input ends before payloadLength bytes were read.
+     */
+    public long performPadding(final ReadableByteChannel input, final long payloadLength, final WritableByteChannel output)
+            throws IOException
+        {
+        if ((payloadLength<0)||(payloadLength>MAX_PAYLOAD_LENGTH))
+            throw new IllegalArgumentException("payload length out of range, maximum size in byte is "+MAX_PAYLOAD_LENGTH);
+        final long bytesOverall = calculateNumberOfBytesOverall(payloadLength, cipherBlockSize);
+        ByteBuffer work = ByteBuffer.allocate(workingBufferSize);
+        work.order(ByteOrder.BIG_ENDIAN); // network byte order defined.
+        byte[] randomBytes = new byte[cipherBlockSize];
+        long bytesWritten = 0;
+
+        // prepare the protection nonce
+        byte[] nonce = new byte[NONCE_SIZE];
+        randomness.nextBytes(nonce);
+        long nonceWithCounter = get4ByteUnsignedIntFromBuffer(nonce, 0);
+
+        // heading ("header") block: ID, R0 padding, nonce, payload length.
+        int idSizeUsed = calculateIDsizeUsed(cipherBlockSize);
+        work.put(MAGIC_ID_VERSION_1_0, 0, idSizeUsed);
+        putRandomBytes(work, cipherBlockSize-(idSizeUsed+NONCE_SIZE+PAYLOAD_LENGTH_SIZE), randomBytes);
+        work.put(nonce);
+        work.putInt((int) payloadLength); // unsigned on the wire
+        assert (work.position()==cipherBlockSize);
+
+        // data blocks: counter first, then payload; the last one padded with random data.
+        long remaining = payloadLength;
+        while (remaining>0)
+            {
+            if (work.remaining()<cipherBlockSize)
+                bytesWritten += flush(work, output);
+            nonceWithCounter++; // pre-increment (not post)
+            work.putInt((int) (nonceWithCounter&0x0FFFFFFFFL));
+            int chunk = (int) Math.min(remaining, payloadBytesPerBlock);
+            readFully(input, work, chunk);
+            remaining -= chunk;
+            putRandomBytes(work, payloadBytesPerBlock-chunk, randomBytes);
+            }
+
+        // perfect match means trailing block
+        if (payloadLength%payloadBytesPerBlock==0)
+            {
+            if (work.remaining()<cipherBlockSize)
+                bytesWritten += flush(work, output);
+            nonceWithCounter++;
+            work.putInt((int) (nonceWithCounter&0x0FFFFFFFFL));
+            putRandomBytes(work, payloadBytesPerBlock, randomBytes);
+            }
+
+        // the array-based variant allocates calculateNumberOfBytesOverall() bytes, and leaves the block
+        // it does not fill zeroed. we have to reproduce that to produce the same number of blocks.
+        int zeroTail = Math.toIntExact(bytesOverall-(bytesWritten+work.position()));
+        if (zeroTail>0)
+            {
+            if (work.remaining()<zeroTail)
+                bytesWritten += flush(work, output);
+            Arrays.fill(work.array(), work.arrayOffset()+work.position(), work.arrayOffset()+work.position()+zeroTail, (byte) 0);
+            work.position(work.position()+zeroTail);
+            }
+        bytesWritten += flush(work, output);
+        assert (bytesWritten==bytesOverall);
+        return bytesWritten;
+        }
+
+    /**
+     * convenience variant of {@link #performPadding(ReadableByteChannel, long, WritableByteChannel)} for streams.
+     *
+     * @param input         stream to read the payload from. exactly payloadLength bytes are read; the stream is not closed.
+     * @param payloadLength number of payload bytes
+     * @param output        stream to write the padded blocks to; it is not closed.
+     * @return number of bytes written
+     * @throws java.io.IOException on stream errors
+     */
+    public long performPadding(final InputStream input, final long payloadLength, final OutputStream output)
+            throws IOException
+        {
+        return performPadding(Channels.newChannel(input), payloadLength, Channels.newChannel(output));
+        }
+
+    /**
+     * variant of {@link #performPadding(ReadableByteChannel, long, WritableByteChannel)} for payload already in memory.
+     * each payload byte is copied exactly once, into the block it is sent in.
+     *
+     * @param input  payload data, from its position to its limit. The position is advanced to the limit.
+     * @param output channel to write the padded blocks to.
+     * @return number of bytes written
+     * @throws java.io.IOException on channel errors
+     */
+    public long performPadding(final ByteBuffer input, final WritableByteChannel output)
+            throws IOException
+        {
+        return performPadding(new ByteBufferChannel(input), input.remaining(), output);
+        }
+
+    /**
+     * validate the Integrity Padding on a stream of padded data, and extract the payload.
+     * <p>
+     * reads the input up to its end; data following the last relevant block is ignored,
+     * just as with {@link InterleavedIntegrityPadding_V1_0#checkAndExtract(byte[])}.
+     *
+     * @param input  channel to read the padded data from.
+     * @param output channel to write the payload to. Its contents must be discarded if an exception is thrown.
+     * @return number of payload bytes written.
+     * @throws java.io.IOException                on channel errors.
+     * @throws javax.crypto.BadPaddingException   in all cases where the validation fails.
+     * @throws java.lang.IllegalArgumentException if the input size is not a multiple of the cipher block size.
+     */
+    public long checkAndExtract(final ReadableByteChannel input, final WritableByteChannel output)
+            throws IOException, BadPaddingException
+        {
+        ByteBuffer in = ByteBuffer.allocate(workingBufferSize);
+        in.order(ByteOrder.BIG_ENDIAN);
+        in.flip(); // start empty, in read mode
+        ByteBuffer out = ByteBuffer.allocate(workingBufferSize);
+        int idLengthExpected = calculateIDsizeUsed(cipherBlockSize);
+        int numHeaderPaddingBytes = cipherBlockSize-(idLengthExpected+NONCE_SIZE+PAYLOAD_LENGTH_SIZE);
+        byte[] id = new byte[idLengthExpected];
+        boolean success = true;
+
+        // 1. header block
+        if (nextBlock(input, in)==false)
+            throw new BadPaddingException();
+        in.get(id);
+        in.position(in.position()+numHeaderPaddingBytes); // skip R0
+        long nonceCounter = Integer.toUnsignedLong(in.getInt());
+        long payloadLength = Integer.toUnsignedLong(in.getInt());
+
+        // 2. check ID
+        if (compareBytes(id, 0, MAGIC_ID_VERSION_1_0, 0, idLengthExpected)==false)
+            success = false;
+
+        // 3. loop through all expected blocks
+        long expectedPayloadBlocks = (payloadLength+payloadBytesPerBlock-1)/payloadBytesPerBlock;
+        long remaining = payloadLength;
+        for (long i = 0; i<expectedPayloadBlocks; i++)
+            {
+            if (nextBlock(input, in)==false)
+                throw new BadPaddingException(); // input shorter than the length announced
+            nonceCounter++;
+            if (Integer.toUnsignedLong(in.getInt())!=(nonceCounter&0x0FFFFFFFFL))
+                success = false; // foil timing attacks here by not exiting right away.
+            int chunk = (int) Math.min(remaining, payloadBytesPerBlock);
+            if (out.remaining()<chunk)
+                flush(out, output);
+            int blockEnd = in.position()+payloadBytesPerBlock;
+            int limit = in.limit();
+            in.limit(in.position()+chunk);
+            out.put(in);
+            in.limit(limit);
+            in.position(blockEnd); // skip padding in the last block
+            remaining -= chunk;
+            }
+
+        // 4. trailing block, if the payload filled the last data block completely
+        if (payloadLength%payloadBytesPerBlock==0)
+            {
+            if (nextBlock(input, in)==false)
+                throw new BadPaddingException();
+            nonceCounter++;
+            if (Integer.toUnsignedLong(in.getInt())!=(nonceCounter&0x0FFFFFFFFL))
+                success = false;
+            in.position(in.position()+payloadBytesPerBlock); // omit/ignore trailing random data.
+            }
+        flush(out, output);
+
+        // 5. consume whatever follows; block alignment is still required.
+        while (nextBlock(input, in))
+            in.position(in.position()+cipherBlockSize);
+
+        // 6. result: OK or failure.
+        if (success!=true)
+            throw new BadPaddingException();
+        return payloadLength;
+        }
+
+    /**
+     * convenience variant of {@link #checkAndExtract(ReadableByteChannel, WritableByteChannel)} for streams.
+     *
+     * @param input  stream to read the padded data from; it is read to its end, but not closed.
+     * @param output stream to write the payload to; it is not closed.
+     * @return number of payload bytes written.
+     * @throws java.io.IOException              on stream errors.
+     * @throws javax.crypto.BadPaddingException in all cases where the validation fails.
+     */
+    public long checkAndExtract(final InputStream input, final OutputStream output)
+            throws IOException, BadPaddingException
+        {
+        return checkAndExtract(Channels.newChannel(input), Channels.newChannel(output));
+        }
+
+    /**
+     * calculate the padded size, for payload lengths beyond the Java array limit.
+     *
+     * @param payloadLengthInBytes how many bytes of payload data are to be protected and encrypted
+     * @param cipherBlockSize      how many bytes fit in a crypto algorithm block
+     * @return the number of bytes the padded data will take, in byte
+     */
+    public static long calculateNumberOfBytesOverall(final long payloadLengthInBytes, final int cipherBlockSize)
+        {
+        long payloadBytesPerBlock = cipherBlockSize-NONCE_SIZE;
+        long numberOfDataBlocks = (payloadLengthInBytes+NONCE_SIZE+payloadBytesPerBlock-1)/payloadBytesPerBlock;
+        return (long) cipherBlockSize*(1+numberOfDataBlocks); // header block + data blocks
+        }
+
+//------------------------------------------------------------------------------------------------------------------
+// support functions
+
+    /**
+     * place random bytes into the buffer.
+     *
+     * @param bb      buffer to write to
+     * @param count   number of bytes, at most one block
+     * @param scratch block-sized scratch array
+     */
+    private void putRandomBytes(ByteBuffer bb, int count, byte[] scratch)
+        {
+        if (count<=0)
+            return;
+        randomness.nextBytes(scratch, 0, count);
+        bb.put(scratch, 0, count);
+        return;
+        }
+
+    /**
+     * read exactly count bytes from the channel into the buffer.
+     */
+    private static void readFully(ReadableByteChannel input, ByteBuffer bb, int count) throws IOException
+        {
+        int limit = bb.limit();
+        bb.limit(bb.position()+count);
+        try
+            {
+            while (bb.hasRemaining())
+                {
+                if (input.read(bb)<0)
+                    throw new EOFException("payload shorter than announced");
+                }
+            }
+        finally
+            {
+            bb.limit(limit);
+            }
+        return;
+        }
+
+    /**
+     * write the buffer contents to the channel, and clear the buffer for the next round.
+     *
+     * @return number of bytes written
+     */
+    private static int flush(ByteBuffer bb, WritableByteChannel output) throws IOException
+        {
+        bb.flip();
+        int count = bb.remaining();
+        while (bb.hasRemaining())
+            output.write(bb);
+        bb.clear();
+        return count;
+        }
+
+    /**
+     * make sure at least one full block is available for reading in the buffer.
+     *
+     * @return true if a block is available, false at the end of the input.
+     * @throws java.lang.IllegalArgumentException if the input ends within a block.
+     */
+    private boolean nextBlock(ReadableByteChannel input, ByteBuffer bb) throws IOException
+        {
+        if (bb.remaining()>=cipherBlockSize)
+            return true;
+        bb.compact();
+        try
+            {
+            while (bb.position()<cipherBlockSize)
+                {
+                if (input.read(bb)<0)
+                    break;
+                }
+            }
+        finally
+            {
+            bb.flip();
+            }
+        if (bb.remaining()==0)
+            return false;
+        if (bb.remaining()<cipherBlockSize)
+            throw new IllegalArgumentException("input size invalid");
+        return true;
+        }
+
+    /**
+     * minimal channel reading from a ByteBuffer.
+     */
+    private static final class ByteBufferChannel implements ReadableByteChannel
+    {
+        private final ByteBuffer source;
+
+        ByteBufferChannel(ByteBuffer source)
+            {
+            this.source = source;
+            }
+
+        @Override
+        public int read(ByteBuffer dst)
+            {
+            if (source.hasRemaining()==false)
+                return -1;
+            int count = Math.min(dst.remaining(), source.remaining());
+            int limit = source.limit();
+            source.limit(source.position()+count);
+            dst.put(source);
+            source.limit(limit);
+            return count;
+            }
+
+        @Override
+        public boolean isOpen()
+            {
+            return true;
+            }
+
+        @Override
+        public void close()
+            {
+            return;
+            }
+    }
+
+    // --- class constants ---
+    /** largest payload the 4-byte length field can describe. */
+    public final static long MAX_PAYLOAD_LENGTH = 0x0FFFFFFFFL;
+    private final static int DEFAULT_BLOCKS_PER_BUFFER = 256;
+    // --- class member variables ---
+    private final RandomnessProvider randomness;
+    private final int payloadBytesPerBlock;
+    private final int cipherBlockSize;
+    private final int workingBufferSize;
+}
+//___EOF___
@@ -5,7 +5,9 @@
  */
 package com.metabit.custom.safe.iip;
 
+import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
 import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
 
 import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
@@ -23,8 +25,12 @@ import java.util.Arrays;
 public class SymmetricEncryptionWithIntegrityPadding
 {
     static final String[] CHAINING_WITHOUT_DIFFUSION = {"CFB", "OFB", "CTR", "GCM"};
-    private SecureRandom rng;
-    private Cipher cipher;
+    private RandomnessProvider randomness;
+    private Cipher cipher; // null if ciphers are leased per operation
+    private CryptoFactory cryptoFactory;
+    private AlgorithmSpec algorithmSpec;
+    private String algorithm;
+    private byte[] lastIV;
     private int    cipherBlockSize;
     private InterleavedIntegrityPadding_V1_0 integrityPaddingInstance;
 
@@ -37,6 +43,40 @@ public class SymmetricEncryptionWithIntegrityPadding
      */
     public SymmetricEncryptionWithIntegrityPadding(Cipher cipher, final CryptoFactory cryptoFactory)
             throws InvalidKeyException
+    {
+        check(cipher);
+        this.cipher = cipher;
+        init(cipher, cryptoFactory.getRandomnessProvider());
+    }
+
+    /**
+     * Constructor leasing a cipher from the factory for each operation, and handing it back afterwards.
+     *
+     * @param cryptoFactory a {@link CryptoFactory} cryptoFactory handle
+     * @param algorithmSpec the symmetric cipher to use
+     * @throws javax.crypto.NoSuchPaddingException if the cipher's padding is not available
+     * @throws java.security.NoSuchAlgorithmException if the cipher is not available
+     * @throws java.security.NoSuchProviderException if the crypto provider is not available
+     * @throws java.security.InvalidKeyException if key is invalid
+     */
+    public SymmetricEncryptionWithIntegrityPadding(final CryptoFactory cryptoFactory, final AlgorithmSpec algorithmSpec)
+            throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException
+    {
+        this.cryptoFactory = cryptoFactory;
+        this.algorithmSpec = algorithmSpec;
+        Cipher leased = cryptoFactory.leaseCipher(algorithmSpec);
+        try
+            {
+            check(leased);
+            init(leased, cryptoFactory.getRandomnessProvider());
+            }
+        finally
+            {
+            cryptoFactory.releaseCipher(algorithmSpec, leased);
+            }
+    }
+
+    private static void check(final Cipher cipher)
     {
         // safety check for "bad" chaining. will not catch all bad ones, but the most common-
         String cipherSpec = cipher.getAlgorithm();
@@ -47,24 +87,50 @@ public class SymmetricEncryptionWithIntegrityPadding
         if (blockSize !=  16)
             throw new UnsupportedOperationException("this implementation is optimised for blocksize 16");
         // current implementation is tuned for an extra block at start
-        init(cipher);
     }
 
 
-    private void init(Cipher cipher) throws InvalidKeyException
+    private void init(Cipher cipher, final RandomnessProvider randomness) throws InvalidKeyException
         {
         this.cipherBlockSize = cipher.getBlockSize();
-        this.cipher = cipher;
-        this.integrityPaddingInstance = new InterleavedIntegrityPadding_V1_0(cipherBlockSize);
-        this.rng = new SecureRandom();
+        this.algorithm = cipher.getAlgorithm();
+        this.integrityPaddingInstance = new InterleavedIntegrityPadding_V1_0(cipherBlockSize, randomness);
+        this.randomness = randomness;
         //@IMPROVEMENT dynamic IV size, according to cipher?
         }
 
     byte[] encryptOnly(final byte[] dataToEncrypt, final SecretKey secretKey)
             throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException
         {
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, rng); // will create its own iv, and we have to retrieve it later with cipher.getIV();
-        return cipher.doFinal(dataToEncrypt);
+        final Cipher cipher = acquire();
+        try
+            {
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, randomness.getSecureRandom()); // will create its own iv, kept for getIV()
+            final byte[] encrypted = cipher.doFinal(dataToEncrypt);
+            lastIV = cipher.getIV();
+            return encrypted;
+            }
+        finally
+            {
+            release(cipher);
+            }
+        }
+
+    // the constructor has instantiated the spec once already, so a failure here is a problem of the environment.
+    private Cipher acquire()
+        {
+        if (cipher != null)
+            return cipher;
+        try
+            { return cryptoFactory.leaseCipher(algorithmSpec); }
+        catch (GeneralSecurityException ex)
+            { throw new IllegalStateException("could not get cipher for "+algorithmSpec, ex); }
+        }
+
+    private void release(final Cipher leased)
+        {
+        if (leased != cipher)
+            cryptoFactory.releaseCipher(algorithmSpec, leased);
         }
 
     //------------------------------------------------------------------------------------------------------------------
@@ -87,12 +153,13 @@ public class SymmetricEncryptionWithIntegrityPadding
         }
     /**
      * <p>getIV.</p>
+     * returns the IV used by the last encryption.
      *
      * @return an array of {@link byte} objects
      */
     public byte[] getIV()
         {
-        return cipher.getIV();
+        return lastIV;
         }
 
     //---
@@ -113,16 +180,25 @@ public class SymmetricEncryptionWithIntegrityPadding
             throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
                    BadPaddingException
         {
-        if (iv != null)
+        final Cipher cipher = acquire();
+        byte[] decryptedData;
+        try
             {
-            final IvParameterSpec ivPS = new IvParameterSpec(iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivPS); // will create its own iv, and we have to retrieve it later with cipher.getIV();
+            if (iv != null)
+                {
+                final IvParameterSpec ivPS = new IvParameterSpec(iv);
+                cipher.init(Cipher.DECRYPT_MODE, secretKey, ivPS);
+                }
+            else
+                {
+                cipher.init(Cipher.DECRYPT_MODE,secretKey);
+                }
+            decryptedData = cipher.doFinal(input);
             }
-        else
+        finally
             {
-            cipher.init(Cipher.DECRYPT_MODE,secretKey);
+            release(cipher);
             }
-        byte[] decryptedData = cipher.doFinal(input);
         byte[] payloadData = integrityPaddingInstance.checkAndExtract(decryptedData);
         return payloadData;
         }
@@ -133,7 +209,7 @@ public class SymmetricEncryptionWithIntegrityPadding
      * @return a {@link java.lang.String} object
      */
     public String getAlgorithm()
-        { return this.cipher.getAlgorithm(); }
+        { return this.algorithm; }
 }
 //___EOF___
 
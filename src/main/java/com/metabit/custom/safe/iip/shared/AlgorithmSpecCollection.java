@@ -46,6 +46,9 @@ public class AlgorithmSpecCollection {
     /** Constant <code>ECDH</code> */
     public static final AlgorithmSpec ECDH = new AlgorithmSpec(SharedConstants.OID_ECDH_ALGORITHM, "ECDH",
 	    AlgorithmSpec.Type.KEY_AGREEMENT);
+    /** Constant <code>X25519</code>; the curve is implied, there is no separate curve OID. */
+    public static final AlgorithmSpec X25519 = new AlgorithmSpec(SharedConstants.OID_X25519_ALGORITHM, "X25519",
+	    AlgorithmSpec.Type.KEY_AGREEMENT);
     /** Constant <code>ECSECP256R1</code> */
     public static final AlgorithmSpec ECSECP256R1 = new AlgorithmSpec(SharedConstants.OID_EC_NAMED_CURVE_SECP256R1,
 	    "secp256r1", AlgorithmSpec.Type.ELLIPTIC_CURVE, true, 0, 0, 0); // EC @TODO additional parmeters?
@@ -59,6 +62,9 @@ public class AlgorithmSpecCollection {
     /** Constant <code>COMPRESSION_GZIP</code> */
     public static final AlgorithmSpec COMPRESSION_GZIP = new AlgorithmSpec(SharedConstants.OID_COMPRESSION_GZIP, "gzip",
 	    AlgorithmSpec.Type.COMPRESSION);
+    /** Constant <code>COMPRESSION_DEFLATE_DICTIONARY</code> */
+    public static final AlgorithmSpec COMPRESSION_DEFLATE_DICTIONARY = new AlgorithmSpec(
+	    SharedConstants.OID_COMPRESSION_DEFLATE_DICTIONARY, "deflate with preset dictionary", AlgorithmSpec.Type.COMPRESSION);
 
     /** Constant <code>AES256ECB</code> means AES/ECB/NoPadding */
     public static final AlgorithmSpec AES256ECB_PADDED = new AlgorithmSpec(SharedConstants.OID_AES_256_ECB_NOPAD,
@@ -103,7 +109,9 @@ public class AlgorithmSpecCollection {
 							      // is 2048.
 	algorithms.put(SharedConstants.OID_COMPRESSION_NONE, COMPRESSION_NONE);
 	algorithms.put(SharedConstants.OID_COMPRESSION_GZIP, COMPRESSION_GZIP);
+	algorithms.put(SharedConstants.OID_COMPRESSION_DEFLATE_DICTIONARY, COMPRESSION_DEFLATE_DICTIONARY);
 	algorithms.put(SharedConstants.OID_ECDH_ALGORITHM, ECDH);
+	algorithms.put(SharedConstants.OID_X25519_ALGORITHM, X25519);
 	// all supported algorithms must be specified here, lest they fail
 	// parse/validation.
 	algorithms.put(SharedConstants.OID_EC_NAMED_CURVE_SECP256R1, ECSECP256R1);
@@ -8,6 +8,7 @@ package com.metabit.custom.safe.iip.shared;
 import org.bouncycastle.crypto.params.ECDomainParameters;
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
 import javax.crypto.NoSuchPaddingException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -32,6 +33,60 @@ public interface CryptoFactory
      */
     Cipher getCipherFromCipherSpec(AlgorithmSpec algorithmSpec) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException;
 
+    /**
+     * lease a cipher instance for short-term use by a single thread.
+     * The instance must be initialised before use, and should be handed back with {@link #releaseCipher(AlgorithmSpec, Cipher)}.
+     * Implementations may reuse instances; the default implementation creates a new one every time.
+     *
+     * @param algorithmSpec a {@link com.metabit.custom.safe.iip.shared.AlgorithmSpec} object
+     * @return a {@link javax.crypto.Cipher} object
+     * @throws javax.crypto.NoSuchPaddingException if any.
+     * @throws java.security.NoSuchAlgorithmException if any.
+     * @throws java.security.NoSuchProviderException if any.
+     */
+    default Cipher leaseCipher(AlgorithmSpec algorithmSpec) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+        {
+        return getCipherFromCipherSpec(algorithmSpec);
+        }
+
+    /**
+     * hand back a cipher obtained from {@link #leaseCipher(AlgorithmSpec)}.
+     * The caller must not use the instance afterwards.
+     *
+     * @param algorithmSpec the specification the cipher was leased for
+     * @param cipher        the leased cipher instance
+     */
+    default void releaseCipher(AlgorithmSpec algorithmSpec, Cipher cipher)
+        {
+        return;
+        }
+
+    /**
+     * get the source of random data for nonces, padding bytes and ephemeral keys.
+     * The default implementation returns the shared {@link DefaultRandomnessProvider}.
+     *
+     * @return a {@link com.metabit.custom.safe.iip.shared.RandomnessProvider} object
+     */
+    default RandomnessProvider getRandomnessProvider()
+        {
+        return DefaultRandomnessProvider.getSharedInstance();
+        }
+
+    /**
+     * get a key agreement instance, e.g. for ECDH or X25519.
+     * The default implementation uses the JCE provider preference order.
+     *
+     * @param algorithmSpec a {@link com.metabit.custom.safe.iip.shared.AlgorithmSpec} object of type KEY_AGREEMENT
+     * @return a {@link javax.crypto.KeyAgreement} object, not initialised
+     * @throws java.security.NoSuchAlgorithmException if no provider supports the algorithm.
+     */
+    default KeyAgreement getKeyAgreement(AlgorithmSpec algorithmSpec) throws NoSuchAlgorithmException
+        {
+        if (algorithmSpec.getType() != AlgorithmSpec.Type.KEY_AGREEMENT)
+            throw new IllegalArgumentException("wrong type");
+        return KeyAgreement.getInstance(algorithmSpec.getName());
+        }
+
     /**
      * <p>getEllipticCurve.</p>
      *
@@ -0,0 +1,178 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.iip.shared;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>DefaultRandomnessProvider class.</p>
+ * Default implementation of {@link RandomnessProvider}.
+ * Every thread gets its own DRBG instance, seeded once; blocks for nonces and ephemeral keys
+ * are pre-generated by a background thread, which is started on demand and ends when idle.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class DefaultRandomnessProvider implements RandomnessProvider
+{
+    private static final int                       DEFAULT_PREFETCH_CAPACITY = 256; // blocks
+    private static final long                      REFILL_THREAD_KEEPALIVE_SECONDS = 30;
+    private static final DefaultRandomnessProvider SHARED_INSTANCE = new DefaultRandomnessProvider(DEFAULT_PREFETCH_CAPACITY);
+
+    private final ThreadLocal<SecureRandom> perThreadRandom;
+    private final BlockingQueue<byte[]>     prefetched;
+    private final int                       lowWaterMark;
+    private final AtomicBoolean             refillPending;
+    private final ThreadPoolExecutor        refiller;
+
+    /**
+     * get the instance shared by all classes not given a RandomnessProvider explicitly.
+     *
+     * @return the shared instance
+     */
+    public static DefaultRandomnessProvider getSharedInstance()
+        {
+        return SHARED_INSTANCE;
+        }
+
+    /**
+     * constructor.
+     *
+     * @param prefetchCapacity number of blocks to keep pre-generated; 0 turns pre-generation off.
+     */
+    public DefaultRandomnessProvider(final int prefetchCapacity)
+        {
+        if (prefetchCapacity < 0)
+            throw new IllegalArgumentException("prefetch capacity must not be negative");
+        perThreadRandom = ThreadLocal.withInitial(DefaultRandomnessProvider::createRandom);
+        refillPending = new AtomicBoolean(false);
+        if (prefetchCapacity == 0)
+            {
+            prefetched = null;
+            refiller = null;
+            lowWaterMark = 0;
+            }
+        else
+            {
+            prefetched = new ArrayBlockingQueue<>(prefetchCapacity);
+            lowWaterMark = Math.max(1, prefetchCapacity/4);
+            refiller = new ThreadPoolExecutor(1, 1, REFILL_THREAD_KEEPALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable->
+                {
+                Thread thread = new Thread(runnable, "randomness-prefetch");
+                thread.setDaemon(true);
+                return thread;
+                });
+            refiller.allowCoreThreadTimeOut(true);
+            }
+        }
+
+    @Override
+    public SecureRandom getSecureRandom()
+        {
+        return perThreadRandom.get();
+        }
+
+    @Override
+    public void nextBytes(byte[] target, final int offset, final int length)
+        {
+        if ((offset == 0) && (length == target.length))
+            {
+            perThreadRandom.get().nextBytes(target);
+            return;
+            }
+        byte[] temp = new byte[length];
+        perThreadRandom.get().nextBytes(temp);
+        System.arraycopy(temp, 0, target, offset, length);
+        Arrays.fill(temp, (byte) 0x00);
+        return;
+        }
+
+    @Override
+    public byte[] nextBlock()
+        {
+        byte[] block = null;
+        if (prefetched != null)
+            {
+            block = prefetched.poll();
+            if (prefetched.size() < lowWaterMark)
+                requestRefill();
+            }
+        if (block == null) // nothing pre-generated (yet); generate in the calling thread.
+            {
+            block = new byte[BLOCK_SIZE];
+            perThreadRandom.get().nextBytes(block);
+            }
+        return block;
+        }
+
+    /**
+     * get the number of blocks currently pre-generated.
+     *
+     * @return number of blocks available without generating.
+     */
+    public int getPrefetchedBlockCount()
+        {
+        return (prefetched == null) ? 0 : prefetched.size();
+        }
+
+    private void requestRefill()
+        {
+        if (!refillPending.compareAndSet(false, true))
+            return; // already on its way
+        try
+            {
+            refiller.execute(this::refill);
+            }
+        catch (RejectedExecutionException ex)
+            {
+            refillPending.set(false);
+            }
+        return;
+        }
+
+    // runs in the background thread, which gets its own DRBG from the ThreadLocal.
+    private void refill()
+        {
+        try
+            {
+            SecureRandom random = perThreadRandom.get();
+            while (prefetched.remainingCapacity() > 0)
+                {
+                byte[] block = new byte[BLOCK_SIZE];
+                random.nextBytes(block);
+                if (!prefetched.offer(block))
+                    break;
+                }
+            }
+        finally
+            {
+            refillPending.set(false);
+            }
+        return;
+        }
+
+    private static SecureRandom createRandom()
+        {
+        try
+            {
+            return SecureRandom.getInstance("DRBG");
+            }
+        catch (NoSuchAlgorithmException ex)
+            {
+            return new SecureRandom(); // platform default
+            }
+        }
+}
+//___EOF___
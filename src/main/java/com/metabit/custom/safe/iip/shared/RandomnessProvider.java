@@ -0,0 +1,59 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.iip.shared;
+
+import java.security.SecureRandom;
+
+/**
+ * <p>RandomnessProvider interface.</p>
+ * Source of cryptographically secure random data for nonces, padding bytes and ephemeral keys.
+ * Implementations must be thread-safe.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public interface RandomnessProvider
+{
+    /** size of the blocks returned by {@link #nextBlock()}, in byte. */
+    int BLOCK_SIZE = 16;
+
+    /**
+     * get a SecureRandom instance for use by the calling thread, e.g. for Cipher.init().
+     * It should not be handed to other threads.
+     *
+     * @return a {@link java.security.SecureRandom} object
+     */
+    SecureRandom getSecureRandom();
+
+    /**
+     * fill an entire array with random bytes.
+     *
+     * @param target array to fill
+     */
+    default void nextBytes(byte[] target)
+        {
+        getSecureRandom().nextBytes(target);
+        return;
+        }
+
+    /**
+     * fill a part of an array with random bytes.
+     *
+     * @param target array to fill
+     * @param offset offset to start at
+     * @param length number of bytes to fill
+     */
+    void nextBytes(byte[] target, int offset, int length);
+
+    /**
+     * get a fresh block of {@link #BLOCK_SIZE} random bytes, e.g. for a nonce or an AES-128 key.
+     * Every block is handed out once only; the caller owns it, and should clear it after use.
+     *
+     * @return new array of {@link #BLOCK_SIZE} random bytes
+     */
+    byte[] nextBlock();
+}
+//___EOF___
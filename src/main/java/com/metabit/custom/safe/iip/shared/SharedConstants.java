@@ -123,6 +123,8 @@ public final class SharedConstants
     public final static ASN1ObjectIdentifier OID_COMPRESSION_GZIP = new ASN1ObjectIdentifier("1.3.6.1.4.1.21876.1.1.1.1.2");
     /** Constant <code>OID_COMPRESSION_BROTLI</code> */
     public final static ASN1ObjectIdentifier OID_COMPRESSION_BROTLI = new ASN1ObjectIdentifier("1.3.6.1.4.1.21876.1.1.1.1.3");
+    /** Constant <code>OID_COMPRESSION_DEFLATE_DICTIONARY</code>: raw deflate with a preset dictionary, identified in the envelope */
+    public final static ASN1ObjectIdentifier OID_COMPRESSION_DEFLATE_DICTIONARY = new ASN1ObjectIdentifier("1.3.6.1.4.1.21876.1.1.1.1.4");
 
     // oracle provided, see oracle.security.crypto.cms
     final static ASN1ObjectIdentifier oracle_id_ct_compressedData = new ASN1ObjectIdentifier("1.2.840.113549.1.9.16.1.9");
@@ -170,6 +172,8 @@ public final class SharedConstants
     // supported OIDs, maintenance here.
     /** Constant <code>OID_ECDH_ALGORITHM</code> */
     public final static ASN1ObjectIdentifier OID_ECDH_ALGORITHM = new ASN1ObjectIdentifier("1.3.132.1.12");
+    /** Constant <code>OID_X25519_ALGORITHM</code>: id-X25519, RFC 8410; names both the key agreement and its curve */
+    public final static ASN1ObjectIdentifier OID_X25519_ALGORITHM = new ASN1ObjectIdentifier("1.3.101.110");
     // ECDSA and ECDH use the same OID; as per RFC 3279 2.3.5
     // placed under the ANSI X9 62 branch  at 1.2.840.10045
     /** Constant <code>OID_EC_PUBLIC_KEY_TYPE</code> */
@@ -188,6 +192,7 @@ public final class SharedConstants
     static
         {
         keyExchange.put(OID_ECDH_ALGORITHM, "ECDH"); // see RFC 6637; and RFC 5480 clause 2.1.2
+        keyExchange.put(OID_X25519_ALGORITHM, "X25519"); // see RFC 7748; and RFC 8410 clause 3
         // keyExchange.put(OIWObjectIdentifiers.elGamalAlgorithm, "ELGAMAL"); -- not valid yet, possible future extension
         }
 
@@ -7,6 +7,7 @@ package com.metabit.custom.safe.iip2;
 
 import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
 import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
 import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
 import lombok.NonNull;
 import org.bouncycastle.crypto.DataLengthException;
@@ -16,6 +17,9 @@ import javax.crypto.spec.IvParameterSpec;
 import java.security.*;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -33,12 +37,13 @@ public final class IntegrityPaddingSignature
     static final  int             LENGTH_SIZE     = 4; // 32 bit unsigned integer representation
     static final  int             SEQUENCE_SIZE   = 4; // 32 bit unsigned integer representation
     final private int             RSA_PREFIX_SIZE = 2;
-    private final SecureRandom    rng;
+    static final  int             TILE_SIZE       = 32*1024; // chunk size for the tiled cipher passes; small enough to stay in cache
+    private final RandomnessProvider randomness;
+    private final CryptoFactory   cf;
+    private final AlgorithmSpec   symmetricEncryptionSpec;
     private final IvParameterSpec constantSK1IV;
     private final IvParameterSpec constantSK2IV;
     private final IvParameterSpec constantSK3IV;
-    private final Cipher          symmetricCipher;
-    private final Cipher          asymmetricCipher;
     private final AlgorithmSpec   asymmetricEncryptionSpec;
     private final int             innerBlockSize;
     private final int             nonceSize;     // for fixed symmetric algorithm, constant
@@ -48,6 +53,8 @@ public final class IntegrityPaddingSignature
     //    public static final int             HEADER_SIZE     = MAGIC_ID.length+NONCE_SIZE+LENGTH_SIZE+SEQUENCE_SIZE;
     private final int outerBlockSize;
     private final int numPayloadBytesPerOuterBlock;
+    private volatile ForkJoinPool parallelPool;        // null: sequential decryption
+    private volatile int          parallelThresholdBytes;
 
     /**
      * constructor
@@ -61,16 +68,23 @@ public final class IntegrityPaddingSignature
     public IntegrityPaddingSignature(CryptoFactory cf, final CryptoSettingsStruct css)
             throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
         {
-        this.rng = new SecureRandom();
+        this.cf = cf;
+        this.randomness = cf.getRandomnessProvider();
         /* code for fixed implementation:
         asymmetric = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.RSA2048);
         symmetric = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
         int sBlockSize = 16;
         */
         asymmetricEncryptionSpec = css.getEncryption();
-        asymmetricCipher = cf.getCipherFromCipherSpec(asymmetricEncryptionSpec);
-        AlgorithmSpec symmetricEncryptionSpec = css.getSig1();
-        symmetricCipher = cf.getCipherFromCipherSpec(symmetricEncryptionSpec);
+        symmetricEncryptionSpec = css.getSig1();
+        // ciphers are leased from the factory per operation; instantiating them once here fails early on bad settings,
+        // and leaves one set in the factory's pool for the first operation.
+        Cipher asymmetricCipher = cf.leaseCipher(asymmetricEncryptionSpec);
+        Cipher symmetricCipher = cf.leaseCipher(symmetricEncryptionSpec);
+        Cipher chainedSymmetricCipher = cf.leaseCipher(symmetricEncryptionSpec);
+        cf.releaseCipher(asymmetricEncryptionSpec, asymmetricCipher);
+        cf.releaseCipher(symmetricEncryptionSpec, symmetricCipher);
+        cf.releaseCipher(symmetricEncryptionSpec, chainedSymmetricCipher);
         innerBlockSize = symmetricEncryptionSpec.getUsableBlockSize(); // for AES, this is 16. see C4.1 l_IC
         outerBlockSize = SharedCode.outerBlockSize(css); // for RSA, this depends on the key size. see C4.1 l_RSA
         // if (outerBlockSize % innerBlockSize != 0)
@@ -88,6 +102,24 @@ public final class IntegrityPaddingSignature
         constantSK3IV = new IvParameterSpec(iv);
         }
 
+    /**
+     * enable parallel AES-CBC decryption for large ciphertexts.
+     * CBC decryption of a block needs only that block and its predecessor, so the buffer is split
+     * into ranges, each decrypted by a worker with a cipher of its own, seeded with the last ciphertext
+     * block before its range as IV. The result is identical to sequential decryption.
+     * Encryption is not affected; CBC encryption is inherently sequential.
+     *
+     * @param pool           pool to run on; null disables parallel decryption (default).
+     * @param thresholdBytes minimum ciphertext size for parallel decryption to be used.
+     */
+    public void setParallelDecryption(final ForkJoinPool pool, final int thresholdBytes)
+        {
+        if (thresholdBytes < 1)
+            throw new IllegalArgumentException("threshold must be at least one byte");
+        this.parallelPool = pool;
+        this.parallelThresholdBytes = thresholdBytes;
+        }
+
 
     /**
      * perform protection process using encryption.
@@ -154,7 +186,14 @@ public final class IntegrityPaddingSignature
         int offset = 0;
         int numBytes;
         byte[] nonce = new byte[nonceSize];
-        rng.nextBytes(nonce); // C4.2(b)
+        if (nonceSize <= RandomnessProvider.BLOCK_SIZE) // C4.2(b); from the pre-generated blocks if it fits
+            {
+            byte[] block = randomness.nextBlock();
+            System.arraycopy(block, 0, nonce, 0, nonceSize);
+            Arrays.fill(block, (byte) 0x00);
+            }
+        else
+            randomness.nextBytes(nonce); // C4.2(b)
 
         offset += RSA_PREFIX_SIZE; // the subsequent operations, EXCEPT FOR RSA, ignore the leading bytes.
 
@@ -215,27 +254,40 @@ public final class IntegrityPaddingSignature
             throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
             ShortBufferException, InvalidAlgorithmParameterException
         {
+        Cipher symmetricCipher = lease(symmetricEncryptionSpec);
+        Cipher chainedSymmetricCipher = lease(symmetricEncryptionSpec);
+        Cipher asymmetricCipher = lease(asymmetricEncryptionSpec);
+        try
+            {
+            performEncryptionSteps(buffer, officialBufferSize, ourPrivateKey, sk1, sk2, sk3, symmetricCipher, chainedSymmetricCipher, asymmetricCipher);
+            }
+        finally
+            {
+            cf.releaseCipher(symmetricEncryptionSpec, symmetricCipher);
+            cf.releaseCipher(symmetricEncryptionSpec, chainedSymmetricCipher);
+            cf.releaseCipher(asymmetricEncryptionSpec, asymmetricCipher);
+            }
+        }
+
+    private void performEncryptionSteps(byte[] buffer, int officialBufferSize, PrivateKey ourPrivateKey, Key sk1, Key sk2, Key sk3,
+                                        Cipher symmetricCipher, Cipher chainedSymmetricCipher, Cipher asymmetricCipher)
+            throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+            ShortBufferException, InvalidAlgorithmParameterException
+        {
         int sBlockSize = symmetricCipher.getBlockSize();
 
         // steps 1-4 implement C4.2(e)
         // 1. perform AES-CBC encryption with SK1,IV1 over the *entire* data blocks, "SKE CBC"
-        symmetricCipher.init(Cipher.ENCRYPT_MODE, sk1, constantSK1IV, rng);
-        int step2 = symmetricCipher.doFinal(buffer, RSA_PREFIX_SIZE, officialBufferSize, buffer, RSA_PREFIX_SIZE); // supposed to be copy-safe
-        assert (step2 == officialBufferSize);
-
         // 2. perform AES-CBC encryption with SK2,IV2 over the *entire* data blocks. "SKE CBC"
-        symmetricCipher.init(Cipher.ENCRYPT_MODE, sk2, constantSK2IV, rng);
-        int step3 = symmetricCipher.doFinal(buffer, RSA_PREFIX_SIZE, officialBufferSize, buffer, RSA_PREFIX_SIZE); // supposed to be copy-safe
-        assert (step3 == officialBufferSize);
+        // block i of pass 2 needs only block i of pass 1, so both run in lockstep, tile by tile.
+        symmetricCipher.init(Cipher.ENCRYPT_MODE, sk1, constantSK1IV, randomness.getSecureRandom());
+        chainedSymmetricCipher.init(Cipher.ENCRYPT_MODE, sk2, constantSK2IV, randomness.getSecureRandom());
+        cipherInLockstep(symmetricCipher, chainedSymmetricCipher, buffer, RSA_PREFIX_SIZE, officialBufferSize);
 
-        // 3. revert order of AES blocks
-        // reverse buffer in sBlockSize chunks.
-        reverseBuffer(buffer, RSA_PREFIX_SIZE, officialBufferSize, sBlockSize);
-
-        // 4. perform AES-CBC encryption with SK3,IV3 over the *entire* data blocks
-        symmetricCipher.init(Cipher.ENCRYPT_MODE, sk3, constantSK3IV, rng);
-        int step4 = symmetricCipher.doFinal(buffer, RSA_PREFIX_SIZE, officialBufferSize, buffer, RSA_PREFIX_SIZE); // supposed to be copy-safe
-        assert (step4 == officialBufferSize);
+        // 3. revert order of AES blocks, and
+        // 4. perform AES-CBC encryption with SK3,IV3 over the *entire* data blocks - in one pass, reading the blocks in reverse order.
+        symmetricCipher.init(Cipher.ENCRYPT_MODE, sk3, constantSK3IV, randomness.getSecureRandom());
+        cipherOverReversedBlocks(symmetricCipher, null, buffer, RSA_PREFIX_SIZE, officialBufferSize, sBlockSize);
 
 
 
@@ -316,35 +368,185 @@ public final class IntegrityPaddingSignature
     private void performDecryptionSteps(final PublicKey rsaPubKey, final Key sk1, final Key sk2, final Key sk3, byte[] buffer, final int officialBufferSize, final int sBlockSize)
             throws InvalidKeyException, ShortBufferException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
         {
+        Cipher symmetricCipher = lease(symmetricEncryptionSpec);
+        Cipher chainedSymmetricCipher = lease(symmetricEncryptionSpec);
+        Cipher asymmetricCipher = lease(asymmetricEncryptionSpec);
+        try
+            {
+            performDecryptionSteps(rsaPubKey, sk1, sk2, sk3, buffer, officialBufferSize, sBlockSize, symmetricCipher, chainedSymmetricCipher, asymmetricCipher);
+            }
+        finally
+            {
+            cf.releaseCipher(symmetricEncryptionSpec, symmetricCipher);
+            cf.releaseCipher(symmetricEncryptionSpec, chainedSymmetricCipher);
+            cf.releaseCipher(asymmetricEncryptionSpec, asymmetricCipher);
+            }
+        }
+
+    private void performDecryptionSteps(final PublicKey rsaPubKey, final Key sk1, final Key sk2, final Key sk3, byte[] buffer, final int officialBufferSize, final int sBlockSize,
+                                        final Cipher symmetricCipher, final Cipher chainedSymmetricCipher, final Cipher asymmetricCipher)
+            throws InvalidKeyException, ShortBufferException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+        {
         // step 1: apply RSA decryption at the "last block". detect exceptions.
         // perform in-place decryption of 256 bytes starting from fixed offset 0 in the buffer
         // C4.6(c)
-        asymmetricCipher.init(Cipher.DECRYPT_MODE, rsaPubKey, rng);
+        asymmetricCipher.init(Cipher.DECRYPT_MODE, rsaPubKey, randomness.getSecureRandom());
         asymmetricCipher.doFinal(buffer, 0, outerBlockSize, buffer, 0);
         // reminder: the other operations start at bufferStartOffset
         // RSA_PREFIX_SIZE offset stands in for C4.3(a)
 
         // subsequent steps 2-4  represent C4.3(b)
         // step 2: apply AES decryption with sk3, iv3
-        symmetricCipher.init(Cipher.DECRYPT_MODE, sk3, constantSK3IV, rng);
-        int step4 = symmetricCipher.doFinal(buffer, RSA_PREFIX_SIZE, officialBufferSize, buffer, RSA_PREFIX_SIZE); // supposed to be copy-safe
-        assert (step4 == officialBufferSize);
-
-        // step 3: revert AES blocks in entire buffer
-        reverseBuffer(buffer, RSA_PREFIX_SIZE, officialBufferSize, sBlockSize);
+        decryptCBC(symmetricCipher, sk3, constantSK3IV, buffer, RSA_PREFIX_SIZE, officialBufferSize);
 
+        // step 3: revert AES blocks in entire buffer, and
         // step 4: apply AES decryption with sk2, iv2
-        symmetricCipher.init(Cipher.DECRYPT_MODE, sk2, constantSK2IV, rng);
-        int step3 = symmetricCipher.doFinal(buffer, RSA_PREFIX_SIZE, officialBufferSize, buffer, RSA_PREFIX_SIZE); // supposed to be copy-safe
-        assert (step3 == officialBufferSize);
-
         // step 4: apply AES decryption with sk1, iv1
-        symmetricCipher.init(Cipher.DECRYPT_MODE, sk1, constantSK1IV, rng);
-        int step2 = symmetricCipher.doFinal(buffer, RSA_PREFIX_SIZE, officialBufferSize, buffer, RSA_PREFIX_SIZE); // supposed to be copy-safe
-        assert (step2 == officialBufferSize);
+        if (useParallelDecryption(officialBufferSize))
+            {
+            reverseBuffer(buffer, RSA_PREFIX_SIZE, officialBufferSize, sBlockSize);
+            decryptCBC(symmetricCipher, sk2, constantSK2IV, buffer, RSA_PREFIX_SIZE, officialBufferSize);
+            decryptCBC(symmetricCipher, sk1, constantSK1IV, buffer, RSA_PREFIX_SIZE, officialBufferSize);
+            }
+        else // in one pass, reading the blocks in reverse order, with sk1 following tile by tile.
+            {
+            symmetricCipher.init(Cipher.DECRYPT_MODE, sk2, constantSK2IV, randomness.getSecureRandom());
+            chainedSymmetricCipher.init(Cipher.DECRYPT_MODE, sk1, constantSK1IV, randomness.getSecureRandom());
+            cipherOverReversedBlocks(symmetricCipher, chainedSymmetricCipher, buffer, RSA_PREFIX_SIZE, officialBufferSize, sBlockSize);
+            }
+        return;
+        }
+
+    // the constructor has instantiated each spec once already, so a failure here is a problem of the environment.
+    private Cipher lease(final AlgorithmSpec spec)
+        {
+        try
+            {
+            return cf.leaseCipher(spec);
+            }
+        catch (GeneralSecurityException ex)
+            {
+            throw new IllegalStateException("could not get cipher for "+spec, ex);
+            }
+        }
+
+    private boolean useParallelDecryption(final int length)
+        {
+        return (parallelPool != null) && (length >= parallelThresholdBytes) && (length >= 2*innerBlockSize);
+        }
+
+    // AES-CBC decryption in place, sequential or spread across the pool.
+    private void decryptCBC(final Cipher symmetricCipher, final Key key, final IvParameterSpec iv, byte[] buffer, final int offset, final int length)
+            throws InvalidKeyException, ShortBufferException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+        {
+        if (useParallelDecryption(length) == false)
+            {
+            symmetricCipher.init(Cipher.DECRYPT_MODE, key, iv, randomness.getSecureRandom());
+            int processed = symmetricCipher.doFinal(buffer, offset, length, buffer, offset); // supposed to be copy-safe
+            assert (processed == length);
+            return;
+            }
+        int numBlocks = length/innerBlockSize;
+        // a few ranges per worker, so uneven progress evens out.
+        int blocksPerRange = Math.max(1, numBlocks/(parallelPool.getParallelism()*4));
+        int numRanges = (numBlocks+blocksPerRange-1)/blocksPerRange;
+        // decryption is in place, so the IVs of all ranges - the ciphertext block preceding each - are taken beforehand.
+        byte[][] rangeIVs = new byte[numRanges][];
+        rangeIVs[0] = iv.getIV();
+        for (int i = 1; i < numRanges; i++)
+            {
+            int ivOffset = offset+(i*blocksPerRange-1)*innerBlockSize;
+            rangeIVs[i] = Arrays.copyOfRange(buffer, ivOffset, ivOffset+innerBlockSize);
+            }
+        try
+            {
+            parallelPool.invoke(new CBCDecryptionTask(key, rangeIVs, buffer, offset, length, blocksPerRange, 0, numRanges));
+            }
+        catch (CBCDecryptionFailure ex)
+            {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidKeyException)
+                throw (InvalidKeyException) cause;
+            if (cause instanceof InvalidAlgorithmParameterException)
+                throw (InvalidAlgorithmParameterException) cause;
+            if (cause instanceof IllegalBlockSizeException)
+                throw (IllegalBlockSizeException) cause;
+            if (cause instanceof BadPaddingException)
+                throw (BadPaddingException) cause;
+            if (cause instanceof ShortBufferException)
+                throw (ShortBufferException) cause;
+            throw new IllegalStateException("could not get cipher for "+symmetricEncryptionSpec, cause);
+            }
         return;
         }
 
+    /**
+     * ranges of CBC blocks, split in halves until a single range is left; each leaf uses its own Cipher.
+     */
+    private final class CBCDecryptionTask extends RecursiveAction
+    {
+        private final Key      key;
+        private final byte[][] rangeIVs;
+        private final byte[]   buffer;
+        private final int      offset;
+        private final int      length;
+        private final int      blocksPerRange;
+        private final int      fromRange;
+        private final int      toRange;
+
+        CBCDecryptionTask(Key key, byte[][] rangeIVs, byte[] buffer, int offset, int length, int blocksPerRange, int fromRange, int toRange)
+            {
+            this.key = key;
+            this.rangeIVs = rangeIVs;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.blocksPerRange = blocksPerRange;
+            this.fromRange = fromRange;
+            this.toRange = toRange;
+            }
+
+        @Override
+        protected void compute()
+            {
+            if (toRange-fromRange > 1)
+                {
+                int middle = (fromRange+toRange) >>> 1;
+                invokeAll(new CBCDecryptionTask(key, rangeIVs, buffer, offset, length, blocksPerRange, fromRange, middle),
+                          new CBCDecryptionTask(key, rangeIVs, buffer, offset, length, blocksPerRange, middle, toRange));
+                return;
+                }
+            int rangeOffset = fromRange*blocksPerRange*innerBlockSize;
+            int rangeLength = Math.min(blocksPerRange*innerBlockSize, length-rangeOffset);
+            Cipher workerCipher = null;
+            try
+                {
+                workerCipher = cf.leaseCipher(symmetricEncryptionSpec);
+                workerCipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(rangeIVs[fromRange]));
+                workerCipher.doFinal(buffer, offset+rangeOffset, rangeLength, buffer, offset+rangeOffset);
+                }
+            catch (GeneralSecurityException ex)
+                {
+                throw new CBCDecryptionFailure(ex);
+                }
+            finally
+                {
+                cf.releaseCipher(symmetricEncryptionSpec, workerCipher);
+                }
+            }
+    }
+
+    /**
+     * carries checked exceptions out of the pool.
+     */
+    private static final class CBCDecryptionFailure extends RuntimeException
+    {
+        CBCDecryptionFailure(GeneralSecurityException cause)
+            {
+            super(cause);
+            }
+    }
+
     // Vrf
     private byte[] verify_after_decryption(int numBlocks, byte[] buffer, int inputSize)
             throws BadPaddingException
@@ -432,6 +634,106 @@ public final class IntegrityPaddingSignature
         }
 
 
+    /**
+     * run two initialised ciphers over a buffer region in lockstep, in place.
+     * The result is the same as running the first cipher over the entire region, then the second one;
+     * but each tile passes through both while it is still in cache.
+     *
+     * @param first      initialised cipher for the first pass; it is completed with doFinal.
+     * @param second     initialised cipher for the second pass; it is completed with doFinal.
+     * @param buffer     the buffer to process
+     * @param baseOffset offset to start in buffer from
+     * @param length     number of bytes to process; a multiple of the block size.
+     * @throws ShortBufferException      implementation error
+     * @throws IllegalBlockSizeException if the ciphers don't match the block size
+     * @throws BadPaddingException       implementation error; no padding in use
+     */
+    static void cipherInLockstep(final Cipher first, final Cipher second, byte[] buffer, final int baseOffset, final int length)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException
+        {
+        int offset = baseOffset;
+        int end = baseOffset+length;
+        do
+            {
+            int numBytes = Math.min(TILE_SIZE, end-offset);
+            boolean last = (offset+numBytes == end);
+            processInPlace(first, buffer, offset, numBytes, last);
+            processInPlace(second, buffer, offset, numBytes, last);
+            offset += numBytes;
+            }
+        while (offset < end);
+        return;
+        }
+
+    /**
+     * run an initialised cipher over the blocks of a buffer region in reverse block order, in place.
+     * The result is the same as {@link #reverseBuffer(byte[], int, int, int)} followed by the cipher
+     * over the region, but takes a single pass.
+     * <p>
+     * Output block i is computed from input block n-1-i. For the first half of the output, the input comes
+     * from the second half; the block about to be overwritten is moved to the position just read from,
+     * mirrored. This leaves the inputs for the second half of the output in place and in order.
+     * Processing is done in tiles; an optional follow-up cipher is applied to each tile of output right away,
+     * with the same result as running it over the entire region afterwards.
+     *
+     * @param cipher     initialised cipher; it is completed with doFinal.
+     * @param followUp   initialised cipher to apply to the output in forward order, or null.
+     * @param buffer     the buffer to process
+     * @param baseOffset offset to start in buffer from
+     * @param length     number of bytes to process
+     * @param sBlockSize block size of the cipher
+     * @throws ShortBufferException      implementation error
+     * @throws IllegalBlockSizeException if the cipher doesn't match the block size
+     * @throws BadPaddingException       implementation error; no padding in use
+     */
+    static void cipherOverReversedBlocks(final Cipher cipher, final Cipher followUp, byte[] buffer, final int baseOffset, final int length, final int sBlockSize)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException
+        {
+        if (length%sBlockSize != 0)
+            throw new IllegalArgumentException("size mismatch: blocks do not fit in without remainder");
+        int numBlocksOverall = length/sBlockSize;
+        int firstHalf = numBlocksOverall/2;
+        int tileBlocks = Math.max(1, TILE_SIZE/sBlockSize);
+        byte[] tile = new byte[Math.min(firstHalf, tileBlocks)*sBlockSize];
+        for (int tileStart = 0; tileStart < firstHalf; tileStart += tileBlocks)
+            {
+            int numBlocks = Math.min(tileBlocks, firstHalf-tileStart);
+            for (int i = 0; i < numBlocks; i++)
+                {
+                int mirrorOffset = baseOffset+(numBlocksOverall-1-tileStart-i)*sBlockSize;
+                System.arraycopy(buffer, mirrorOffset, tile, i*sBlockSize, sBlockSize); // input in processing order
+                System.arraycopy(buffer, baseOffset+(tileStart+i)*sBlockSize, buffer, mirrorOffset, sBlockSize); // save block about to be overwritten
+                }
+            int outputOffset = baseOffset+tileStart*sBlockSize;
+            // unpadded CBC emits every complete block right away; the in-place scheme relies on that.
+            if (cipher.update(tile, 0, numBlocks*sBlockSize, buffer, outputOffset) != numBlocks*sBlockSize)
+                throw new IllegalStateException("cipher holds back data, cannot process in place");
+            if (followUp != null)
+                processInPlace(followUp, buffer, outputOffset, numBlocks*sBlockSize, false);
+            }
+        Arrays.fill(tile, (byte) 0x00);
+        // the second half now holds its input in place, in processing order.
+        for (int tileStart = firstHalf; tileStart < numBlocksOverall; tileStart += tileBlocks)
+            {
+            int numBytes = Math.min(tileBlocks, numBlocksOverall-tileStart)*sBlockSize;
+            boolean last = (tileStart+tileBlocks >= numBlocksOverall);
+            processInPlace(cipher, buffer, baseOffset+tileStart*sBlockSize, numBytes, last);
+            if (followUp != null)
+                processInPlace(followUp, buffer, baseOffset+tileStart*sBlockSize, numBytes, last);
+            }
+        return;
+        }
+
+    // one chunk of a multi-part cipher operation, in place.
+    private static void processInPlace(final Cipher cipher, byte[] buffer, final int offset, final int length, final boolean last)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException
+        {
+        int processed = last ? cipher.doFinal(buffer, offset, length, buffer, offset) : cipher.update(buffer, offset, length, buffer, offset); // supposed to be copy-safe
+        // unpadded CBC emits every complete block right away; the in-place scheme relies on that.
+        if (processed != length)
+            throw new IllegalStateException("cipher holds back data, cannot process in place");
+        }
+
     /**
      * revert contents of a byte array for a given block size.
      * helper macro for the algorithm.
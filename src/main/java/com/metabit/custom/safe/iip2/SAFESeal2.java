@@ -9,10 +9,11 @@ import com.metabit.custom.safe.iip.AsymmetricEncryptionWithIIP;
 import com.metabit.custom.safe.iip.RSAWithIntegrityPadding;
 import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
 import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
+import com.metabit.custom.safe.safeseal.impl.CompressionStage;
 import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
 import com.metabit.custom.safe.safeseal.impl.InternalTransportTuple;
 import com.metabit.custom.safe.safeseal.impl.TransportFormatConverter;
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.crypto.DataLengthException;
 
 import javax.crypto.*;
@@ -20,11 +21,9 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
-import static com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection.COMPRESSION_GZIP;
 import static com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection.COMPRESSION_NONE;
 
 /**
@@ -39,6 +38,7 @@ public class SAFESeal2
     private       TransportFormatConverter    formatConverter;
     private       AsymmetricEncryptionWithIIP asymmetricLayer;
     private       boolean                     compressionMode; // flag shorthand for NONE or ZLIB. later versions may use an enum.
+    private       CompressionStage            compressionStage;
     private       CryptoSettingsStruct        css;
 
     /**
@@ -59,6 +59,7 @@ public class SAFESeal2
         {
         this.cryptoFactory = cf;
         this.compressionMode = false;
+        this.compressionStage = CompressionStage.getSharedInstance();
         init(version, revision);
         }
 
@@ -68,40 +69,34 @@ public class SAFESeal2
     public void setCompressionMode(final boolean compressionMode)
         { this.compressionMode = compressionMode; }
 
-    /*
-     * try to apply ZLIB compression.
-     * Important: Zlib wrapper fields must not be used/sent.
-     * That also implies we always use the same settings in this context: BEST_COMPRESSION, nowrap.
-     * @param rawPayload content to compress
-     * @param itt settings, where we'd note the compression algorithm if any.
-     * @return payload for further processing (compressed or not)
-     * @throws NoSuchAlgorithmException if algorithm lookup fails.
+    public CompressionStage getCompressionStage()
+        { return compressionStage; }
+
+    /**
+     * set the compression stage to use, e.g. for a preset dictionary or a different level.
+     *
+     * @param compressionStage the stage to use for sealing and revealing.
      */
-    private static byte[] tryToCompress(final byte[] rawPayload, final InternalTransportTuple itt)
-            throws NoSuchAlgorithmException
+    public void setCompressionStage(final CompressionStage compressionStage)
         {
-        byte[] payload;
-        int inputSize = rawPayload.length;
-        byte[] tmp = new byte[inputSize];
-        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true); // NB: must set "nowrap"! The header fields are moot, but we may not use checksums.
-        deflater.setInput(rawPayload);
-        deflater.finish();
-        final int outputSize = deflater.deflate(tmp);
-        if (outputSize >= inputSize) // in this case, keep original size
-            {
-            payload = rawPayload;
-            itt.getCryptoSettings().setCompressionOID(COMPRESSION_NONE.getOID());
-            }
-        else
-            {
-            payload = new byte[outputSize];
-            System.arraycopy(tmp, 0, payload, 0, outputSize);
-            itt.getCryptoSettings().setCompressionOID(COMPRESSION_GZIP.getOID());
-            }
-        deflater.end();
-        return payload;
+        if (compressionStage == null)
+            throw new IllegalArgumentException("compression stage must not be null");
+        this.compressionStage = compressionStage;
         }
 
+    /*
+     * create an ephemeral AES key from a pre-generated random block.
+     * AES-128, the key size the JCE AES KeyGenerator produces by default on Java 17.
+     * @param randomness source of the key material
+     * @return new AES key
+     */
+    static SecretKey generateEphemeralKey(final RandomnessProvider randomness)
+        {
+        byte[] keyBytes = randomness.nextBlock();
+        SecretKey key = new SecretKeySpec(keyBytes, "AES"); // copies the bytes
+        Arrays.fill(keyBytes, (byte) 0x00);
+        return key;
+        }
 
     private void init(int version, int revision)
         {
@@ -139,9 +134,7 @@ public class SAFESeal2
             IllegalBlockSizeException, InvalidKeySpecException, BadPaddingException, IOException, ShortBufferException, InvalidAlgorithmParameterException
         {
         InternalTransportTuple itt;
-        // lacking a proper API, we do this the factual way:
-        final String description = senderKey.toString();
-        final int privateKeyLength = SharedCode.getRSAPrivateKeyLengthInBits(description);
+        final int privateKeyLength = SharedCode.getRSAPrivateKeyLengthInBits(senderKey);
         switch (privateKeyLength)
             {
             case 1024:
@@ -159,11 +152,10 @@ public class SAFESeal2
         itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0)); // RSA
         itt.getCryptoSettings().setEncryptionKeySize(privateKeyLength);
 
-        //@TODO get this via CF from algorithm
-        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
-        SecretKey key1 = keyGenerator.generateKey();
-        SecretKey key2 = keyGenerator.generateKey();
-        SecretKey key3 = keyGenerator.generateKey();
+        RandomnessProvider randomness = cryptoFactory.getRandomnessProvider();
+        SecretKey key1 = generateEphemeralKey(randomness);
+        SecretKey key2 = generateEphemeralKey(randomness);
+        SecretKey key3 = generateEphemeralKey(randomness);
 
         itt.setEphemeralSymmetricKeyBytes(key1.getEncoded(), key2.getEncoded(), key3.getEncoded());
 
@@ -175,7 +167,7 @@ public class SAFESeal2
             }
         else // if compression is activated, perform compression and set respective flag
             {
-            payload = tryToCompress(contentToSeal, itt);
+            payload = compressionStage.compress(contentToSeal, itt);
             }
 
         // perform asymmetric crypto, symmetric crypto, and padding
@@ -220,13 +212,8 @@ public class SAFESeal2
         if ((tuple.getEphemeralSymmetricKeyBytes(1) == null) || (tuple.getEphemeralSymmetricKeyBytes(2) == null) || (tuple.getEphemeralSymmetricKeyBytes(3) == null))
             throw new IllegalArgumentException("ephemeral keys required for algorithm version 2");
 
-        ASN1ObjectIdentifier compressionOID = tuple.getCryptoSettings().getCompressionOID();
-        if (compressionOID.equals(COMPRESSION_GZIP.getOID()))
-            { compressionMode = true; }
-        else if (compressionOID.equals(COMPRESSION_NONE.getOID()))
-            { compressionMode = false; } // do nothing, ignore.
-        else
-            throw new NoSuchAlgorithmException("invalid compression");
+        compressionStage.checkSupported(tuple);
+        compressionMode = !tuple.getCryptoSettings().getCompressionOID().equals(COMPRESSION_NONE.getOID());
 
         // @IMPROVEMENT for later versions: allow to for a more flexible selection of algorithms.
         switch (tuple.getCryptoSettings().getEncryptionKeySize())
@@ -253,11 +240,7 @@ public class SAFESeal2
             SecretKey key3 = new SecretKeySpec(tuple.getEphemeralSymmetricKeyBytes(3), 0, 16, "AES");
 
             byte[] payload = cipherInstance.performDecryptionAndValidation(tuple.getEncryptedData(), senderPublicKey, key1, key2, key3);
-            if (compressionMode == true)
-                {
-                payload = inflateZLIBcompressedData(payload);
-                }
-            return payload;
+            return compressionStage.decompress(payload, tuple);
             }
         catch (ArrayIndexOutOfBoundsException|DataLengthException|DataFormatException ex)
             {
@@ -265,42 +248,6 @@ public class SAFESeal2
             }
         }
 
-    /*
-     * try to decompress if we've got compressed data.
-     * using "nowrap" settings, we have neither header nor checksum.
-     * @param payload data to decompress/inflate
-     * @return decompressed/inflated data
-     * @throws DataFormatException if the data is not matching the expected format
-     */
-    private byte[] inflateZLIBcompressedData(final byte[] payload)
-            throws DataFormatException
-        {
-        Inflater inflater = new Inflater(true); // nowrap is important for our use case.
-        int inputSize = payload.length;
-        // measuring the required input size
-        int outputSize;
-        int tmpSize = 0;
-        do
-            {
-            tmpSize += inputSize; // try multiple times with increasing buffer size
-            inflater.setInput(payload);
-            byte[] tmp = new byte[tmpSize]; // heuristics here.
-            outputSize = inflater.inflate(tmp);
-            if (outputSize == 0)
-                throw new IllegalArgumentException("input compression level not handled");
-            inflater.reset();
-            }
-        while (tmpSize == outputSize); // if the temp buffer was completely full, we need to try again with a larger buffer.
-
-        // now performing actual decompression
-        byte[] result = new byte[outputSize];
-        inflater.setInput(payload);
-        inflater.inflate(result);
-        inflater.end();
-        return result;
-        }
-
-
 }
 //___EOF___
 
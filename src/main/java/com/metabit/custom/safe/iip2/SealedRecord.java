@@ -0,0 +1,61 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.iip2;
+
+/**
+ * one record emitted by a {@link SealingProcessor}: the sealed message, or the reason sealing failed.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class SealedRecord
+{
+    private final long      sequence;
+    private final long      uniqueID;
+    private final byte[]    sealed;
+    private final Exception failure;
+    final long              receivedAt; // System.nanoTime(), for latency metrics
+
+    SealedRecord(final long sequence, final long uniqueID, final byte[] sealed, final Exception failure, final long receivedAt)
+        {
+        this.sequence = sequence;
+        this.uniqueID = uniqueID;
+        this.sealed = sealed;
+        this.failure = failure;
+        this.receivedAt = receivedAt;
+        }
+
+    /**
+     * @return position of the input in the stream, starting at 0.
+     */
+    public long getSequence()
+        { return sequence; }
+
+    /**
+     * @return unique ID the record was sealed with.
+     */
+    public long getUniqueID()
+        { return uniqueID; }
+
+    /**
+     * @return true if sealing succeeded.
+     */
+    public boolean isSuccess()
+        { return failure == null; }
+
+    /**
+     * @return the sealed message; null on failure.
+     */
+    public byte[] getSealed()
+        { return sealed; }
+
+    /**
+     * @return why sealing failed; null on success.
+     */
+    public Exception getFailure()
+        { return failure; }
+}
+//___EOF___
@@ -0,0 +1,315 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
+import com.metabit.custom.safe.safeseal.impl.CompressionStage;
+import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
+import com.metabit.custom.safe.safeseal.impl.InternalTransportTuple;
+import com.metabit.custom.safe.safeseal.impl.TransportEnvelopeCodec;
+import org.bouncycastle.crypto.DataLengthException;
+
+import javax.crypto.*;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.security.*;
+import java.security.interfaces.RSAKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+
+/**
+ * long-lived, thread-safe variant of {@link SAFESeal2}, bound to one settings struct and one sender key.
+ * <p>
+ * SAFESeal2 sets up a transport format converter, an IPS instance with its ciphers, and a key generator
+ * for every message. This engine sets these up once and reuses them, leasing the ciphers from the
+ * CryptoFactory per operation, so seal and reveal may be called concurrently on a shared instance. The output is identical in format to SAFESeal2's;
+ * it is encoded with the {@link TransportEnvelopeCodec}, which skips the ASN.1 object tree.
+ * <p>
+ * An engine constructed with the sender's private key seals; one constructed with the sender's
+ * public key reveals.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class SealingEngine
+{
+    private static final TransportEnvelopeCodec             CODEC = new TransportEnvelopeCodec(); // stateless
+    private final CryptoFactory                             cryptoFactory;
+    private final CryptoSettingsStruct                      css;
+    private final Key                                       senderKey;
+    private final int                                       keySizeInBits;
+    private final IntegrityPaddingSignature                 paddingSignature;
+    private volatile boolean                                compressionMode;
+    private volatile CompressionStage                       compressionStage;
+
+    /**
+     * constructor for sealing.
+     *
+     * @param cf               the CryptoFactory providing access to algorithm implementations
+     * @param css              settings to use; version 2 only.
+     * @param senderPrivateKey the sender's RSA private key
+     * @throws InvalidKeySpecException  if the key is not an RSA key of supported size
+     * @throws NoSuchPaddingException   if the settings refer to unavailable algorithms
+     * @throws NoSuchAlgorithmException if the settings refer to unavailable algorithms
+     * @throws NoSuchProviderException  if the crypto provider is unavailable
+     */
+    public SealingEngine(final CryptoFactory cf, final CryptoSettingsStruct css, final PrivateKey senderPrivateKey)
+            throws InvalidKeySpecException, NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+        {
+        this(cf, css, (Key) senderPrivateKey);
+        }
+
+    /**
+     * constructor for revealing.
+     *
+     * @param cf              the CryptoFactory providing access to algorithm implementations
+     * @param css             settings to use; version 2 only.
+     * @param senderPublicKey the sender's RSA public key
+     * @throws InvalidKeySpecException  if the key is not an RSA key of supported size
+     * @throws NoSuchPaddingException   if the settings refer to unavailable algorithms
+     * @throws NoSuchAlgorithmException if the settings refer to unavailable algorithms
+     * @throws NoSuchProviderException  if the crypto provider is unavailable
+     */
+    public SealingEngine(final CryptoFactory cf, final CryptoSettingsStruct css, final PublicKey senderPublicKey)
+            throws InvalidKeySpecException, NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+        {
+        this(cf, css, (Key) senderPublicKey);
+        }
+
+    private SealingEngine(final CryptoFactory cf, final CryptoSettingsStruct css, final Key senderKey)
+            throws InvalidKeySpecException, NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+        {
+        if ((cf == null) || (css == null) || (senderKey == null))
+            throw new IllegalArgumentException("parameters must not be null");
+        if (css.getProtocolVersion() != 2)
+            throw new IllegalArgumentException("version not supported");
+        if (!(senderKey instanceof RSAKey))
+            throw new InvalidKeySpecException("RSA key required");
+        this.keySizeInBits = ((RSAKey) senderKey).getModulus().bitLength();
+        switch (keySizeInBits)
+            {
+            case 1024:
+            case 2048:
+            case 4096:
+                break;
+            default:
+                throw new InvalidKeySpecException("key of unsupported size "+keySizeInBits);
+            }
+        this.cryptoFactory = cf;
+        this.css = css;
+        this.senderKey = senderKey;
+        // fails early if the settings can't be instantiated, rather than on first use.
+        this.paddingSignature = new IntegrityPaddingSignature(cf, css);
+        this.compressionMode = false;
+        this.compressionStage = CompressionStage.getSharedInstance();
+        }
+
+    public boolean getCompressionMode()
+        { return compressionMode; }
+
+    public void setCompressionMode(final boolean compressionMode)
+        { this.compressionMode = compressionMode; }
+
+    public CompressionStage getCompressionStage()
+        { return compressionStage; }
+
+    /**
+     * set the compression stage to use, e.g. for a different level or decompression limit.
+     *
+     * @param compressionStage the stage to use for sealing and revealing.
+     */
+    public void setCompressionStage(final CompressionStage compressionStage)
+        {
+        if (compressionStage == null)
+            throw new IllegalArgumentException("compression stage must not be null");
+        this.compressionStage = compressionStage;
+        }
+
+    /**
+     * enable parallel AES-CBC decryption when revealing large messages.
+     * See {@link IntegrityPaddingSignature#setParallelDecryption(ForkJoinPool, int)}.
+     *
+     * @param pool           pool to run on; null disables parallel decryption (default).
+     * @param thresholdBytes minimum ciphertext size for parallel decryption to be used.
+     */
+    public void setParallelDecryption(final ForkJoinPool pool, final int thresholdBytes)
+        {
+        paddingSignature.setParallelDecryption(pool, thresholdBytes);
+        }
+
+    /**
+     * @return size of the bound RSA key, in bits.
+     */
+    public int getKeySizeInBits()
+        { return keySizeInBits; }
+
+    /**
+     * check whether this engine is bound to the given key.
+     *
+     * @param key key to check
+     * @return true if the engine was constructed with this key
+     */
+    public boolean isBoundTo(final Key key)
+        { return senderKey.equals(key); }
+
+    /**
+     * seal contents: calculate ephemeral keys, pad, encrypt, and format for transport.
+     * Same semantics as {@link SAFESeal2#seal(byte[], PrivateKey, PublicKey[], Long)}.
+     *
+     * @param contentToSeal payload content for sealed transport
+     * @param uniqueID      a unique ID to be provided e.g. from a monotonic counter
+     * @return wrapped and sealed message
+     *
+     * @throws NoSuchProviderException   if crypto provider is unavailable
+     * @throws NoSuchAlgorithmException  if algorithm could not be found
+     * @throws NoSuchPaddingException    if the padding could not be found
+     * @throws BadPaddingException       if the padding fails
+     * @throws InvalidKeyException       if the key is invalid
+     * @throws IOException               if IO errors occur
+     * @throws ShortBufferException      if target buffer is too small
+     * @throws IllegalBlockSizeException implementation issue
+     * @throws InvalidAlgorithmParameterException   implementation issue
+     */
+    public byte[] seal(final byte[] contentToSeal, final Long uniqueID)
+            throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException,
+            IllegalBlockSizeException, BadPaddingException, IOException, ShortBufferException, InvalidAlgorithmParameterException
+        {
+        return seal(contentToSeal, uniqueID, compressionMode);
+        }
+
+    /**
+     * seal contents, with compression chosen for this call rather than by {@link #setCompressionMode(boolean)};
+     * for callers sharing the engine with others who may want a different mode.
+     *
+     * @param contentToSeal payload content for sealed transport
+     * @param uniqueID      a unique ID to be provided e.g. from a monotonic counter
+     * @param compress      true to compress the payload before sealing
+     * @return wrapped and sealed message
+     * @throws NoSuchProviderException   if crypto provider is unavailable
+     * @throws NoSuchAlgorithmException  if algorithm could not be found
+     * @throws NoSuchPaddingException    if the padding could not be found
+     * @throws BadPaddingException       if the padding fails
+     * @throws InvalidKeyException       if the key is invalid
+     * @throws IOException               if IO errors occur
+     * @throws ShortBufferException      if target buffer is too small
+     * @throws IllegalBlockSizeException implementation issue
+     * @throws InvalidAlgorithmParameterException   implementation issue
+     */
+    public byte[] seal(final byte[] contentToSeal, final Long uniqueID, final boolean compress)
+            throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException,
+            IllegalBlockSizeException, BadPaddingException, IOException, ShortBufferException, InvalidAlgorithmParameterException
+        {
+        return seal(contentToSeal, uniqueID, compress ? compressionStage : null);
+        }
+
+    /**
+     * seal contents, with the compression stage chosen for this call rather than by {@link #setCompressionStage(CompressionStage)};
+     * for callers sharing the engine with others who may want e.g. a different dictionary.
+     *
+     * @param contentToSeal payload content for sealed transport
+     * @param uniqueID      a unique ID to be provided e.g. from a monotonic counter
+     * @param stage         stage to compress the payload with before sealing; null for no compression.
+     * @return wrapped and sealed message
+     * @throws NoSuchProviderException   if crypto provider is unavailable
+     * @throws NoSuchAlgorithmException  if algorithm could not be found
+     * @throws NoSuchPaddingException    if the padding could not be found
+     * @throws BadPaddingException       if the padding fails
+     * @throws InvalidKeyException       if the key is invalid
+     * @throws IOException               if IO errors occur
+     * @throws ShortBufferException      if target buffer is too small
+     * @throws IllegalBlockSizeException implementation issue
+     * @throws InvalidAlgorithmParameterException   implementation issue
+     */
+    public byte[] seal(final byte[] contentToSeal, final Long uniqueID, final CompressionStage stage)
+            throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException,
+            IllegalBlockSizeException, BadPaddingException, IOException, ShortBufferException, InvalidAlgorithmParameterException
+        {
+        if (!(senderKey instanceof PrivateKey))
+            throw new IllegalStateException("engine was set up for revealing");
+
+        InternalTransportTuple itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0)); // RSA
+        itt.getCryptoSettings().setEncryptionKeySize(keySizeInBits);
+
+        RandomnessProvider randomness = cryptoFactory.getRandomnessProvider();
+        SecretKey key1 = SAFESeal2.generateEphemeralKey(randomness);
+        SecretKey key2 = SAFESeal2.generateEphemeralKey(randomness);
+        SecretKey key3 = SAFESeal2.generateEphemeralKey(randomness);
+        itt.setEphemeralSymmetricKeyBytes(key1.getEncoded(), key2.getEncoded(), key3.getEncoded());
+
+        byte[] payload;
+        if (stage == null)
+            {
+            payload = contentToSeal;
+            }
+        else
+            {
+            payload = stage.compress(contentToSeal, itt);
+            }
+
+        byte[] encryptedData = paddingSignature.performEncryption(payload, (PrivateKey) senderKey, key1, key2, key3);
+        itt.setEncryptedData(encryptedData);
+        return CODEC.wrapForTransport(itt);
+        }
+
+    /**
+     * carefully check the sealing, unseal, and return payload data.
+     * Same semantics as {@link SAFESeal2#reveal(byte[], PrivateKey, PublicKey)}.
+     *
+     * @param sealedInput the sealed message
+     * @return payload data, when everything went OK and the integrity has been validated.
+     *
+     * @throws BadPaddingException                the integrity validation has failed.
+     * @throws NoSuchProviderException            if crypto provider is unavailable
+     * @throws NoSuchAlgorithmException           if algorithm could not be found
+     * @throws InvalidAlgorithmParameterException if the algorithm was called with invalid parameters
+     * @throws NoSuchPaddingException             if the padding could not be found
+     * @throws InvalidKeyException                if the key is invalid
+     * @throws IllegalBlockSizeException          if key and algorithm don't match in regard to size.
+     * @throws ShortBufferException               if target buffer is too small
+     */
+    public byte[] reveal(final byte[] sealedInput)
+            throws BadPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException,
+            NoSuchProviderException, ShortBufferException
+        {
+        if (!(senderKey instanceof PublicKey))
+            throw new IllegalStateException("engine was set up for sealing");
+
+        InternalTransportTuple tuple = CODEC.unwrapTransportFormat(sealedInput);
+        // check whether the ephemeral keys 1,2,3 are present.
+        if ((tuple.getEphemeralSymmetricKeyBytes(1) == null) || (tuple.getEphemeralSymmetricKeyBytes(2) == null) || (tuple.getEphemeralSymmetricKeyBytes(3) == null))
+            throw new IllegalArgumentException("ephemeral keys required for algorithm version 2");
+
+        compressionStage.checkSupported(tuple); // fail before decryption
+
+        switch (tuple.getCryptoSettings().getEncryptionKeySize())
+            {
+            case 1024:
+            case 2048:
+            case 4096:
+                break;
+            default:
+                throw new InvalidKeyException("specified key size not supported");
+            }
+
+        try
+            {
+            SecretKey key1 = new SecretKeySpec(tuple.getEphemeralSymmetricKeyBytes(1), 0, 16, "AES");
+            SecretKey key2 = new SecretKeySpec(tuple.getEphemeralSymmetricKeyBytes(2), 0, 16, "AES");
+            SecretKey key3 = new SecretKeySpec(tuple.getEphemeralSymmetricKeyBytes(3), 0, 16, "AES");
+
+            byte[] payload = paddingSignature.performDecryptionAndValidation(tuple.getEncryptedData(), (PublicKey) senderKey, key1, key2, key3);
+            return compressionStage.decompress(payload, tuple);
+            }
+        catch (ArrayIndexOutOfBoundsException|DataLengthException|DataFormatException ex)
+            {
+            throw new BadPaddingException();
+            }
+        }
+}
+//___EOF___
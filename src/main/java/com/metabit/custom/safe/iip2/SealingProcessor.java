@@ -0,0 +1,375 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.iip2;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * reactive-streams stage sealing each payload as it arrives, with a shared {@link SealingEngine}.
+ * <p>
+ * Payloads are sealed on the given executor, at most <code>parallelism</code> at a time. Backpressure
+ * works in both directions: no more than <code>maxInFlight</code> payloads are requested from upstream
+ * that have not yet been passed on downstream, so a slow subscriber slows down the publisher.
+ * Records are emitted either in input order, or as soon as they are sealed.
+ * <p>
+ * A payload that fails to seal is emitted as a failed {@link SealedRecord}; the stream continues.
+ * Only one subscriber is supported.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class SealingProcessor implements Flow.Processor<byte[], SealedRecord>
+{
+    /**
+     * order in which sealed records are emitted.
+     */
+    public enum Emission
+    {
+        /** in input order; a slow payload holds back the ones after it. */
+        ORDERED,
+        /** as soon as they are sealed. */
+        UNORDERED
+    }
+
+    private final SealingEngine engine;
+    private final Executor      executor;
+    private final int           parallelism;
+    private final int           maxInFlight;
+    private final Emission      emission;
+    private final long          firstUniqueID;
+
+    // signals from any thread; everything else below is handled by whichever thread runs drain().
+    private final AtomicInteger                         wip       = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Input>          received  = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SealedRecord>   completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger                         waiting   = new AtomicInteger();
+    private final AtomicInteger                         running   = new AtomicInteger();
+    private final AtomicLong                            demand    = new AtomicLong();
+    private volatile Flow.Subscription                  upstream;
+    private volatile Flow.Subscriber<? super SealedRecord> downstream;
+    private volatile boolean                            upstreamDone;
+    private volatile Throwable                          upstreamError;
+    private volatile boolean                            cancelled;
+    private volatile IllegalArgumentException           requestError; // set by a non-positive request (rule 3.9) only
+    private long                                        nextSequence; // onNext is never called concurrently
+
+    // drain() only
+    private final Map<Long, SealedRecord>  readyOrdered   = new HashMap<>();
+    private final ArrayDeque<SealedRecord> readyUnordered = new ArrayDeque<>();
+    private long                           nextToEmit;
+    private volatile int                   ready;
+    private volatile int                   inFlight; // requested from upstream, not yet emitted
+    private boolean                        terminated;
+
+    // metrics
+    private final LongAdder  emitted        = new LongAdder();
+    private final LongAdder  failed         = new LongAdder();
+    private final LongAdder  sealNanos      = new LongAdder();
+    private final LongAdder  endToEndNanos  = new LongAdder();
+    private final AtomicLong maxEndToEndNanos = new AtomicLong();
+
+    /**
+     * constructor.
+     *
+     * @param engine        engine to seal with; constructed with the sender's private key.
+     * @param executor      executor to seal on
+     * @param parallelism   maximum number of payloads sealed at the same time
+     * @param maxInFlight   maximum number of payloads requested from upstream, but not yet emitted downstream; at least parallelism.
+     * @param emission      ordered or unordered emission
+     * @param firstUniqueID unique ID of the first payload; the following ones are numbered consecutively.
+     */
+    public SealingProcessor(final SealingEngine engine, final Executor executor, final int parallelism, final int maxInFlight, final Emission emission, final long firstUniqueID)
+        {
+        if ((engine == null) || (executor == null) || (emission == null))
+            throw new IllegalArgumentException("parameters must not be null");
+        if (parallelism < 1)
+            throw new IllegalArgumentException("invalid parallelism");
+        if (maxInFlight < parallelism)
+            throw new IllegalArgumentException("maxInFlight must be at least the parallelism");
+        this.engine = engine;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.maxInFlight = maxInFlight;
+        this.emission = emission;
+        this.firstUniqueID = firstUniqueID;
+        }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // upstream side
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription)
+        {
+        Objects.requireNonNull(subscription);
+        if (upstream != null)
+            {
+            subscription.cancel(); // one publisher only
+            return;
+            }
+        upstream = subscription;
+        drain();
+        }
+
+    @Override
+    public void onNext(final byte[] payload)
+        {
+        Objects.requireNonNull(payload);
+        received.offer(new Input(nextSequence++, payload, System.nanoTime()));
+        waiting.incrementAndGet();
+        drain();
+        }
+
+    @Override
+    public void onError(final Throwable throwable)
+        {
+        upstreamError = Objects.requireNonNull(throwable);
+        upstreamDone = true;
+        drain();
+        }
+
+    @Override
+    public void onComplete()
+        {
+        upstreamDone = true;
+        drain();
+        }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // downstream side
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super SealedRecord> subscriber)
+        {
+        Objects.requireNonNull(subscriber);
+        boolean accepted;
+        synchronized (this)
+            {
+            accepted = (downstream == null);
+            if (accepted)
+                downstream = subscriber;
+            }
+        if (accepted)
+            {
+            subscriber.onSubscribe(new DownstreamSubscription());
+            drain();
+            return;
+            }
+        subscriber.onSubscribe(new Flow.Subscription()
+            {
+            @Override public void request(long n) { }
+            @Override public void cancel() { }
+            });
+        subscriber.onError(new IllegalStateException("only one subscriber supported"));
+        }
+
+    private final class DownstreamSubscription implements Flow.Subscription
+    {
+        @Override
+        public void request(final long n)
+            {
+            if (n <= 0)
+                {
+                requestError = new IllegalArgumentException("non-positive request"); // reactive streams rule 3.9
+                cancelled = true;
+                }
+            else
+                demand.getAndAccumulate(n, (current, add)->((current+add) < 0) ? Long.MAX_VALUE : current+add);
+            drain();
+            }
+
+        @Override
+        public void cancel()
+            {
+            cancelled = true;
+            drain();
+            }
+    }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // processing
+
+    // serialises all state changes and all downstream signals; whoever gets here first does the work of everyone else, too.
+    private void drain()
+        {
+        if (wip.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        do
+            {
+            if (!terminated)
+                drainOnce();
+            missed = wip.addAndGet(-missed);
+            }
+        while (missed != 0);
+        }
+
+    private void drainOnce()
+        {
+        final Flow.Subscriber<? super SealedRecord> subscriber = downstream;
+        if (cancelled)
+            {
+            terminated = true;
+            if (upstream != null)
+                upstream.cancel();
+            received.clear();
+            completed.clear();
+            readyOrdered.clear();
+            readyUnordered.clear();
+            // after a plain cancel, no more signals (rule 1.8), whatever the upstream reported meanwhile.
+            if ((subscriber != null) && (requestError != null))
+                subscriber.onError(requestError);
+            return;
+            }
+        // collect what has been sealed meanwhile
+        for (SealedRecord record = completed.poll(); record != null; record = completed.poll())
+            {
+            if (emission == Emission.ORDERED)
+                readyOrdered.put(record.getSequence(), record);
+            else
+                readyUnordered.offer(record);
+            }
+        if (subscriber == null)
+            {
+            ready = readyOrdered.size()+readyUnordered.size();
+            return; // nothing is requested before there is someone to pass records on to
+            }
+        // emit as far as demand allows
+        while (demand.get() > 0)
+            {
+            SealedRecord record = (emission == Emission.ORDERED) ? readyOrdered.remove(nextToEmit) : readyUnordered.poll();
+            if (record == null)
+                break;
+            nextToEmit++;
+            if (demand.get() != Long.MAX_VALUE)
+                demand.decrementAndGet();
+            inFlight--;
+            recordEmission(record);
+            subscriber.onNext(record);
+            if (cancelled)
+                return;
+            }
+        ready = readyOrdered.size()+readyUnordered.size();
+        // start sealing
+        while (running.get() < parallelism)
+            {
+            Input input = received.poll();
+            if (input == null)
+                break;
+            waiting.decrementAndGet();
+            running.incrementAndGet();
+            try
+                {
+                executor.execute(()->seal(input));
+                }
+            catch (RejectedExecutionException ex)
+                {
+                running.decrementAndGet();
+                completed.offer(new SealedRecord(input.sequence, firstUniqueID+input.sequence, null, ex, input.receivedAt));
+                wip.incrementAndGet(); // one more pass, to pick it up
+                }
+            }
+        // refill
+        final Flow.Subscription subscription = upstream;
+        if ((subscription != null) && !upstreamDone && (inFlight < maxInFlight))
+            {
+            int free = maxInFlight-inFlight;
+            inFlight = maxInFlight;
+            subscription.request(free);
+            }
+        // done?
+        if (upstreamDone && received.isEmpty() && (running.get() == 0) && completed.isEmpty() && (ready == 0))
+            {
+            terminated = true;
+            if (upstreamError != null)
+                subscriber.onError(upstreamError);
+            else
+                subscriber.onComplete();
+            }
+        }
+
+    private void seal(final Input input)
+        {
+        final long start = System.nanoTime();
+        final long uniqueID = firstUniqueID+input.sequence;
+        SealedRecord record;
+        try
+            {
+            record = new SealedRecord(input.sequence, uniqueID, engine.seal(input.payload, uniqueID), null, input.receivedAt);
+            }
+        catch (Exception ex)
+            {
+            record = new SealedRecord(input.sequence, uniqueID, null, ex, input.receivedAt);
+            }
+        sealNanos.add(System.nanoTime()-start);
+        completed.offer(record);
+        running.decrementAndGet();
+        drain();
+        }
+
+    private void recordEmission(final SealedRecord record)
+        {
+        emitted.increment();
+        if (!record.isSuccess())
+            failed.increment();
+        long latency = System.nanoTime()-record.receivedAt;
+        endToEndNanos.add(latency);
+        maxEndToEndNanos.accumulateAndGet(latency, Math::max);
+        }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // metrics
+
+    /**
+     * @return number of payloads received, but not yet being sealed.
+     */
+    public int getQueueDepth()
+        { return waiting.get(); }
+
+    /**
+     * @return queue depths, counts, and latencies (receipt to emission, and sealing alone); for monitoring.
+     */
+    public Map<String, Long> getMetrics()
+        {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        long count = emitted.sum();
+        metrics.put("waiting", (long) waiting.get());
+        metrics.put("running", (long) running.get());
+        metrics.put("ready", (long) ready);
+        metrics.put("inFlight", (long) inFlight);
+        metrics.put("emitted", count);
+        metrics.put("failed", failed.sum());
+        metrics.put("sealLatencyAvgMicros", (count == 0) ? 0 : sealNanos.sum()/count/1000);
+        metrics.put("latencyAvgMicros", (count == 0) ? 0 : endToEndNanos.sum()/count/1000);
+        metrics.put("latencyMaxMicros", maxEndToEndNanos.get()/1000);
+        return metrics;
+        }
+
+    private static final class Input
+    {
+        final long   sequence;
+        final byte[] payload;
+        final long   receivedAt;
+
+        Input(final long sequence, final byte[] payload, final long receivedAt)
+            {
+            this.sequence = sequence;
+            this.payload = payload;
+            this.receivedAt = receivedAt;
+            }
+    }
+}
+//___EOF___
@@ -9,6 +9,8 @@ import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.security.Key;
+import java.security.interfaces.RSAKey;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,10 +40,18 @@ public class SharedCode
         return true;
         }
 
+    private static final Pattern KEY_LENGTH_FROM_DESCRIPTION = Pattern.compile(".+RSA private CRT key,\\s+(\\d{4})\\sbits(?m:$)");
+
+    static int getRSAPrivateKeyLengthInBits(Key key)
+        {
+        if (key instanceof RSAKey)
+            return ((RSAKey) key).getModulus().bitLength();
+        return getRSAPrivateKeyLengthInBits(key.toString()); // keys from providers not implementing RSAKey
+        }
+
     static int getRSAPrivateKeyLengthInBits(String description)
         {
-        Pattern keyLengthFromDescription = Pattern.compile(".+RSA private CRT key,\\s+(\\d{4})\\sbits(?m:$)");
-        Matcher matcher = keyLengthFromDescription.matcher(description);
+        Matcher matcher = KEY_LENGTH_FROM_DESCRIPTION.matcher(description);
         if (matcher.find() == false)
             throw new UnsupportedOperationException("could not determine key size");
         int privateKeyLength = Integer.valueOf(matcher.group(1));
@@ -0,0 +1,57 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal;
+
+/**
+ * outcome of sealing or revealing one item of a batch: either the output, or the reason it failed.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class BatchResult
+{
+    private final int       index;
+    private final byte[]    output;
+    private final Exception failure;
+
+    private BatchResult(final int index, final byte[] output, final Exception failure)
+        {
+        this.index = index;
+        this.output = output;
+        this.failure = failure;
+        }
+
+    static BatchResult success(final int index, final byte[] output)
+        { return new BatchResult(index, output, null); }
+
+    static BatchResult failure(final int index, final Exception failure)
+        { return new BatchResult(index, null, failure); }
+
+    /**
+     * @return position of the item in the input, starting at 0.
+     */
+    public int getIndex()
+        { return index; }
+
+    /**
+     * @return true if the item was processed successfully.
+     */
+    public boolean isSuccess()
+        { return failure == null; }
+
+    /**
+     * @return sealed message or revealed payload; null on failure.
+     */
+    public byte[] getOutput()
+        { return output; }
+
+    /**
+     * @return why processing failed; null on success.
+     */
+    public Exception getFailure()
+        { return failure; }
+}
+//___EOF___
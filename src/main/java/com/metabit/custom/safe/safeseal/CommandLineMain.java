@@ -9,13 +9,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.Provider;
+import java.security.PublicKey;
 import java.security.Security;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
@@ -23,11 +25,17 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.List;
+import java.util.zip.Deflater;
 
 import javax.crypto.BadPaddingException;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import com.metabit.custom.safe.safeseal.impl.CompressionDictionary;
+import com.metabit.custom.safe.safeseal.impl.CompressionStage;
+import com.metabit.custom.safe.safeseal.impl.DictionaryTrainer;
+
 import picocli.CommandLine;
 
 /**
@@ -65,12 +73,22 @@ public class CommandLineMain implements Runnable {
     Path privateKeyInfo;
     @CommandLine.Option(names = { "-p", "--publicKey" })
     Path publicKeyInfo;
+    @CommandLine.Option(names = { "-K", "--keys" }, description = "key directory, or PKCS#12 keystore, to look up --keyID in")
+    Path keySource;
+    @CommandLine.Option(names = { "-k", "--keyID" })
+    String keyID;
+    @CommandLine.Option(names = { "--keystorePassword" }, description = "defaults to environment variable SAFE_KEYSTORE_PASSWORD")
+    String keystorePassword;
     @CommandLine.Option(names = { "-u", "--uniqueID" })
     private Long uniqueIDValue;
     @CommandLine.Option(names = { "-i", "--input" }, defaultValue = "-")
     String inputName;
     @CommandLine.Option(names = { "-o", "--output" }, defaultValue = "-")
     String outputName;
+    @CommandLine.Option(names = { "--dictionary" }, description = "preset compression dictionary, e.g. from train-dictionary; needed for revealing as well")
+    Path dictionaryFile;
+    @CommandLine.Option(names = { "--level" }, defaultValue = "9", description = "deflate level for sealing, 1 (fastest) to 9 (smallest)")
+    int compressionLevel = Deflater.BEST_COMPRESSION;
 
     CommandLineMain() throws NoSuchAlgorithmException {
 	Provider securityProvider = Security.getProvider("BC");
@@ -97,7 +115,6 @@ public class CommandLineMain implements Runnable {
     void seal() {
 	final int algorithmVersion = Integer.parseInt(algorithmVersionString); // workaround for picoCLI failure
 	// prepare keys: private key of sealer is required.
-	String fileContents;
 	try {
 	    // prepare I/O
 	    InputStream input;
@@ -113,27 +130,30 @@ public class CommandLineMain implements Runnable {
 		output = Files.newOutputStream(Paths.get(outputName));
 	    }
 	    // prepare private key
-	    fileContents = new String(Files.readAllBytes(privateKeyInfo), Charset.defaultCharset());
-	    final RSAPrivateKey sealerKey = readRSAPrivateKeyFromPKCS8PEM(fileContents);
-	    assert (sealerKey.getAlgorithm().equals("RSA"));
+	    final PrivateKey sealerKey = resolveKey(privateKeyInfo).getPrivateKey();
+	    if (sealerKey == null) {
+		throw new InvalidKeySpecException("no private key given");
+	    }
 
 	    // read stdin
 	    final byte[] payload = input.readAllBytes();
 	    // process
 	    final SAFESealSealer sealer = new SAFESealSealer(algorithmVersion);
 	    sealer.setCompressionMode(true);
+	    sealer.setCompressionStage(new CompressionStage(compressionLevel, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, false,
+		    registerDictionary()));
 	    final byte[] sealed = sealer.seal(sealerKey, null, payload, uniqueIDValue);
 	    // write stdout
 	    output.write(sealed);
 	    output.flush();
 	}
 	// error to stderr
-	catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException e) {
-	    System.err.println(e.getMessage());
-	    System.exit(1);
-	} catch (final BadPaddingException e) {
+	catch (final BadPaddingException e) {
 	    System.err.println(e.getMessage());
 	    System.exit(2);
+	} catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+	    System.err.println(e.getMessage());
+	    System.exit(1);
 	}
 	return; // or System.exit(0);
     }
@@ -141,8 +161,7 @@ public class CommandLineMain implements Runnable {
     @CommandLine.Command(name = "reveal")
     void unseal() {
 	final int algorithmVersion = Integer.parseInt(algorithmVersionString); // workaround for picoCLI failure
-	// prepare keys: private key of sealer is required.
-	String fileContents = null;
+	// prepare keys: public key of sealer is required.
 	try {
 	    // prepare I/O
 	    InputStream input;
@@ -159,13 +178,15 @@ public class CommandLineMain implements Runnable {
 	    }
 
 	    // prepare public key
-	    fileContents = new String(Files.readAllBytes(publicKeyInfo), Charset.defaultCharset());
-	    final RSAPublicKey sealerPublicKey = readRSAPublicKeyFromPEM(fileContents);
-	    assert (sealerPublicKey.getAlgorithm().equals("RSA"));
+	    final PublicKey sealerPublicKey = resolveKey(publicKeyInfo).getPublicKey();
+	    if (sealerPublicKey == null) {
+		throw new InvalidKeySpecException("no public key given");
+	    }
 
 	    // read stdin
 	    final byte[] sealedData = input.readAllBytes();
 	    // process
+	    registerDictionary();
 	    final SAFESealRevealer revealer = new SAFESealRevealer(algorithmVersion);
 	    final byte[] revealedData = revealer.reveal(sealerPublicKey, null, sealedData);
 	    // write stdout
@@ -173,16 +194,88 @@ public class CommandLineMain implements Runnable {
 	    output.flush();
 	}
 	// error to stderr
-	catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException e) {
-	    System.err.println(e.getMessage());
-	    System.exit(1);
-	} catch (final BadPaddingException e) {
+	catch (final BadPaddingException e) {
 	    System.err.println(e.getMessage());
 	    System.exit(2);
+	} catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+	    System.err.println(e.getMessage());
+	    System.exit(1);
 	}
 	return; // or System.exit(0);
     }
 
+    /**
+     * register the dictionary given with --dictionary, so envelopes referring to it can be revealed.
+     *
+     * @return the dictionary, or null if none was given
+     * @throws IOException if the file cannot be read
+     */
+    CompressionDictionary registerDictionary() throws IOException {
+	if (dictionaryFile == null) {
+	    return null;
+	}
+	return CompressionDictionary.register(new CompressionDictionary(Files.readAllBytes(dictionaryFile)));
+    }
+
+    @CommandLine.Command(name = "train-dictionary", description = "build a preset compression dictionary from sample payloads, one per file.")
+    void trainDictionary(
+	    @CommandLine.Option(names = { "-s", "--size" }, defaultValue = "4096") final int dictionarySize,
+	    @CommandLine.Parameters(arity = "1..*", paramLabel = "SAMPLE") final List<Path> sampleFiles) {
+	try {
+	    final byte[] dictionary = DictionaryTrainer.train(DictionaryTrainer.readSamples(sampleFiles), dictionarySize);
+	    if (dictionary.length == 0) {
+		System.err.println("samples have nothing in common");
+		System.exit(1);
+	    }
+	    if (outputName.equals("-")) {
+		System.out.write(dictionary);
+		System.out.flush();
+	    } else {
+		try (OutputStream output = Files.newOutputStream(Paths.get(outputName))) {
+		    output.write(dictionary);
+		}
+	    }
+	    // the ID is what recipients see in the envelope.
+	    System.err.println("dictionary ID " + Long.toHexString(new CompressionDictionary(dictionary).getId()) + ", "
+		    + dictionary.length + " byte");
+	} catch (IOException | IllegalArgumentException e) {
+	    System.err.println(e.getMessage());
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * get the key to use: by ID from the key directory or keystore, if an ID was given; from the key file otherwise.
+     *
+     * @param keyFile PEM or DER key file
+     * @return the key entry
+     * @throws IOException              if a file cannot be read
+     * @throws GeneralSecurityException if a key cannot be parsed, or there is none with the given ID
+     */
+    KeyRegistry.Entry resolveKey(final Path keyFile) throws IOException, GeneralSecurityException {
+	if (keyID == null) {
+	    if (keyFile == null) {
+		throw new InvalidKeySpecException("key file or key ID required");
+	    }
+	    return KeyRegistry.readKeyFile(keyFile);
+	}
+	if (keySource == null) {
+	    throw new InvalidKeySpecException("key ID requires a key directory or keystore");
+	}
+	final KeyRegistry registry = new KeyRegistry();
+	if (Files.isDirectory(keySource)) {
+	    registry.addDirectory(keySource);
+	} else {
+	    final String password = (keystorePassword != null) ? keystorePassword : System.getenv("SAFE_KEYSTORE_PASSWORD");
+	    registry.addKeyStore(keySource, (password == null) ? null : password.toCharArray());
+	}
+	final KeyRegistry.Entry entry = registry.get(keyID);
+	if (entry == null) {
+	    throw new InvalidKeySpecException("no key " + keyID + " in " + keySource);
+	}
+	return entry;
+    }
+
     /**
      * read a RSA public key from an PEM file (see RFC5280, SubjectPublicKeyInfo).
      *
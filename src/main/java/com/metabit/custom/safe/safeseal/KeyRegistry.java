@@ -0,0 +1,785 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.iip.shared.SharedConstants;
+import com.metabit.custom.safe.iip2.SealingEngine;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.XECKey;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * keys loaded once, looked up by key ID.
+ * <p>
+ * Keys come from directories of PEM or DER files, and from PKCS#12 keystores. In a directory, the key ID is
+ * the file name up to the first dot; "meter1.private.pem" and "meter1.public.pem" make up one entry. In a
+ * keystore, it is the alias. Each entry holds the parsed keys, the algorithm detected for them, and the key size,
+ * so callers neither parse PEM nor guess key sizes per message.
+ * <p>
+ * Sources are checked for changes by a background thread, once per check interval; only changed files are parsed again.
+ * Lookups only read the keys as last published, so they never list directories or parse files themselves.
+ * A file or keystore that fails to load keeps the keys it had, and the problem is reported by {@link #getLoadProblems()};
+ * it is not parsed again until it changes.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class KeyRegistry
+{
+    /** default minimum time between two checks of the sources for changes. */
+    public static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofSeconds(2);
+
+    private static final KeyRegistry SHARED_INSTANCE = new KeyRegistry();
+    private static final Pattern     PEM_BLOCK       = Pattern.compile("-----BEGIN ([A-Z0-9 ]+)-----([^-]*)-----END \\1-----");
+    private static final Set<String> KEY_FILE_SUFFIXES = Set.of("pem", "der", "key", "pub", "crt", "cer");
+    private static final String      KEY_PROBLEM     = "key "; // prefix for problems with entries, as opposed to files
+    private static final ScheduledExecutorService CHECKER = Executors.newSingleThreadScheduledExecutor(runnable->
+        {
+        Thread thread = new Thread(runnable, "safe-key-registry");
+        thread.setDaemon(true);
+        return thread;
+        });
+
+    private final ReentrantLock             reloadLock = new ReentrantLock();
+    private final List<Source>              sources    = new ArrayList<>(); // guarded by reloadLock
+    private final Map<String, String>       problems   = new ConcurrentHashMap<>();
+    private final LongAdder                 reloads    = new LongAdder();
+    private volatile Map<String, Entry>     entries    = Collections.emptyMap();
+    private long                            checkIntervalNanos = DEFAULT_CHECK_INTERVAL.toNanos(); // guarded by reloadLock
+    private ScheduledFuture<?>              checkTask; // guarded by reloadLock
+
+    /**
+     * get the instance used when no other has been configured.
+     *
+     * @return the shared instance
+     */
+    public static KeyRegistry getSharedInstance()
+        {
+        return SHARED_INSTANCE;
+        }
+
+    /**
+     * one registered key, or key pair.
+     */
+    public static final class Entry
+    {
+        private final String        keyId;
+        private final PrivateKey    privateKey;
+        private final PublicKey     publicKey;
+        private final AlgorithmSpec algorithmSpec;
+        private final int           keySizeInBits;
+        // key setup for version 2, done on first use by SAFESealSealer resp. SAFESealRevealer and shared from then on.
+        // A changed source yields a new entry, so these never outlive the key they were made for.
+        volatile SealingEngine      sealingEngine;
+        volatile SealingEngine      revealingEngine;
+
+        Entry(final String keyId, final PrivateKey privateKey, final PublicKey publicKey, final AlgorithmSpec algorithmSpec, final int keySizeInBits)
+            {
+            this.keyId = keyId;
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+            this.algorithmSpec = algorithmSpec;
+            this.keySizeInBits = keySizeInBits;
+            }
+
+        /**
+         * @return the key ID
+         */
+        public String getKeyId()
+            { return keyId; }
+
+        /**
+         * @return the private key; null if only the public key is registered.
+         */
+        public PrivateKey getPrivateKey()
+            { return privateKey; }
+
+        /**
+         * @return the public key; for RSA, derived from the private key if not registered separately.
+         */
+        public PublicKey getPublicKey()
+            { return publicKey; }
+
+        /**
+         * @return RSA1024, RSA2048 or RSA4096 for sealing keys; ECDH or X25519 for key agreement keys.
+         */
+        public AlgorithmSpec getAlgorithmSpec()
+            { return algorithmSpec; }
+
+        /**
+         * @return key size in bit
+         */
+        public int getKeySizeInBits()
+            { return keySizeInBits; }
+
+        // RSA keys are for sealing; the others for key agreement.
+        boolean isSealingKey()
+            {
+            return (algorithmSpec == AlgorithmSpecCollection.RSA1024) || (algorithmSpec == AlgorithmSpecCollection.RSA2048) || (algorithmSpec == AlgorithmSpecCollection.RSA4096);
+            }
+
+        @Override
+        public String toString()
+            {
+            return keyId+" ("+algorithmSpec.getName()+", "+keySizeInBits+" bit"+((privateKey != null) ? ", private" : "")+")";
+            }
+    }
+
+    /**
+     * set the time between two background checks of the sources for changes.
+     *
+     * @param interval the interval; zero for no background checks, only explicit calls to {@link #refresh()}.
+     */
+    public void setCheckInterval(final Duration interval)
+        {
+        if ((interval == null) || interval.isNegative())
+            throw new IllegalArgumentException("invalid interval");
+        reloadLock.lock();
+        try
+            {
+            checkIntervalNanos = interval.toNanos();
+            scheduleChecks();
+            }
+        finally
+            {
+            reloadLock.unlock();
+            }
+        }
+
+    /**
+     * add a directory of PEM or DER key files, and load them.
+     * Files that fail to load are reported by {@link #getLoadProblems()}.
+     *
+     * @param directory the directory
+     * @throws IOException if the directory cannot be read
+     */
+    public void addDirectory(final Path directory) throws IOException
+        {
+        if (!Files.isDirectory(directory))
+            throw new NotDirectoryException(directory.toString());
+        DirectorySource source = new DirectorySource(directory);
+        reloadLock.lock();
+        try
+            {
+            source.list(); // fail here, not later
+            source.update(problems);
+            sources.add(source);
+            rebuild();
+            scheduleChecks();
+            }
+        finally
+            {
+            reloadLock.unlock();
+            }
+        }
+
+    /**
+     * add a PKCS#12 keystore, and load it.
+     *
+     * @param keyStore path of the keystore
+     * @param password password for the keystore and its keys
+     * @throws IOException              if the keystore cannot be read
+     * @throws GeneralSecurityException if the keystore or a key in it cannot be parsed
+     */
+    public void addKeyStore(final Path keyStore, final char[] password) throws IOException, GeneralSecurityException
+        {
+        KeyStoreSource source = new KeyStoreSource(keyStore, password);
+        reloadLock.lock();
+        try
+            {
+            source.load();
+            sources.add(source);
+            rebuild();
+            scheduleChecks();
+            }
+        finally
+            {
+            reloadLock.unlock();
+            }
+        }
+
+    /**
+     * look up a key.
+     *
+     * @param keyId the key ID
+     * @return the entry; null if there is none with this ID.
+     */
+    public Entry get(final String keyId)
+        {
+        return (keyId == null) ? null : entries.get(keyId);
+        }
+
+    /**
+     * @return IDs of all registered keys, sorted.
+     */
+    public Set<String> getKeyIds()
+        {
+        return Collections.unmodifiableSet(new TreeSet<>(entries.keySet()));
+        }
+
+    /**
+     * check the sources for changes now, and reload what changed.
+     *
+     * @return true if the registered keys changed.
+     */
+    public boolean refresh()
+        {
+        reloadLock.lock();
+        try
+            {
+            return checkSources();
+            }
+        finally
+            {
+            reloadLock.unlock();
+            }
+        }
+
+    /**
+     * @return files or keystores that failed to load, with the reason; empty if all is well.
+     */
+    public Map<String, String> getLoadProblems()
+        {
+        return new TreeMap<>(problems);
+        }
+
+    /**
+     * @return number of keys, reloads and current load problems; for monitoring.
+     */
+    public Map<String, Long> getMetrics()
+        {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("keys", (long) entries.size());
+        metrics.put("reloads", reloads.sum());
+        metrics.put("problems", (long) problems.size());
+        return metrics;
+        }
+
+    // called with reloadLock held; the task only holds the registry weakly, so registries nobody uses any more stop being checked.
+    private void scheduleChecks()
+        {
+        if (checkTask != null)
+            checkTask.cancel(false);
+        checkTask = null;
+        if ((checkIntervalNanos == 0) || sources.isEmpty())
+            return;
+        Check check = new Check(this);
+        checkTask = CHECKER.scheduleWithFixedDelay(check, checkIntervalNanos, checkIntervalNanos, TimeUnit.NANOSECONDS);
+        check.task = checkTask;
+        }
+
+    private static final class Check implements Runnable
+    {
+        private final WeakReference<KeyRegistry> registry;
+        volatile ScheduledFuture<?>              task;
+
+        Check(final KeyRegistry registry)
+            { this.registry = new WeakReference<>(registry); }
+
+        @Override
+        public void run()
+            {
+            KeyRegistry target = registry.get();
+            if (target == null)
+                {
+                ScheduledFuture<?> scheduled = task;
+                if (scheduled != null)
+                    scheduled.cancel(false);
+                return;
+                }
+            try
+                {
+                target.refresh();
+                }
+            catch (RuntimeException ex) // an exception would end the schedule
+                {
+                target.problems.put("refresh", String.valueOf(ex));
+                }
+            }
+    }
+
+    private boolean checkSources()
+        {
+        boolean changed = false;
+        for (Source source : sources)
+            changed |= source.update(problems);
+        if (changed)
+            rebuild();
+        return changed;
+        }
+
+    // first source wins on duplicate IDs; private and public key of one ID may come from different files.
+    private void rebuild()
+        {
+        problems.keySet().removeIf(name->name.startsWith(KEY_PROBLEM));
+        Map<String, PrivateKey> privateKeys = new LinkedHashMap<>();
+        Map<String, PublicKey> publicKeys = new LinkedHashMap<>();
+        for (Source source : sources)
+            for (Map.Entry<String, List<Key>> loaded : source.keys())
+                for (Key key : loaded.getValue())
+                    {
+                    String keyId = loaded.getKey();
+                    Key previous = (key instanceof PrivateKey) ? privateKeys.putIfAbsent(keyId, (PrivateKey) key) : publicKeys.putIfAbsent(keyId, (PublicKey) key);
+                    if ((previous != null) && !previous.equals(key))
+                        problems.put(KEY_PROBLEM+keyId, "duplicate key ID, ignored in "+source);
+                    }
+        Map<String, Entry> rebuilt = new HashMap<>(); // not modified after publication
+        Set<String> keyIds = new HashSet<>(privateKeys.keySet());
+        keyIds.addAll(publicKeys.keySet());
+        for (String keyId : keyIds)
+            {
+            try
+                {
+                rebuilt.put(keyId, createEntry(keyId, privateKeys.get(keyId), publicKeys.get(keyId)));
+                }
+            catch (GeneralSecurityException ex)
+                {
+                problems.put(KEY_PROBLEM+keyId, ex.getMessage());
+                }
+            }
+        entries = rebuilt;
+        reloads.increment();
+        }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // parsing
+
+    /**
+     * read a single key file, without registering it.
+     *
+     * @param file PEM or DER file with a private key, a public key, or both.
+     * @return the entry, with the file name up to the first dot as key ID.
+     * @throws IOException              if the file cannot be read
+     * @throws GeneralSecurityException if the contents cannot be parsed
+     */
+    static Entry readKeyFile(final Path file) throws IOException, GeneralSecurityException
+        {
+        PrivateKey privateKey = null;
+        PublicKey publicKey = null;
+        for (Key key : parseKeys(Files.readAllBytes(file)))
+            {
+            if (key instanceof PrivateKey)
+                privateKey = (PrivateKey) key;
+            else
+                publicKey = (PublicKey) key;
+            }
+        return createEntry(keyIdOf(file), privateKey, publicKey);
+        }
+
+    static Entry createEntry(final String keyId, final PrivateKey privateKey, PublicKey publicKey) throws GeneralSecurityException
+        {
+        if ((publicKey == null) && (privateKey instanceof RSAPrivateCrtKey))
+            {
+            RSAPrivateCrtKey crt = (RSAPrivateCrtKey) privateKey;
+            publicKey = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(crt.getModulus(), crt.getPublicExponent()));
+            }
+        if ((privateKey instanceof RSAKey) && (publicKey instanceof RSAKey)
+                && !((RSAKey) privateKey).getModulus().equals(((RSAKey) publicKey).getModulus()))
+            throw new InvalidKeyException("private and public key of "+keyId+" do not match");
+        Key key = (privateKey != null) ? privateKey : publicKey;
+        if (key == null)
+            throw new InvalidKeyException("no key for "+keyId);
+        int keySize = keySizeOf(key);
+        return new Entry(keyId, privateKey, publicKey, algorithmSpecOf(key, keySize), keySize);
+        }
+
+    private static int keySizeOf(final Key key) throws InvalidKeyException
+        {
+        if (key instanceof RSAKey)
+            return ((RSAKey) key).getModulus().bitLength();
+        if (key instanceof ECKey)
+            return ((ECKey) key).getParams().getOrder().bitLength();
+        if (isX25519(key))
+            return 255;
+        throw new InvalidKeyException("unsupported key algorithm "+key.getAlgorithm());
+        }
+
+    private static AlgorithmSpec algorithmSpecOf(final Key key, final int keySize) throws InvalidKeyException
+        {
+        if (key instanceof RSAKey)
+            {
+            switch (keySize)
+                {
+                case 1024:
+                    return AlgorithmSpecCollection.RSA1024;
+                case 2048:
+                    return AlgorithmSpecCollection.RSA2048;
+                case 4096:
+                    return AlgorithmSpecCollection.RSA4096;
+                default:
+                    throw new InvalidKeyException("RSA key of unsupported size "+keySize);
+                }
+            }
+        if (key instanceof ECKey)
+            return AlgorithmSpecCollection.ECDH;
+        return AlgorithmSpecCollection.X25519; // keySizeOf() let nothing else through
+        }
+
+    // BC calls them "X25519", SunEC "XDH" with named parameters.
+    private static boolean isX25519(final Key key)
+        {
+        if ("X25519".equals(key.getAlgorithm()))
+            return true;
+        return (key instanceof XECKey) && (((XECKey) key).getParams() instanceof NamedParameterSpec)
+                && "X25519".equals(((NamedParameterSpec) ((XECKey) key).getParams()).getName());
+        }
+
+    static List<Key> parseKeys(final byte[] contents) throws GeneralSecurityException
+        {
+        List<Key> keys = new ArrayList<>();
+        String text = new String(contents, StandardCharsets.US_ASCII);
+        if (!text.contains("-----BEGIN "))
+            {
+            keys.add(parseDER(contents));
+            return keys;
+            }
+        Matcher matcher = PEM_BLOCK.matcher(text);
+        while (matcher.find())
+            {
+            byte[] der = Base64.getMimeDecoder().decode(matcher.group(2));
+            switch (matcher.group(1))
+                {
+                case "PRIVATE KEY":
+                    keys.add(parsePKCS8(der));
+                    break;
+                case "PUBLIC KEY":
+                    keys.add(parseX509(der));
+                    break;
+                case "RSA PRIVATE KEY": // PKCS#1, as written by older openssl versions
+                    org.bouncycastle.asn1.pkcs.RSAPrivateKey rsa = org.bouncycastle.asn1.pkcs.RSAPrivateKey.getInstance(der);
+                    keys.add(KeyFactory.getInstance("RSA").generatePrivate(new RSAPrivateCrtKeySpec(rsa.getModulus(), rsa.getPublicExponent(),
+                            rsa.getPrivateExponent(), rsa.getPrime1(), rsa.getPrime2(), rsa.getExponent1(), rsa.getExponent2(), rsa.getCoefficient())));
+                    break;
+                case "CERTIFICATE":
+                    keys.add(parseCertificate(der));
+                    break;
+                default:
+                    throw new InvalidKeyException("unsupported PEM block "+matcher.group(1));
+                }
+            }
+        if (keys.isEmpty())
+            throw new InvalidKeyException("no key found");
+        return keys;
+        }
+
+    private static Key parseDER(final byte[] der) throws GeneralSecurityException
+        {
+        ASN1Sequence sequence;
+        try
+            {
+            sequence = ASN1Sequence.getInstance(der);
+            }
+        catch (IllegalArgumentException ex)
+            {
+            throw new InvalidKeyException("neither PEM nor DER");
+            }
+        if (sequence.getObjectAt(0) instanceof ASN1Integer) // PKCS#8 starts with its version
+            return parsePKCS8(der);
+        if (sequence.getObjectAt(0) instanceof ASN1Sequence && (sequence.size() == 2)) // algorithm and key bits
+            return parseX509(der);
+        return parseCertificate(der);
+        }
+
+    private static PrivateKey parsePKCS8(final byte[] der) throws GeneralSecurityException
+        {
+        ASN1ObjectIdentifier algorithm = PrivateKeyInfo.getInstance(der).getPrivateKeyAlgorithm().getAlgorithm();
+        return KeyFactory.getInstance(keyFactoryAlgorithm(algorithm)).generatePrivate(new PKCS8EncodedKeySpec(der));
+        }
+
+    private static PublicKey parseX509(final byte[] der) throws GeneralSecurityException
+        {
+        ASN1ObjectIdentifier algorithm = SubjectPublicKeyInfo.getInstance(der).getAlgorithm().getAlgorithm();
+        return KeyFactory.getInstance(keyFactoryAlgorithm(algorithm)).generatePublic(new X509EncodedKeySpec(der));
+        }
+
+    private static PublicKey parseCertificate(final byte[] der) throws GeneralSecurityException
+        {
+        return CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der)).getPublicKey();
+        }
+
+    private static String keyFactoryAlgorithm(final ASN1ObjectIdentifier algorithm) throws NoSuchAlgorithmException
+        {
+        if (algorithm.equals(PKCSObjectIdentifiers.rsaEncryption))
+            return "RSA";
+        if (algorithm.equals(X9ObjectIdentifiers.id_ecPublicKey))
+            return "EC";
+        if (algorithm.equals(SharedConstants.OID_X25519_ALGORITHM))
+            return "XDH";
+        throw new NoSuchAlgorithmException("unsupported key algorithm "+algorithm);
+        }
+
+    private static String keyIdOf(final Path file)
+        {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
+        }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // sources
+
+    private interface Source
+    {
+        /** reload what changed; returns true if the keys changed. Problems are recorded, not thrown. */
+        boolean update(Map<String, String> problems);
+
+        /** keys by key ID */
+        Iterable<Map.Entry<String, List<Key>>> keys();
+    }
+
+    private static final class DirectorySource implements Source
+    {
+        private final Path             directory;
+        private Map<Path, LoadedFile>  files  = new TreeMap<>();
+        private Map<Path, LoadedFile>  failed = new HashMap<>(); // files that did not parse, without keys; skipped until they change
+
+        DirectorySource(final Path directory)
+            { this.directory = directory; }
+
+        List<Path> list() throws IOException
+            {
+            List<Path> keyFiles = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+                {
+                for (Path file : stream)
+                    {
+                    String name = file.getFileName().toString();
+                    String suffix = name.substring(name.lastIndexOf('.')+1).toLowerCase();
+                    if (Files.isRegularFile(file) && KEY_FILE_SUFFIXES.contains(suffix))
+                        keyFiles.add(file);
+                    }
+                }
+            return keyFiles;
+            }
+
+        @Override
+        public boolean update(final Map<String, String> problems)
+            {
+            List<Path> listed;
+            try
+                {
+                listed = list();
+                problems.remove(directory.toString());
+                }
+            catch (IOException ex)
+                {
+                problems.put(directory.toString(), "cannot list: "+ex.getMessage());
+                return false; // keep what we have
+                }
+            Map<Path, LoadedFile> updated = new TreeMap<>();
+            Map<Path, LoadedFile> stillFailed = new HashMap<>();
+            boolean changed = false;
+            for (Path file : listed)
+                {
+                LoadedFile previous = files.get(file);
+                BasicFileAttributes attributes = null;
+                try
+                    {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    LoadedFile failedBefore = failed.get(file);
+                    if ((failedBefore != null) && failedBefore.isUnchanged(attributes))
+                        {
+                        stillFailed.put(file, failedBefore); // the problem stays reported
+                        if (previous != null)
+                            updated.put(file, previous);
+                        continue;
+                        }
+                    if ((previous != null) && previous.isUnchanged(attributes))
+                        {
+                        updated.put(file, previous);
+                        continue;
+                        }
+                    updated.put(file, new LoadedFile(attributes.lastModifiedTime().toMillis(), attributes.size(), parseKeys(Files.readAllBytes(file))));
+                    problems.remove(file.toString());
+                    changed = true;
+                    }
+                catch (IOException | GeneralSecurityException | IllegalArgumentException ex)
+                    {
+                    problems.put(file.toString(), String.valueOf(ex.getMessage()));
+                    if (attributes != null)
+                        stillFailed.put(file, new LoadedFile(attributes.lastModifiedTime().toMillis(), attributes.size(), List.of()));
+                    if (previous != null)
+                        updated.put(file, previous); // probably half-written; tried again once it changes
+                    }
+                }
+            for (Path gone : failed.keySet())
+                if (!stillFailed.containsKey(gone) && !updated.containsKey(gone))
+                    problems.remove(gone.toString());
+            changed |= !updated.keySet().equals(files.keySet());
+            files = updated;
+            failed = stillFailed;
+            return changed;
+            }
+
+        @Override
+        public Iterable<Map.Entry<String, List<Key>>> keys()
+            {
+            List<Map.Entry<String, List<Key>>> keys = new ArrayList<>();
+            for (Map.Entry<Path, LoadedFile> file : files.entrySet())
+                keys.add(Map.entry(keyIdOf(file.getKey()), file.getValue().keys));
+            return keys;
+            }
+
+        @Override
+        public String toString()
+            { return directory.toString(); }
+    }
+
+    private static final class LoadedFile
+    {
+        final long      modified;
+        final long      size;
+        final List<Key> keys;
+
+        LoadedFile(final long modified, final long size, final List<Key> keys)
+            {
+            this.modified = modified;
+            this.size = size;
+            this.keys = keys;
+            }
+
+        boolean isUnchanged(final BasicFileAttributes attributes)
+            { return (modified == attributes.lastModifiedTime().toMillis()) && (size == attributes.size()); }
+    }
+
+    private static final class KeyStoreSource implements Source
+    {
+        private final Path                   path;
+        private final char[]                 password;
+        private long                         modified = -1;
+        private long                         size     = -1;
+        private LoadedFile                   failed; // stamp of the version that did not load; skipped until it changes
+        private Map<String, List<Key>>       keys     = Collections.emptyMap();
+
+        KeyStoreSource(final Path path, final char[] password)
+            {
+            this.path = path;
+            this.password = (password == null) ? new char[0] : password.clone();
+            }
+
+        void load() throws IOException, GeneralSecurityException
+            {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(path))
+                {
+                keyStore.load(in, password);
+                }
+            Map<String, List<Key>> loaded = new TreeMap<>();
+            for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); )
+                {
+                String alias = aliases.nextElement();
+                List<Key> aliasKeys = new ArrayList<>(2);
+                if (keyStore.isKeyEntry(alias))
+                    {
+                    Key key = keyStore.getKey(alias, password);
+                    if (key instanceof PrivateKey)
+                        aliasKeys.add(key);
+                    }
+                Certificate certificate = keyStore.getCertificate(alias);
+                if (certificate != null)
+                    aliasKeys.add(certificate.getPublicKey());
+                if (!aliasKeys.isEmpty())
+                    loaded.put(alias, aliasKeys);
+                }
+            keys = loaded;
+            modified = attributes.lastModifiedTime().toMillis();
+            size = attributes.size();
+            }
+
+        @Override
+        public boolean update(final Map<String, String> problems)
+            {
+            BasicFileAttributes attributes = null;
+            try
+                {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if ((attributes.lastModifiedTime().toMillis() == modified) && (attributes.size() == size))
+                    return false;
+                if ((failed != null) && failed.isUnchanged(attributes))
+                    return false;
+                load();
+                failed = null;
+                problems.remove(path.toString());
+                return true;
+                }
+            catch (IOException | GeneralSecurityException ex)
+                {
+                problems.put(path.toString(), String.valueOf(ex.getMessage()));
+                if (attributes != null)
+                    failed = new LoadedFile(attributes.lastModifiedTime().toMillis(), attributes.size(), List.of());
+                return false; // keep what we have
+                }
+            }
+
+        @Override
+        public Iterable<Map.Entry<String, List<Key>>> keys()
+            { return keys.entrySet(); }
+
+        @Override
+        public String toString()
+            { return path.toString(); }
+    }
+}
+//___EOF___
@@ -0,0 +1,102 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * runs the items of a batch on an executor, and hands the results on in input order.
+ * The number of items in flight is bounded, so arbitrarily long inputs run in constant memory.
+ * A null input is reported as failed right away, without running the item for it.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+final class OrderedBatch
+{
+    /** upper limit of items submitted, but not yet handed on. */
+    static final int MAX_IN_FLIGHT = 1024;
+
+    @FunctionalInterface
+    interface Item
+    {
+        /**
+         * @param sequence position of the input among the non-null ones; e.g. for numbering unique IDs.
+         * @param input    the input, never null
+         * @return the output
+         * @throws Exception reported as failure of this item
+         */
+        byte[] process(int sequence, byte[] input) throws Exception;
+    }
+
+    private OrderedBatch()
+        { }
+
+    /**
+     * run the batch.
+     *
+     * @param inputs   the inputs
+     * @param item     processing per input
+     * @param executor executor to run the items on
+     * @param sink     receives one result per input, in input order, on the calling thread
+     * @throws RejectedExecutionException if the executor refuses an item. Items still in flight are cancelled, and their
+     *                                    results dropped; the sink has received exactly the results for the items
+     *                                    below the last index named in the message.
+     */
+    static void run(final Iterator<byte[]> inputs, final Item item, final Executor executor, final Consumer<BatchResult> sink)
+        {
+        ArrayDeque<CompletableFuture<BatchResult>> pending = new ArrayDeque<>();
+        int index = 0;
+        int sequence = 0;
+        int handedOn = 0;
+        while (inputs.hasNext())
+            {
+            if (pending.size() >= MAX_IN_FLIGHT)
+                {
+                sink.accept(pending.removeFirst().join());
+                handedOn++;
+                }
+            final int current = index++;
+            final byte[] input = inputs.next();
+            if (input == null)
+                {
+                pending.addLast(CompletableFuture.completedFuture(BatchResult.failure(current, new IllegalArgumentException("no input"))));
+                continue;
+                }
+            final int number = sequence++;
+            try
+                {
+                pending.addLast(CompletableFuture.supplyAsync(()->apply(item, current, number, input), executor));
+                }
+            catch (RejectedExecutionException ex)
+                {
+                // tasks not yet started are skipped once cancelled; running ones finish, but nobody waits for them.
+                pending.forEach(future->future.cancel(false));
+                throw new RejectedExecutionException("batch aborted: item "+current+" rejected by the executor; results handed on for the items below "+handedOn, ex);
+                }
+            }
+        while (!pending.isEmpty())
+            sink.accept(pending.removeFirst().join());
+        }
+
+    private static BatchResult apply(final Item item, final int index, final int sequence, final byte[] input)
+        {
+        try
+            {
+            return BatchResult.success(index, item.process(sequence, input));
+            }
+        catch (Exception ex)
+            {
+            return BatchResult.failure(index, ex);
+            }
+        }
+}
+//___EOF___
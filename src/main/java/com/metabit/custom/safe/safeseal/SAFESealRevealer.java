@@ -5,8 +5,11 @@
  */
 package com.metabit.custom.safe.safeseal;
 
-import com.metabit.custom.safe.iip2.SAFESeal2;
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip2.SealingEngine;
 import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
+import com.metabit.custom.safe.safeseal.impl.ProviderSelectingCryptoFactory;
 import com.metabit.custom.safe.safeseal.impl.SAFESeal;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -17,6 +20,14 @@ import javax.crypto.ShortBufferException;
 import java.io.IOException;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -30,7 +41,9 @@ public class SAFESealRevealer
 {
     private final int version;
     private Provider securityProvider;
-    private final CryptoFactoryImpl cryptoFactory;
+    private final CryptoFactory cryptoFactory;
+    private volatile SealingEngine sealingEngine; // version 2 only; reused as long as the sender key stays the same
+    private volatile Executor batchExecutor = ForkJoinPool.commonPool();
 
     /**
      * constructor with default algorithm setup.
@@ -46,7 +59,20 @@ public class SAFESealRevealer
             securityProvider = new BouncyCastleProvider();
             Security.addProvider(securityProvider);
             }
-        this.cryptoFactory = new CryptoFactoryImpl(securityProvider);
+        this.cryptoFactory = ProviderSelectingCryptoFactory.isEnabled()
+                ? ProviderSelectingCryptoFactory.getSharedInstance()
+                : CryptoFactoryImpl.getSharedInstance();
+        }
+
+    /**
+     * set the executor the batch methods run on. default: the common ForkJoinPool.
+     * @param executor executor to use
+     */
+    public void setBatchExecutor(final Executor executor)
+        {
+        if (executor == null)
+            throw new IllegalArgumentException("executor must not be null");
+        this.batchExecutor = executor;
         }
 
     /**
@@ -102,13 +128,199 @@ public class SAFESealRevealer
             }
         }
 
+    /**
+     * reveal many sealed messages from the same sender.
+     * Key setup is done once for the whole batch; the messages are revealed in parallel on the batch executor.
+     *
+     * @param singleSenderPublicKey the public key of the sender
+     * @param recipientPrivateKey   the private key of the recipient
+     * @param sealedMessages        the sealed messages
+     * @return one result per message, in input order. Failed items are reported there with a BadPaddingException, as with {@link #reveal(PublicKey, PrivateKey, byte[])}.
+     * @throws BadPaddingException if the keys cannot be set up for the batch; no details, as with {@link #reveal(PublicKey, PrivateKey, byte[])}.
+     */
+    public List<BatchResult> revealAll(final PublicKey singleSenderPublicKey, final PrivateKey recipientPrivateKey, final List<byte[]> sealedMessages)
+            throws BadPaddingException
+        {
+        List<BatchResult> results = new ArrayList<>(sealedMessages.size());
+        revealAll(singleSenderPublicKey, recipientPrivateKey, sealedMessages.iterator(), results::add);
+        return results;
+        }
+
+    /**
+     * reveal a stream of sealed messages from the same sender, for inputs too large to hold in memory.
+     * Results are passed to the sink in input order, on the calling thread; only a bounded number of items is in flight at any time.
+     *
+     * @param singleSenderPublicKey the public key of the sender
+     * @param recipientPrivateKey   the private key of the recipient
+     * @param sealedMessages        the sealed messages; null entries are reported as failed, without any work done for them.
+     * @param sink                  receives one result per message
+     * @throws BadPaddingException if the keys cannot be set up for the batch; nothing has been passed to the sink then.
+     * @throws java.util.concurrent.RejectedExecutionException if the batch executor refuses an item; see {@link OrderedBatch#run}.
+     */
+    public void revealAll(final PublicKey singleSenderPublicKey, final PrivateKey recipientPrivateKey, final Iterator<byte[]> sealedMessages, final Consumer<BatchResult> sink)
+            throws BadPaddingException
+        {
+        final OrderedBatch.Item item;
+        switch (version)
+            {
+            case 0:
+            case 1:
+                // SAFESeal instances are not thread-safe; each item borrows an idle one of this batch, or makes one.
+                final Queue<SAFESeal> idle = new ConcurrentLinkedQueue<>();
+                item = (sequence, sealedMessage)->
+                    {
+                    SAFESeal revealer = idle.poll();
+                    if (revealer == null)
+                        {
+                        revealer = new SAFESeal(cryptoFactory);
+                        revealer.setKeyAgreementMode(version == 0);
+                        }
+                    try
+                        {
+                        return revealer.reveal(sealedMessage, recipientPrivateKey, singleSenderPublicKey);
+                        }
+                    catch (BadPaddingException e)
+                        {
+                        throw e;
+                        }
+                    catch (Exception e)
+                        {
+                        throw new BadPaddingException(); // same as reveal(): no details
+                        }
+                    finally
+                        {
+                        idle.offer(revealer);
+                        }
+                    };
+                break;
+            case 2:
+                final SealingEngine engine;
+                try
+                    {
+                    engine = engineFor(singleSenderPublicKey);
+                    }
+                catch (GeneralSecurityException | IllegalArgumentException e)
+                    {
+                    throw new BadPaddingException(); // same as reveal(): no details
+                    }
+                item = revealing(engine);
+                break;
+            default:
+                throw new UnsupportedOperationException("version not supported");
+            }
+        OrderedBatch.run(sealedMessages, item, batchExecutor, sink);
+        }
+
+    /**
+     * reveal a sealed message with a sender key from the key registry.
+     * For version 2, the key setup is done once per registered key and shared by all revealers.
+     *
+     * @param sender        registry entry holding the public key of the sender
+     * @param sealedMessage the sealed message
+     * @return validated payload data which was sealed
+     * @throws java.security.spec.InvalidKeySpecException if the entry holds a key not suitable for revealing
+     * @throws javax.crypto.BadPaddingException           if processing failed in some way, as with {@link #reveal(PublicKey, PrivateKey, byte[])}.
+     */
+    public final byte[] reveal(final KeyRegistry.Entry sender, final byte[] sealedMessage)
+            throws InvalidKeySpecException, BadPaddingException
+        {
+        if (version != 2)
+            return reveal(sender.getPublicKey(), null, sealedMessage);
+        final SealingEngine engine = engineFor(sender);
+        try
+            {
+            return engine.reveal(sealedMessage);
+            }
+        catch (GeneralSecurityException | IllegalArgumentException e)
+            {
+            throw new BadPaddingException(); // same as reveal(): no details
+            }
+        }
+
+    /**
+     * reveal a stream of sealed messages with a sender key from the key registry.
+     * Same as {@link #revealAll(PublicKey, PrivateKey, Iterator, Consumer)}; for version 2, the key setup of the entry is reused.
+     *
+     * @param sender         registry entry holding the public key of the sender
+     * @param sealedMessages the sealed messages; null entries are reported as failed, without any work done for them.
+     * @param sink           receives one result per message
+     * @throws InvalidKeySpecException if the entry holds a key not suitable for revealing; nothing has been passed to the sink then.
+     * @throws BadPaddingException     if the keys cannot be set up for the batch, as with {@link #revealAll(PublicKey, PrivateKey, Iterator, Consumer)}.
+     */
+    public void revealAll(final KeyRegistry.Entry sender, final Iterator<byte[]> sealedMessages, final Consumer<BatchResult> sink)
+            throws InvalidKeySpecException, BadPaddingException
+        {
+        if (version != 2)
+            {
+            revealAll(sender.getPublicKey(), null, sealedMessages, sink);
+            return;
+            }
+        OrderedBatch.run(sealedMessages, revealing(engineFor(sender)), batchExecutor, sink);
+        }
+
+    private static OrderedBatch.Item revealing(final SealingEngine engine)
+        {
+        return (sequence, sealedMessage)->
+            {
+            try
+                {
+                return engine.reveal(sealedMessage);
+                }
+            catch (BadPaddingException e)
+                {
+                throw e;
+                }
+            catch (Exception e)
+                {
+                throw new BadPaddingException(); // same as reveal(): no details
+                }
+            };
+        }
+
     private byte[] reveal2(PublicKey singleSenderPublicKey, PrivateKey recipientPrivateKey, byte[] sealedMessage)
             throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException, ShortBufferException,
             BadPaddingException, InvalidKeySpecException, IOException
         {
+        // version 2 does not use the recipient key.
+        return engineFor(singleSenderPublicKey).reveal(sealedMessage);
+        }
 
-        SAFESeal2 revealer = new SAFESeal2(cryptoFactory, 2, 0);
-        return revealer.reveal(sealedMessage, recipientPrivateKey, singleSenderPublicKey);
+    private SealingEngine engineFor(PublicKey singleSenderPublicKey)
+            throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException
+        {
+        SealingEngine engine = sealingEngine;
+        if ((engine == null) || (engine.isBoundTo(singleSenderPublicKey) == false))
+            {
+            engine = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), singleSenderPublicKey);
+            sealingEngine = engine;
+            }
+        return engine;
+        }
+
+    // a concurrent first use may build a second engine; either one will do.
+    private SealingEngine engineFor(final KeyRegistry.Entry sender)
+            throws InvalidKeySpecException, BadPaddingException
+        {
+        SealingEngine engine = sender.revealingEngine;
+        if (engine == null)
+            {
+            if (sender.isSealingKey() == false)
+                throw new InvalidKeySpecException("key "+sender.getKeyId()+" is not a sealing key");
+            try
+                {
+                engine = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), sender.getPublicKey());
+                }
+            catch (InvalidKeySpecException e)
+                {
+                throw e;
+                }
+            catch (GeneralSecurityException e)
+                {
+                throw new BadPaddingException(); // same as reveal(): no details
+                }
+            sender.revealingEngine = engine;
+            }
+        return engine;
         }
 
     private byte[] reveal1(PublicKey singleSenderPublicKey, PrivateKey recipientPrivateKey, byte[] sealedMessage)
@@ -5,8 +5,12 @@
  */
 package com.metabit.custom.safe.safeseal;
 
-import com.metabit.custom.safe.iip2.SAFESeal2;
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip2.SealingEngine;
+import com.metabit.custom.safe.safeseal.impl.CompressionStage;
 import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
+import com.metabit.custom.safe.safeseal.impl.ProviderSelectingCryptoFactory;
 import com.metabit.custom.safe.safeseal.impl.SAFESeal;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -17,6 +21,14 @@ import javax.crypto.ShortBufferException;
 import java.io.IOException;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * facade for sealing OCMF messages in encrypted messages, according to SAFE e.V. specifications.
@@ -26,10 +38,13 @@ import java.security.spec.InvalidKeySpecException;
  */
 public class SAFESealSealer
 {
-    private CryptoFactoryImpl cryptoFactory;
+    private CryptoFactory cryptoFactory;
     private Provider securityProvider;
     private boolean compressionMode;
+    private CompressionStage compressionStage = CompressionStage.getSharedInstance();
     private int     version;
+    private volatile SealingEngine sealingEngine; // version 2 only; reused as long as the sender key stays the same
+    private volatile Executor batchExecutor = ForkJoinPool.commonPool();
 
     /** default constructor (recommended) */
     public SAFESealSealer()
@@ -57,6 +72,29 @@ public class SAFESealSealer
      */
     public void setCompressionMode(boolean flag)    { this.compressionMode = flag; }
 
+    /**
+     * set the compression stage used in compression mode, e.g. for a preset dictionary or a different level.
+     * Recipients need a dictionary registered, see {@link com.metabit.custom.safe.safeseal.impl.CompressionDictionary#register}.
+     * @param stage stage to use. default: {@link CompressionStage#getSharedInstance()}.
+     */
+    public void setCompressionStage(final CompressionStage stage)
+        {
+        if (stage == null)
+            throw new IllegalArgumentException("compression stage must not be null");
+        this.compressionStage = stage;
+        }
+
+    /**
+     * set the executor the batch methods run on. default: the common ForkJoinPool.
+     * @param executor executor to use
+     */
+    public void setBatchExecutor(final Executor executor)
+        {
+        if (executor == null)
+            throw new IllegalArgumentException("executor must not be null");
+        this.batchExecutor = executor;
+        }
+
     // initialise crypto environment
     private void init()
         {
@@ -66,7 +104,9 @@ public class SAFESealSealer
             securityProvider = new BouncyCastleProvider();
             Security.addProvider(securityProvider);
             }
-        this.cryptoFactory = new CryptoFactoryImpl(securityProvider);
+        this.cryptoFactory = ProviderSelectingCryptoFactory.isEnabled()
+                ? ProviderSelectingCryptoFactory.getSharedInstance()
+                : CryptoFactoryImpl.getSharedInstance();
         return;
         }
 
@@ -126,16 +166,176 @@ public class SAFESealSealer
             }
         }
 
+    /**
+     * seal many payloads with the same keys.
+     * Key setup is done once for the whole batch; the payloads are sealed in parallel on the batch executor.
+     *
+     * @param senderPrivateKey         private key of the sender
+     * @param singleRecipientPublicKey public key of the single recipient
+     * @param payloadsToSeal           the payloads to seal
+     * @param firstUniqueID            unique ID of the first payload; the following ones are numbered consecutively.
+     * @return one result per payload, in input order; failed items are reported there, and don't stop the batch.
+     * @throws GeneralSecurityException if the keys cannot be set up for the batch
+     */
+    public List<BatchResult> sealAll(final PrivateKey senderPrivateKey, final PublicKey singleRecipientPublicKey, final List<byte[]> payloadsToSeal, final long firstUniqueID)
+            throws GeneralSecurityException
+        {
+        List<BatchResult> results = new ArrayList<>(payloadsToSeal.size());
+        sealAll(senderPrivateKey, singleRecipientPublicKey, payloadsToSeal.iterator(), firstUniqueID, results::add);
+        return results;
+        }
+
+    /**
+     * seal a stream of payloads with the same keys, for inputs too large to hold in memory.
+     * Results are passed to the sink in input order, on the calling thread; only a bounded number of items is in flight at any time.
+     *
+     * @param senderPrivateKey         private key of the sender
+     * @param singleRecipientPublicKey public key of the single recipient
+     * @param payloadsToSeal           the payloads to seal; null entries are reported as failed, without being sealed or taking a unique ID.
+     * @param firstUniqueID            unique ID of the first payload; the following ones are numbered consecutively.
+     * @param sink                     receives one result per payload
+     * @throws GeneralSecurityException   if the keys cannot be set up for the batch; nothing has been passed to the sink then.
+     * @throws java.util.concurrent.RejectedExecutionException if the batch executor refuses an item; see {@link OrderedBatch#run}.
+     */
+    public void sealAll(final PrivateKey senderPrivateKey, final PublicKey singleRecipientPublicKey, final Iterator<byte[]> payloadsToSeal, final long firstUniqueID,
+                        final Consumer<BatchResult> sink)
+            throws GeneralSecurityException
+        {
+        final boolean compress = compressionMode; // fixed for the whole batch
+        final CompressionStage stage = compressionStage;
+        final OrderedBatch.Item item;
+        switch (version)
+            {
+            case 0:
+            case 1:
+                // SAFESeal instances are not thread-safe; each item borrows an idle one of this batch, or makes one.
+                final Queue<SAFESeal> idle = new ConcurrentLinkedQueue<>();
+                final PublicKey[] publicKeys = new PublicKey[]{singleRecipientPublicKey};
+                item = (sequence, payload)->
+                    {
+                    SAFESeal sealer = idle.poll();
+                    if (sealer == null)
+                        {
+                        sealer = new SAFESeal(cryptoFactory);
+                        sealer.setKeyAgreementMode(version == 0);
+                        sealer.setCompressionMode(compress);
+                        sealer.setCompressionStage(stage);
+                        }
+                    try
+                        {
+                        return sealer.seal(payload, senderPrivateKey, publicKeys, firstUniqueID+sequence);
+                        }
+                    finally
+                        {
+                        idle.offer(sealer);
+                        }
+                    };
+                break;
+            case 2:
+                final SealingEngine engine = engineFor(senderPrivateKey);
+                item = (sequence, payload)->engine.seal(payload, firstUniqueID+sequence, compress ? stage : null);
+                break;
+            default:
+                throw new UnsupportedOperationException("version not supported");
+            }
+        OrderedBatch.run(payloadsToSeal, item, batchExecutor, sink);
+        }
+
+    /**
+     * seal a payload with a sender key from the key registry.
+     * For version 2, the key setup is done once per registered key and shared by all sealers.
+     *
+     * @param sender        registry entry holding the private key of the sender
+     * @param payloadToSeal the payload data to be sealed for transport
+     * @param uniqueID      an unique ID assigned to this message.
+     * @return sealed message
+     * @throws java.security.spec.InvalidKeySpecException if the entry holds no private key, or one not suitable for sealing
+     * @throws javax.crypto.BadPaddingException           if the sealing failed
+     */
+    public final byte[] seal(final KeyRegistry.Entry sender, final byte[] payloadToSeal, final Long uniqueID)
+            throws InvalidKeySpecException, BadPaddingException
+        {
+        if (version != 2)
+            return seal(privateKeyOf(sender), null, payloadToSeal, uniqueID);
+        try
+            {
+            return engineFor(sender).seal(payloadToSeal, uniqueID, compressionMode ? compressionStage : null);
+            }
+        catch (InvalidKeySpecException | BadPaddingException e)
+            {
+            throw e;
+            }
+        catch (GeneralSecurityException | IOException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    /**
+     * seal a stream of payloads with a sender key from the key registry.
+     * Same as {@link #sealAll(PrivateKey, PublicKey, Iterator, long, Consumer)}; for version 2, the key setup of the entry is reused.
+     *
+     * @param sender         registry entry holding the private key of the sender
+     * @param payloadsToSeal the payloads to seal; null entries are reported as failed, without being sealed or taking a unique ID.
+     * @param firstUniqueID  unique ID of the first payload; the following ones are numbered consecutively.
+     * @param sink           receives one result per payload
+     * @throws GeneralSecurityException if the key cannot be used for sealing; nothing has been passed to the sink then.
+     */
+    public void sealAll(final KeyRegistry.Entry sender, final Iterator<byte[]> payloadsToSeal, final long firstUniqueID, final Consumer<BatchResult> sink)
+            throws GeneralSecurityException
+        {
+        if (version != 2)
+            {
+            sealAll(privateKeyOf(sender), null, payloadsToSeal, firstUniqueID, sink);
+            return;
+            }
+        final CompressionStage stage = compressionMode ? compressionStage : null; // fixed for the whole batch
+        final SealingEngine engine = engineFor(sender);
+        OrderedBatch.run(payloadsToSeal, (sequence, payload)->engine.seal(payload, firstUniqueID+sequence, stage), batchExecutor, sink);
+        }
+
     private byte[] seal2(PrivateKey senderPrivateKey, PublicKey singleRecipientPublicKey, byte[] payloadToSeal, Long uniqueID)
             throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException, ShortBufferException,
             InvalidKeySpecException, BadPaddingException, IOException
         {
-        SAFESeal2 sealer = new SAFESeal2(cryptoFactory, 2, 0);
-        sealer.setCompressionMode(compressionMode);
-        PublicKey[] publicKeys = new PublicKey[1];
-        publicKeys[0] = singleRecipientPublicKey;
-        byte[] payload = sealer.seal(payloadToSeal, senderPrivateKey, publicKeys, uniqueID);
-        return payload;
+        // version 2 does not use the recipient key.
+        return engineFor(senderPrivateKey).seal(payloadToSeal, uniqueID, compressionMode ? compressionStage : null);
+        }
+
+    // the engine may be in use by concurrent batches; the compression stage is passed per call, never set on it.
+    private SealingEngine engineFor(PrivateKey senderPrivateKey)
+            throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException
+        {
+        SealingEngine engine = sealingEngine;
+        if ((engine == null) || (engine.isBoundTo(senderPrivateKey) == false))
+            {
+            engine = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), senderPrivateKey);
+            sealingEngine = engine;
+            }
+        return engine;
+        }
+
+    // a concurrent first use may build a second engine; either one will do.
+    private SealingEngine engineFor(final KeyRegistry.Entry sender)
+            throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException
+        {
+        SealingEngine engine = sender.sealingEngine;
+        if (engine == null)
+            {
+            PrivateKey senderPrivateKey = privateKeyOf(sender);
+            if (sender.isSealingKey() == false)
+                throw new InvalidKeySpecException("key "+sender.getKeyId()+" is not a sealing key");
+            engine = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), senderPrivateKey);
+            sender.sealingEngine = engine;
+            }
+        return engine;
+        }
+
+    private static PrivateKey privateKeyOf(final KeyRegistry.Entry sender) throws InvalidKeySpecException
+        {
+        if (sender.getPrivateKey() == null)
+            throw new InvalidKeySpecException("no private key registered as "+sender.getKeyId());
+        return sender.getPrivateKey();
         }
 
     private byte[] seal1(PrivateKey senderPrivateKey, PublicKey singleRecipientPublicKey, byte[] payloadToSeal, Long uniqueID)
@@ -145,6 +345,7 @@ public class SAFESealSealer
         SAFESeal sealer = new SAFESeal(cryptoFactory);
         sealer.setKeyAgreementMode(false);
         sealer.setCompressionMode(compressionMode);
+        sealer.setCompressionStage(compressionStage);
         PublicKey[] publicKeys = new PublicKey[1];
         publicKeys[0] = singleRecipientPublicKey;
         byte[] payload = sealer.seal(payloadToSeal, senderPrivateKey, publicKeys, uniqueID);
@@ -158,6 +359,7 @@ public class SAFESealSealer
         SAFESeal sealer = new SAFESeal(cryptoFactory);
         sealer.setKeyAgreementMode(true);
         sealer.setCompressionMode(compressionMode);
+        sealer.setCompressionStage(compressionStage);
         PublicKey[] publicKeys = new PublicKey[1];
         publicKeys[0] = singleRecipientPublicKey;
         byte[] payload = sealer.seal(payloadToSeal, senderPrivateKey, publicKeys, uniqueID);
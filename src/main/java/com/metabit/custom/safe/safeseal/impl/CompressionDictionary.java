@@ -0,0 +1,120 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Adler32;
+
+/**
+ * preset dictionary for raw deflate compression, see COMPRESSION_DEFLATE_DICTIONARY.
+ * <p>
+ * A dictionary is identified by the Adler-32 checksum of its contents, the same ID zlib uses;
+ * the ID travels in the envelope, and the recipient looks the dictionary up in the registry here.
+ * The built-in dictionary for OCMF meter payloads is always registered; others, e.g. trained with
+ * {@link DictionaryTrainer}, have to be registered on both sides before use.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class CompressionDictionary
+{
+    /** largest dictionary size deflate can make use of: the 32 KB window. */
+    public static final int MAX_SIZE = 32*1024;
+    private static final String BUILT_IN_RESOURCE = "/compression/ocmf-1.dict";
+
+    private static final ConcurrentMap<Long, CompressionDictionary> REGISTRY = new ConcurrentHashMap<>();
+    private static final CompressionDictionary BUILT_IN = register(new CompressionDictionary(loadResource(BUILT_IN_RESOURCE)));
+
+    private final byte[] contents;
+    private final long   id;
+
+    /**
+     * constructor.
+     *
+     * @param contents dictionary contents; the most frequent strings should come last.
+     */
+    public CompressionDictionary(final byte[] contents)
+        {
+        if ((contents.length == 0) || (contents.length > MAX_SIZE))
+            throw new IllegalArgumentException("dictionary size must be between 1 and "+MAX_SIZE+" byte");
+        this.contents = contents.clone();
+        Adler32 adler32 = new Adler32();
+        adler32.update(contents);
+        this.id = adler32.getValue();
+        }
+
+    /**
+     * get the built-in dictionary, tuned for OCMF meter payloads.
+     *
+     * @return the built-in dictionary
+     */
+    public static CompressionDictionary getBuiltIn()
+        {
+        return BUILT_IN;
+        }
+
+    /**
+     * make a dictionary known for decompression.
+     *
+     * @param dictionary the dictionary to register
+     * @return the dictionary now registered under its ID
+     * @throws IllegalStateException if a different dictionary with the same ID has been registered before.
+     */
+    public static CompressionDictionary register(final CompressionDictionary dictionary)
+        {
+        CompressionDictionary registered = REGISTRY.putIfAbsent(dictionary.getId(), dictionary);
+        if ((registered != null) && (!Arrays.equals(registered.contents, dictionary.contents)))
+            throw new IllegalStateException("dictionary ID collision");
+        return (registered != null) ? registered : dictionary;
+        }
+
+    /**
+     * look up a registered dictionary.
+     *
+     * @param id the dictionary ID from the envelope
+     * @return the dictionary, or null if none is registered with this ID.
+     */
+    public static CompressionDictionary lookup(final long id)
+        {
+        return REGISTRY.get(id);
+        }
+
+    /**
+     * @return the dictionary ID, the Adler-32 checksum of the contents.
+     */
+    public long getId()
+        { return id; }
+
+    /**
+     * @return size of the dictionary, in byte.
+     */
+    public int getSize()
+        { return contents.length; }
+
+    // no copy; callers in this package pass it to Deflater/Inflater only.
+    byte[] getContents()
+        { return contents; }
+
+    private static byte[] loadResource(final String name)
+        {
+        try (InputStream input = CompressionDictionary.class.getResourceAsStream(name))
+            {
+            if (input == null)
+                throw new IllegalStateException("resource missing: "+name);
+            return input.readAllBytes();
+            }
+        catch (IOException ex)
+            {
+            throw new UncheckedIOException(ex);
+            }
+        }
+}
+//___EOF___
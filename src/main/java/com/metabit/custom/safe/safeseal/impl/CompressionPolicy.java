@@ -0,0 +1,202 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal.impl;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * decides, before any real compression work, whether and how hard a payload should be compressed.
+ * <p>
+ * Payloads up to a few KB are compressed right away; testing would cost about as much as trying.
+ * For larger ones, a few chunks spread over the payload are sampled. A byte entropy close to 8 bit
+ * (compressed, encrypted, random data) skips compression; a low one goes ahead. In between, a fast
+ * trial deflate of the sample decides. Payloads above a size threshold get the fast deflate level.
+ * <p>
+ * The decisions are counted, for monitoring.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class CompressionPolicy
+{
+    /**
+     * outcome of the policy.
+     */
+    public enum Decision
+    {
+        /** don't compress */
+        NONE,
+        /** compress with BEST_SPEED */
+        FAST,
+        /** compress with the level configured for the {@link CompressionStage} */
+        BEST
+    }
+
+    /** default size from which on payloads are compressed with the fast level, in byte. */
+    public static final int    DEFAULT_FAST_THRESHOLD = 1024*1024;
+    /** default ratio a trial deflate must beat for compression to go ahead. */
+    public static final double DEFAULT_MAX_RATIO      = 0.95;
+    static final int           CHUNK_SIZE             = 1024;
+    static final int           CHUNK_COUNT            = 4;
+    static final int           SAMPLE_SIZE            = CHUNK_SIZE*CHUNK_COUNT; // smaller payloads are not sampled
+    static final double        ENTROPY_INCOMPRESSIBLE = 7.5; // bit per byte; deflate won't get anywhere.
+    static final double        ENTROPY_COMPRESSIBLE   = 6.0; // text, markup, and the like.
+
+    private static final CompressionPolicy SHARED_INSTANCE = new CompressionPolicy(DEFAULT_FAST_THRESHOLD, DEFAULT_MAX_RATIO);
+
+    private final int                      fastThreshold;
+    private final double                   maxRatio;
+    private final Map<Decision, LongAdder> decisions    = new EnumMap<>(Decision.class);
+    private final LongAdder                unproductive = new LongAdder();
+
+    /**
+     * get the instance used when no other has been configured.
+     *
+     * @return the shared instance
+     */
+    public static CompressionPolicy getSharedInstance()
+        {
+        return SHARED_INSTANCE;
+        }
+
+    /**
+     * constructor.
+     *
+     * @param fastThreshold payloads of this size and above are compressed with BEST_SPEED, in byte.
+     * @param maxRatio      compressed/uncompressed ratio a trial deflate must stay below, between 0 and 1.
+     */
+    public CompressionPolicy(final int fastThreshold, final double maxRatio)
+        {
+        if (fastThreshold < 0)
+            throw new IllegalArgumentException("invalid threshold");
+        if ((maxRatio <= 0.0) || (maxRatio > 1.0))
+            throw new IllegalArgumentException("invalid ratio");
+        this.fastThreshold = fastThreshold;
+        this.maxRatio = maxRatio;
+        for (Decision decision : Decision.values())
+            decisions.put(decision, new LongAdder());
+        }
+
+    /**
+     * decide how to compress a payload.
+     *
+     * @param payload the payload to be compressed
+     * @return the decision
+     */
+    public Decision decide(final byte[] payload)
+        {
+        return decide(payload, CompressionStage.getSharedInstance());
+        }
+
+    // the stage provides its pooled deflaters for the trial.
+    Decision decide(final byte[] payload, final CompressionStage stage)
+        {
+        Decision decision = evaluate(payload, stage);
+        decisions.get(decision).increment();
+        return decision;
+        }
+
+    private Decision evaluate(final byte[] payload, final CompressionStage stage)
+        {
+        Decision level = (payload.length >= fastThreshold) ? Decision.FAST : Decision.BEST;
+        if (payload.length <= SAMPLE_SIZE)
+            return level;
+        byte[] sample = sample(payload);
+        double entropy = entropy(sample);
+        if (entropy >= ENTROPY_INCOMPRESSIBLE)
+            return Decision.NONE;
+        if (entropy <= ENTROPY_COMPRESSIBLE)
+            return level;
+        // a byte histogram misses repeated strings; deflate itself knows best.
+        byte[] trial = stage.deflate(sample, Deflater.BEST_SPEED, (int) (sample.length*maxRatio));
+        return (trial == null) ? Decision.NONE : level;
+        }
+
+    /**
+     * take chunks spread evenly over the payload, so headers or trailers don't dominate the sample.
+     *
+     * @param payload payload larger than SAMPLE_SIZE
+     * @return the sample
+     */
+    static byte[] sample(final byte[] payload)
+        {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int stride = (payload.length-CHUNK_SIZE)/(CHUNK_COUNT-1);
+        for (int i = 0; i < CHUNK_COUNT; i++)
+            System.arraycopy(payload, i*stride, sample, i*CHUNK_SIZE, CHUNK_SIZE);
+        return sample;
+        }
+
+    /**
+     * order-0 entropy.
+     *
+     * @param data data to evaluate
+     * @return entropy, in bit per byte: 0 to 8.
+     */
+    static double entropy(final byte[] data)
+        {
+        int[] histogram = new int[256];
+        for (byte b : data)
+            histogram[b & 0xFF]++;
+        double entropy = 0.0;
+        for (int count : histogram)
+            {
+            if (count == 0)
+                continue;
+            double p = (double) count/data.length;
+            entropy -= p*Math.log(p);
+            }
+        return entropy/Math.log(2);
+        }
+
+    // called by the stage if deflate went ahead, but did not make the payload smaller.
+    void recordUnproductive()
+        {
+        unproductive.increment();
+        }
+
+    /**
+     * @param decision the decision
+     * @return how often it was taken since startup.
+     */
+    public long getDecisionCount(final Decision decision)
+        { return decisions.get(decision).sum(); }
+
+    /**
+     * @return how often compression went ahead, but did not make the payload any smaller.
+     */
+    public long getUnproductiveCount()
+        { return unproductive.sum(); }
+
+    /**
+     * @return the decision counts, and the unproductive count, by name; for monitoring.
+     */
+    public Map<String, Long> getMetrics()
+        {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        for (Decision decision : Decision.values())
+            metrics.put(decision.name().toLowerCase(), getDecisionCount(decision));
+        metrics.put("unproductive", getUnproductiveCount());
+        return metrics;
+        }
+
+    /**
+     * @return size from which on the fast level is used, in byte.
+     */
+    public int getFastThreshold()
+        { return fastThreshold; }
+
+    /**
+     * @return ratio a trial deflate must stay below.
+     */
+    public double getMaxRatio()
+        { return maxRatio; }
+}
+//___EOF___
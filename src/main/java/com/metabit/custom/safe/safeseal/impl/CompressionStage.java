@@ -0,0 +1,369 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal.impl;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection.COMPRESSION_DEFLATE_DICTIONARY;
+import static com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection.COMPRESSION_GZIP;
+import static com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection.COMPRESSION_NONE;
+
+/**
+ * compression and decompression of payloads, as raw deflate ("nowrap": no zlib header, no checksum).
+ * <p>
+ * Both directions work in a single pass, growing the output buffer as needed.
+ * Compression gives up as soon as the output reaches the input size; decompression stops with
+ * a DataFormatException when the output would exceed the configured maximum, or the length recorded in the envelope.
+ * Deflater and Inflater instances are pooled, since their native state is expensive to set up.
+ * <p>
+ * With a {@link CompressionDictionary}, compression primes deflate with the dictionary, which pays off
+ * for small payloads made of the same vocabulary, like meter readings; the dictionary ID goes into the envelope.
+ * Decompression handles all modes, whatever the instance is configured for.
+ * <p>
+ * A {@link CompressionPolicy} decides first whether compression is worth trying, and at which level.
+ * <p>
+ * Instances are safe for use by multiple threads.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class CompressionStage
+{
+    /** default upper limit for decompressed payloads, in byte. */
+    public static final int DEFAULT_MAX_OUTPUT_SIZE = 256*1024*1024;
+    private static final int POOL_SIZE        = 16;
+    private static final int MIN_BUFFER_SIZE  = 256;
+    private static final int MAX_EXPANSION    = 1032; // deflate's maximum ratio: 258 byte per match, from about 2 bits
+    private static final CompressionStage SHARED_INSTANCE = new CompressionStage(Deflater.BEST_COMPRESSION, DEFAULT_MAX_OUTPUT_SIZE, false);
+
+    private final int                     level;
+    private final int                     maxOutputSize;
+    private final boolean                 recordUncompressedLength;
+    private final CompressionDictionary   dictionary;
+    private final CompressionPolicy       policy;
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * get the instance used when no other has been configured:
+     * BEST_COMPRESSION, {@link #DEFAULT_MAX_OUTPUT_SIZE}, uncompressed length not recorded, shared policy.
+     *
+     * @return the shared instance
+     */
+    public static CompressionStage getSharedInstance()
+        {
+        return SHARED_INSTANCE;
+        }
+
+    /**
+     * constructor.
+     *
+     * @param level                    deflate level, see {@link Deflater}.
+     * @param maxOutputSize            upper limit for decompressed payloads, in byte.
+     * @param recordUncompressedLength whether to put the uncompressed length into the envelope.
+     *                                 Recipients older than this option reject envelopes containing it.
+     */
+    public CompressionStage(final int level, final int maxOutputSize, final boolean recordUncompressedLength)
+        {
+        this(level, maxOutputSize, recordUncompressedLength, null);
+        }
+
+    /**
+     * constructor, for compression with a preset dictionary.
+     *
+     * @param level                    deflate level, see {@link Deflater}. With a dictionary, BEST_SPEED loses little.
+     * @param maxOutputSize            upper limit for decompressed payloads, in byte.
+     * @param recordUncompressedLength whether to put the uncompressed length into the envelope.
+     * @param dictionary               preset dictionary for compression, or null for plain deflate.
+     *                                 Recipients need the same dictionary registered.
+     */
+    public CompressionStage(final int level, final int maxOutputSize, final boolean recordUncompressedLength, final CompressionDictionary dictionary)
+        {
+        this(level, maxOutputSize, recordUncompressedLength, dictionary, CompressionPolicy.getSharedInstance());
+        }
+
+    /**
+     * constructor, with a specific compression policy.
+     *
+     * @param level                    deflate level, see {@link Deflater}; used when the policy decides for BEST.
+     * @param maxOutputSize            upper limit for decompressed payloads, in byte.
+     * @param recordUncompressedLength whether to put the uncompressed length into the envelope.
+     * @param dictionary               preset dictionary for compression, or null for plain deflate.
+     * @param policy                   policy deciding whether and how hard to compress, or null to always try with the given level.
+     */
+    public CompressionStage(final int level, final int maxOutputSize, final boolean recordUncompressedLength, final CompressionDictionary dictionary, final CompressionPolicy policy)
+        {
+        if ((level < Deflater.BEST_SPEED) || (level > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("invalid deflate level");
+        if (maxOutputSize < 0)
+            throw new IllegalArgumentException("invalid maximum output size");
+        this.level = level;
+        this.maxOutputSize = maxOutputSize;
+        this.recordUncompressedLength = recordUncompressedLength;
+        this.dictionary = dictionary;
+        this.policy = policy;
+        }
+
+    /**
+     * try to compress a payload for sealing, and note the outcome in the transport tuple.
+     * If the policy advises against compression, or compression doesn't make the payload smaller,
+     * it is returned unchanged, with COMPRESSION_NONE noted.
+     *
+     * @param rawPayload content to compress
+     * @param itt        transport tuple, where the compression algorithm (and optionally the length) is noted.
+     * @return payload for further processing (compressed or not)
+     * @throws NoSuchAlgorithmException if algorithm lookup fails.
+     */
+    public byte[] compress(final byte[] rawPayload, final InternalTransportTuple itt)
+            throws NoSuchAlgorithmException
+        {
+        CompressionPolicy.Decision decision = (policy != null) ? policy.decide(rawPayload, this) : CompressionPolicy.Decision.BEST;
+        byte[] compressed = null;
+        if (decision != CompressionPolicy.Decision.NONE)
+            {
+            compressed = deflate(rawPayload, (decision == CompressionPolicy.Decision.FAST) ? Deflater.BEST_SPEED : level, rawPayload.length, dictionary);
+            if ((compressed == null) && (policy != null))
+                policy.recordUnproductive();
+            }
+        if (compressed == null) // in this case, keep original
+            {
+            itt.getCryptoSettings().setCompressionOID(COMPRESSION_NONE.getOID());
+            itt.setUncompressedLength(-1);
+            itt.setCompressionDictionaryId(-1);
+            return rawPayload;
+            }
+        itt.getCryptoSettings().setCompressionOID(((dictionary != null) ? COMPRESSION_DEFLATE_DICTIONARY : COMPRESSION_GZIP).getOID());
+        itt.setUncompressedLength(recordUncompressedLength ? rawPayload.length : -1);
+        itt.setCompressionDictionaryId((dictionary != null) ? dictionary.getId() : -1);
+        return compressed;
+        }
+
+    /**
+     * check whether a payload can be decompressed, before any decryption work is done.
+     *
+     * @param itt transport tuple from the envelope
+     * @throws NoSuchAlgorithmException if the compression algorithm is unknown, or the dictionary is not registered.
+     */
+    public void checkSupported(final InternalTransportTuple itt)
+            throws NoSuchAlgorithmException
+        {
+        ASN1ObjectIdentifier oid = itt.getCryptoSettings().getCompressionOID();
+        if (oid.equals(COMPRESSION_NONE.getOID()) || oid.equals(COMPRESSION_GZIP.getOID()))
+            return;
+        if (!oid.equals(COMPRESSION_DEFLATE_DICTIONARY.getOID()))
+            throw new NoSuchAlgorithmException("invalid compression");
+        if (CompressionDictionary.lookup(itt.getCompressionDictionaryId()) == null)
+            throw new NoSuchAlgorithmException("compression dictionary "+Long.toHexString(itt.getCompressionDictionaryId())+" not registered");
+        }
+
+    /**
+     * decompress a payload after revealing, according to the compression noted in the transport tuple.
+     *
+     * @param payload revealed payload
+     * @param itt     transport tuple from the envelope
+     * @return decompressed data; the payload itself if it wasn't compressed.
+     * @throws NoSuchAlgorithmException if the compression algorithm is unknown, or the dictionary is not registered.
+     * @throws DataFormatException      if the data is corrupt, truncated, or its size exceeds the limits.
+     */
+    public byte[] decompress(final byte[] payload, final InternalTransportTuple itt)
+            throws NoSuchAlgorithmException, DataFormatException
+        {
+        checkSupported(itt);
+        ASN1ObjectIdentifier oid = itt.getCryptoSettings().getCompressionOID();
+        if (oid.equals(COMPRESSION_NONE.getOID()))
+            return payload;
+        CompressionDictionary preset = oid.equals(COMPRESSION_DEFLATE_DICTIONARY.getOID()) ? CompressionDictionary.lookup(itt.getCompressionDictionaryId()) : null;
+        return inflate(payload, itt.getUncompressedLength(), preset);
+        }
+
+    /**
+     * decompress a payload after revealing.
+     *
+     * @param payload        raw deflate data
+     * @param expectedLength the uncompressed length recorded in the envelope, or -1 if not recorded.
+     * @return decompressed data
+     * @throws DataFormatException if the data is corrupt, truncated, or its size exceeds the limits.
+     */
+    public byte[] decompress(final byte[] payload, final int expectedLength)
+            throws DataFormatException
+        {
+        return inflate(payload, expectedLength, null);
+        }
+
+    /**
+     * raw deflate, with an upper limit for the output.
+     *
+     * @param input input data
+     * @param level deflate level, see {@link Deflater}.
+     * @param limit the output must be shorter than this, in byte.
+     * @return the compressed data, or null if it would not be shorter than the limit.
+     */
+    byte[] deflate(final byte[] input, final int level, final int limit)
+        {
+        return deflate(input, level, limit, null);
+        }
+
+    /**
+     * raw deflate with a preset dictionary, with an upper limit for the output.
+     *
+     * @param input      input data
+     * @param level      deflate level, see {@link Deflater}.
+     * @param limit      the output must be shorter than this, in byte.
+     * @param dictionary preset dictionary, or null for none.
+     * @return the compressed data, or null if it would not be shorter than the limit.
+     */
+    byte[] deflate(final byte[] input, final int level, final int limit, final CompressionDictionary dictionary)
+        {
+        if (limit <= 0)
+            return null;
+        Deflater deflater = leaseDeflater(level);
+        try
+            {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary.getContents());
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[Math.min(limit, Math.max(MIN_BUFFER_SIZE, input.length/2))];
+            int position = 0;
+            while (!deflater.finished())
+                {
+                if (position == buffer.length)
+                    {
+                    if (buffer.length >= limit)
+                        return null; // not getting any shorter than the limit; stop early.
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(limit, 2L*buffer.length));
+                    }
+                position += deflater.deflate(buffer, position, buffer.length-position);
+                }
+            if (position >= limit)
+                return null;
+            return (position == buffer.length) ? buffer : Arrays.copyOf(buffer, position);
+            }
+        finally
+            {
+            releaseDeflater(deflater);
+            }
+        }
+
+    /**
+     * raw inflate, in a single pass.
+     *
+     * @param input          raw deflate data
+     * @param expectedLength exact output length if known, else -1.
+     * @param dictionary     preset dictionary used for compression, or null for none.
+     * @return the decompressed data
+     * @throws DataFormatException if the data is corrupt or truncated, or the output doesn't fit the limits.
+     */
+    byte[] inflate(final byte[] input, final int expectedLength, final CompressionDictionary dictionary)
+            throws DataFormatException
+        {
+        if (expectedLength > maxOutputSize)
+            throw new DataFormatException("declared size exceeds limit");
+        // the declared size is not authenticated; it must not make us allocate more than the input could expand to.
+        if (expectedLength > MAX_EXPANSION*(long) input.length+MAX_EXPANSION)
+            throw new DataFormatException("declared size exceeds what the input can expand to");
+        final int limit = (expectedLength >= 0) ? expectedLength : maxOutputSize;
+        Inflater inflater = leaseInflater();
+        try
+            {
+            inflater.setInput(input);
+            if (dictionary != null) // raw inflate doesn't ask for it; it has to be set up front.
+                inflater.setDictionary(dictionary.getContents());
+            int initialSize = (expectedLength >= 0) ? expectedLength : (int) Math.min(limit, Math.max(MIN_BUFFER_SIZE, 4L*input.length));
+            byte[] buffer = new byte[initialSize];
+            int position = 0;
+            while (!inflater.finished())
+                {
+                if (position == buffer.length)
+                    {
+                    if (buffer.length >= limit)
+                        {
+                        // the end marker may still be pending; anything beyond that is too much.
+                        if (inflater.inflate(new byte[1]) > 0)
+                            throw new DataFormatException((expectedLength >= 0) ? "data longer than declared" : "decompressed size exceeds limit");
+                        if (!inflater.finished())
+                            throw new DataFormatException("truncated input");
+                        break;
+                        }
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(limit, 2L*buffer.length));
+                    }
+                int produced = inflater.inflate(buffer, position, buffer.length-position);
+                if ((produced == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new DataFormatException("truncated input");
+                position += produced;
+                }
+            if ((expectedLength >= 0) && (position != expectedLength))
+                throw new DataFormatException("data shorter than declared");
+            return (position == buffer.length) ? buffer : Arrays.copyOf(buffer, position);
+            }
+        finally
+            {
+            releaseInflater(inflater);
+            }
+        }
+
+    /**
+     * @return the deflate level used for compression.
+     */
+    public int getLevel()
+        { return level; }
+
+    /**
+     * @return the upper limit for decompressed payloads, in byte.
+     */
+    public int getMaxOutputSize()
+        { return maxOutputSize; }
+
+    /**
+     * @return the preset dictionary used for compression, or null if none.
+     */
+    public CompressionDictionary getDictionary()
+        { return dictionary; }
+
+    /**
+     * @return the compression policy, or null if compression is always tried.
+     */
+    public CompressionPolicy getPolicy()
+        { return policy; }
+
+    private Deflater leaseDeflater(final int level)
+        {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            return new Deflater(level, true); // NB: must set "nowrap"! The header fields are moot, but we may not use checksums.
+        deflater.setLevel(level);
+        return deflater;
+        }
+
+    private void releaseDeflater(final Deflater deflater)
+        {
+        deflater.reset();
+        if (!deflaters.offer(deflater))
+            deflater.end(); // pool full; free the native memory right away.
+        }
+
+    private Inflater leaseInflater()
+        {
+        Inflater inflater = inflaters.poll();
+        return (inflater != null) ? inflater : new Inflater(true); // nowrap is important for our use case.
+        }
+
+    private void releaseInflater(final Inflater inflater)
+        {
+        inflater.reset();
+        if (!inflaters.offer(inflater))
+            inflater.end();
+        }
+}
+//___EOF___
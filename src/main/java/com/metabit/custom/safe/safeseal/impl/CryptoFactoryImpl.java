@@ -8,6 +8,8 @@ package com.metabit.custom.safe.safeseal.impl;
 import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
 import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
 import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.DefaultRandomnessProvider;
+import com.metabit.custom.safe.iip.shared.RandomnessProvider;
 import com.metabit.custom.safe.iip.shared.SharedConstants;
 import org.bouncycastle.asn1.sec.SECNamedCurves;
 import org.bouncycastle.asn1.teletrust.TeleTrusTNamedCurves;
@@ -16,11 +18,17 @@ import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
 import javax.crypto.NoSuchPaddingException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.Provider;
 import java.security.Security;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * a factory to instantiate algorithms from AlgorithmSpec.
@@ -31,7 +39,32 @@ import java.security.Security;
  */
 public class CryptoFactoryImpl implements CryptoFactory
 {
+    /** upper limit of idle cipher instances kept per algorithm. */
+    public static final int MAX_POOLED_CIPHERS_PER_ALGORITHM = 64;
+
     private Provider securityProvider;
+    // idle cipher instances, by algorithm OID. The provider is fixed per factory instance.
+    private final ConcurrentMap<String, BlockingQueue<Cipher>> cipherPool = new ConcurrentHashMap<>();
+    private final LongAdder cipherPoolHits = new LongAdder();
+    private final LongAdder cipherPoolMisses = new LongAdder();
+    private volatile RandomnessProvider randomnessProvider = DefaultRandomnessProvider.getSharedInstance();
+
+    // built on first use, so the provider is only registered when someone asks for it.
+    private static final class SharedInstanceHolder
+    {
+        static final CryptoFactoryImpl INSTANCE = new CryptoFactoryImpl();
+    }
+
+    /**
+     * get the BouncyCastle instance shared by the SAFESeal facades.
+     * Sharing it lets all of them draw from the same cipher pool.
+     *
+     * @return the shared instance
+     */
+    public static CryptoFactoryImpl getSharedInstance()
+        {
+        return SharedInstanceHolder.INSTANCE;
+        }
 
     /**
      * default constructor.
@@ -59,6 +92,31 @@ public class CryptoFactoryImpl implements CryptoFactory
         }
 
 
+    /**
+     * @return the security provider this factory instantiates algorithms from.
+     */
+    public Provider getSecurityProvider()
+        { return securityProvider; }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RandomnessProvider getRandomnessProvider()
+        { return randomnessProvider; }
+
+    /**
+     * replace the source of random data used by the classes working with this factory.
+     *
+     * @param randomnessProvider the provider to use from now on.
+     */
+    public void setRandomnessProvider(final RandomnessProvider randomnessProvider)
+        {
+        if (randomnessProvider == null)
+            throw new IllegalArgumentException("randomness provider must not be null");
+        this.randomnessProvider = randomnessProvider;
+        }
+
     /**
      * {@inheritDoc}
      */
@@ -88,6 +146,68 @@ public class CryptoFactoryImpl implements CryptoFactory
             }
         }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Instances are taken from a bounded pool if available, and created via
+     * {@link #getCipherFromCipherSpec(AlgorithmSpec)} otherwise, so provider-specific workarounds apply either way.
+     * Safe for use by multiple threads.
+     */
+    @Override
+    public Cipher leaseCipher(AlgorithmSpec algorithmSpec) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+        {
+        BlockingQueue<Cipher> idle = cipherPool.get(algorithmSpec.getOID().getId());
+        Cipher cipher = (idle == null) ? null : idle.poll();
+        if (cipher != null)
+            {
+            cipherPoolHits.increment();
+            return cipher;
+            }
+        cipherPoolMisses.increment();
+        return getCipherFromCipherSpec(algorithmSpec);
+        }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Instances exceeding {@link #MAX_POOLED_CIPHERS_PER_ALGORITHM} are dropped.
+     * Note a pooled instance keeps a reference to the key it was last initialised with, until it is initialised again.
+     */
+    @Override
+    public void releaseCipher(AlgorithmSpec algorithmSpec, Cipher cipher)
+        {
+        if (cipher == null)
+            return;
+        cipherPool.computeIfAbsent(algorithmSpec.getOID().getId(), k -> new ArrayBlockingQueue<>(MAX_POOLED_CIPHERS_PER_ALGORITHM))
+                  .offer(cipher);
+        return;
+        }
+
+    /**
+     * @return number of cipher leases served from the pool.
+     */
+    public long getCipherPoolHits()
+        { return cipherPoolHits.sum(); }
+
+    /**
+     * @return number of cipher leases which required a new instance.
+     */
+    public long getCipherPoolMisses()
+        { return cipherPoolMisses.sum(); }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Uses this factory's security provider.
+     */
+    @Override
+    public KeyAgreement getKeyAgreement(final AlgorithmSpec algorithmSpec) throws NoSuchAlgorithmException
+        {
+        if (algorithmSpec.getType() != AlgorithmSpec.Type.KEY_AGREEMENT)
+            throw new IllegalArgumentException("wrong type");
+        return KeyAgreement.getInstance(algorithmSpec.getName(), securityProvider);
+        }
+
     /**
      * {@inheritDoc}
      */
@@ -313,7 +313,7 @@ public final class CryptoSettingsStruct
             // we could check encryption some more; but since our lookup will work only for algorithms specified here anyways.
             if (keyAgreementProtocol != null) // if in use at all
                 {
-                if (keyAgreementProtocol != AlgorithmSpecCollection.ECDH) return false; // only supported variant now
+                if ((keyAgreementProtocol != AlgorithmSpecCollection.ECDH) && (keyAgreementProtocol != AlgorithmSpecCollection.X25519)) return false; // supported variants
                 if (keyDiversificationAlgorithm == null) return false; // if keyAgreement, then this is required
                 // currently optional; the provided key will determine the curve. if (keyAgreementCipher == null) return false; -- improvement.
                 }
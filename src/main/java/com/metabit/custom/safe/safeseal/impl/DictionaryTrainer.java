@@ -0,0 +1,153 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * builds a preset dictionary for {@link CompressionDictionary} from sample payloads.
+ * <p>
+ * Every 8-byte sequence is counted once per sample it occurs in. Then segments of the samples are picked greedily,
+ * each time the one covering the most frequent sequences not covered yet, until the dictionary is full.
+ * The most valuable segments go last, where deflate reaches them with the shortest distances.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class DictionaryTrainer
+{
+    /** default dictionary size, in byte. small payloads don't profit from more. */
+    public static final int DEFAULT_DICTIONARY_SIZE = 4096;
+    private static final int SEQUENCE_LENGTH = 8; // packed into a long
+    private static final int SEGMENT_LENGTH  = 32;
+    private static final int SEGMENT_STEP    = SEGMENT_LENGTH/2;
+
+    private DictionaryTrainer()
+        { }
+
+    /**
+     * read sample files, one sample per file.
+     *
+     * @param files sample files
+     * @return list of the file contents
+     * @throws IOException if a file can't be read
+     */
+    public static List<byte[]> readSamples(final List<Path> files)
+            throws IOException
+        {
+        List<byte[]> samples = new ArrayList<>(files.size());
+        for (Path file : files)
+            samples.add(Files.readAllBytes(file));
+        return samples;
+        }
+
+    /**
+     * build a dictionary from samples.
+     *
+     * @param samples        representative payloads
+     * @param dictionarySize maximum dictionary size, in byte; at most {@link CompressionDictionary#MAX_SIZE}.
+     * @return dictionary contents; may be shorter than requested if the samples don't have enough in common.
+     */
+    public static byte[] train(final List<byte[]> samples, final int dictionarySize)
+        {
+        if ((dictionarySize < 1) || (dictionarySize > CompressionDictionary.MAX_SIZE))
+            throw new IllegalArgumentException("dictionary size must be between 1 and "+CompressionDictionary.MAX_SIZE);
+        if (samples.isEmpty())
+            throw new IllegalArgumentException("no samples");
+        // sequences found in a single sample only are worth nothing, unless there is just one sample.
+        final int minFrequency = (samples.size() > 1) ? 2 : 1;
+
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] sample : samples)
+            {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i+SEQUENCE_LENGTH <= sample.length; i++)
+                {
+                long sequence = sequenceAt(sample, i);
+                if (seen.add(sequence))
+                    frequency.merge(sequence, 1, Integer::sum);
+                }
+            }
+
+        // lazy greedy selection: scores only ever decrease, so a candidate whose refreshed score still tops the queue is the best.
+        PriorityQueue<Segment> queue = new PriorityQueue<>((a, b)->Integer.compare(b.score, a.score));
+        for (byte[] sample : samples)
+            for (int start = 0; start+SEQUENCE_LENGTH <= sample.length; start += SEGMENT_STEP)
+                {
+                Segment segment = new Segment(sample, start, Math.min(sample.length, start+SEGMENT_LENGTH));
+                segment.score = score(segment, frequency, Collections.emptySet(), minFrequency);
+                if (segment.score > 0)
+                    queue.add(segment);
+                }
+        Set<Long> covered = new HashSet<>();
+        Deque<byte[]> chosen = new ArrayDeque<>();
+        int size = 0;
+        while ((!queue.isEmpty()) && (size < dictionarySize))
+            {
+            Segment candidate = queue.poll();
+            int current = score(candidate, frequency, covered, minFrequency);
+            if (current <= 0)
+                continue;
+            if ((!queue.isEmpty()) && (current < queue.peek().score))
+                {
+                candidate.score = current;
+                queue.add(candidate);
+                continue;
+                }
+            int length = Math.min(candidate.end-candidate.start, dictionarySize-size);
+            chosen.addFirst(Arrays.copyOfRange(candidate.sample, candidate.start, candidate.start+length)); // best ones last
+            size += length;
+            for (int i = candidate.start; i+SEQUENCE_LENGTH <= candidate.end; i++)
+                covered.add(sequenceAt(candidate.sample, i));
+            }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(size);
+        for (byte[] segment : chosen)
+            result.writeBytes(segment);
+        return result.toByteArray();
+        }
+
+    private static int score(final Segment segment, final Map<Long, Integer> frequency, final Set<Long> covered, final int minFrequency)
+        {
+        int score = 0;
+        for (int i = segment.start; i+SEQUENCE_LENGTH <= segment.end; i++)
+            {
+            long sequence = sequenceAt(segment.sample, i);
+            int count = frequency.getOrDefault(sequence, 0);
+            if ((count >= minFrequency) && (!covered.contains(sequence)))
+                score += count;
+            }
+        return score;
+        }
+
+    private static long sequenceAt(final byte[] data, final int offset)
+        {
+        long value = 0;
+        for (int i = 0; i < SEQUENCE_LENGTH; i++)
+            value = (value << 8)|(data[offset+i] & 0xFF);
+        return value;
+        }
+
+    private static final class Segment
+    {
+        final byte[] sample;
+        final int    start;
+        final int    end;
+        int          score;
+
+        Segment(final byte[] sample, final int start, final int end)
+            {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+            }
+    }
+}
+//___EOF___
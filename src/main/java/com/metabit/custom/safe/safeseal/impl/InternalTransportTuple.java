@@ -9,6 +9,7 @@ import com.metabit.custom.safe.iip.SharedCode;
 import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.security.Provider;
 import java.security.Security;
 
@@ -36,6 +37,9 @@ public class InternalTransportTuple
     private byte[] ephemeralSymmetricKey1;
     private byte[] ephemeralSymmetricKey2;
     private byte[] ephemeralSymmetricKey3;
+    private int    uncompressedLength = -1; // optional; -1 if not recorded
+    private long   compressionDictionaryId = -1; // only with COMPRESSION_DEFLATE_DICTIONARY
+    private ByteBuffer encryptedDataSlice; // view into a received envelope; copied into encryptedData on demand only
     //-----------------------------------------------------------------------------------------------------------------
 
     /**
@@ -104,17 +108,49 @@ public class InternalTransportTuple
 
     /**
      * <p>Getter for the field <code>encryptedData</code>.</p>
+     * If the tuple holds a slice of an envelope only, the data is copied out at the first call.
      *
      * @return an array of {@link byte} objects
      */
-    public byte[] getEncryptedData() { return encryptedData; }
+    public byte[] getEncryptedData()
+        {
+        if ((encryptedData == null) && (encryptedDataSlice != null))
+            {
+            encryptedData = new byte[encryptedDataSlice.remaining()];
+            encryptedDataSlice.duplicate().get(encryptedData);
+            }
+        return encryptedData;
+        }
 
     /**
      * <p>Setter for the field <code>encryptedData</code>.</p>
      *
      * @param encryptedData an array of {@link byte} objects
      */
-    public void setEncryptedData(byte[] encryptedData) { this.encryptedData = encryptedData; }
+    public void setEncryptedData(byte[] encryptedData)
+        {
+        this.encryptedData = encryptedData;
+        this.encryptedDataSlice = null;
+        }
+
+    /**
+     * get the encrypted data without copying.
+     *
+     * @return read-only view of the encrypted data, or null if there is none.
+     */
+    public ByteBuffer getEncryptedDataSlice()
+        {
+        if (encryptedDataSlice != null)
+            return encryptedDataSlice.duplicate();
+        return (encryptedData != null) ? ByteBuffer.wrap(encryptedData).asReadOnlyBuffer() : null;
+        }
+
+    // the slice shares the envelope's memory; the envelope must not change while the tuple is in use.
+    void setEncryptedDataSlice(final ByteBuffer slice)
+        {
+        this.encryptedDataSlice = slice.asReadOnlyBuffer();
+        this.encryptedData = null;
+        }
 
     /**
      * <p>Getter for the field <code>keyDiversificationData</code>.</p>
@@ -171,6 +207,46 @@ public class InternalTransportTuple
             }
         }
 
+    /**
+     * @return length of the payload before compression, or -1 if not recorded.
+     */
+    public int getUncompressedLength()
+        {
+        return uncompressedLength;
+        }
+
+    /**
+     * record the length of the payload before compression, so the recipient can allocate exactly.
+     *
+     * @param uncompressedLength length in byte, or -1 to omit it.
+     */
+    public void setUncompressedLength(final int uncompressedLength)
+        {
+        if (uncompressedLength < -1)
+            throw new IllegalArgumentException("invalid length");
+        this.uncompressedLength = uncompressedLength;
+        }
+
+    /**
+     * @return ID of the preset dictionary used for compression, or -1 if none.
+     */
+    public long getCompressionDictionaryId()
+        {
+        return compressionDictionaryId;
+        }
+
+    /**
+     * record which preset dictionary was used for compression, see {@link CompressionDictionary}.
+     *
+     * @param compressionDictionaryId the dictionary ID (32 bit, unsigned), or -1 to omit it.
+     */
+    public void setCompressionDictionaryId(final long compressionDictionaryId)
+        {
+        if ((compressionDictionaryId < -1) || (compressionDictionaryId > 0xFFFFFFFFL))
+            throw new IllegalArgumentException("invalid dictionary ID");
+        this.compressionDictionaryId = compressionDictionaryId;
+        }
+
     public SecretKey getEphemeralSymmetricKey1()
         {
         return phase1Key;
@@ -0,0 +1,394 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal.impl;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.*;
+import java.util.*;
+
+/**
+ * a CryptoFactory which routes each algorithm to the fastest compatible one of several security providers.
+ * <p>
+ * On construction, every cipher spec of {@link AlgorithmSpecCollection} is instantiated with each candidate provider,
+ * checked for compatibility, and micro-benchmarked. Compatible means: same block size as specified, same output as the
+ * first provider handling it for symmetric ciphers, and for RSA, a decryption result which fits the usable block size
+ * of the spec - the "tara" difference between BC and SunJCE. Specs not covered, and specs no candidate
+ * handles correctly, go to the primary provider.
+ * <p>
+ * Construction takes a moment; create one instance at startup and share it. It is safe for use by multiple threads.
+ * {@link com.metabit.custom.safe.safeseal.SAFESealSealer} and {@link com.metabit.custom.safe.safeseal.SAFESealRevealer}
+ * use the shared instance if the system property {@value #ENABLE_PROPERTY} is set to true.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public class ProviderSelectingCryptoFactory implements CryptoFactory
+{
+    private static final Logger LOGGER = LogManager.getLogger(ProviderSelectingCryptoFactory.class);
+
+    /** system property which makes the SAFESeal facades use the shared instance: {@value}. */
+    public static final String ENABLE_PROPERTY = "safeseal.selectProviders";
+
+    private static final int SYMMETRIC_TEST_SIZE = 16*1024;
+    // enough calls for the JIT to finish compiling the provider's code paths before measuring;
+    // the best of several rounds then filters out GC pauses and scheduling noise.
+    private static final int SYMMETRIC_WARMUP    = 2000;
+    private static final int SYMMETRIC_ROUNDS    = 100;
+    private static final int RSA_WARMUP          = 200;
+    private static final int RSA_ROUNDS          = 10;
+    private static final int MEASUREMENTS        = 7;
+    // the tara behaviour doesn't depend on the key size, so one key serves for all RSA specs;
+    // the size the engines use by default, so that the timing is the one that matters.
+    private static final int RSA_TEST_KEY_SIZE   = 2048;
+
+    private final CryptoFactoryImpl                         primary;
+    private final Map<AlgorithmSpec, CryptoFactoryImpl>     selection;
+
+    // built on first use, the benchmark is only run when someone asks for it.
+    private static final class SharedInstanceHolder
+    {
+        static final ProviderSelectingCryptoFactory INSTANCE = new ProviderSelectingCryptoFactory();
+    }
+
+    /**
+     * get the instance shared by the SAFESeal facades, selecting between BouncyCastle and SunJCE.
+     * The first call runs the benchmark, and takes a few seconds.
+     *
+     * @return the shared instance
+     */
+    public static ProviderSelectingCryptoFactory getSharedInstance()
+        {
+        return SharedInstanceHolder.INSTANCE;
+        }
+
+    /**
+     * check whether the SAFESeal facades are to use the shared instance.
+     *
+     * @return true if the system property {@value #ENABLE_PROPERTY} is set to true
+     */
+    public static boolean isEnabled()
+        {
+        return Boolean.getBoolean(ENABLE_PROPERTY);
+        }
+
+    /**
+     * default constructor.
+     * Selects between BouncyCastle (primary) and SunJCE.
+     */
+    public ProviderSelectingCryptoFactory()
+        {
+        this(bouncyCastle(), Security.getProvider("SunJCE"));
+        }
+
+    /**
+     * constructor for a specific list of candidate providers.
+     *
+     * @param candidates security providers to choose from. The first one is the primary provider; null entries are ignored.
+     */
+    public ProviderSelectingCryptoFactory(final Provider... candidates)
+        {
+        List<CryptoFactoryImpl> factories = new ArrayList<>();
+        for (Provider provider : candidates)
+            if (provider != null)
+                factories.add(new CryptoFactoryImpl(provider));
+        if (factories.isEmpty())
+            throw new IllegalArgumentException("no security provider given");
+        this.primary = factories.get(0);
+        this.selection = Collections.unmodifiableMap(select(factories));
+        }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cipher getCipherFromCipherSpec(AlgorithmSpec algorithmSpec) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+        {
+        return route(algorithmSpec).getCipherFromCipherSpec(algorithmSpec);
+        }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cipher leaseCipher(AlgorithmSpec algorithmSpec) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+        {
+        return route(algorithmSpec).leaseCipher(algorithmSpec);
+        }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void releaseCipher(AlgorithmSpec algorithmSpec, Cipher cipher)
+        {
+        route(algorithmSpec).releaseCipher(algorithmSpec, cipher);
+        }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ECDomainParameters getEllipticCurve(final AlgorithmSpec algorithmSpec)
+        {
+        return primary.getEllipticCurve(algorithmSpec);
+        }
+
+    /**
+     * get the provider selected for an algorithm.
+     *
+     * @param algorithmSpec the algorithm specification
+     * @return the provider the algorithm is routed to
+     */
+    public Provider getSelectedProvider(final AlgorithmSpec algorithmSpec)
+        {
+        return route(algorithmSpec).getSecurityProvider();
+        }
+
+    private CryptoFactoryImpl route(final AlgorithmSpec algorithmSpec)
+        {
+        CryptoFactoryImpl factory = selection.get(algorithmSpec);
+        return (factory != null) ? factory : primary;
+        }
+
+    private static Provider bouncyCastle()
+        {
+        Provider provider = Security.getProvider("BC");
+        if (provider == null)
+            {
+            provider = new BouncyCastleProvider();
+            Security.addProvider(provider);
+            }
+        return provider;
+        }
+
+    // the cipher specs to benchmark. The collection lists only one spec per OID, so the variants are added explicitly.
+    private static Collection<AlgorithmSpec> specsToSelectFor()
+        {
+        Set<AlgorithmSpec> specs = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (AlgorithmSpec spec : AlgorithmSpecCollection.getAllDefined())
+            if (spec.getType() == AlgorithmSpec.Type.CIPHER)
+                specs.add(spec);
+        specs.add(AlgorithmSpecCollection.AES128CBC);
+        specs.add(AlgorithmSpecCollection.RSA1024);
+        specs.add(AlgorithmSpecCollection.RSA2048);
+        specs.add(AlgorithmSpecCollection.RSA4096);
+        return specs;
+        }
+
+    private static Map<AlgorithmSpec, CryptoFactoryImpl> select(final List<CryptoFactoryImpl> factories)
+        {
+        Map<AlgorithmSpec, CryptoFactoryImpl> result = new IdentityHashMap<>();
+        if (factories.size() == 1)
+            return result; // nothing to choose from
+        SecureRandom rng = new SecureRandom();
+        KeyPair rsaTestKeys = generateRSATestKeys();
+        for (AlgorithmSpec spec : specsToSelectFor())
+            {
+            CryptoFactoryImpl fastest = null;
+            long fastestTime = Long.MAX_VALUE;
+            byte[] referenceOutput = null;
+            SymmetricTestParameters parameters = spec.isAsymmetricCipher() ? null : symmetricTestParameters(spec, rng);
+            for (CryptoFactoryImpl factory : factories)
+                {
+                try
+                    {
+                    Cipher cipher = factory.getCipherFromCipherSpec(spec);
+                    long time;
+                    if (spec.isAsymmetricCipher())
+                        {
+                        if ((rsaTestKeys == null) || (checkAsymmetric(spec, cipher, rsaTestKeys, rng) == false))
+                            continue;
+                        time = benchmarkAsymmetric(cipher, rsaTestKeys, rng);
+                        }
+                    else
+                        {
+                        byte[] output = checkSymmetric(spec, cipher, parameters);
+                        if (output == null)
+                            continue;
+                        if (referenceOutput == null)
+                            referenceOutput = output;
+                        else if (Arrays.equals(referenceOutput, output) == false)
+                            continue;
+                        time = benchmarkSymmetric(cipher, parameters);
+                        }
+                    LOGGER.debug("{} on {}: {} ns per operation", spec.getName(), factory.getSecurityProvider().getName(), time);
+                    if (time < fastestTime)
+                        {
+                        fastestTime = time;
+                        fastest = factory;
+                        }
+                    }
+                catch (GeneralSecurityException|RuntimeException ex)
+                    {
+                    LOGGER.debug("{} not usable on {}: {}", spec.getName(), factory.getSecurityProvider().getName(), ex.toString());
+                    }
+                }
+            if (fastest == null)
+                {
+                LOGGER.warn("no compatible provider found for {} ({} bit), using {}", spec.getName(), spec.getKeySizeInBit(), factories.get(0).getSecurityProvider().getName());
+                continue;
+                }
+            LOGGER.info("{} ({} bit, OID {}) -> {}", spec.getName(), spec.getKeySizeInBit(), spec.getOID().getId(), fastest.getSecurityProvider().getName());
+            result.put(spec, fastest);
+            }
+        return result;
+        }
+
+    private static KeyPair generateRSATestKeys()
+        {
+        try
+            {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(RSA_TEST_KEY_SIZE);
+            return generator.generateKeyPair();
+            }
+        catch (NoSuchAlgorithmException ex)
+            {
+            LOGGER.warn("no RSA key generator available, RSA stays on the primary provider");
+            return null;
+            }
+        }
+
+    private static final class SymmetricTestParameters
+    {
+        final Key    key;
+        final byte[] iv;
+        final byte[] data;
+
+        SymmetricTestParameters(Key key, byte[] iv, byte[] data)
+            {
+            this.key = key;
+            this.iv = iv;
+            this.data = data;
+            }
+    }
+
+    private static SymmetricTestParameters symmetricTestParameters(final AlgorithmSpec spec, final SecureRandom rng)
+        {
+        byte[] keyBytes = new byte[spec.getKeySizeInBit()/8];
+        rng.nextBytes(keyBytes);
+        byte[] iv = new byte[spec.getCipherBlockSize()];
+        rng.nextBytes(iv);
+        byte[] data = new byte[SYMMETRIC_TEST_SIZE];
+        rng.nextBytes(data);
+        return new SymmetricTestParameters(new SecretKeySpec(keyBytes, "AES"), iv, data);
+        }
+
+    private static void initSymmetric(final Cipher cipher, final int mode, final SymmetricTestParameters parameters)
+            throws GeneralSecurityException
+        {
+        try
+            {
+            cipher.init(mode, parameters.key, new IvParameterSpec(parameters.iv));
+            }
+        catch (InvalidAlgorithmParameterException ex) // mode without IV, such as ECB
+            {
+            cipher.init(mode, parameters.key);
+            }
+        }
+
+    /**
+     * @return ciphertext for comparison with other providers, or null if the cipher doesn't match the spec.
+     */
+    private static byte[] checkSymmetric(final AlgorithmSpec spec, final Cipher cipher, final SymmetricTestParameters parameters)
+            throws GeneralSecurityException
+        {
+        if (cipher.getBlockSize() != spec.getCipherBlockSize())
+            return null;
+        initSymmetric(cipher, Cipher.ENCRYPT_MODE, parameters);
+        byte[] ciphertext = cipher.doFinal(parameters.data);
+        initSymmetric(cipher, Cipher.DECRYPT_MODE, parameters);
+        if (Arrays.equals(parameters.data, cipher.doFinal(ciphertext)) == false)
+            return null;
+        return ciphertext;
+        }
+
+    /**
+     * check the provider's RSA block sizes match the spec: a usable-sized block encrypts to a full block,
+     * and decrypts to no more than the usable size.
+     */
+    private static boolean checkAsymmetric(final AlgorithmSpec spec, final Cipher cipher, final KeyPair keys, final SecureRandom rng)
+            throws GeneralSecurityException
+        {
+        int tara = spec.getCipherBlockSize()-spec.getUsableBlockSize();
+        int modulusSize = (RSA_TEST_KEY_SIZE+7)/8;
+        byte[] block = new byte[modulusSize-tara];
+        rng.nextBytes(block);
+        block[0] = 0; // keep the value below the modulus
+        cipher.init(Cipher.ENCRYPT_MODE, keys.getPrivate());
+        byte[] encrypted = cipher.doFinal(block);
+        if (encrypted.length != modulusSize)
+            return false;
+        cipher.init(Cipher.DECRYPT_MODE, keys.getPublic());
+        byte[] decrypted = cipher.doFinal(encrypted);
+        if (decrypted.length > block.length)
+            return false;
+        byte[] aligned = new byte[block.length];
+        System.arraycopy(decrypted, 0, aligned, block.length-decrypted.length, decrypted.length);
+        return Arrays.equals(block, aligned);
+        }
+
+    @FunctionalInterface
+    private interface Operation
+    {
+        void run() throws GeneralSecurityException;
+    }
+
+    // the operations used in the algorithms: AES-CBC over a large buffer, RSA with the private key.
+    private static long benchmarkSymmetric(final Cipher cipher, final SymmetricTestParameters parameters)
+            throws GeneralSecurityException
+        {
+        byte[] buffer = new byte[cipher.getOutputSize(parameters.data.length)];
+        return bestOf(SYMMETRIC_WARMUP, SYMMETRIC_ROUNDS, ()->
+            {
+            initSymmetric(cipher, Cipher.ENCRYPT_MODE, parameters);
+            cipher.doFinal(parameters.data, 0, parameters.data.length, buffer, 0);
+            });
+        }
+
+    private static long benchmarkAsymmetric(final Cipher cipher, final KeyPair keys, final SecureRandom rng)
+            throws GeneralSecurityException
+        {
+        byte[] block = new byte[RSA_TEST_KEY_SIZE/8-1];
+        rng.nextBytes(block);
+        return bestOf(RSA_WARMUP, RSA_ROUNDS, ()->
+            {
+            cipher.init(Cipher.ENCRYPT_MODE, keys.getPrivate());
+            cipher.doFinal(block);
+            });
+        }
+
+    /**
+     * @return the shortest time per operation of all measurements, in ns.
+     */
+    private static long bestOf(final int warmup, final int rounds, final Operation operation)
+            throws GeneralSecurityException
+        {
+        for (int i = 0; i < warmup; i++)
+            operation.run();
+        long best = Long.MAX_VALUE;
+        for (int m = 0; m < MEASUREMENTS; m++)
+            {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                operation.run();
+            best = Math.min(best, (System.nanoTime()-start)/rounds);
+            }
+        return best;
+        }
+}
+//___EOF___
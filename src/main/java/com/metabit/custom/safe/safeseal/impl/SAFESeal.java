@@ -5,7 +5,6 @@
  */
 package com.metabit.custom.safe.safeseal.impl;
 
-import static com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection.COMPRESSION_GZIP;
 import static com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection.COMPRESSION_NONE;
 
 import java.io.IOException;
@@ -15,24 +14,25 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.XECKey;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.NamedParameterSpec;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
 
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.crypto.DataLengthException;
 
 import com.metabit.custom.safe.iip.AsymmetricEncryptionWithIIP;
 import com.metabit.custom.safe.iip.ECDHEWithIntegrityPadding;
 import com.metabit.custom.safe.iip.RSAWithIntegrityPadding;
+import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
 import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
 import com.metabit.custom.safe.iip.shared.CryptoFactory;
 
@@ -44,11 +44,14 @@ import com.metabit.custom.safe.iip.shared.CryptoFactory;
  * @version $Id: $Id
  */
 public class SAFESeal {
+    private static final Pattern KEY_LENGTH_FROM_DESCRIPTION = Pattern
+	    .compile(".+RSA private CRT key,\\s+(\\d{4})\\sbits(?m:$)");
     private final CryptoFactory cryptoFactory;
     private TransportFormatConverter formatConverter;
     private AsymmetricEncryptionWithIIP asymmetricLayer;
     private boolean keyAgreementMode; // flag shorthand for NONE or ECDHE. later versions may use an enum.
     private boolean compressionMode; // flag shorthand for NONE or ZLIB. later versions may use an enum.
+    private CompressionStage compressionStage = CompressionStage.getSharedInstance();
 
     /**
      * <p>
@@ -69,43 +72,6 @@ public class SAFESeal {
 	init();
     }
 
-    /*
-     * try to apply ZLIB compression. Important: Zlib wrapper fields must not be
-     * used/sent. That also implies we always use the same settings in this context:
-     * BEST_COMPRESSION, nowrap.
-     *
-     * @param rawPayload content to compress
-     *
-     * @param itt settings, where we'd note the compression algorithm if any.
-     *
-     * @return payload for further processing (compressed or not)
-     *
-     * @throws NoSuchAlgorithmException if algorithm lookup fails.
-     */
-    private static byte[] tryToCompress(final byte[] rawPayload, final InternalTransportTuple itt)
-	    throws NoSuchAlgorithmException {
-	byte[] payload;
-	final int inputSize = rawPayload.length;
-	final byte[] tmp = new byte[inputSize];
-	final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true); // NB: must set "nowrap"! The header
-										 // fields are moot, but we may not use
-										 // checksums.
-	deflater.setInput(rawPayload);
-	deflater.finish();
-	final int outputSize = deflater.deflate(tmp);
-	if (outputSize >= inputSize) // in this case, keep original size
-	{
-	    payload = rawPayload;
-	    itt.cryptoSettings.setCompressionOID(COMPRESSION_NONE.getOID());
-	} else {
-	    payload = new byte[outputSize];
-	    System.arraycopy(tmp, 0, payload, 0, outputSize);
-	    itt.cryptoSettings.setCompressionOID(COMPRESSION_GZIP.getOID());
-	}
-	deflater.end();
-	return payload;
-    }
-
     /**
      * accessor for key agreement mode.
      *
@@ -156,18 +122,17 @@ public class SAFESeal {
 	    IllegalBlockSizeException, InvalidKeySpecException, BadPaddingException, IOException, ShortBufferException {
 	InternalTransportTuple itt;
 	if (keyAgreementMode) {
-	    asymmetricLayer = new ECDHEWithIntegrityPadding(cryptoFactory, AlgorithmSpecCollection.AES256ECB_PADDED);
+	    final AlgorithmSpec keyAgreement = keyAgreementFor(senderKey);
+	    asymmetricLayer = new ECDHEWithIntegrityPadding(cryptoFactory, AlgorithmSpecCollection.AES256ECB_PADDED,
+		    keyAgreement);
 	    itt = new InternalTransportTuple(true); // ECDHE+AES...
+	    if (keyAgreement != AlgorithmSpecCollection.ECDH) {
+		itt.cryptoSettings.setKeyAgreementProtocolByOID(keyAgreement.getOID());
+		itt.cryptoSettings.setKeyAgreementCipherOID(null); // implied by the key agreement OID
+	    }
 	    itt.setDiversification(uniqueID);
 	} else {
-	    // lacking a proper API, we do this the factual way:
-	    final String description = senderKey.toString();
-	    final Pattern keyLengthFromDescription = Pattern.compile(".+RSA private CRT key,\\s+(\\d{4})\\sbits(?m:$)");
-	    final Matcher matcher = keyLengthFromDescription.matcher(description);
-	    if (matcher.find() == false) {
-		throw new UnsupportedOperationException("could not determine key size");
-	    }
-	    final int privateKeyLength = Integer.valueOf(matcher.group(1));
+	    final int privateKeyLength = rsaKeyLength(senderKey);
 	    switch (privateKeyLength) {
 	    case 1024:
 		asymmetricLayer = new RSAWithIntegrityPadding(cryptoFactory, AlgorithmSpecCollection.RSA1024);
@@ -191,7 +156,7 @@ public class SAFESeal {
 	    payload = contentToSeal;
 	} else // if compression is activated, perform compression and set respective flag
 	{
-	    payload = tryToCompress(contentToSeal, itt);
+	    payload = compressionStage.compress(contentToSeal, itt);
 	}
 
 	// perform asymmetric crypto, symmetric crypto, and padding
@@ -239,20 +204,16 @@ public class SAFESeal {
 	    NoSuchProviderException, IOException, ShortBufferException {
 	final InternalTransportTuple tuple = formatConverter.unwrapTransportFormat(sealedInput);
 
-	final ASN1ObjectIdentifier compressionOID = tuple.cryptoSettings.getCompressionOID();
-	if (compressionOID.equals(COMPRESSION_GZIP.getOID())) {
-	    compressionMode = true;
-	} else if (compressionOID.equals(COMPRESSION_NONE.getOID())) {
-	    compressionMode = false;
-	} // do nothing, ignore.
-	else {
-	    throw new NoSuchAlgorithmException("invalid compression");
-	}
+	compressionStage.checkSupported(tuple);
+	compressionMode = !tuple.cryptoSettings.getCompressionOID().equals(COMPRESSION_NONE.getOID());
 
 	// @IMPROVEMENT for later versions: allow to for a more flexible selection of
 	// algorithms.
 	if (keyAgreementMode) {
-	    asymmetricLayer = new ECDHEWithIntegrityPadding(cryptoFactory, AlgorithmSpecCollection.AES256ECB_PADDED);
+	    if (tuple.cryptoSettings.getKeyAgreementProtocol() == null)
+		throw new InvalidKeyException("no key agreement in sealed input");
+	    asymmetricLayer = new ECDHEWithIntegrityPadding(cryptoFactory, AlgorithmSpecCollection.AES256ECB_PADDED,
+		    tuple.cryptoSettings.getKeyAgreementProtocol());
 	} else {
 	    switch (tuple.cryptoSettings.getEncryptionKeySize()) {
 	    case 1024:
@@ -271,49 +232,31 @@ public class SAFESeal {
 	try {
 	    byte[] payload = asymmetricLayer.decryptAndVerify(tuple.encryptedData, senderPublicKey, recipientKey,
 		    tuple.keyDiversificationData, tuple.cryptoIV);
-	    if (compressionMode == true) {
-		payload = inflateZLIBcompressedData(payload);
-	    }
-	    return payload;
+	    return compressionStage.decompress(payload, tuple);
 	} catch (ArrayIndexOutOfBoundsException | DataLengthException | DataFormatException ex) {
 	    throw new BadPaddingException();
 	}
     }
 
-    /*
-     * try to decompress if we've got compressed data. using "nowrap" settings, we
-     * have neither header nor checksum.
-     *
-     * @param payload data to decompress/inflate
-     *
-     * @return decompressed/inflated data
-     *
-     * @throws DataFormatException if the data is not matching the expected format
-     */
-    private byte[] inflateZLIBcompressedData(final byte[] payload) throws DataFormatException {
-	final Inflater inflater = new Inflater(true); // nowrap is important for our use case.
-	final int inputSize = payload.length;
-	// measuring the required input size
-	int outputSize;
-	int tmpSize = 0;
-	do {
-	    tmpSize += inputSize; // try multiple times with increasing buffer size
-	    inflater.setInput(payload);
-	    final byte[] tmp = new byte[tmpSize]; // heuristics here.
-	    outputSize = inflater.inflate(tmp);
-	    if (outputSize == 0) {
-		throw new IllegalArgumentException("input compression level not handled");
-	    }
-	    inflater.reset();
-	} while (tmpSize == outputSize); // if the temp buffer was completely full, we need to try again with a larger
-					 // buffer.
+    private static int rsaKeyLength(final PrivateKey key) {
+	if (key instanceof RSAKey)
+	    return ((RSAKey) key).getModulus().bitLength();
+	// lacking a proper API, we do this the factual way:
+	final Matcher matcher = KEY_LENGTH_FROM_DESCRIPTION.matcher(key.toString());
+	if (matcher.find() == false) {
+	    throw new UnsupportedOperationException("could not determine key size");
+	}
+	return Integer.valueOf(matcher.group(1));
+    }
 
-	// now performing actual decompression
-	final byte[] result = new byte[outputSize];
-	inflater.setInput(payload);
-	inflater.inflate(result);
-	inflater.end();
-	return result;
+    // X25519 keys come as "X25519" from BC, and as "XDH" with named parameters from SunEC.
+    private static AlgorithmSpec keyAgreementFor(final PrivateKey key) {
+	if ("X25519".equals(key.getAlgorithm()))
+	    return AlgorithmSpecCollection.X25519;
+	if ((key instanceof XECKey) && (((XECKey) key).getParams() instanceof NamedParameterSpec)
+		&& "X25519".equals(((NamedParameterSpec) ((XECKey) key).getParams()).getName()))
+	    return AlgorithmSpecCollection.X25519;
+	return AlgorithmSpecCollection.ECDH;
     }
 
     public boolean getCompressionMode() {
@@ -323,5 +266,20 @@ public class SAFESeal {
     public void setCompressionMode(final boolean compressionMode) {
 	this.compressionMode = compressionMode;
     }
+
+    public CompressionStage getCompressionStage() {
+	return compressionStage;
+    }
+
+    /**
+     * set the compression stage to use, e.g. for a preset dictionary or a different level.
+     *
+     * @param compressionStage the stage to use for sealing and revealing.
+     */
+    public void setCompressionStage(final CompressionStage compressionStage) {
+	if (compressionStage == null)
+	    throw new IllegalArgumentException("compression stage must not be null");
+	this.compressionStage = compressionStage;
+    }
 }
 //___EOF___
@@ -0,0 +1,130 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal.impl;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * header information of a sealed envelope, as read by {@link TransportEnvelopeCodec#peek(ByteBuffer)}.
+ * <p>
+ * Meant for routing sealed messages before revealing them: only the header parts are read, the
+ * encrypted payload is neither copied nor looked at. Nothing here has been authenticated;
+ * use it for dispatching, not for decisions on trust.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class SealedEnvelopeInfo
+{
+    int                  protocolVersion;
+    ASN1ObjectIdentifier paddingOID;
+    ASN1ObjectIdentifier encryptionOID;
+    ASN1ObjectIdentifier compressionOID;
+    int                  encryptionKeySize;
+    int                  uncompressedLength      = -1;
+    long                 compressionDictionaryId = -1;
+    ASN1ObjectIdentifier keyAgreementProtocolOID;
+    int                  payloadOffset;
+    int                  payloadLength;
+
+    SealedEnvelopeInfo()
+        { }
+
+    /**
+     * read the header of an envelope.
+     *
+     * @param transportWrapped wrapped binary data
+     * @return header information
+     * @throws IllegalArgumentException if the envelope structure is invalid.
+     */
+    public static SealedEnvelopeInfo peek(final byte[] transportWrapped)
+        {
+        return new TransportEnvelopeCodec().peek(transportWrapped);
+        }
+
+    /**
+     * read the header of an envelope; the buffer's position and limit are not changed.
+     *
+     * @param transportWrapped wrapped binary data, from position to limit.
+     * @return header information
+     * @throws IllegalArgumentException if the envelope structure is invalid.
+     */
+    public static SealedEnvelopeInfo peek(final ByteBuffer transportWrapped)
+        {
+        return new TransportEnvelopeCodec().peek(transportWrapped);
+        }
+
+    /**
+     * @return protocol version, 1 or 2.
+     */
+    public int getProtocolVersion()
+        { return protocolVersion; }
+
+    /**
+     * @return OID of the integrity padding algorithm
+     */
+    public ASN1ObjectIdentifier getPaddingOID()
+        { return paddingOID; }
+
+    /**
+     * @return OID of the symmetric encryption algorithm
+     */
+    public ASN1ObjectIdentifier getEncryptionOID()
+        { return encryptionOID; }
+
+    /**
+     * @return OID of the compression algorithm, or null if not given.
+     */
+    public ASN1ObjectIdentifier getCompressionOID()
+        { return compressionOID; }
+
+    /**
+     * @return symmetric key size in bit, or 0 if not given.
+     */
+    public int getEncryptionKeySize()
+        { return encryptionKeySize; }
+
+    /**
+     * @return payload length before compression, or -1 if not recorded.
+     */
+    public int getUncompressedLength()
+        { return uncompressedLength; }
+
+    /**
+     * @return ID of the preset compression dictionary, or -1 if none is used.
+     */
+    public long getCompressionDictionaryId()
+        { return compressionDictionaryId; }
+
+    /**
+     * @return OID of the key agreement protocol, or null for RSA.
+     */
+    public ASN1ObjectIdentifier getKeyAgreementProtocolOID()
+        { return keyAgreementProtocolOID; }
+
+    /**
+     * @return index of the encrypted payload's first byte in the envelope array or buffer.
+     */
+    public int getPayloadOffset()
+        { return payloadOffset; }
+
+    /**
+     * @return length of the encrypted payload, in byte.
+     */
+    public int getPayloadLength()
+        { return payloadLength; }
+
+    @Override
+    public String toString()
+        {
+        return "SealedEnvelopeInfo{version="+protocolVersion+", encryption="+encryptionOID+"/"+encryptionKeySize
+                +", compression="+compressionOID+", keyAgreement="+keyAgreementProtocolOID
+                +", payload="+payloadLength+"@"+payloadOffset+"}";
+        }
+}
+//___EOF___
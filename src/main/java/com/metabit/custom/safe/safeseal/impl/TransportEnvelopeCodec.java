@@ -0,0 +1,626 @@
+/*
+ *  this source code is part of the SAFEsealing package published by S.A.F.E. e.V.
+ *  written 2022-2023 by JWilkes, metabit,
+ *  placed under CC-BY-ND 4.0 license.
+ */
+package com.metabit.custom.safe.safeseal.impl;
+
+import com.metabit.custom.safe.iip.InterleavedIntegrityPadding_V1_0;
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.metabit.custom.safe.iip.shared.SharedConstants.*;
+
+/**
+ * DER codec for the transport envelope, same format as {@link TransportFormatConverter}, without the ASN.1 object tree.
+ * <p>
+ * Encoding calculates all lengths first, then writes into a buffer of the exact size.
+ * Decoding walks the TLVs in place; the encrypted payload is not copied, but handed on as a
+ * slice of the envelope, see {@link InternalTransportTuple#getEncryptedDataSlice()}.
+ * Output is byte-identical to TransportFormatConverter's, for protocol versions 1 and 2.
+ * Input must be DER, i.e. use definite lengths.
+ * <p>
+ * Instances hold no state, and are safe for use by multiple threads.
+ *
+ * @author jwilkes
+ * @version $Id: $Id
+ */
+public final class TransportEnvelopeCodec
+{
+    private static final int TAG_INTEGER       = 0x02;
+    private static final int TAG_OCTET_STRING  = 0x04;
+    private static final int TAG_OID           = 0x06;
+    private static final int TAG_SEQUENCE      = 0x30;
+    private static final int CLASS_MASK        = 0xC0;
+    private static final int CLASS_APPLICATION = 0x40;
+    private static final int CLASS_CONTEXT     = 0x80;
+    private static final int CONSTRUCTED       = 0x20;
+    private static final int APPLICATION_0     = CLASS_APPLICATION|CONSTRUCTED; // explicit tagging, hence constructed
+    private static final int CONTEXT_0         = CLASS_CONTEXT|CONSTRUCTED;
+
+    // OIDs are few, and their encoding never changes.
+    private static final ConcurrentMap<ASN1ObjectIdentifier, byte[]> ENCODED_OIDS = new ConcurrentHashMap<>();
+
+    /**
+     * wrap for transport; same result as {@link TransportFormatConverter#wrapForTransport(InternalTransportTuple)}.
+     *
+     * @param ids the tuple to wrap
+     * @return the envelope
+     */
+    public byte[] wrapForTransport(final InternalTransportTuple ids)
+        {
+        final CryptoSettingsStruct css = ids.cryptoSettings;
+        final int version = ids.getProtocolVersion();
+        final byte[] paddingOID;
+        switch (version)
+            {
+            case 1:
+                paddingOID = encoded(OID_IIP_ALGORITHM);
+                break;
+            case 2:
+                paddingOID = encoded(OID_IIP2_ALGORITHM);
+                break;
+            default:
+                throw new IllegalArgumentException("invalid protocol version");
+            }
+        final ByteBuffer payload = ids.getEncryptedDataSlice();
+        if (payload == null)
+            throw new IllegalArgumentException("no encrypted data");
+
+        //# first pass: lengths, bottom up.
+        final byte[] encryptionOID = encoded(css.getEncryptionOID());
+        final byte[] compressionOID = (css.getCompressionOID() != null) ? encoded(css.getCompressionOID()) : null;
+        int encryptionContent = paddingOID.length+tlv(encryptionOID.length);
+        if (compressionOID != null)
+            encryptionContent += tlv(compressionOID.length);
+        encryptionContent += tlv(integerTLV(css.getEncryptionKeySize()));
+        int ephemeralKeysContent = 0;
+        if (version == 2)
+            {
+            for (int i = 1; i <= 3; i++)
+                ephemeralKeysContent += tlv(ids.getEphemeralSymmetricKeyBytes(i).length);
+            encryptionContent += tlv(tlv(ephemeralKeysContent));
+            }
+        if (ids.getUncompressedLength() >= 0)
+            encryptionContent += tlv(integerTLV(ids.getUncompressedLength()));
+        if (ids.getCompressionDictionaryId() >= 0)
+            encryptionContent += tlv(integerTLV(ids.getCompressionDictionaryId()));
+        if (ids.cryptoIV != null)
+            encryptionContent += tlv(ids.cryptoIV.length);
+
+        final boolean keyAgreement = (css.getKeyAgreementProtocolOID() != null);
+        byte[] keyAgreementOID = null;
+        byte[] keyDiversificationOID = null;
+        byte[] ecAlgorithmOID = null;
+        int keyAgreementContent = 0;
+        if (keyAgreement)
+            {
+            keyAgreementOID = encoded(css.getKeyAgreementProtocolOID());
+            keyDiversificationOID = encoded(css.getKeyDiversificationOID());
+            keyAgreementContent = keyAgreementOID.length+tlv(ids.keyDiversificationData.length)+tlv(keyDiversificationOID.length);
+            if (css.getKeyAgreementCipherOID() != null)
+                {
+                ecAlgorithmOID = encoded(css.getKeyAgreementCipherOID());
+                keyAgreementContent += tlv(ecAlgorithmOID.length);
+                }
+            }
+
+        final byte[] safeSealOID = encoded(OID_SAFE_SEAL);
+        final int topContent = safeSealOID.length+integerTLV(version)
+                +tlv(tlv(encryptionContent))
+                +tlv(tlv(keyAgreementContent))
+                +tlv(tlv(0)) // authenticity part, empty in this version
+                +tlv(payload.remaining());
+
+        //# second pass: write.
+        Writer out = new Writer(new byte[tlv(topContent)]);
+        out.header(TAG_SEQUENCE, topContent);
+        out.put(safeSealOID);
+        out.integer(version);
+
+        out.header(APPLICATION_0, tlv(encryptionContent));
+        out.header(TAG_SEQUENCE, encryptionContent);
+        out.put(paddingOID);
+        out.header(CONTEXT_0, encryptionOID.length);
+        out.put(encryptionOID);
+        if (compressionOID != null)
+            {
+            out.header(CONTEXT_0|1, compressionOID.length);
+            out.put(compressionOID);
+            }
+        out.header(CONTEXT_0|2, integerTLV(css.getEncryptionKeySize()));
+        out.integer(css.getEncryptionKeySize());
+        if (version == 2)
+            {
+            out.header(CONTEXT_0|4, tlv(ephemeralKeysContent));
+            out.header(TAG_SEQUENCE, ephemeralKeysContent);
+            for (int i = 1; i <= 3; i++)
+                out.octetString(ids.getEphemeralSymmetricKeyBytes(i));
+            }
+        if (ids.getUncompressedLength() >= 0)
+            {
+            out.header(CONTEXT_0|5, integerTLV(ids.getUncompressedLength()));
+            out.integer(ids.getUncompressedLength());
+            }
+        if (ids.getCompressionDictionaryId() >= 0)
+            {
+            out.header(CONTEXT_0|6, integerTLV(ids.getCompressionDictionaryId()));
+            out.integer(ids.getCompressionDictionaryId());
+            }
+        if (ids.cryptoIV != null)
+            out.octetString(ids.cryptoIV);
+
+        out.header(APPLICATION_0|1, tlv(keyAgreementContent));
+        out.header(TAG_SEQUENCE, keyAgreementContent);
+        if (keyAgreement)
+            {
+            out.put(keyAgreementOID);
+            out.octetString(ids.keyDiversificationData);
+            out.header(CONTEXT_0, keyDiversificationOID.length);
+            out.put(keyDiversificationOID);
+            if (ecAlgorithmOID != null)
+                {
+                out.header(CONTEXT_0|1, ecAlgorithmOID.length);
+                out.put(ecAlgorithmOID);
+                }
+            }
+
+        out.header(APPLICATION_0|2, tlv(0));
+        out.header(TAG_SEQUENCE, 0);
+
+        out.header(TAG_OCTET_STRING, payload.remaining());
+        out.put(payload);
+        assert (out.position == out.buffer.length);
+        return out.buffer;
+        }
+
+    /**
+     * unwrap the transport format, including sanity checks; same result as
+     * {@link TransportFormatConverter#unwrapTransportFormat(byte[])}, except that the encrypted data is a slice of the input.
+     *
+     * @param transportWrapped wrapped binary data; must not be modified while the result is in use.
+     * @return InternalTransportTuple containing parsed input
+     * @throws IllegalArgumentException if the input is invalid, whether because of format or consistency issues. NB: do not pass on details to caller.
+     */
+    public InternalTransportTuple unwrapTransportFormat(final byte[] transportWrapped)
+            throws IllegalArgumentException
+        {
+        // starts from the RSA defaults of TransportFormatConverter; the envelope overrides what it specifies.
+        InternalTransportTuple result = new InternalTransportTuple(new CryptoSettingsStruct(1, null, null, null,
+                AlgorithmSpecCollection.RSA2048, AlgorithmSpecCollection.AES256CBC_PADDED, AlgorithmSpecCollection.COMPRESSION_NONE));
+        try
+            {
+            ByteBuffer buffer = ByteBuffer.wrap(transportWrapped);
+            Reader seq = Reader.envelope(buffer, 0, transportWrapped.length);
+
+            // first, check we've got the right thing at all.
+            if (!OID_SAFE_SEAL.equals(seq.readOID()))
+                throw new IllegalArgumentException("different format (protocol OID mismatch)");
+            final int procedureVersion = seq.readPositiveInt();
+            if ((procedureVersion != 1) && (procedureVersion != 2))
+                throw new IllegalArgumentException("format version not supported");
+            Reader encryptionPart = seq.enterExplicit(APPLICATION_0, TAG_SEQUENCE);
+            Reader keyAgreementPart = seq.enterExplicit(APPLICATION_0|1, TAG_SEQUENCE);
+            seq.enterExplicit(APPLICATION_0|2, TAG_SEQUENCE); // authenticity part: not in use in this version.
+            int payloadLength = seq.expect(TAG_OCTET_STRING);
+            result.setEncryptedDataSlice(buffer.slice(seq.position, payloadLength));
+
+            //# parse the encryption part
+            while (encryptionPart.hasMore())
+                {
+                int tag = encryptionPart.peekTag();
+                if (tag == TAG_OCTET_STRING)
+                    result.cryptoIV = encryptionPart.readOctets();
+                else if (tag == TAG_OID)
+                    result.cryptoSettings.setPaddingOID(encryptionPart.readOID());
+                else if ((tag & CLASS_MASK) != CLASS_CONTEXT)
+                    throw new IllegalArgumentException(((tag & CLASS_MASK) == 0) ? "ASN.1 type "+tag+" not handled" : "tag class mismatch "+(tag & CLASS_MASK));
+                else
+                    {
+                    Reader tagged = encryptionPart.enter(tag);
+                    switch (tag & ~(CLASS_MASK|CONSTRUCTED))
+                        {
+                        case 0: // CONTEXT[0] OID is the encryption algorithm OID
+                            result.cryptoSettings.setEncryptionOID(tagged.readOID());
+                            break;
+                        case 1: // CONTEXT[1] OID is the compression algorithm OID
+                            result.cryptoSettings.setCompressionOID(tagged.readOID());
+                            break;
+                        case 2: // CONTEXT[2] INTEGER is the optional keysize in bit
+                            result.cryptoSettings.setEncryptionKeySize(tagged.readPositiveInt());
+                            break;
+                        case 3: // CONTEXT[3] INTEGER is the optional nonce size in bit
+                            if (tagged.readPositiveInt() != InterleavedIntegrityPadding_V1_0.NONCE_SIZE*8)
+                                throw new IllegalArgumentException("this version uses fixed nonce size.");
+                            break;
+                        case 4: // CONTEXT[4] SEQUENCE of three OCTET STRINGs, the ephemeral keys; procedureVersion 2 only
+                            if (procedureVersion != 2)
+                                throw new IllegalArgumentException("version to structure mismatch");
+                            Reader keys = tagged.enter(TAG_SEQUENCE);
+                            result.setEphemeralSymmetricKeyBytes(keys.readOctets(), keys.readOctets(), keys.readOctets());
+                            break;
+                        case 5: // CONTEXT[5] INTEGER is the optional payload length before compression
+                            result.setUncompressedLength(tagged.readPositiveInt());
+                            break;
+                        case 6: // CONTEXT[6] INTEGER is the ID of the preset compression dictionary
+                            result.setCompressionDictionaryId(tagged.readLong());
+                            break;
+                        default:
+                            throw new IllegalArgumentException("tag "+(tag & ~(CLASS_MASK|CONSTRUCTED))+" not handled");
+                        }
+                    tagged.expectEnd();
+                    }
+                }
+
+            //# parse the key agreement part
+            while (keyAgreementPart.hasMore())
+                {
+                int tag = keyAgreementPart.peekTag();
+                if (tag == TAG_OID)
+                    result.cryptoSettings.setKeyAgreementProtocolByOID(keyAgreementPart.readOID());
+                else if (tag == TAG_OCTET_STRING)
+                    result.setKeyDiversificationData(keyAgreementPart.readOctets());
+                else if ((tag & CLASS_MASK) != CLASS_CONTEXT)
+                    throw new IllegalArgumentException(((tag & CLASS_MASK) == 0) ? "ASN.1 type "+tag+" not handled" : "tag class mismatch "+(tag & CLASS_MASK));
+                else
+                    {
+                    Reader tagged = keyAgreementPart.enter(tag);
+                    switch (tag & ~(CLASS_MASK|CONSTRUCTED))
+                        {
+                        case 0: // CONTEXT[0] key diversification algorithm OID
+                            result.cryptoSettings.setKeyDiversificationOID(tagged.readOID());
+                            break;
+                        case 1: // CONTEXT[1] EC Algorithm OID
+                            result.cryptoSettings.setKeyAgreementCipherOID(tagged.readOID());
+                            break;
+                        case 2:
+                            throw new IllegalArgumentException("version mismatch; EC parameters not supported in this version.");
+                        case 3:
+                            throw new IllegalArgumentException("version mismatch; public key reference not supported in this version");
+                        default:
+                            throw new IllegalArgumentException("format error");
+                        }
+                    tagged.expectEnd();
+                    }
+                }
+
+            // validation of contents read
+            if (result.cryptoSettings.validate() == false)
+                throw new IllegalArgumentException("format consistency error");
+            }
+        catch (IllegalArgumentException|IllegalStateException|ArithmeticException|NoSuchAlgorithmException ex)
+            {
+            throw new IllegalArgumentException("Exception during parsing", ex);
+            }
+        return result;
+        }
+
+    /**
+     * read the envelope header only, for routing; see {@link SealedEnvelopeInfo}.
+     *
+     * @param transportWrapped wrapped binary data
+     * @return header information; payload offset is an index into transportWrapped.
+     * @throws IllegalArgumentException if the envelope structure is invalid.
+     */
+    public SealedEnvelopeInfo peek(final byte[] transportWrapped)
+            throws IllegalArgumentException
+        {
+        return peek(ByteBuffer.wrap(transportWrapped));
+        }
+
+    /**
+     * read the envelope header only, for routing; see {@link SealedEnvelopeInfo}.
+     * The envelope runs from the buffer's position to its limit; position and limit are not changed.
+     *
+     * @param transportWrapped wrapped binary data, heap or direct.
+     * @return header information; payload offset is an absolute index into the buffer.
+     * @throws IllegalArgumentException if the envelope structure is invalid.
+     */
+    public SealedEnvelopeInfo peek(final ByteBuffer transportWrapped)
+            throws IllegalArgumentException
+        {
+        SealedEnvelopeInfo info = new SealedEnvelopeInfo();
+        try
+            {
+            Reader seq = Reader.envelope(transportWrapped, transportWrapped.position(), transportWrapped.limit());
+            if (!OID_SAFE_SEAL.equals(seq.readOID()))
+                throw new IllegalArgumentException("different format (protocol OID mismatch)");
+            info.protocolVersion = seq.readPositiveInt();
+            if ((info.protocolVersion != 1) && (info.protocolVersion != 2))
+                throw new IllegalArgumentException("format version not supported");
+            Reader encryptionPart = seq.enterExplicit(APPLICATION_0, TAG_SEQUENCE);
+            Reader keyAgreementPart = seq.enterExplicit(APPLICATION_0|1, TAG_SEQUENCE);
+            seq.enterExplicit(APPLICATION_0|2, TAG_SEQUENCE);
+            info.payloadLength = seq.expect(TAG_OCTET_STRING);
+            info.payloadOffset = seq.position;
+
+            // IV and ephemeral keys are skipped, not copied.
+            while (encryptionPart.hasMore())
+                {
+                int tag = encryptionPart.peekTag();
+                if (tag == TAG_OID)
+                    info.paddingOID = encryptionPart.readOID();
+                else if ((tag & CLASS_MASK) != CLASS_CONTEXT)
+                    encryptionPart.skip();
+                else
+                    {
+                    Reader tagged = encryptionPart.enter(tag);
+                    switch (tag & ~(CLASS_MASK|CONSTRUCTED))
+                        {
+                        case 0:
+                            info.encryptionOID = tagged.readOID();
+                            break;
+                        case 1:
+                            info.compressionOID = tagged.readOID();
+                            break;
+                        case 2:
+                            info.encryptionKeySize = tagged.readPositiveInt();
+                            break;
+                        case 5:
+                            info.uncompressedLength = tagged.readPositiveInt();
+                            break;
+                        case 6:
+                            info.compressionDictionaryId = tagged.readLong();
+                            break;
+                        default:
+                            tagged.skip();
+                            break;
+                        }
+                    tagged.expectEnd();
+                    }
+                }
+            while (keyAgreementPart.hasMore())
+                {
+                if (keyAgreementPart.peekTag() == TAG_OID)
+                    info.keyAgreementProtocolOID = keyAgreementPart.readOID();
+                else
+                    keyAgreementPart.skip();
+                }
+            }
+        catch (IllegalArgumentException|IllegalStateException|ArithmeticException ex)
+            {
+            throw new IllegalArgumentException("Exception during parsing", ex);
+            }
+        return info;
+        }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // encoding helpers
+
+    private static byte[] encoded(final ASN1ObjectIdentifier oid)
+        {
+        return ENCODED_OIDS.computeIfAbsent(oid, key ->
+            {
+            try
+                { return key.getEncoded(ASN1Encoding.DER); }
+            catch (IOException ex)
+                { throw new UncheckedIOException(ex); }
+            });
+        }
+
+    // size of a TLV with the given content length
+    static int tlv(final int contentLength)
+        {
+        return 1+lengthOfLength(contentLength)+contentLength;
+        }
+
+    private static int lengthOfLength(final int length)
+        {
+        if (length < 0x80)
+            return 1;
+        return 1+(Integer.SIZE-Integer.numberOfLeadingZeros(length)+7)/8;
+        }
+
+    // size of an INTEGER TLV: minimal two's complement, so there is room for the sign bit.
+    static int integerTLV(final long value)
+        {
+        return 3+(Long.SIZE-Long.numberOfLeadingZeros((value < 0) ? ~value : value))/8;
+        }
+
+    private static final class Writer
+    {
+        final byte[] buffer;
+        int          position;
+
+        Writer(final byte[] buffer)
+            { this.buffer = buffer; }
+
+        void header(final int tag, final int length)
+            {
+            buffer[position++] = (byte) tag;
+            if (length < 0x80)
+                {
+                buffer[position++] = (byte) length;
+                return;
+                }
+            int bytes = lengthOfLength(length)-1;
+            buffer[position++] = (byte) (0x80|bytes);
+            for (int shift = 8*(bytes-1); shift >= 0; shift -= 8)
+                buffer[position++] = (byte) (length >>> shift);
+            }
+
+        void put(final byte[] data)
+            {
+            System.arraycopy(data, 0, buffer, position, data.length);
+            position += data.length;
+            }
+
+        void put(final ByteBuffer data)
+            {
+            int length = data.remaining();
+            data.get(buffer, position, length);
+            position += length;
+            }
+
+        void octetString(final byte[] data)
+            {
+            header(TAG_OCTET_STRING, data.length);
+            put(data);
+            }
+
+        void integer(final long value)
+            {
+            int contentLength = integerTLV(value)-2;
+            header(TAG_INTEGER, contentLength);
+            for (int shift = 8*(contentLength-1); shift >= 0; shift -= 8)
+                buffer[position++] = (byte) (value >>> shift);
+            }
+    }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // decoding helpers
+
+    // cursor over the contents of one constructed TLV; bounds are checked for every access.
+    // works on absolute indices, so the buffer's own position and limit are left alone.
+    private static final class Reader
+    {
+        final ByteBuffer data;
+        final int        end;
+        int              position;
+
+        Reader(final ByteBuffer data, final int position, final int end)
+            {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+            }
+
+        // the outer SEQUENCE, which must fill the given range exactly.
+        static Reader envelope(final ByteBuffer data, final int start, final int end)
+            {
+            Reader envelope = new Reader(data, start, end);
+            Reader seq = envelope.enter(TAG_SEQUENCE);
+            if (envelope.hasMore())
+                throw new IllegalArgumentException("extra data after envelope");
+            return seq;
+            }
+
+        boolean hasMore()
+            { return position < end; }
+
+        int peekTag()
+            {
+            int tag = data.get(position) & 0xFF;
+            if ((tag & 0x1F) == 0x1F)
+                throw new IllegalArgumentException("tag numbers above 30 not supported");
+            return tag;
+            }
+
+        // read tag and length; on return, position is at the start of the contents.
+        // explicitly tagged elements are constructed; primitive ones fail here, as their tag doesn't match.
+        int expect(final int expectedTag)
+            {
+            if (!hasMore())
+                throw new IllegalArgumentException("truncated input");
+            int tag = peekTag();
+            if (tag != expectedTag)
+                throw new IllegalArgumentException("unexpected tag "+tag);
+            position++;
+            if (!hasMore())
+                throw new IllegalArgumentException("truncated input");
+            int first = data.get(position++) & 0xFF;
+            int length;
+            if (first < 0x80)
+                length = first;
+            else
+                {
+                int bytes = first & 0x7F;
+                if (bytes == 0)
+                    throw new IllegalArgumentException("indefinite length not allowed in DER");
+                if ((bytes > 4) || (bytes > end-position))
+                    throw new IllegalArgumentException("invalid length");
+                length = 0;
+                for (int i = 0; i < bytes; i++)
+                    length = (length << 8)|(data.get(position++) & 0xFF);
+                if (length < 0)
+                    throw new IllegalArgumentException("invalid length");
+                }
+            if (length > end-position)
+                throw new IllegalArgumentException("truncated input");
+            return length;
+            }
+
+        Reader enter(final int expectedTag)
+            {
+            int length = expect(expectedTag);
+            Reader contents = new Reader(data, position, position+length);
+            position += length;
+            return contents;
+            }
+
+        // explicit tag around exactly one inner TLV
+        Reader enterExplicit(final int outerTag, final int innerTag)
+            {
+            Reader outer = enter(outerTag);
+            Reader inner = outer.enter(innerTag);
+            outer.expectEnd();
+            return inner;
+            }
+
+        // skip whatever TLV comes next, without looking at its contents.
+        void skip()
+            {
+            if (!hasMore())
+                throw new IllegalArgumentException("truncated input");
+            int length = expect(peekTag()); // moves position past the header
+            position += length;
+            }
+
+        void expectEnd()
+            {
+            if (hasMore())
+                throw new IllegalArgumentException("unexpected extra content");
+            }
+
+        byte[] readOctets()
+            {
+            return readContents(TAG_OCTET_STRING);
+            }
+
+        ASN1ObjectIdentifier readOID()
+            {
+            return ASN1ObjectIdentifier.fromContents(readContents(TAG_OID));
+            }
+
+        private byte[] readContents(final int expectedTag)
+            {
+            byte[] contents = new byte[expect(expectedTag)];
+            data.get(position, contents);
+            position += contents.length;
+            return contents;
+            }
+
+        long readLong()
+            {
+            int length = expect(TAG_INTEGER);
+            if (length == 0)
+                throw new IllegalArgumentException("malformed integer");
+            byte first = data.get(position);
+            if ((length > 1) && (((first == 0) && (data.get(position+1) >= 0)) || ((first == -1) && (data.get(position+1) < 0))))
+                throw new IllegalArgumentException("malformed integer"); // not minimal
+            if (length > Long.BYTES)
+                throw new ArithmeticException("integer out of range");
+            long value = data.get(position++); // sign extension
+            for (int i = 1; i < length; i++)
+                value = (value << 8)|(data.get(position++) & 0xFF);
+            return value;
+            }
+
+        int readPositiveInt()
+            {
+            long value = readLong();
+            if ((value < 0) || (value > Integer.MAX_VALUE))
+                throw new ArithmeticException("integer out of range");
+            return (int) value;
+            }
+    }
+}
+//___EOF___
@@ -88,6 +88,10 @@ public class TransportFormatConverter
             ephemeralSymmetricKeys.add(new DEROctetString(ids.getEphemeralSymmetricKeyBytes(3)));
             encryptionPart.add(new DERTaggedObject(BERTags.CONTEXT_SPECIFIC, 4, new DERSequence(ephemeralSymmetricKeys)));
             }
+        if (ids.getUncompressedLength() >= 0) // optional, only with compression
+            encryptionPart.add(new DERTaggedObject(BERTags.CONTEXT_SPECIFIC, 5, new ASN1Integer(ids.getUncompressedLength())));
+        if (ids.getCompressionDictionaryId() >= 0) // only with preset dictionary compression
+            encryptionPart.add(new DERTaggedObject(BERTags.CONTEXT_SPECIFIC, 6, new ASN1Integer(ids.getCompressionDictionaryId())));
         if (ids.cryptoIV != null) //@TODO check reader must accept absence
             encryptionPart.add(new DEROctetString(ids.cryptoIV));
         DERTaggedObject firstSequence  = new DERTaggedObject(BERTags.APPLICATION, 0, new DERSequence(encryptionPart));
@@ -127,7 +131,7 @@ public class TransportFormatConverter
         out.addObject(firstSequence);
         out.addObject(secondSequence);
         out.addObject(thirdSequence);
-        out.addObject(new DEROctetString(ids.encryptedData));
+        out.addObject(new DEROctetString(ids.getEncryptedData())); // the tuple may hold a slice only
         out.close();
         // bufferStream.write(0x00); bufferStream.write(0x00); // explicit EOC/EOS - fully optional, but safer.
         return bufferStream.toByteArray();
@@ -233,6 +237,12 @@ public class TransportFormatConverter
                                     result.setEphemeralSymmetricKeyBytes(key1Data.getOctets(), key2Data.getOctets(), key3Data.getOctets());
                                     }
                                 break;
+                            case 5: // CONTEXT[5] INTEGER is the optional payload length before compression
+                                result.setUncompressedLength(ASN1Integer.getInstance(taggedObject.getBaseUniversal(true, BERTags.INTEGER)).intPositiveValueExact());
+                                break;
+                            case 6: // CONTEXT[6] INTEGER is the ID of the preset compression dictionary
+                                result.setCompressionDictionaryId(ASN1Integer.getInstance(taggedObject.getBaseUniversal(true, BERTags.INTEGER)).longValueExact());
+                                break;
                             default:
                                 throw new IllegalArgumentException("tag " + taggedObject.getTagNo() + " not handled"); //@IMPROVE
                             }
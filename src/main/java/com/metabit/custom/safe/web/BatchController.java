@@ -0,0 +1,340 @@
+package com.metabit.custom.safe.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.metabit.custom.safe.safeseal.BatchResult;
+import com.metabit.custom.safe.safeseal.KeyRegistry;
+import com.metabit.custom.safe.safeseal.SAFESealRevealer;
+import com.metabit.custom.safe.safeseal.SAFESealSealer;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * NDJSON batch variants of /api/seal and /api/reveal: one JSON record per line in, one result per line out.
+ * <p>
+ * Seal records are <code>{"id": ..., "payloadText": "..."}</code> or <code>{"id": ..., "payloadBase64": "..."}</code>,
+ * reveal records <code>{"id": ..., "sealedBase64": "..."}</code>; the optional id is echoed in the result.
+ * Keys and options come in the same headers as for the /api/v2 endpoints; records are sealed with consecutive
+ * unique IDs, starting at the X-SAFE-Unique-Id header (default 0).
+ * <p>
+ * The key is set up once per batch, and records are processed concurrently on a bounded executor shared by all batches;
+ * how many batches run at the same time is limited by the bulkhead the endpoints are registered with.
+ * Results are written in input order, each as soon as it and the ones before it are done.
+ * The request is read as it is processed, so memory use does not depend on the size of the batch.
+ */
+final class BatchController
+{
+    static final String NDJSON = "application/x-ndjson";
+    /** per record; records are meter readings and the like, and up to about a thousand are in flight per batch. */
+    static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactoryNamed("safe-batch-"));
+
+    private BatchController() { }
+
+    static void register(Javalin app, Bulkhead bulkhead)
+    {
+        app.post("/api/seal/batch", bulkhead.wrap(BatchController::handleSeal));
+        app.post("/api/reveal/batch", bulkhead.wrap(BatchController::handleReveal));
+    }
+
+    private static void handleSeal(Context ctx)
+    {
+        KeyRegistry.Entry registered;
+        PrivateKey privateKey;
+        try
+        {
+            registered = BinaryController.requestRegisteredKey(ctx);
+            privateKey = (registered == null) ? BinaryController.requestPrivateKey(ctx) : null;
+        }
+        catch (InvalidKeySpecException | NoSuchAlgorithmException e)
+        {
+            ctx.status(400).json(Map.of("error", "Invalid RSA key: " + e.getMessage()));
+            return;
+        }
+        if (registered == null && privateKey == null)
+        {
+            ctx.status(400).json(Map.of("error", BinaryController.HEADER_PRIVATE_KEY + " or " + BinaryController.HEADER_KEY_ID + " header is required"));
+            return;
+        }
+        SAFESealSealer sealer = new SAFESealSealer(BinaryController.parseIntOrDefault(ctx.header(BinaryController.HEADER_VERSION), 2));
+        sealer.setCompressionMode(BinaryController.parseBoolean(ctx.header(BinaryController.HEADER_COMPRESSION), true));
+        sealer.setBatchExecutor(EXECUTOR);
+        Long uniqueId = BinaryController.parseLongOrNull(ctx.header(BinaryController.HEADER_UNIQUE_ID));
+        long firstUniqueId = (uniqueId == null) ? 0L : uniqueId;
+
+        stream(ctx, "payloadText", "payloadBase64", "base64", (records, sink) ->
+        {
+            if (registered != null)
+            {
+                sealer.sealAll(registered, records, firstUniqueId, sink);
+            }
+            else
+            {
+                sealer.sealAll(privateKey, null, records, firstUniqueId, sink);
+            }
+        });
+    }
+
+    private static void handleReveal(Context ctx)
+    {
+        KeyRegistry.Entry registered;
+        PublicKey publicKey;
+        try
+        {
+            registered = BinaryController.requestRegisteredKey(ctx);
+            publicKey = (registered == null) ? BinaryController.requestPublicKey(ctx) : null;
+        }
+        catch (InvalidKeySpecException | NoSuchAlgorithmException e)
+        {
+            ctx.status(400).json(Map.of("error", "Invalid RSA key: " + e.getMessage()));
+            return;
+        }
+        if (registered == null && publicKey == null)
+        {
+            ctx.status(400).json(Map.of("error", BinaryController.HEADER_PUBLIC_KEY + " or " + BinaryController.HEADER_KEY_ID + " header is required"));
+            return;
+        }
+        SAFESealRevealer revealer = new SAFESealRevealer(BinaryController.parseIntOrDefault(ctx.header(BinaryController.HEADER_VERSION), 2));
+        revealer.setBatchExecutor(EXECUTOR);
+
+        stream(ctx, null, "sealedBase64", "payloadBase64", (records, sink) ->
+        {
+            if (registered != null)
+            {
+                revealer.revealAll(registered, records, sink);
+            }
+            else
+            {
+                revealer.revealAll(publicKey, null, records, sink);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Batch
+    {
+        void run(Iterator<byte[]> records, Consumer<BatchResult> sink) throws GeneralSecurityException;
+    }
+
+    // The batch calls the sink on this thread, in input order, so the records in flight are tracked in a plain queue.
+    private static void stream(Context ctx, String textField, String base64Field, String outputField, Batch batch)
+    {
+        ArrayDeque<Record> inFlight = new ArrayDeque<>();
+        ctx.status(200);
+        ctx.res().setContentType(NDJSON);
+        try (InputStream in = new BufferedInputStream(ctx.req().getInputStream());
+             OutputStream out = new BufferedOutputStream(ctx.res().getOutputStream(), 16 * 1024))
+        {
+            RecordReader reader = new RecordReader(in, textField, base64Field, inFlight);
+            try
+            {
+                batch.run(reader, result ->
+                {
+                    Record record = inFlight.removeFirst();
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("index", result.getIndex());
+                    if (record.id != null)
+                    {
+                        line.put("id", record.id);
+                    }
+                    if (record.error != null)
+                    {
+                        line.put("status", "error");
+                        line.put("error", record.error);
+                    }
+                    else if (result.isSuccess())
+                    {
+                        line.put("status", "ok");
+                        line.put(outputField, Base64.getEncoder().encodeToString(result.getOutput()));
+                    }
+                    else
+                    {
+                        line.put("status", "error");
+                        line.put("error", textField != null ? "sealing failed" : "reveal failed (invalid seal or parameters)");
+                    }
+                    try
+                    {
+                        out.write(JSON.writeValueAsBytes(line));
+                        out.write('\n');
+                        out.flush(); // the client gets each result as soon as it is ready
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (GeneralSecurityException e)
+            {
+                // key setup failed before any record was processed, so nothing has been written yet.
+                ctx.res().setStatus(400);
+                ctx.res().setContentType("application/json");
+                out.write(JSON.writeValueAsBytes(Map.of("error", "the key cannot be used with this algorithm version")));
+            }
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            // client went away, or sent a broken stream; what was written stays written.
+            ctx.res().setStatus(ctx.res().isCommitted() ? ctx.res().getStatus() : 400);
+        }
+    }
+
+    // what is remembered of a record while it is in flight: the id to echo, and why it could not be parsed.
+    private static final class Record
+    {
+        final JsonNode id;
+        final String error;
+
+        Record(JsonNode id, String error)
+        {
+            this.id = id;
+            this.error = error;
+        }
+    }
+
+    // reads one line ahead; blank lines are skipped. Records that cannot be parsed come as null, which the batch
+    // reports as failed without any crypto work; the sink then writes the error noted here.
+    private static final class RecordReader implements Iterator<byte[]>
+    {
+        private final InputStream in;
+        private final String textField;
+        private final String base64Field;
+        private final ArrayDeque<Record> inFlight;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean oversized;
+        private boolean ahead;
+        private boolean end;
+
+        RecordReader(InputStream in, String textField, String base64Field, ArrayDeque<Record> inFlight)
+        {
+            this.in = in;
+            this.textField = textField;
+            this.base64Field = base64Field;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            try
+            {
+                while (!ahead && !end)
+                {
+                    end = !readLine();
+                    ahead = !end && (oversized || !isBlank());
+                }
+                return ahead;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public byte[] next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            ahead = false;
+            if (oversized)
+            {
+                inFlight.addLast(new Record(null, "record exceeds " + MAX_RECORD_BYTES + " bytes"));
+                return null;
+            }
+            JsonNode id = null;
+            try
+            {
+                JsonNode node = JSON.readTree(line.toByteArray());
+                id = node.get("id");
+                JsonNode text = (textField == null) ? null : node.get(textField);
+                JsonNode base64 = node.get(base64Field);
+                if (text != null && text.isTextual())
+                {
+                    inFlight.addLast(new Record(id, null));
+                    return text.asText().getBytes(StandardCharsets.UTF_8);
+                }
+                if (base64 != null && base64.isTextual())
+                {
+                    byte[] data = Base64.getDecoder().decode(base64.asText());
+                    inFlight.addLast(new Record(id, null));
+                    return data;
+                }
+                inFlight.addLast(new Record(id, (textField == null ? "" : textField + " or ") + base64Field + " is required"));
+            }
+            catch (IOException e)
+            {
+                inFlight.addLast(new Record(null, "invalid JSON"));
+            }
+            catch (IllegalArgumentException e)
+            {
+                inFlight.addLast(new Record(id, "invalid base64 in " + base64Field));
+            }
+            return null;
+        }
+
+        // false at the end of the input
+        private boolean readLine() throws IOException
+        {
+            line.reset();
+            oversized = false;
+            int b = in.read();
+            if (b < 0)
+            {
+                return false;
+            }
+            while (b >= 0 && b != '\n')
+            {
+                if (line.size() < MAX_RECORD_BYTES)
+                {
+                    line.write(b);
+                }
+                else
+                {
+                    oversized = true; // the rest of the line is skipped
+                }
+                b = in.read();
+            }
+            return true;
+        }
+
+        private boolean isBlank()
+        {
+            for (byte b : line.toByteArray())
+            {
+                if (!Character.isWhitespace(b))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
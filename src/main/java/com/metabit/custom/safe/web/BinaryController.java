@@ -0,0 +1,268 @@
+package com.metabit.custom.safe.web;
+
+import com.metabit.custom.safe.safeseal.KeyRegistry;
+import com.metabit.custom.safe.safeseal.SAFESealRevealer;
+import com.metabit.custom.safe.safeseal.SAFESealSealer;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import javax.crypto.BadPaddingException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * application/octet-stream variants of /api/seal and /api/reveal, for machine clients.
+ * The request body is the raw payload (or sealed message), the response body is the raw result;
+ * no multipart parsing, no base64. Keys and options travel in headers; a key may be given
+ * as single-line PEM, as base64 DER, or by the ID it is registered under in the key registry.
+ */
+final class BinaryController
+{
+    static final String HEADER_PRIVATE_KEY = "X-SAFE-Private-Key";
+    static final String HEADER_PUBLIC_KEY = "X-SAFE-Public-Key";
+    static final String HEADER_KEY_ID = "X-SAFE-Key-Id";
+    static final String HEADER_VERSION = "X-SAFE-Algorithm-Version";
+    static final String HEADER_COMPRESSION = "X-SAFE-Compression";
+    static final String HEADER_UNIQUE_ID = "X-SAFE-Unique-Id";
+
+    static final int MAX_BODY_BYTES = 64 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    private BinaryController() { }
+
+    static void register(Javalin app, Bulkhead bulkhead)
+    {
+        app.post("/api/v2/seal", bulkhead.wrap(BinaryController::handleSeal));
+        app.post("/api/v2/reveal", bulkhead.wrap(BinaryController::handleReveal));
+    }
+
+    private static void handleSeal(Context ctx)
+    {
+        try
+        {
+            KeyRegistry.Entry registered = requestRegisteredKey(ctx);
+            PrivateKey privateKey = (registered == null) ? requestPrivateKey(ctx) : null;
+            if (registered == null && privateKey == null)
+            {
+                ctx.status(400).json(Map.of("error", HEADER_PRIVATE_KEY + " or " + HEADER_KEY_ID + " header is required"));
+                return;
+            }
+            byte[] payload = readBody(ctx);
+            if (payload == null)
+            {
+                return;
+            }
+
+            SAFESealSealer sealer = new SAFESealSealer(parseIntOrDefault(ctx.header(HEADER_VERSION), 2));
+            sealer.setCompressionMode(parseBoolean(ctx.header(HEADER_COMPRESSION), true));
+            Long uniqueId = parseLongOrNull(ctx.header(HEADER_UNIQUE_ID));
+            writeBody(ctx, (registered != null)
+                    ? sealer.seal(registered, payload, uniqueId)
+                    : sealer.seal(privateKey, null, payload, uniqueId));
+        }
+        catch (InvalidKeySpecException | NoSuchAlgorithmException e)
+        {
+            ctx.status(400).json(Map.of("error", "Invalid RSA key: " + e.getMessage()));
+        }
+        catch (BadPaddingException e)
+        {
+            ctx.status(400).json(Map.of("error", "Sealing failed"));
+        }
+        catch (UnsupportedOperationException e)
+        {
+            ctx.status(400).json(Map.of("error", "algorithm version not supported"));
+        }
+        catch (IOException e)
+        {
+            failUnlessCommitted(ctx, 400, "request body could not be read");
+        }
+        catch (Exception e)
+        {
+            failUnlessCommitted(ctx, 500, "Internal error"); // no details: messages of the crypto layers are not for clients
+        }
+    }
+
+    private static void handleReveal(Context ctx)
+    {
+        try
+        {
+            KeyRegistry.Entry registered = requestRegisteredKey(ctx);
+            PublicKey publicKey = (registered == null) ? requestPublicKey(ctx) : null;
+            if (registered == null && publicKey == null)
+            {
+                ctx.status(400).json(Map.of("error", HEADER_PUBLIC_KEY + " or " + HEADER_KEY_ID + " header is required"));
+                return;
+            }
+            byte[] sealed = readBody(ctx);
+            if (sealed == null)
+            {
+                return;
+            }
+
+            SAFESealRevealer revealer = new SAFESealRevealer(parseIntOrDefault(ctx.header(HEADER_VERSION), 2));
+            writeBody(ctx, (registered != null)
+                    ? revealer.reveal(registered, sealed)
+                    : revealer.reveal(publicKey, null, sealed));
+        }
+        catch (InvalidKeySpecException | NoSuchAlgorithmException e)
+        {
+            ctx.status(400).json(Map.of("error", "Invalid RSA key: " + e.getMessage()));
+        }
+        catch (BadPaddingException e)
+        {
+            ctx.status(400).json(Map.of("error", "Reveal failed (invalid seal or parameters)"));
+        }
+        catch (UnsupportedOperationException e)
+        {
+            ctx.status(400).json(Map.of("error", "algorithm version not supported"));
+        }
+        catch (IOException e)
+        {
+            failUnlessCommitted(ctx, 400, "request body could not be read");
+        }
+        catch (Exception e)
+        {
+            failUnlessCommitted(ctx, 500, "Internal error"); // no details: messages of the crypto layers are not for clients
+        }
+    }
+
+    // One copy of the body: allocated at the size given by Content-Length and filled in place. Without
+    // Content-Length, the buffer doubles as needed and is trimmed once at the end. Sealing covers the whole
+    // payload, so it has to be complete before the engine can start; the limit keeps that bounded.
+    // Returns null after setting an error response.
+    private static byte[] readBody(Context ctx) throws IOException
+    {
+        long declared = ctx.req().getContentLengthLong();
+        if (declared > MAX_BODY_BYTES)
+        {
+            ctx.status(413).json(Map.of("error", "body exceeds " + MAX_BODY_BYTES + " bytes"));
+            return null;
+        }
+        byte[] body;
+        try (InputStream in = ctx.req().getInputStream())
+        {
+            if (declared >= 0)
+            {
+                body = new byte[(int) declared];
+                int length = 0;
+                for (int n; length < body.length && (n = in.read(body, length, body.length - length)) >= 0; )
+                {
+                    length += n;
+                }
+                if (length != body.length)
+                {
+                    ctx.status(400).json(Map.of("error", "body shorter than Content-Length"));
+                    return null;
+                }
+            }
+            else
+            {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int length = 0;
+                for (int n; (n = in.read(buffer, length, buffer.length - length)) >= 0; )
+                {
+                    length += n;
+                    if (length == buffer.length)
+                    {
+                        if (length > MAX_BODY_BYTES)
+                        {
+                            ctx.status(413).json(Map.of("error", "body exceeds " + MAX_BODY_BYTES + " bytes"));
+                            return null;
+                        }
+                        buffer = Arrays.copyOf(buffer, (int) Math.min(2L * buffer.length, MAX_BODY_BYTES + 1));
+                    }
+                }
+                body = (length == buffer.length) ? buffer : Arrays.copyOf(buffer, length);
+            }
+        }
+        if (body.length == 0)
+        {
+            ctx.status(400).json(Map.of("error", "request body is required"));
+            return null;
+        }
+        return body;
+    }
+
+    // a response already on its way cannot be replaced by an error.
+    private static void failUnlessCommitted(Context ctx, int status, String message)
+    {
+        if (!ctx.res().isCommitted())
+        {
+            ctx.status(status).json(Map.of("error", message));
+        }
+    }
+
+    // Written straight to the servlet stream in chunks; no Content-Length, so Jetty uses chunked transfer
+    // for anything beyond its buffer. Bypasses Javalin's response compression, which can't shrink ciphertext.
+    private static void writeBody(Context ctx, byte[] data) throws IOException
+    {
+        ctx.status(200);
+        ctx.res().setContentType(OCTET_STREAM);
+        OutputStream out = ctx.res().getOutputStream();
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE)
+        {
+            out.write(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+        }
+        out.flush();
+    }
+
+    // registry entry named by the key ID header; null if there is none. Its key setup is shared across requests.
+    static KeyRegistry.Entry requestRegisteredKey(Context ctx) throws InvalidKeySpecException
+    {
+        String keyId = ctx.header(HEADER_KEY_ID);
+        return (keyId == null || keyId.isEmpty()) ? null : KeyUtil.registeredKey(keyId);
+    }
+
+    // key given in full in the request headers; null if there is none.
+    static PrivateKey requestPrivateKey(Context ctx) throws NoSuchAlgorithmException, InvalidKeySpecException
+    {
+        String privateKeyHeader = ctx.header(HEADER_PRIVATE_KEY);
+        return (privateKeyHeader == null || privateKeyHeader.isEmpty()) ? null : parsePrivateKey(privateKeyHeader);
+    }
+
+    static PublicKey requestPublicKey(Context ctx) throws NoSuchAlgorithmException, InvalidKeySpecException
+    {
+        String publicKeyHeader = ctx.header(HEADER_PUBLIC_KEY);
+        return (publicKeyHeader == null || publicKeyHeader.isEmpty()) ? null : parsePublicKey(publicKeyHeader);
+    }
+
+    // headers carry no line breaks; KeyUtil strips the PEM armour and whitespace, so plain base64 DER works as well.
+    private static RSAPrivateKey parsePrivateKey(String header) throws NoSuchAlgorithmException, InvalidKeySpecException
+    {
+        try { return KeyUtil.parsePrivateKeyPem(header); }
+        catch (IllegalArgumentException e) { throw new InvalidKeySpecException("not base64", e); }
+    }
+
+    private static RSAPublicKey parsePublicKey(String header) throws NoSuchAlgorithmException, InvalidKeySpecException
+    {
+        try { return KeyUtil.parsePublicKeyPem(header); }
+        catch (IllegalArgumentException e) { throw new InvalidKeySpecException("not base64", e); }
+    }
+
+    static boolean parseBoolean(String val, boolean defaultVal)
+    {
+        if (val == null) return defaultVal;
+        String v = val.trim().toLowerCase();
+        return v.equals("true") || v.equals("1") || v.equals("on") || v.equals("yes");
+    }
+
+    static int parseIntOrDefault(String s, int def)
+    {
+        try { return s == null ? def : Integer.parseInt(s.trim()); } catch (Exception ignored) { return def; }
+    }
+
+    static Long parseLongOrNull(String s)
+    {
+        try { return s == null || s.isEmpty() ? null : Long.parseLong(s.trim()); } catch (Exception ignored) { return null; }
+    }
+}
@@ -0,0 +1,142 @@
+package com.metabit.custom.safe.web;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded executor for one class of CPU-heavy endpoints, so that a burst on one of them
+ * (RSA-4096 key generation, say) cannot take the Jetty request threads, or the threads of another class, with it.
+ * <p>
+ * Wrapped handlers run asynchronously (<code>ctx.future</code>) on the bulkhead's threads; the Jetty thread is
+ * released as soon as the request is handed over. When all threads are busy and the queue is full, the request
+ * is answered right away with 429 and a <code>Retry-After</code> estimated from the recent service time.
+ */
+final class Bulkhead
+{
+    private final String name;
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * @param threads  requests handled at the same time
+     * @param capacity requests waiting beyond those; 0 for none
+     */
+    Bulkhead(String name, int threads, int capacity)
+    {
+        if (threads < 1 || capacity < 0)
+        {
+            throw new IllegalArgumentException("bulkhead " + name + " needs at least one thread and a capacity >= 0");
+        }
+        this.name = name;
+        this.threads = threads;
+        BlockingQueue<Runnable> queue = (capacity == 0) ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, queue,
+                new ThreadFactoryNamed("safe-" + name + "-"), new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    /** the handler, to be run on this bulkhead instead of the request thread. */
+    Handler wrap(Handler handler)
+    {
+        // submitted from within the supplier, i.e. after Javalin has switched the request to async mode.
+        return ctx -> ctx.future(() -> submit(ctx, handler));
+    }
+
+    private CompletableFuture<Void> submit(Context ctx, Handler handler)
+    {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        try
+        {
+            executor.execute(() ->
+            {
+                long started = System.nanoTime();
+                waitNanos.add(started - submitted);
+                try
+                {
+                    handler.handle(ctx);
+                    done.complete(null);
+                }
+                catch (Throwable t)
+                {
+                    failed.increment();
+                    done.completeExceptionally(t);
+                }
+                finally
+                {
+                    serviceNanos.add(System.nanoTime() - started);
+                    completed.increment();
+                }
+            });
+            accepted.increment();
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejected.increment();
+            ctx.status(429)
+                    .header("Retry-After", Long.toString(getRetryAfterSeconds()))
+                    .json(Map.of("error", name + " capacity exhausted, retry later"));
+            done.complete(null);
+        }
+        return done;
+    }
+
+    // time to work off what is running and waiting now, at the average service time so far; at least a second.
+    long getRetryAfterSeconds()
+    {
+        long count = completed.sum();
+        if (count == 0)
+        {
+            return 1;
+        }
+        double averageNanos = (double) serviceNanos.sum() / count;
+        long backlog = executor.getQueue().size() + executor.getActiveCount();
+        return Math.max(1, (long) Math.ceil(averageNanos * backlog / threads / 1e9));
+    }
+
+    /** @return counters and current occupancy */
+    Map<String, Long> getMetrics()
+    {
+        long count = completed.sum();
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("threads", (long) threads);
+        metrics.put("active", (long) executor.getActiveCount());
+        metrics.put("queued", (long) executor.getQueue().size());
+        metrics.put("queueRemaining", (long) executor.getQueue().remainingCapacity());
+        metrics.put("accepted", accepted.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("completed", count);
+        metrics.put("failed", failed.sum());
+        metrics.put("serviceAvgMicros", count == 0 ? 0L : serviceNanos.sum() / count / 1000);
+        metrics.put("waitAvgMicros", count == 0 ? 0L : waitNanos.sum() / count / 1000);
+        return metrics;
+    }
+
+    void shutdown()
+    {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,202 @@
+package com.metabit.custom.safe.web;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pre-generated RSA key pairs for /api/keys/generate, so that a request is answered from the pool in constant time
+ * instead of waiting for the prime search, which for 4096 bit takes seconds and varies widely.
+ * <p>
+ * Each pooled key size keeps up to its configured depth of key pairs; taken pairs are replaced by low-priority
+ * background threads. When a pool is empty, or the size is not pooled at all, the pair is generated on the caller's thread.
+ * Every pair is handed out once only.
+ */
+final class KeyPool
+{
+    private static final long RATE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Map<Integer, Pool> pools = new LinkedHashMap<>();
+    private final ExecutorService refillExecutor;
+    private volatile boolean running;
+
+    /**
+     * @param depths        key size in bits to the number of key pairs kept ready; sizes with depth 0 are not pooled
+     * @param refillThreads background threads generating replacements
+     */
+    KeyPool(Map<Integer, Integer> depths, int refillThreads)
+    {
+        depths.forEach((keySize, depth) ->
+        {
+            if (depth > 0)
+            {
+                pools.put(keySize, new Pool(keySize, depth));
+            }
+        });
+        ThreadFactoryNamed threads = new ThreadFactoryNamed("safe-keypool-");
+        refillExecutor = new ThreadPoolExecutor(refillThreads, refillThreads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable ->
+        {
+            Thread thread = threads.newThread(runnable);
+            thread.setPriority(Thread.MIN_PRIORITY); // request handling comes first
+            return thread;
+        });
+    }
+
+    /** starts filling all pools in the background. */
+    void start()
+    {
+        running = true;
+        pools.values().forEach(Pool::scheduleRefill);
+    }
+
+    void shutdown()
+    {
+        running = false;
+        refillExecutor.shutdownNow();
+    }
+
+    Set<Integer> getKeySizes()
+    {
+        return Collections.unmodifiableSet(pools.keySet());
+    }
+
+    /** @return a key pair no one else has been given: from the pool if one is ready, freshly generated otherwise. */
+    KeyPair take(int keySize) throws NoSuchAlgorithmException
+    {
+        Pool pool = pools.get(keySize);
+        if (pool == null)
+        {
+            return KeyUtil.generateRsaKeyPair(keySize);
+        }
+        KeyPair keyPair = pool.ready.poll();
+        pool.scheduleRefill();
+        if (keyPair != null)
+        {
+            pool.hits.increment();
+            return keyPair;
+        }
+        pool.misses.increment();
+        return KeyUtil.generateRsaKeyPair(keySize);
+    }
+
+    /** @return depth, hit/miss counters and refill rate of the pool for the key size; empty if the size is not pooled */
+    Map<String, Long> getMetrics(int keySize)
+    {
+        Pool pool = pools.get(keySize);
+        if (pool == null)
+        {
+            return Collections.emptyMap();
+        }
+        long refilled = pool.refilled.sum();
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("depth", (long) pool.ready.size());
+        metrics.put("capacity", (long) pool.depth);
+        metrics.put("hits", pool.hits.sum());
+        metrics.put("misses", pool.misses.sum());
+        metrics.put("refilled", refilled);
+        metrics.put("refilledLastMinute", (long) pool.refilledSince(System.nanoTime() - RATE_WINDOW_NANOS));
+        metrics.put("refillAvgMillis", refilled == 0 ? 0L : pool.refillNanos.sum() / refilled / 1_000_000);
+        return metrics;
+    }
+
+    private final class Pool
+    {
+        final int keySize;
+        final int depth;
+        final BlockingQueue<KeyPair> ready;
+        final AtomicBoolean refillScheduled = new AtomicBoolean();
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder refilled = new LongAdder();
+        final LongAdder refillNanos = new LongAdder();
+        private final ArrayDeque<Long> refillTimes = new ArrayDeque<>(); // within the rate window, guarded by itself
+
+        Pool(int keySize, int depth)
+        {
+            this.keySize = keySize;
+            this.depth = depth;
+            this.ready = new ArrayBlockingQueue<>(depth);
+        }
+
+        // at most one refill per pool is queued or running; it tops the pool up and ends.
+        void scheduleRefill()
+        {
+            if (!running || ready.remainingCapacity() == 0 || !refillScheduled.compareAndSet(false, true))
+            {
+                return;
+            }
+            try
+            {
+                refillExecutor.execute(this::refill);
+            }
+            catch (RejectedExecutionException e)
+            {
+                refillScheduled.set(false); // shut down
+            }
+        }
+
+        private void refill()
+        {
+            try
+            {
+                while (running && ready.remainingCapacity() > 0)
+                {
+                    long started = System.nanoTime();
+                    KeyPair keyPair = KeyUtil.generateRsaKeyPair(keySize);
+                    long finished = System.nanoTime();
+                    if (!ready.offer(keyPair))
+                    {
+                        break; // cannot happen with a single refill per pool, but never block here
+                    }
+                    refilled.increment();
+                    refillNanos.add(finished - started);
+                    synchronized (refillTimes)
+                    {
+                        refillTimes.addLast(finished);
+                        trim(finished - RATE_WINDOW_NANOS);
+                    }
+                }
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException("RSA key generation is not available", e);
+            }
+            finally
+            {
+                refillScheduled.set(false);
+            }
+            // a take between the last check and the reset above would otherwise go unnoticed.
+            scheduleRefill();
+        }
+
+        int refilledSince(long since)
+        {
+            synchronized (refillTimes)
+            {
+                trim(since);
+                return refillTimes.size();
+            }
+        }
+
+        private void trim(long since)
+        {
+            while (!refillTimes.isEmpty() && refillTimes.peekFirst() < since)
+            {
+                refillTimes.removeFirst();
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.metabit.custom.safe.web;
 
+import com.metabit.custom.safe.safeseal.KeyRegistry;
+
 import java.security.*;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
@@ -38,6 +40,17 @@ final class KeyUtil
         return (RSAPrivateKey) kf.generatePrivate(spec);
     }
 
+    static KeyRegistry.Entry registeredKey(final String keyId)
+            throws InvalidKeySpecException
+    {
+        KeyRegistry.Entry entry = KeyRegistry.getSharedInstance().get(keyId);
+        if (entry == null)
+        {
+            throw new InvalidKeySpecException("no key registered as " + keyId);
+        }
+        return entry;
+    }
+
     static KeyPair generateRsaKeyPair(final int keySize)
             throws NoSuchAlgorithmException
     {
@@ -1,5 +1,6 @@
 package com.metabit.custom.safe.web;
 
+import com.metabit.custom.safe.safeseal.KeyRegistry;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 
@@ -7,23 +8,47 @@ import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 final class KeysController
 {
     private KeysController() { }
 
-    static void register(Javalin app)
+    static void register(Javalin app, Bulkhead bulkhead, KeyPool keyPool)
     {
-        app.post("/api/keys/generate", KeysController::handleGenerate);
+        app.post("/api/keys/generate", bulkhead.wrap(ctx -> handleGenerate(ctx, keyPool)));
+        app.get("/api/keys", KeysController::handleList);
     }
 
-    private static void handleGenerate(Context ctx)
+    // what can be referenced by keyId; never the keys themselves.
+    private static void handleList(Context ctx)
+    {
+        KeyRegistry registry = KeyRegistry.getSharedInstance();
+        List<Map<String, Object>> keys = new ArrayList<>();
+        for (String keyId : registry.getKeyIds())
+        {
+            KeyRegistry.Entry entry = registry.get(keyId);
+            if (entry != null)
+            {
+                keys.add(Map.of(
+                        "keyId", keyId,
+                        "algorithm", entry.getAlgorithmSpec().getName(),
+                        "keySize", entry.getKeySizeInBits(),
+                        "privateKey", entry.getPrivateKey() != null
+                ));
+            }
+        }
+        ctx.json(Map.of("keys", keys, "loadProblems", registry.getLoadProblems().size())); // details name server paths, so only the count
+    }
+
+    private static void handleGenerate(Context ctx, KeyPool keyPool)
     {
         int keySize = parseIntOrDefault(ctx.queryParam("keySize"), 2048);
         try
         {
-            KeyPair kp = KeyUtil.generateRsaKeyPair(keySize);
+            KeyPair kp = keyPool.take(keySize);
             RSAPublicKey pub = (RSAPublicKey) kp.getPublic();
             RSAPrivateKey prv = (RSAPrivateKey) kp.getPrivate();
             ctx.json(Map.of(
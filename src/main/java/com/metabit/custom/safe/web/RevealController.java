@@ -9,7 +9,6 @@ import javax.crypto.BadPaddingException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
-import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Base64;
 import java.util.HashMap;
@@ -19,17 +18,18 @@ final class RevealController
 {
     private RevealController() { }
 
-    static void register(Javalin app)
+    static void register(Javalin app, Bulkhead bulkhead)
     {
-        app.post("/api/reveal", RevealController::handleReveal);
+        app.post("/api/reveal", bulkhead.wrap(RevealController::handleReveal));
     }
 
     private static void handleReveal(Context ctx)
     {
         try
         {
+            String keyId = ctx.formParam("keyId");
             String publicKeyPem = ctx.formParam("publicKeyPem");
-            if (publicKeyPem == null)
+            if (publicKeyPem == null && (keyId == null || keyId.isEmpty()))
             {
                 UploadedFile keyFile = ctx.uploadedFile("publicKeyPemFile");
                 if (keyFile != null)
@@ -38,9 +38,9 @@ final class RevealController
                 }
             }
 
-            if (publicKeyPem == null || publicKeyPem.isEmpty())
+            if ((publicKeyPem == null || publicKeyPem.isEmpty()) && (keyId == null || keyId.isEmpty()))
             {
-                ctx.status(400).json(Map.of("error", "publicKeyPem is required (text or file)"));
+                ctx.status(400).json(Map.of("error", "publicKeyPem (text or file) or keyId is required"));
                 return;
             }
 
@@ -66,10 +66,10 @@ final class RevealController
 
             Integer algorithmVersion = parseIntOrDefault(ctx.formParam("algorithmVersion"), 2);
 
-            RSAPublicKey publicKey = KeyUtil.parsePublicKeyPem(publicKeyPem);
-
             SAFESealRevealer revealer = new SAFESealRevealer(algorithmVersion);
-            byte[] payload = revealer.reveal(publicKey, null, sealed);
+            byte[] payload = (keyId != null && !keyId.isEmpty())
+                    ? revealer.reveal(KeyUtil.registeredKey(keyId), sealed)
+                    : revealer.reveal(KeyUtil.parsePublicKeyPem(publicKeyPem), null, sealed);
 
             Map<String, Object> result = new HashMap<>();
             result.put("payloadBase64", Base64.getEncoder().encodeToString(payload));
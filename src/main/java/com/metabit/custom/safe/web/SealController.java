@@ -8,27 +8,28 @@ import io.javalin.http.UploadedFile;
 import javax.crypto.BadPaddingException;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
-import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
 
 final class SealController
 {
     private SealController() { }
 
-    static void register(Javalin app)
+    static void register(Javalin app, Bulkhead bulkhead)
     {
-        app.post("/api/seal", SealController::handleSeal);
+        app.post("/api/seal", bulkhead.wrap(SealController::handleSeal));
     }
 
     private static void handleSeal(Context ctx)
     {
         try
         {
+            String keyId = ctx.formParam("keyId");
             String privateKeyPem = ctx.formParam("privateKeyPem");
-            if (privateKeyPem == null)
+            if (privateKeyPem == null && (keyId == null || keyId.isEmpty()))
             {
                 UploadedFile keyFile = ctx.uploadedFile("privateKeyPemFile");
                 if (keyFile != null)
@@ -37,9 +38,9 @@ final class SealController
                 }
             }
 
-            if (privateKeyPem == null || privateKeyPem.isEmpty())
+            if ((privateKeyPem == null || privateKeyPem.isEmpty()) && (keyId == null || keyId.isEmpty()))
             {
-                ctx.status(400).json(Map.of("error", "privateKeyPem is required (text or file)"));
+                ctx.status(400).json(Map.of("error", "privateKeyPem (text or file) or keyId is required"));
                 return;
             }
 
@@ -67,11 +68,11 @@ final class SealController
             boolean compression = parseBoolean(ctx.formParam("compression"), true);
             Long uniqueId = parseLongOrNull(ctx.formParam("uniqueId"));
 
-            RSAPrivateKey privateKey = KeyUtil.parsePrivateKeyPem(privateKeyPem);
-
             SAFESealSealer sealer = new SAFESealSealer(algorithmVersion);
             sealer.setCompressionMode(compression);
-            byte[] sealed = sealer.seal(privateKey, null, payload, uniqueId);
+            byte[] sealed = (keyId != null && !keyId.isEmpty())
+                    ? sealer.seal(KeyUtil.registeredKey(keyId), payload, uniqueId)
+                    : sealer.seal(KeyUtil.parsePrivateKeyPem(privateKeyPem), null, payload, uniqueId);
 
             Map<String, Object> result = new HashMap<>();
             result.put("base64", Base64.getEncoder().encodeToString(sealed));
@@ -96,16 +97,8 @@ final class SealController
     private static String hexPreview(byte[] data, int maxBytes)
     {
         int len = Math.min(data.length, Math.max(0, maxBytes));
-        StringBuilder sb = new StringBuilder(len * 2);
-        for (int i = 0; i < len; i++)
-        {
-            sb.append(String.format("%02x", data[i]));
-        }
-        if (data.length > len)
-        {
-            sb.append("...");
-        }
-        return sb.toString();
+        String hex = HexFormat.of().formatHex(data, 0, len);
+        return (data.length > len) ? hex + "..." : hex;
     }
 
     private static boolean parseBoolean(String val, boolean defaultVal)
@@ -1,17 +1,62 @@
 package com.metabit.custom.safe.web;
 
+import com.metabit.custom.safe.safeseal.KeyRegistry;
+import com.metabit.custom.safe.safeseal.impl.CompressionPolicy;
+import com.metabit.custom.safe.safeseal.impl.ProviderSelectingCryptoFactory;
 import io.javalin.Javalin;
 import io.javalin.http.staticfiles.Location;
+import io.javalin.util.ConcurrencyUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ServerMain
 {
-    public static void main(String[] args)
+    private static final Logger LOGGER = LogManager.getLogger(ServerMain.class);
+
+    public static void main(String[] args) throws IOException, GeneralSecurityException
     {
+        configureKeyRegistry();
+        // Jetty's request threads only do I/O, the crypto work is on the bulkheads. Javalin runs them on virtual threads
+        // where available (Java 21+); SAFE_VIRTUAL_THREADS=false keeps platform threads. The switch is JVM-wide.
+        if ("false".equalsIgnoreCase(System.getenv("SAFE_VIRTUAL_THREADS")))
+        {
+            ConcurrencyUtil.INSTANCE.setUseLoom(false);
+        }
+        // SAFE_SELECT_PROVIDERS=true routes each cipher to the fastest compatible provider; the benchmark
+        // behind that choice runs here, before the first request, not on it.
+        if ("true".equalsIgnoreCase(System.getenv("SAFE_SELECT_PROVIDERS")))
+        {
+            System.setProperty(ProviderSelectingCryptoFactory.ENABLE_PROPERTY, "true");
+            ProviderSelectingCryptoFactory.getSharedInstance();
+        }
         create().start(getPort());
     }
 
+    // keys referenced by keyId come from SAFE_KEY_DIR (PEM/DER files) and/or SAFE_KEYSTORE (PKCS#12).
+    static void configureKeyRegistry() throws IOException, GeneralSecurityException
+    {
+        KeyRegistry registry = KeyRegistry.getSharedInstance();
+        String keyDirectory = System.getenv("SAFE_KEY_DIR");
+        if (keyDirectory != null && !keyDirectory.isEmpty())
+        {
+            registry.addDirectory(Path.of(keyDirectory));
+        }
+        String keyStore = System.getenv("SAFE_KEYSTORE");
+        if (keyStore != null && !keyStore.isEmpty())
+        {
+            String password = System.getenv("SAFE_KEYSTORE_PASSWORD");
+            registry.addKeyStore(Path.of(keyStore), password == null ? null : password.toCharArray());
+        }
+        registry.getLoadProblems().forEach((source, problem) -> LOGGER.warn("key registry: {}: {}", source, problem));
+    }
+
     public static Javalin create()
     {
         Javalin app = Javalin.create(config ->
@@ -31,7 +76,38 @@ public class ServerMain
 
     static void registerRoutes(Javalin app)
     {
+        // one bulkhead per class of CPU-heavy endpoints, so a burst on one class cannot starve the others.
+        int processors = Runtime.getRuntime().availableProcessors();
+        Bulkhead sealing = bulkhead("seal", processors, 64);
+        Bulkhead batches = bulkhead("batch", Math.max(1, processors / 2), 4);
+        Bulkhead keyGeneration = bulkhead("keygen", Math.max(1, processors / 2), 8);
+        Bulkhead verification = bulkhead("verify", processors, 64);
+        List<Bulkhead> bulkheads = List.of(sealing, batches, keyGeneration, verification);
+        KeyPool keyPool = keyPool();
+        app.events(events ->
+        {
+            events.serverStarted(keyPool::start);
+            events.serverStopped(() ->
+            {
+                keyPool.shutdown();
+                bulkheads.forEach(Bulkhead::shutdown);
+            });
+        });
+
         app.get("/api/health", ctx -> ctx.json(Map.of("status", "ok")));
+        app.get("/api/metrics/compression", ctx -> ctx.json(CompressionPolicy.getSharedInstance().getMetrics()));
+        app.get("/api/metrics/bulkheads", ctx ->
+        {
+            Map<String, Map<String, Long>> metrics = new LinkedHashMap<>();
+            bulkheads.forEach(bulkhead -> metrics.put(bulkhead.getName(), bulkhead.getMetrics()));
+            ctx.json(metrics);
+        });
+        app.get("/api/metrics/keypool", ctx ->
+        {
+            Map<String, Map<String, Long>> metrics = new LinkedHashMap<>();
+            keyPool.getKeySizes().forEach(keySize -> metrics.put("rsa" + keySize, keyPool.getMetrics(keySize)));
+            ctx.json(metrics);
+        });
         
         // Explicit route for logo to ensure it's served correctly
         app.get("/logo.png", ctx -> {
@@ -47,10 +123,35 @@ public class ServerMain
             }
         });
         
-        SealController.register(app);
-        RevealController.register(app);
-        KeysController.register(app);
-        VerifyController.register(app);
+        SealController.register(app, sealing);
+        RevealController.register(app, sealing);
+        BinaryController.register(app, sealing);
+        BatchController.register(app, batches);
+        KeysController.register(app, keyGeneration, keyPool);
+        VerifyController.register(app, verification);
+    }
+
+    // sizes can be overridden with SAFE_BULKHEAD_<NAME>_THREADS and SAFE_BULKHEAD_<NAME>_QUEUE.
+    private static Bulkhead bulkhead(String name, int threads, int capacity)
+    {
+        String prefix = "SAFE_BULKHEAD_" + name.toUpperCase() + "_";
+        return new Bulkhead(name, getIntOrDefault(prefix + "THREADS", threads), getIntOrDefault(prefix + "QUEUE", capacity));
+    }
+
+    // depths can be overridden with SAFE_KEYPOOL_<SIZE> (0 turns the pool for that size off), refill threads with SAFE_KEYPOOL_THREADS.
+    private static KeyPool keyPool()
+    {
+        Map<Integer, Integer> depths = new LinkedHashMap<>();
+        depths.put(1024, getIntOrDefault("SAFE_KEYPOOL_1024", 4));
+        depths.put(2048, getIntOrDefault("SAFE_KEYPOOL_2048", 8));
+        depths.put(4096, getIntOrDefault("SAFE_KEYPOOL_4096", 4));
+        return new KeyPool(depths, getIntOrDefault("SAFE_KEYPOOL_THREADS", 1));
+    }
+
+    private static int getIntOrDefault(String variable, int def)
+    {
+        String value = System.getenv(variable);
+        return (value == null || value.isEmpty()) ? def : Integer.parseInt(value);
     }
 
     private static int getPort()
@@ -0,0 +1,24 @@
+package com.metabit.custom.safe.web;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// daemon threads, numbered after a prefix, so they show up recognisably in thread dumps.
+final class ThreadFactoryNamed implements ThreadFactory
+{
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    ThreadFactoryNamed(String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -32,9 +32,9 @@ final class VerifyController
     private static final int MAX_XML_BYTES = 5 * 1024 * 1024; // 5 MB
     private static final int MAX_XML_TEXT_CHARS = 2 * 1024 * 1024; // ~2 MB
 
-    static void register(Javalin app)
+    static void register(Javalin app, Bulkhead bulkhead)
     {
-        app.post("/api/verify", VerifyController::handleVerify);
+        app.post("/api/verify", bulkhead.wrap(VerifyController::handleVerify));
     }
 
     private static void handleVerify(Context ctx)
@@ -0,0 +1,94 @@
+package com.metabit.custom.safe.iip;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.SAFESeal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import javax.crypto.KeyAgreement;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * compares X25519 against ECDH over secp256r1: key pair generation, raw key agreement,
+ * and seal+reveal with fresh key pairs (so the shared secret cache does not help), in operations per second.
+ * run with environment variable benchmark=true, e.g.
+ * benchmark=true mvn test -Dtest=KeyAgreementBenchmark
+ */
+@EnabledIfEnvironmentVariable(named = "benchmark", matches = "true")
+class KeyAgreementBenchmark
+{
+    private static final int WARMUP = 500;
+    private static final int ROUNDS = 2000;
+
+    @Test
+    void x25519VersusSecp256r1() throws Exception
+        {
+        CryptoFactoryImpl cf = new CryptoFactoryImpl();
+        measure(cf, AlgorithmSpecCollection.ECDH, generator(cf, AlgorithmSpecCollection.ECDH));
+        measure(cf, AlgorithmSpecCollection.X25519, generator(cf, AlgorithmSpecCollection.X25519));
+        }
+
+    private static void measure(CryptoFactoryImpl cf, AlgorithmSpec spec, KeyPairGenerator kpg) throws Exception
+        {
+        KeyPair other = kpg.generateKeyPair();
+        for (int i = 0; i < WARMUP; i++)
+            agree(cf, spec, kpg.generateKeyPair(), other.getPublic());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            kpg.generateKeyPair();
+        double keyGeneration = rate(start);
+
+        KeyPair ours = kpg.generateKeyPair();
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            agree(cf, spec, ours, other.getPublic());
+        double agreement = rate(start);
+
+        byte[] payload = "a short OCMF-sized payload, a short OCMF-sized payload".getBytes(StandardCharsets.US_ASCII);
+        SAFESeal sealer = new SAFESeal(cf);
+        sealer.setKeyAgreementMode(true);
+        SAFESeal revealer = new SAFESeal(cf);
+        revealer.setKeyAgreementMode(true);
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            {
+            KeyPair sender = kpg.generateKeyPair();
+            byte[] sealed = sealer.seal(payload, sender.getPrivate(), new PublicKey[]{other.getPublic()}, (long) i);
+            assertArrayEquals(payload, revealer.reveal(sealed, other.getPrivate(), sender.getPublic()));
+            }
+        double roundTrip = rate(start);
+        System.out.printf("%-7s: %8.0f key pairs/s, %8.0f agreements/s, %8.0f seal+reveal/s with fresh sender keys%n",
+                spec.getName(), keyGeneration, agreement, roundTrip);
+        }
+
+    private static byte[] agree(CryptoFactoryImpl cf, AlgorithmSpec spec, KeyPair ours, PublicKey theirs) throws Exception
+        {
+        KeyAgreement keyAgreement = cf.getKeyAgreement(spec);
+        keyAgreement.init(ours.getPrivate());
+        keyAgreement.doPhase(theirs, true);
+        return keyAgreement.generateSecret();
+        }
+
+    private static KeyPairGenerator generator(CryptoFactoryImpl cf, AlgorithmSpec spec) throws Exception
+        {
+        if (spec == AlgorithmSpecCollection.X25519)
+            return KeyPairGenerator.getInstance("X25519", cf.getSecurityProvider());
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC", cf.getSecurityProvider());
+        kpg.initialize(new ECGenParameterSpec("secp256r1"));
+        return kpg;
+        }
+
+    private static double rate(long start)
+        {
+        return ROUNDS/((System.nanoTime()-start)/1e9);
+        }
+}
@@ -19,6 +19,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.concurrent.ForkJoinPool;
 
 @Slf4j
 public class RSAEncryptionTest
@@ -323,6 +324,56 @@ public class RSAEncryptionTest
 
 
 
+    @Test
+    void blockwiseProcessingMatchesArrayBasedReference() throws Exception
+        {
+        RSAWithIntegrityPadding rsawiip = new RSAWithIntegrityPadding(cf, spec);
+        InterleavedIntegrityPadding_V1_0 reference = new InterleavedIntegrityPadding_V1_0(spec.getUsableBlockSize());
+        int payloadBytesPerBlock = spec.getUsableBlockSize()-InterleavedIntegrityPadding_V1_0.NONCE_SIZE;
+        int[] sizes = new int[]{0, 1, payloadBytesPerBlock-4, payloadBytesPerBlock-1, payloadBytesPerBlock, payloadBytesPerBlock+1, 3*payloadBytesPerBlock, 2000};
+        for (int size : sizes)
+            {
+            byte[] payload = new byte[size];
+            rng.nextBytes(payload);
+            // our output, taken apart the array-based way
+            byte[] encrypted = rsawiip.padEncryptAndPackage(payload, (PublicKey) null, senderKeypair.getPrivate(), null);
+            Assertions.assertEquals(InterleavedIntegrityPadding_V1_0.calculateNumberOfBytesOverall(size, spec.getUsableBlockSize())/spec.getUsableBlockSize()*spec.getCipherBlockSize(), encrypted.length);
+            byte[] decrypted = SharedTestingCode.rsa_decrypt_blocks(cf, rng, spec, senderKeypair.getPublic(), encrypted);
+            Assertions.assertArrayEquals(payload, reference.checkAndExtract(decrypted));
+            // array-based output, taken apart by us
+            byte[] encrypted2 = SharedTestingCode.rsa_encrypt_blocks(cf, rng, spec, senderKeypair.getPrivate(), reference.performPaddingWithAllocation(payload));
+            Assertions.assertArrayEquals(payload, rsawiip.decryptAndVerify(encrypted2, senderKeypair.getPublic(), null, null, null));
+            }
+        }
+
+    @Test
+    void parallelProcessingIsInterchangeableWithSequential() throws Exception
+        {
+        RSAWithIntegrityPadding sequential = new RSAWithIntegrityPadding(cf, spec);
+        RSAWithIntegrityPadding parallel = new RSAWithIntegrityPadding(cf, spec);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+            {
+            parallel.setParallelProcessing(pool, 2);
+            for (int size : new int[]{0, 100, 5000, 50000})
+                {
+                byte[] payload = new byte[size];
+                rng.nextBytes(payload);
+                byte[] encrypted = parallel.padEncryptAndPackage(payload, (PublicKey) null, senderKeypair.getPrivate(), null);
+                Assertions.assertArrayEquals(payload, sequential.decryptAndVerify(encrypted, senderKeypair.getPublic(), null, null, null));
+                byte[] encrypted2 = sequential.padEncryptAndPackage(payload, (PublicKey) null, senderKeypair.getPrivate(), null);
+                Assertions.assertArrayEquals(payload, parallel.decryptAndVerify(encrypted2, senderKeypair.getPublic(), null, null, null));
+                // manipulation must still be detected
+                encrypted2[encrypted2.length/2] ^= 0x01;
+                Assertions.assertThrows(BadPaddingException.class, () -> parallel.decryptAndVerify(encrypted2, senderKeypair.getPublic(), null, null, null));
+                }
+            }
+        finally
+            {
+            pool.shutdown();
+            }
+        }
+
     @Test
     void useWithCipherSpec() throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
         {
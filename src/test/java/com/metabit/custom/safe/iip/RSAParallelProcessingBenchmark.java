@@ -0,0 +1,81 @@
+package com.metabit.custom.safe.iip;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpec;
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * measures seal/reveal times of RSA/ECB/IIP for 1 to n cores.
+ * run with environment variable benchmark=true, e.g.
+ * benchmark=true mvn test -Dtest=RSAParallelProcessingBenchmark
+ */
+@EnabledIfEnvironmentVariable(named = "benchmark", matches = "true")
+class RSAParallelProcessingBenchmark
+{
+    private static final int PAYLOAD_SIZE = 2*1024*1024;
+    private static final int ROUNDS = 3;
+
+    @Test
+    void speedupPerCoreCount() throws Exception
+        {
+        CryptoFactory cf = new CryptoFactoryImpl();
+        AlgorithmSpec spec = AlgorithmSpecCollection.RSA4096;
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(spec.getKeySizeInBit());
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        new SecureRandom().nextBytes(payload);
+
+        RSAWithIntegrityPadding instance = new RSAWithIntegrityPadding(cf, spec);
+        long[] sequential = measure(instance, keyPair, payload);
+        System.out.printf("RSA-%d, %d byte payload%n", spec.getKeySizeInBit(), PAYLOAD_SIZE);
+        System.out.printf("sequential : seal %6d ms, reveal %6d ms%n", sequential[0], sequential[1]);
+
+        int maxCores = Runtime.getRuntime().availableProcessors();
+        for (int cores = 1; cores <= maxCores; cores *= 2)
+            {
+            ForkJoinPool pool = new ForkJoinPool(cores);
+            try
+                {
+                instance.setParallelProcessing(pool, 2);
+                long[] parallel = measure(instance, keyPair, payload);
+                System.out.printf("%2d core(s) : seal %6d ms, reveal %6d ms, speedup %.2f / %.2f%n", cores, parallel[0], parallel[1],
+                        (double) sequential[0]/parallel[0], (double) sequential[1]/parallel[1]);
+                }
+            finally
+                {
+                pool.shutdown();
+                }
+            }
+        }
+
+    /**
+     * @return best seal and reveal times in milliseconds
+     */
+    private static long[] measure(RSAWithIntegrityPadding instance, KeyPair keyPair, byte[] payload) throws Exception
+        {
+        long[] best = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round < ROUNDS; round++)
+            {
+            long start = System.nanoTime();
+            byte[] encrypted = instance.padEncryptAndPackage(payload, (PublicKey) null, keyPair.getPrivate(), null);
+            long sealed = System.nanoTime();
+            byte[] decrypted = instance.decryptAndVerify(encrypted, keyPair.getPublic(), null, null, null);
+            long revealed = System.nanoTime();
+            assertArrayEquals(payload, decrypted);
+            best[0] = Math.min(best[0], (sealed-start)/1000000);
+            best[1] = Math.min(best[1], (revealed-sealed)/1000000);
+            }
+        return Arrays.copyOf(best, 2);
+        }
+}
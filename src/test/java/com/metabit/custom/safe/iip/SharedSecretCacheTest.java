@@ -0,0 +1,113 @@
+package com.metabit.custom.safe.iip;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedSecretCacheTest
+{
+    @Test
+    void repeatedPairsSkipTheKeyAgreement() throws Exception
+        {
+        KeyPair sender = generateECKeyPair();
+        KeyPair recipient = generateECKeyPair();
+        SharedSecretCache cache = new SharedSecretCache(16, Duration.ofMinutes(1));
+        ECDHEWithIntegrityPadding ecdhe = new ECDHEWithIntegrityPadding(new CryptoFactoryImpl(), AlgorithmSpecCollection.AES256ECB_PADDED);
+        ecdhe.setSharedSecretCache(cache);
+
+        for (String id : new String[]{"one", "two", "three"})
+            {
+            byte[] uniqueID = id.getBytes(StandardCharsets.US_ASCII);
+            SecretKey key = ecdhe.createEphemeralAESKey(recipient.getPublic(), sender.getPrivate(), uniqueID);
+            assertArrayEquals(referenceKey(recipient.getPublic(), sender.getPrivate(), uniqueID), key.getEncoded());
+            }
+        // a freshly decoded copy of the same public key is the same pairing.
+        PublicKey decoded = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(recipient.getPublic().getEncoded()));
+        ecdhe.createEphemeralAESKey(decoded, sender.getPrivate(), new byte[8]);
+        assertEquals(1, cache.getMetrics().get("misses"));
+        assertEquals(3, cache.getMetrics().get("hits"));
+        assertEquals(1, cache.size());
+
+        // the receiving side gets the same key, through its own pairing.
+        byte[] uniqueID = "two".getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(ecdhe.createEphemeralAESKey(recipient.getPublic(), sender.getPrivate(), uniqueID).getEncoded(),
+                ecdhe.createEphemeralAESKey(sender.getPublic(), recipient.getPrivate(), uniqueID).getEncoded());
+        assertEquals(2, cache.size());
+        assertThrows(IllegalArgumentException.class, ()->ecdhe.setSharedSecretCache(null));
+        }
+
+    @Test
+    void evictionExpiryAndClear() throws Exception
+        {
+        PrivateKey privateKey = generateECKeyPair().getPrivate();
+        PublicKey[] publicKeys = new PublicKey[]{generateECKeyPair().getPublic(), generateECKeyPair().getPublic(), generateECKeyPair().getPublic()};
+        List<byte[]> computed = new ArrayList<>();
+        SharedSecretCache cache = new SharedSecretCache(2, Duration.ofMinutes(1));
+        MessageDigest kdf = MessageDigest.getInstance("SHA-256");
+        for (PublicKey publicKey : publicKeys)
+            cache.update(kdf, privateKey, new PublicKey[]{publicKey}, ()->record(computed));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getMetrics().get("evictions"));
+        assertArrayEquals(new byte[32], computed.get(0)); // the least recently used one, zeroed
+        cache.update(kdf, privateKey, new PublicKey[]{publicKeys[2]}, ()->record(computed));
+        assertEquals(3, computed.size()); // a hit
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertArrayEquals(new byte[32], computed.get(1));
+        assertArrayEquals(new byte[32], computed.get(2));
+
+        SharedSecretCache shortLived = new SharedSecretCache(2, Duration.ofMillis(1));
+        shortLived.update(kdf, privateKey, publicKeys, ()->record(computed));
+        Thread.sleep(10);
+        shortLived.update(kdf, privateKey, publicKeys, ()->record(computed));
+        assertEquals(5, computed.size());
+        assertEquals(1, shortLived.getMetrics().get("expirations"));
+        assertArrayEquals(new byte[32], computed.get(3));
+
+        assertThrows(IllegalArgumentException.class, ()->new SharedSecretCache(0, Duration.ofMinutes(1)));
+        assertThrows(IllegalArgumentException.class, ()->new SharedSecretCache(1, Duration.ZERO));
+        }
+
+    private static byte[] record(final List<byte[]> computed)
+        {
+        byte[] secret = new byte[32];
+        secret[0] = (byte) (computed.size()+1);
+        computed.add(secret);
+        return secret;
+        }
+
+    private static byte[] referenceKey(final PublicKey publicKey, final PrivateKey privateKey, final byte[] uniqueID) throws Exception
+        {
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
+        keyAgreement.init(privateKey);
+        keyAgreement.doPhase(publicKey, true);
+        MessageDigest kdf = MessageDigest.getInstance("SHA-256");
+        kdf.update(uniqueID);
+        return kdf.digest(keyAgreement.generateSecret());
+        }
+
+    private static KeyPair generateECKeyPair() throws Exception
+        {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+        }
+}
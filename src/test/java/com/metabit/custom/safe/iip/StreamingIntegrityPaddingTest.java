@@ -0,0 +1,125 @@
+package com.metabit.custom.safe.iip;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.BadPaddingException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingIntegrityPaddingTest
+{
+    private static final int[] BLOCK_SIZES = new int[]{16, 128, 256};
+    private SecureRandom rng;
+
+    @BeforeEach
+    void setUp()
+        {
+        rng = new SecureRandom();
+        }
+
+    @Test
+    void calculateNumberOfBytesOverallMatchesArrayVariant()
+        {
+        for (int blockSize : BLOCK_SIZES)
+            for (int i = 0; i<4096; i++)
+                assertEquals(InterleavedIntegrityPadding_V1_0.calculateNumberOfBytesOverall(i, blockSize),
+                        StreamingIntegrityPadding_V1_0.calculateNumberOfBytesOverall((long) i, blockSize));
+        }
+
+    @Test
+    void streamPaddingIsAcceptedByArrayVariant() throws IOException, BadPaddingException
+        {
+        for (int blockSize : BLOCK_SIZES)
+            {
+            StreamingIntegrityPadding_V1_0 streaming = new StreamingIntegrityPadding_V1_0(blockSize, 1);
+            InterleavedIntegrityPadding_V1_0 array = new InterleavedIntegrityPadding_V1_0(blockSize);
+            for (int i = 0; i<1200; i++)
+                {
+                byte[] input = new byte[i];
+                rng.nextBytes(input);
+                byte[] padded = pad(streaming, input);
+                assertEquals(InterleavedIntegrityPadding_V1_0.calculateNumberOfBytesOverall(i, blockSize), padded.length);
+                assertArrayEquals(input, array.checkAndExtract(padded));
+                }
+            }
+        }
+
+    @Test
+    void arrayPaddingIsAcceptedByStreamVariant() throws IOException, BadPaddingException
+        {
+        for (int blockSize : BLOCK_SIZES)
+            {
+            StreamingIntegrityPadding_V1_0 streaming = new StreamingIntegrityPadding_V1_0(blockSize, 3);
+            InterleavedIntegrityPadding_V1_0 array = new InterleavedIntegrityPadding_V1_0(blockSize);
+            for (int i = 0; i<1200; i++)
+                {
+                byte[] input = new byte[i];
+                rng.nextBytes(input);
+                byte[] padded = array.performPaddingWithAllocation(input);
+                assertArrayEquals(input, extract(streaming, padded));
+                }
+            }
+        }
+
+    @Test
+    void largePayloadRoundtripWithDefaultBuffers() throws IOException, BadPaddingException
+        {
+        StreamingIntegrityPadding_V1_0 streaming = new StreamingIntegrityPadding_V1_0(256);
+        byte[] input = new byte[3*1024*1024+17];
+        rng.nextBytes(input);
+        assertArrayEquals(input, extract(streaming, pad(streaming, input)));
+        }
+
+    @Test
+    void counterManipulationIsDetected() throws IOException
+        {
+        StreamingIntegrityPadding_V1_0 streaming = new StreamingIntegrityPadding_V1_0(16);
+        byte[] input = new byte[100];
+        rng.nextBytes(input);
+        byte[] padded = pad(streaming, input);
+        padded[2*16+3] ^= 0x01; // counter of the second data block
+        assertThrows(BadPaddingException.class, ()->extract(streaming, padded));
+        }
+
+    @Test
+    void truncatedInputIsRejected() throws IOException
+        {
+        StreamingIntegrityPadding_V1_0 streaming = new StreamingIntegrityPadding_V1_0(16);
+        byte[] padded = pad(streaming, new byte[100]);
+        byte[] truncatedByBlock = new byte[padded.length-3*16];
+        System.arraycopy(padded, 0, truncatedByBlock, 0, truncatedByBlock.length);
+        assertThrows(BadPaddingException.class, ()->extract(streaming, truncatedByBlock));
+        byte[] misaligned = new byte[padded.length-1];
+        System.arraycopy(padded, 0, misaligned, 0, misaligned.length);
+        assertThrows(IllegalArgumentException.class, ()->extract(streaming, misaligned));
+        }
+
+    @Test
+    void shortPayloadInputIsRejected()
+        {
+        StreamingIntegrityPadding_V1_0 streaming = new StreamingIntegrityPadding_V1_0(16);
+        assertThrows(EOFException.class, ()->streaming.performPadding(new ByteArrayInputStream(new byte[10]), 11, new ByteArrayOutputStream()));
+        }
+
+    private static byte[] pad(StreamingIntegrityPadding_V1_0 instance, byte[] input) throws IOException
+        {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long written = instance.performPadding(new ByteArrayInputStream(input), input.length, output);
+        assertEquals(written, output.size());
+        return output.toByteArray();
+        }
+
+    private static byte[] extract(StreamingIntegrityPadding_V1_0 instance, byte[] padded) throws IOException, BadPaddingException
+        {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long extracted = instance.checkAndExtract(new ByteArrayInputStream(padded), output);
+        assertEquals(extracted, output.size());
+        return output.toByteArray();
+        }
+}
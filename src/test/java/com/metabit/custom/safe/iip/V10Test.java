@@ -6,13 +6,13 @@ import org.junit.jupiter.api.Test;
 import org.metabit.support.format.HexDump;
 
 import javax.crypto.BadPaddingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.security.Security;
 
 import static com.metabit.custom.safe.iip.InterleavedIntegrityPadding_V1_0.NONCE_SIZE;
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 class V10Test
 {
@@ -118,5 +118,63 @@ class V10Test
         return;
         }
 
+
+    @Test
+    void byteBufferPaddingWithDirectAndOffsetBuffers() throws BadPaddingException
+        {
+        InterleavedIntegrityPadding_V1_0 instance = new InterleavedIntegrityPadding_V1_0(CIPHER_BLOCK_SIZE);
+        ByteBuffer padded = ByteBuffer.allocateDirect(4096);
+        ByteBuffer extracted = ByteBuffer.allocateDirect(4096);
+        for (int i = 0; i < 1024; i++)
+            {
+            byte[] input = new byte[i];
+            rng.nextBytes(input);
+            // dirty, reused buffers, starting at an odd position.
+            padded.clear().position(3);
+            while (padded.hasRemaining())
+                padded.put((byte) 0x55);
+            padded.position(3);
+            int written = instance.performPadding(ByteBuffer.wrap(input), padded);
+            assertEquals(InterleavedIntegrityPadding_V1_0.calculateNumberOfBytesOverall(i, CIPHER_BLOCK_SIZE), written);
+            padded.flip().position(3);
+
+            // the array variant must accept the very same bytes.
+            byte[] paddedArray = new byte[written];
+            padded.duplicate().get(paddedArray);
+            assertArrayEquals(input, instance.checkAndExtract(paddedArray));
+
+            assertEquals(i, instance.peekPayloadLength(padded));
+            extracted.clear().position(5);
+            assertEquals(i, instance.checkAndExtract(padded, extracted));
+            assertEquals(5 + i, extracted.position());
+            assertFalse(padded.hasRemaining());
+            byte[] result = new byte[i];
+            extracted.flip().position(5);
+            extracted.get(result);
+            assertArrayEquals(input, result);
+            }
+        }
+
+    @Test
+    void byteBufferExtractionLeavesNoDataOnFailure()
+        {
+        InterleavedIntegrityPadding_V1_0 instance = new InterleavedIntegrityPadding_V1_0(CIPHER_BLOCK_SIZE);
+        byte[] input = TEST_DATA_STRING.getBytes(StandardCharsets.UTF_8);
+        byte[] padded = instance.performPaddingWithAllocation(input);
+        padded[padded.length - CIPHER_BLOCK_SIZE] ^= 0x01; // counter of the last block
+        ByteBuffer destination = ByteBuffer.allocate(input.length);
+        assertThrows(BadPaddingException.class, () -> instance.checkAndExtract(ByteBuffer.wrap(padded), destination));
+        assertEquals(0, destination.position());
+        assertArrayEquals(new byte[input.length], destination.array());
+        }
+
+    @Test
+    void byteBufferExtractionRejectsExcessiveLength()
+        {
+        InterleavedIntegrityPadding_V1_0 instance = new InterleavedIntegrityPadding_V1_0(CIPHER_BLOCK_SIZE);
+        byte[] padded = instance.performPaddingWithAllocation(new byte[30]);
+        padded[CIPHER_BLOCK_SIZE - 1] = 63; // length field claims more blocks than there are
+        assertThrows(BadPaddingException.class, () -> instance.checkAndExtract(ByteBuffer.wrap(padded), ByteBuffer.allocate(64)));
+        }
 }
 //___EOF___
\ No newline at end of file
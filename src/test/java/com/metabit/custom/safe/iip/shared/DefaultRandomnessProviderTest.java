@@ -0,0 +1,102 @@
+package com.metabit.custom.safe.iip.shared;
+
+import com.metabit.custom.safe.iip2.SealingEngine;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DefaultRandomnessProviderTest
+{
+    @Test
+    void blocksAreFreshAndPrefetched() throws Exception
+        {
+        DefaultRandomnessProvider provider = new DefaultRandomnessProvider(32);
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 200; i++)
+            {
+            byte[] block = provider.nextBlock();
+            assertEquals(RandomnessProvider.BLOCK_SIZE, block.length);
+            assertTrue(seen.add(new java.math.BigInteger(1, block).toString(16)), "block handed out twice");
+            }
+        // the background refill has been triggered; wait for it.
+        long deadline = System.currentTimeMillis()+10000;
+        while ((provider.getPrefetchedBlockCount() == 0) && (System.currentTimeMillis() < deadline))
+            Thread.sleep(10);
+        assertTrue(provider.getPrefetchedBlockCount() > 0);
+        }
+
+    @Test
+    void worksWithoutPrefetching()
+        {
+        DefaultRandomnessProvider provider = new DefaultRandomnessProvider(0);
+        assertEquals(RandomnessProvider.BLOCK_SIZE, provider.nextBlock().length);
+        assertEquals(0, provider.getPrefetchedBlockCount());
+        assertThrows(IllegalArgumentException.class, ()->new DefaultRandomnessProvider(-1));
+        }
+
+    @Test
+    void partialFillStaysInRange()
+        {
+        DefaultRandomnessProvider provider = new DefaultRandomnessProvider(0);
+        byte[] target = new byte[64];
+        provider.nextBytes(target, 8, 48);
+        for (int i = 0; i < 8; i++)
+            assertEquals(0, target[i]);
+        for (int i = 56; i < 64; i++)
+            assertEquals(0, target[i]);
+        }
+
+    @Test
+    void threadsGetTheirOwnInstance() throws Exception
+        {
+        DefaultRandomnessProvider provider = new DefaultRandomnessProvider(0);
+        SecureRandom own = provider.getSecureRandom();
+        assertSame(own, provider.getSecureRandom());
+        AtomicReference<SecureRandom> other = new AtomicReference<>();
+        Thread thread = new Thread(()->other.set(provider.getSecureRandom()));
+        thread.start();
+        thread.join();
+        assertNotNull(other.get());
+        assertNotSame(own, other.get());
+        }
+
+    @Test
+    void sealingDrawsFromTheFactoryProvider() throws Exception
+        {
+        AtomicInteger blocksDrawn = new AtomicInteger();
+        DefaultRandomnessProvider delegate = new DefaultRandomnessProvider(0);
+        CryptoFactoryImpl cf = new CryptoFactoryImpl();
+        cf.setRandomnessProvider(new RandomnessProvider()
+            {
+            @Override
+            public SecureRandom getSecureRandom()
+                { return delegate.getSecureRandom(); }
+
+            @Override
+            public void nextBytes(byte[] target, int offset, int length)
+                { delegate.nextBytes(target, offset, length); }
+
+            @Override
+            public byte[] nextBlock()
+                {
+                blocksDrawn.incrementAndGet();
+                return delegate.nextBlock();
+                }
+            });
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        CryptoSettingsStruct css = new CryptoSettingsStruct(2, 0);
+        byte[] payload = "randomness".getBytes();
+        byte[] sealed = new SealingEngine(cf, css, keyPair.getPrivate()).seal(payload, 1L);
+        assertEquals(4, blocksDrawn.get()); // three ephemeral keys, one nonce
+        assertArrayEquals(payload, new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPublic()).reveal(sealed));
+        }
+}
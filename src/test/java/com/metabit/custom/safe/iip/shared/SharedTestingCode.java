@@ -31,7 +31,11 @@ public static byte[] rsa_decrypt_blocks(CryptoFactory cryptoFactory, SecureRando
     int outputOffset = 0;
     while (i > 0)
         {
-        cipher.doFinal(ciphertext, inputOffset, RSA_blocksize, decrypted, outputOffset);
+        // BC drops leading zero bytes of the plaintext block; right-align it in its slot.
+        byte[] plain = cipher.doFinal(ciphertext, inputOffset, RSA_blocksize);
+        if (plain.length > usable_blocksize)
+            throw new BadPaddingException();
+        System.arraycopy(plain, 0, decrypted, outputOffset+usable_blocksize-plain.length, plain.length);
         inputOffset += RSA_blocksize;
         outputOffset += usable_blocksize;
         i--;
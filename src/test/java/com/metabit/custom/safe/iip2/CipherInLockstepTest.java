@@ -0,0 +1,67 @@
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherInLockstepTest
+{
+    private static final int BLOCK_SIZE  = 16;
+    private static final int TILE_BLOCKS = IntegrityPaddingSignature.TILE_SIZE/BLOCK_SIZE;
+    // sizes around the tile boundaries, odd and even block counts.
+    private static final int[] BLOCK_COUNTS = new int[]{1, 2, 3, 4, 17, TILE_BLOCKS-1, TILE_BLOCKS, TILE_BLOCKS+1,
+            2*TILE_BLOCKS-1, 2*TILE_BLOCKS, 2*TILE_BLOCKS+1, 2*TILE_BLOCKS+2, 5*TILE_BLOCKS+7};
+
+    private Cipher first;
+    private Cipher second;
+    private Random random;
+
+    @BeforeEach
+    void init() throws Exception
+        {
+        CryptoFactoryImpl cf = new CryptoFactoryImpl();
+        first = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+        second = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+        random = new Random();
+        }
+
+    @Test
+    void lockstepMatchesSeparatePasses() throws Exception
+        {
+        for (int numBlocks : BLOCK_COUNTS)
+            {
+            byte[] buffer = randomBytes(2+numBlocks*BLOCK_SIZE);
+            byte[] reference = buffer.clone();
+            SecretKeySpec key1 = new SecretKeySpec(randomBytes(16), "AES");
+            SecretKeySpec key2 = new SecretKeySpec(randomBytes(16), "AES");
+            IvParameterSpec iv1 = new IvParameterSpec(randomBytes(BLOCK_SIZE));
+            IvParameterSpec iv2 = new IvParameterSpec(randomBytes(BLOCK_SIZE));
+
+            first.init(Cipher.ENCRYPT_MODE, key1, iv1);
+            first.doFinal(reference, 2, numBlocks*BLOCK_SIZE, reference, 2);
+            first.init(Cipher.ENCRYPT_MODE, key2, iv2);
+            first.doFinal(reference, 2, numBlocks*BLOCK_SIZE, reference, 2);
+
+            first.init(Cipher.ENCRYPT_MODE, key1, iv1);
+            second.init(Cipher.ENCRYPT_MODE, key2, iv2);
+            IntegrityPaddingSignature.cipherInLockstep(first, second, buffer, 2, numBlocks*BLOCK_SIZE);
+            assertTrue(Arrays.equals(reference, buffer), "mismatch for "+numBlocks+" blocks");
+            }
+        }
+
+    private byte[] randomBytes(int size)
+        {
+        byte[] result = new byte[size];
+        random.nextBytes(result);
+        return result;
+        }
+}
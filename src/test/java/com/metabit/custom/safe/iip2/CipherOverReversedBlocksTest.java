@@ -0,0 +1,88 @@
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherOverReversedBlocksTest
+{
+    private static final int BLOCK_SIZE = 16;
+
+    @Test
+    void matchesReverseFollowedByCipher() throws Exception
+        {
+        Cipher cipher = new CryptoFactoryImpl().getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+        Random random = new Random();
+        byte[] keyBytes = new byte[16];
+        byte[] iv = new byte[BLOCK_SIZE];
+        // sizes around the tile boundaries, odd and even block counts, with a leading offset like the RSA prefix.
+        int tileBlocks = IntegrityPaddingSignature.TILE_SIZE/BLOCK_SIZE;
+        int[] blockCounts = new int[]{1, 2, 3, 4, 17, tileBlocks-1, tileBlocks, tileBlocks+1, 2*tileBlocks-1, 2*tileBlocks, 2*tileBlocks+1, 2*tileBlocks+2, 5*tileBlocks+7};
+        for (int mode : new int[]{Cipher.ENCRYPT_MODE, Cipher.DECRYPT_MODE})
+            for (int numBlocks : blockCounts)
+                {
+                random.nextBytes(keyBytes);
+                random.nextBytes(iv);
+                byte[] buffer = new byte[2+numBlocks*BLOCK_SIZE];
+                random.nextBytes(buffer);
+                byte[] reference = buffer.clone();
+
+                IntegrityPaddingSignature.reverseBuffer(reference, 2, numBlocks*BLOCK_SIZE, BLOCK_SIZE);
+                cipher.init(mode, new SecretKeySpec(keyBytes, "AES"), new IvParameterSpec(iv));
+                cipher.doFinal(reference, 2, numBlocks*BLOCK_SIZE, reference, 2);
+
+                cipher.init(mode, new SecretKeySpec(keyBytes, "AES"), new IvParameterSpec(iv));
+                IntegrityPaddingSignature.cipherOverReversedBlocks(cipher, null, buffer, 2, numBlocks*BLOCK_SIZE, BLOCK_SIZE);
+                assertTrue(Arrays.equals(reference, buffer), "mismatch for "+numBlocks+" blocks, mode "+mode);
+                }
+        }
+
+    @Test
+    void followUpPassMatchesSeparatePasses() throws Exception
+        {
+        CryptoFactoryImpl cf = new CryptoFactoryImpl();
+        Cipher cipher = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+        Cipher followUp = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+        Random random = new Random();
+        byte[] key1 = new byte[16];
+        byte[] key2 = new byte[16];
+        byte[] iv = new byte[BLOCK_SIZE];
+        int tileBlocks = IntegrityPaddingSignature.TILE_SIZE/BLOCK_SIZE;
+        for (int numBlocks : new int[]{1, 2, 3, 17, tileBlocks, tileBlocks+1, 2*tileBlocks+1, 5*tileBlocks+7})
+            {
+            random.nextBytes(key1);
+            random.nextBytes(key2);
+            random.nextBytes(iv);
+            byte[] buffer = new byte[2+numBlocks*BLOCK_SIZE];
+            random.nextBytes(buffer);
+            byte[] reference = buffer.clone();
+
+            // sequential IPS decryption: reverse, SK2 pass, SK1 pass
+            IntegrityPaddingSignature.reverseBuffer(reference, 2, numBlocks*BLOCK_SIZE, BLOCK_SIZE);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key2, "AES"), new IvParameterSpec(iv));
+            cipher.doFinal(reference, 2, numBlocks*BLOCK_SIZE, reference, 2);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key1, "AES"), new IvParameterSpec(iv));
+            cipher.doFinal(reference, 2, numBlocks*BLOCK_SIZE, reference, 2);
+
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key2, "AES"), new IvParameterSpec(iv));
+            followUp.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key1, "AES"), new IvParameterSpec(iv));
+            IntegrityPaddingSignature.cipherOverReversedBlocks(cipher, followUp, buffer, 2, numBlocks*BLOCK_SIZE, BLOCK_SIZE);
+            assertTrue(Arrays.equals(reference, buffer), "mismatch for "+numBlocks+" blocks");
+            }
+        }
+
+    @Test
+    void rejectsPartialBlocks() throws Exception
+        {
+        Cipher cipher = new CryptoFactoryImpl().getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+        assertThrows(IllegalArgumentException.class, ()->IntegrityPaddingSignature.cipherOverReversedBlocks(cipher, null, new byte[40], 0, 40, BLOCK_SIZE));
+        }
+}
@@ -0,0 +1,78 @@
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Security;
+import java.util.Random;
+
+/**
+ * compares the SK1 and SK2 AES-CBC passes one after the other against the two in lockstep over tiles.
+ * run with environment variable benchmark=true, e.g.
+ * benchmark=true mvn test -Dtest=LockstepCipherPassBenchmark
+ */
+@EnabledIfEnvironmentVariable(named = "benchmark", matches = "true")
+class LockstepCipherPassBenchmark
+{
+    private static final int      BLOCK_SIZE = 16;
+    private static final int[]    SIZES      = new int[]{64*1024, 1024*1024, 16*1024*1024};
+    private static final int      ROUNDS     = 20;
+    private static final String[] PROVIDERS  = new String[]{"BC", "SunJCE"};
+
+    private static final SecretKeySpec   KEY1 = new SecretKeySpec(new byte[16], "AES");
+    private static final SecretKeySpec   KEY2 = new SecretKeySpec(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES");
+    private static final IvParameterSpec IV   = new IvParameterSpec(new byte[BLOCK_SIZE]);
+
+    @BeforeAll
+    static void registerProviders()
+        {
+        new CryptoFactoryImpl(); // registers BC
+        }
+
+    @Test
+    void separateVersusLockstepPasses() throws Exception
+        {
+        for (String providerName : PROVIDERS)
+            {
+            CryptoFactoryImpl cf = new CryptoFactoryImpl(Security.getProvider(providerName));
+            Cipher first = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+            Cipher second = cf.getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+            for (int size : SIZES)
+                {
+                byte[] buffer = randomBuffer(size);
+                long separate = Long.MAX_VALUE;
+                long lockstep = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++)
+                    {
+                    long start = System.nanoTime();
+                    first.init(Cipher.ENCRYPT_MODE, KEY1, IV);
+                    first.doFinal(buffer, 2, size, buffer, 2);
+                    first.init(Cipher.ENCRYPT_MODE, KEY2, IV);
+                    first.doFinal(buffer, 2, size, buffer, 2);
+                    long middle = System.nanoTime();
+                    first.init(Cipher.ENCRYPT_MODE, KEY1, IV);
+                    second.init(Cipher.ENCRYPT_MODE, KEY2, IV);
+                    IntegrityPaddingSignature.cipherInLockstep(first, second, buffer, 2, size);
+                    long end = System.nanoTime();
+                    separate = Math.min(separate, middle-start);
+                    lockstep = Math.min(lockstep, end-middle);
+                    }
+                System.out.printf("%-6s %9d bytes: separate %8d us, lockstep %8d us, ratio %.2f%n", providerName, size,
+                        separate/1000, lockstep/1000, (double) separate/lockstep);
+                }
+            }
+        }
+
+    private static byte[] randomBuffer(int size)
+        {
+        byte[] buffer = new byte[2+size];
+        new Random().nextBytes(buffer);
+        return buffer;
+        }
+}
@@ -0,0 +1,105 @@
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelCBCDecryptionTest
+{
+    private static CryptoFactory cryptoFactory;
+    private static KeyPair       keyPair;
+    private static ForkJoinPool  pool;
+
+    @BeforeAll
+    static void overallInit() throws Exception
+        {
+        cryptoFactory = new CryptoFactoryImpl();
+        keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        pool = new ForkJoinPool(4);
+        }
+
+    @AfterAll
+    static void cleanup()
+        {
+        pool.shutdown();
+        }
+
+    @Test
+    void parallelDecryptionIsBitIdentical() throws Exception
+        {
+        IntegrityPaddingSignature encrypting = new IntegrityPaddingSignature(cryptoFactory, new CryptoSettingsStruct(2, 0));
+        IntegrityPaddingSignature sequential = new IntegrityPaddingSignature(cryptoFactory, new CryptoSettingsStruct(2, 0));
+        IntegrityPaddingSignature parallel = new IntegrityPaddingSignature(cryptoFactory, new CryptoSettingsStruct(2, 0));
+        parallel.setParallelDecryption(pool, 1);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        Random random = new Random();
+        for (int size : new int[]{0, 1, 220, 221, 5000, 65536, 1024*1024+3})
+            {
+            SecretKey key1 = keyGenerator.generateKey();
+            SecretKey key2 = keyGenerator.generateKey();
+            SecretKey key3 = keyGenerator.generateKey();
+            byte[] payload = new byte[size];
+            random.nextBytes(payload);
+            byte[] encrypted = encrypting.performEncryption(payload, keyPair.getPrivate(), key1, key2, key3);
+            // decryption works in place, so both get a copy, and the resulting buffers are compared.
+            byte[] sequentialBuffer = encrypted.clone();
+            byte[] parallelBuffer = encrypted.clone();
+            assertArrayEquals(payload, sequential.performDecryptionAndValidation(sequentialBuffer, keyPair.getPublic(), key1, key2, key3));
+            assertArrayEquals(payload, parallel.performDecryptionAndValidation(parallelBuffer, keyPair.getPublic(), key1, key2, key3));
+            assertArrayEquals(sequentialBuffer, parallelBuffer);
+            }
+        }
+
+    @Test
+    void manipulationIsDetectedInParallelMode() throws Exception
+        {
+        IntegrityPaddingSignature ips = new IntegrityPaddingSignature(cryptoFactory, new CryptoSettingsStruct(2, 0));
+        ips.setParallelDecryption(pool, 1);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        SecretKey key1 = keyGenerator.generateKey();
+        SecretKey key2 = keyGenerator.generateKey();
+        SecretKey key3 = keyGenerator.generateKey();
+        byte[] payload = new byte[100000];
+        new Random().nextBytes(payload);
+        byte[] encrypted = ips.performEncryption(payload, keyPair.getPrivate(), key1, key2, key3);
+        // the last block ends up in the header of the first RSA block
+        byte[] manipulated = encrypted.clone();
+        manipulated[manipulated.length-1] ^= 0x01;
+        assertThrows(BadPaddingException.class, ()->ips.performDecryptionAndValidation(manipulated, keyPair.getPublic(), key1, key2, key3));
+
+        // a change within the payload area must have the same effect as in sequential mode.
+        IntegrityPaddingSignature sequential = new IntegrityPaddingSignature(cryptoFactory, new CryptoSettingsStruct(2, 0));
+        byte[] sequentialBuffer = encrypted.clone();
+        byte[] parallelBuffer = encrypted.clone();
+        sequentialBuffer[encrypted.length/2] ^= 0x01;
+        parallelBuffer[encrypted.length/2] ^= 0x01;
+        assertEquals(outcome(sequential, sequentialBuffer, key1, key2, key3), outcome(ips, parallelBuffer, key1, key2, key3));
+        assertArrayEquals(sequentialBuffer, parallelBuffer);
+        }
+
+    private static String outcome(IntegrityPaddingSignature ips, byte[] buffer, SecretKey key1, SecretKey key2, SecretKey key3)
+        {
+        try
+            {
+            return Arrays.toString(ips.performDecryptionAndValidation(buffer, keyPair.getPublic(), key1, key2, key3));
+            }
+        catch (Exception ex)
+            {
+            return ex.getClass().getName();
+            }
+        }
+}
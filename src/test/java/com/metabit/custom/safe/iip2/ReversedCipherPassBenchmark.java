@@ -0,0 +1,61 @@
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Random;
+
+/**
+ * compares the separate block reversal followed by an AES-CBC pass against the single reversed-order pass.
+ * run with environment variable benchmark=true, e.g.
+ * benchmark=true mvn test -Dtest=ReversedCipherPassBenchmark
+ */
+@EnabledIfEnvironmentVariable(named = "benchmark", matches = "true")
+class ReversedCipherPassBenchmark
+{
+    private static final int   BLOCK_SIZE = 16;
+    private static final int[] SIZES      = new int[]{64*1024, 1024*1024, 16*1024*1024};
+    private static final int   ROUNDS     = 20;
+
+    @Test
+    void separateVersusFoldedReversal() throws Exception
+        {
+        new CryptoFactoryImpl(); // registers BC
+        for (String providerName : new String[]{"BC", "SunJCE"})
+            {
+            Provider provider = Security.getProvider(providerName);
+            Cipher cipher = new CryptoFactoryImpl(provider).getCipherFromCipherSpec(AlgorithmSpecCollection.AES256CBC);
+            SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+            IvParameterSpec iv = new IvParameterSpec(new byte[BLOCK_SIZE]);
+            for (int size : SIZES)
+                {
+                byte[] buffer = new byte[2+size];
+                new Random().nextBytes(buffer);
+                long separate = Long.MAX_VALUE;
+                long folded = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++)
+                    {
+                    long start = System.nanoTime();
+                    IntegrityPaddingSignature.reverseBuffer(buffer, 2, size, BLOCK_SIZE);
+                    cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+                    cipher.doFinal(buffer, 2, size, buffer, 2);
+                    long middle = System.nanoTime();
+                    cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+                    IntegrityPaddingSignature.cipherOverReversedBlocks(cipher, null, buffer, 2, size, BLOCK_SIZE);
+                    long end = System.nanoTime();
+                    separate = Math.min(separate, middle-start);
+                    folded = Math.min(folded, end-middle);
+                    }
+                System.out.printf("%-6s %9d bytes: separate %8d us, folded %8d us, ratio %.2f%n", providerName, size,
+                        separate/1000, folded/1000, (double) separate/folded);
+                }
+            }
+        }
+}
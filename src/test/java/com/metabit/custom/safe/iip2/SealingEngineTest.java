@@ -0,0 +1,118 @@
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.BadPaddingException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SealingEngineTest
+{
+    private static CryptoFactory cryptoFactory;
+    private static KeyPair       keyPair;
+
+    @BeforeAll
+    static void overallInit() throws Exception
+        {
+        cryptoFactory = new CryptoFactoryImpl();
+        keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        }
+
+    @Test
+    void interchangeableWithSAFESeal2() throws Exception
+        {
+        SealingEngine sealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPrivate());
+        SealingEngine revealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPublic());
+        SAFESeal2 reference = new SAFESeal2(cryptoFactory, 2, 0);
+        assertEquals(2048, sealer.getKeySizeInBits());
+
+        Random random = new Random();
+        for (boolean compression : new boolean[]{false, true})
+            {
+            sealer.setCompressionMode(compression);
+            reference.setCompressionMode(compression);
+            for (int i = 0; i < 20; i++)
+                {
+                byte[] payload = new byte[random.nextInt(5000)];
+                byte[] randomPart = new byte[compression ? payload.length/2 : payload.length]; // leave a compressible tail
+                random.nextBytes(randomPart);
+                System.arraycopy(randomPart, 0, payload, 0, randomPart.length);
+                assertArrayEquals(payload, reference.reveal(sealer.seal(payload, (long) i), null, keyPair.getPublic()));
+                assertArrayEquals(payload, revealer.reveal(reference.seal(payload, keyPair.getPrivate(), null, (long) i)));
+                }
+            }
+        }
+
+    @Test
+    void concurrentUseOfSharedInstances() throws Exception
+        {
+        SealingEngine sealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPrivate());
+        SealingEngine revealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPublic());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+            {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++)
+                {
+                final long seed = t;
+                results.add(executor.submit(()->
+                    {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 25; i++)
+                        {
+                        byte[] payload = new byte[random.nextInt(2000)];
+                        random.nextBytes(payload);
+                        byte[] revealed = revealer.reveal(sealer.seal(payload, (long) i));
+                        if (!Arrays.equals(payload, revealed))
+                            return false;
+                        }
+                    return true;
+                    }));
+                }
+            for (Future<Boolean> result : results)
+                assertTrue(result.get());
+            }
+        finally
+            {
+            executor.shutdown();
+            }
+        }
+
+    @Test
+    void tamperingIsDetected() throws Exception
+        {
+        SealingEngine sealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPrivate());
+        SealingEngine revealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPublic());
+        byte[] sealed = sealer.seal("this is a simple test".getBytes(), 0L);
+        sealed[sealed.length-5] ^= 0x10;
+        assertThrows(BadPaddingException.class, ()->revealer.reveal(sealed));
+        // the engine stays usable after a failure
+        byte[] payload = "after the failure".getBytes();
+        assertArrayEquals(payload, revealer.reveal(sealer.seal(payload, 1L)));
+        }
+
+    @Test
+    void keyBindingIsEnforced() throws Exception
+        {
+        SealingEngine sealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPrivate());
+        SealingEngine revealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPublic());
+        assertTrue(sealer.isBoundTo(keyPair.getPrivate()));
+        assertFalse(sealer.isBoundTo(keyPair.getPublic()));
+        assertThrows(IllegalStateException.class, ()->sealer.reveal(new byte[0]));
+        assertThrows(IllegalStateException.class, ()->revealer.seal(new byte[0], 0L));
+        assertThrows(IllegalArgumentException.class, ()->new SealingEngine(cryptoFactory, new CryptoSettingsStruct(1, 0), keyPair.getPrivate()));
+        }
+}
@@ -0,0 +1,229 @@
+package com.metabit.custom.safe.iip2;
+
+import com.metabit.custom.safe.iip.shared.CryptoFactory;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.CryptoSettingsStruct;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SealingProcessorTest
+{
+    private static CryptoFactory   cryptoFactory;
+    private static KeyPair         keyPair;
+    private static ExecutorService executor;
+
+    @BeforeAll
+    static void overallInit() throws Exception
+        {
+        cryptoFactory = new CryptoFactoryImpl();
+        keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        executor = Executors.newFixedThreadPool(4);
+        }
+
+    @AfterAll
+    static void overallCleanup()
+        {
+        executor.shutdown();
+        }
+
+    @Test
+    void orderedWithSlowSubscriber() throws Exception
+        {
+        SealingEngine sealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPrivate());
+        SealingEngine revealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPublic());
+        SealingProcessor processor = new SealingProcessor(sealer, executor, 4, 16, SealingProcessor.Emission.ORDERED, 1000L);
+        Collector collector = new Collector(processor, 1);
+        int count = 200;
+        publish(processor, count);
+        List<SealedRecord> records = collector.done.get(60, TimeUnit.SECONDS);
+
+        assertEquals(count, records.size());
+        for (int i = 0; i < count; i++)
+            {
+            SealedRecord record = records.get(i);
+            assertTrue(record.isSuccess());
+            assertEquals(i, record.getSequence());
+            assertEquals(1000L+i, record.getUniqueID());
+            assertArrayEquals(payload(i), revealer.reveal(record.getSealed()));
+            }
+        assertTrue(collector.maxInFlight <= 16, "in flight: "+collector.maxInFlight);
+        Map<String, Long> metrics = processor.getMetrics();
+        assertEquals(count, metrics.get("emitted"));
+        assertEquals(0L, metrics.get("failed"));
+        assertEquals(0L, metrics.get("waiting"));
+        assertEquals(0, processor.getQueueDepth());
+        assertTrue(metrics.get("latencyMaxMicros") >= metrics.get("latencyAvgMicros"));
+        }
+
+    @Test
+    void unorderedEmitsEverything() throws Exception
+        {
+        SealingEngine sealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPrivate());
+        SealingProcessor processor = new SealingProcessor(sealer, executor, 3, 8, SealingProcessor.Emission.UNORDERED, 0L);
+        Collector collector = new Collector(processor, Long.MAX_VALUE);
+        int count = 300;
+        publish(processor, count);
+        List<SealedRecord> records = collector.done.get(60, TimeUnit.SECONDS);
+
+        List<Long> sequences = new ArrayList<>();
+        for (SealedRecord record : records)
+            sequences.add(record.getSequence());
+        Collections.sort(sequences);
+        assertEquals(count, sequences.size());
+        for (int i = 0; i < count; i++)
+            assertEquals(i, sequences.get(i));
+        }
+
+    @Test
+    void failuresDoNotStopTheStream() throws Exception
+        {
+        SealingEngine wrongWay = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPublic());
+        SealingProcessor processor = new SealingProcessor(wrongWay, executor, 2, 4, SealingProcessor.Emission.ORDERED, 0L);
+        Collector collector = new Collector(processor, 3);
+        publish(processor, 10);
+        List<SealedRecord> records = collector.done.get(60, TimeUnit.SECONDS);
+
+        assertEquals(10, records.size());
+        for (SealedRecord record : records)
+            {
+            assertFalse(record.isSuccess());
+            assertNull(record.getSealed());
+            assertInstanceOf(IllegalStateException.class, record.getFailure());
+            }
+        assertEquals(10L, processor.getMetrics().get("failed"));
+
+        // a second subscriber is turned away
+        CompletableFuture<Throwable> rejected = new CompletableFuture<>();
+        processor.subscribe(new Flow.Subscriber<>()
+            {
+            @Override public void onSubscribe(Flow.Subscription subscription) { }
+            @Override public void onNext(SealedRecord item) { }
+            @Override public void onError(Throwable throwable) { rejected.complete(throwable); }
+            @Override public void onComplete() { }
+            });
+        assertInstanceOf(IllegalStateException.class, rejected.get(1, TimeUnit.SECONDS));
+        }
+
+    @Test
+    void cancelEndsAllSignals() throws Exception
+        {
+        SealingEngine sealer = new SealingEngine(cryptoFactory, new CryptoSettingsStruct(2, 0), keyPair.getPrivate());
+
+        // a non-positive request is answered with onError (rule 3.9)
+        SealingProcessor processor = new SealingProcessor(sealer, executor, 2, 4, SealingProcessor.Emission.ORDERED, 0L);
+        Recorder recorder = new Recorder();
+        processor.subscribe(recorder);
+        recorder.subscription.request(0);
+        assertInstanceOf(IllegalArgumentException.class, recorder.error.get(10, TimeUnit.SECONDS));
+
+        // an upstream failure pending when the subscriber cancels is not passed on (rule 1.8), even if it is an IllegalArgumentException
+        processor = new SealingProcessor(sealer, executor, 2, 4, SealingProcessor.Emission.ORDERED, 0L);
+        CompletableFuture<Void> upstreamCancelled = new CompletableFuture<>();
+        processor.onSubscribe(new Flow.Subscription()
+            {
+            @Override public void request(long n) { }
+            @Override public void cancel() { upstreamCancelled.complete(null); }
+            });
+        recorder = new Recorder();
+        processor.subscribe(recorder); // requests nothing, so the sealed record stays pending
+        processor.onNext(payload(0));
+        processor.onError(new IllegalArgumentException("upstream failure"));
+        recorder.subscription.cancel();
+        upstreamCancelled.get(10, TimeUnit.SECONDS);
+        Thread.sleep(200); // give a stray signal the chance to arrive
+        assertFalse(recorder.error.isDone());
+        assertEquals(0, recorder.received);
+        }
+
+    private static void publish(final SealingProcessor processor, final int count)
+        {
+        try (SubmissionPublisher<byte[]> publisher = new SubmissionPublisher<>(Executors.newSingleThreadExecutor(), 32))
+            {
+            publisher.subscribe(processor);
+            for (int i = 0; i < count; i++)
+                publisher.submit(payload(i)); // blocks while the processor applies backpressure
+            }
+        }
+
+    private static byte[] payload(final int i)
+        {
+        return ("OCMF|{\"RD\":[{\"RV\":"+i+",\"RU\":\"kWh\"}]}").getBytes(StandardCharsets.US_ASCII);
+        }
+
+    // requests nothing by itself; records what it is sent.
+    private static final class Recorder implements Flow.Subscriber<SealedRecord>
+    {
+        final CompletableFuture<Throwable> error = new CompletableFuture<>();
+        volatile Flow.Subscription         subscription;
+        volatile int                       received;
+
+        @Override public void onSubscribe(final Flow.Subscription subscription) { this.subscription = subscription; }
+        @Override public void onNext(final SealedRecord item)                   { received++; }
+        @Override public void onError(final Throwable throwable)               { error.complete(throwable); }
+        @Override public void onComplete()                                      { }
+    }
+
+    // requests in small batches, and checks the processor's in-flight bound each time.
+    private static final class Collector implements Flow.Subscriber<SealedRecord>
+    {
+        final CompletableFuture<List<SealedRecord>> done    = new CompletableFuture<>();
+        private final List<SealedRecord>            records = new ArrayList<>();
+        private final SealingProcessor              processor;
+        private final long                          batch;
+        private Flow.Subscription                   subscription;
+        private long                                outstanding;
+        volatile long                               maxInFlight;
+
+        Collector(final SealingProcessor processor, final long batch)
+            {
+            this.processor = processor;
+            this.batch = batch;
+            processor.subscribe(this);
+            }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription)
+            {
+            this.subscription = subscription;
+            outstanding = batch;
+            subscription.request(batch);
+            }
+
+        @Override
+        public void onNext(final SealedRecord item)
+            {
+            records.add(item);
+            maxInFlight = Math.max(maxInFlight, processor.getMetrics().get("inFlight"));
+            if (--outstanding == 0)
+                {
+                outstanding = batch;
+                subscription.request(batch);
+                }
+            }
+
+        @Override
+        public void onError(final Throwable throwable)
+            { done.completeExceptionally(throwable); }
+
+        @Override
+        public void onComplete()
+            { done.complete(records); }
+    }
+}
@@ -1,6 +1,9 @@
 package com.metabit.custom.safe.safeseal;
 
+import com.metabit.custom.safe.safeseal.impl.CompressionDictionary;
+import com.metabit.custom.safe.safeseal.impl.SealedEnvelopeInfo;
 import org.junit.jupiter.api.*;
+import picocli.CommandLine;
 
 import java.io.File;
 import java.io.IOException;
@@ -106,6 +109,69 @@ class CommandLineMainTest
         }
 
 
+    @Test
+    void sealAndRevealByKeyID() throws Exception
+        {
+        final Path keyDirectory = Files.createDirectories(tmpdir.resolve("keys"));
+        KeyPair keypair = generateRSAKeyPair(2048);
+        Files.write(keyDirectory.resolve("meter.pem"), pemExportPrivateKey((RSAPrivateKey) keypair.getPrivate()).getBytes());
+
+        final byte[] testData = "sealed by key ID".getBytes(StandardCharsets.UTF_8);
+        final Path testPayloadPath = tmpdir.resolve("keyid-input.txt");
+        final Path testWrappedPath = tmpdir.resolve("keyid-wrapped.der");
+        final Path testUnwrappedPath = tmpdir.resolve("keyid-output.txt");
+        Files.write(testPayloadPath, testData);
+
+        CommandLineMain sealingInstance = new CommandLineMain();
+        sealingInstance.keySource = keyDirectory;
+        sealingInstance.keyID = "meter";
+        sealingInstance.inputName = testPayloadPath.toString();
+        sealingInstance.outputName = testWrappedPath.toString();
+        sealingInstance.seal();
+
+        CommandLineMain revealingInstance = new CommandLineMain();
+        revealingInstance.keySource = keyDirectory;
+        revealingInstance.keyID = "meter"; // public key derived from the private one
+        revealingInstance.inputName = testWrappedPath.toString();
+        revealingInstance.outputName = testUnwrappedPath.toString();
+        revealingInstance.unseal();
+
+        Assertions.assertArrayEquals(testData, Files.readAllBytes(testUnwrappedPath));
+        }
+
+    @Test
+    void sealAndRevealWithDictionary() throws Exception
+        {
+        KeyPair keypair = generateRSAKeyPair(2048);
+        final Path privKeyFilePath = tmpdir.resolve("dict-privatekey.pem");
+        final Path pubKeyFilePath = tmpdir.resolve("dict-publickey.pem");
+        Files.write(privKeyFilePath, pemExportPrivateKey((RSAPrivateKey) keypair.getPrivate()).getBytes());
+        Files.write(pubKeyFilePath, pemExportPublicKey((RSAPublicKey) keypair.getPublic()).getBytes());
+
+        final byte[] testData = "{\"FV\":\"1.0\",\"GI\":\"ABL SBC-301\",\"RD\":[{\"TM\":\"2018-07-24T13:22:04,000+0200 S\",\"RV\":2935.6}]}".getBytes(StandardCharsets.UTF_8);
+        final Path dictionaryPath = tmpdir.resolve("ocmf.dict");
+        final byte[] dictionary = "\"FV\":\"1.0\",\"GI\":\"ABL SBC-301\",\"RD\":[{\"TM\":\"2018-07-24T".getBytes(StandardCharsets.UTF_8);
+        Files.write(dictionaryPath, dictionary);
+        final Path testPayloadPath = tmpdir.resolve("dict-input.txt");
+        final Path testWrappedPath = tmpdir.resolve("dict-wrapped.der");
+        final Path testUnwrappedPath = tmpdir.resolve("dict-output.txt");
+        Files.write(testPayloadPath, testData);
+
+        CommandLineMain sealingInstance = new CommandLineMain();
+        new CommandLine(sealingInstance).parseArgs("-P", privKeyFilePath.toString(), "-i", testPayloadPath.toString(), "-o", testWrappedPath.toString(),
+                                                   "--dictionary", dictionaryPath.toString(), "--level", "1");
+        Assertions.assertEquals(1, sealingInstance.compressionLevel);
+        sealingInstance.seal();
+        SealedEnvelopeInfo info = SealedEnvelopeInfo.peek(Files.readAllBytes(testWrappedPath));
+        Assertions.assertEquals(new CompressionDictionary(dictionary).getId(), info.getCompressionDictionaryId());
+
+        CommandLineMain revealingInstance = new CommandLineMain();
+        new CommandLine(revealingInstance).parseArgs("-p", pubKeyFilePath.toString(), "-i", testWrappedPath.toString(), "-o", testUnwrappedPath.toString(),
+                                                     "--dictionary", dictionaryPath.toString());
+        revealingInstance.unseal();
+        Assertions.assertArrayEquals(testData, Files.readAllBytes(testUnwrappedPath));
+        }
+
     private static Path tmpdir;
 
     @BeforeAll
@@ -0,0 +1,183 @@
+package com.metabit.custom.safe.safeseal;
+
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.BadPaddingException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SAFESealBatchTest
+{
+    @Test
+    void sealAndRevealAllWithVersion2() throws Exception
+        {
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        List<byte[]> payloads = payloads(300);
+        SAFESealSealer sealer = new SAFESealSealer();
+        List<BatchResult> sealed = sealer.sealAll(keyPair.getPrivate(), null, payloads, 1000L);
+        assertEquals(payloads.size(), sealed.size());
+        List<byte[]> messages = new ArrayList<>();
+        for (BatchResult result : sealed)
+            {
+            assertTrue(result.isSuccess());
+            assertEquals(messages.size(), result.getIndex());
+            messages.add(result.getOutput());
+            }
+        messages.set(7, new byte[]{0x30, 0x00}); // not a sealed message
+        byte[] tampered = messages.get(8).clone();
+        tampered[tampered.length-1] ^= 1;
+        messages.set(8, tampered);
+
+        SAFESealRevealer revealer = new SAFESealRevealer(2);
+        List<BatchResult> revealed = revealer.revealAll(keyPair.getPublic(), null, messages);
+        for (BatchResult result : revealed)
+            {
+            if ((result.getIndex() == 7) || (result.getIndex() == 8))
+                {
+                assertFalse(result.isSuccess());
+                assertInstanceOf(BadPaddingException.class, result.getFailure());
+                assertNull(result.getOutput());
+                }
+            else
+                assertArrayEquals(payloads.get(result.getIndex()), result.getOutput());
+            }
+        // same as one by one
+        assertArrayEquals(payloads.get(42), revealer.reveal(keyPair.getPublic(), null, messages.get(42)));
+        }
+
+    @Test
+    void streamingWithOwnExecutor() throws Exception
+        {
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        int count = 2500; // more than are kept in flight
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+            {
+            SAFESealSealer sealer = new SAFESealSealer(1);
+            sealer.setBatchExecutor(executor);
+            SAFESealRevealer revealer = new SAFESealRevealer(1);
+            revealer.setBatchExecutor(executor);
+            List<byte[]> sealed = new ArrayList<>();
+            sealer.sealAll(keyPair.getPrivate(), null, IntStream.range(0, count).mapToObj(SAFESealBatchTest::payload).iterator(), 0L, result->
+                {
+                assertEquals(sealed.size(), result.getIndex());
+                sealed.add(result.getOutput());
+                });
+            int[] next = new int[1];
+            revealer.revealAll(keyPair.getPublic(), null, sealed.iterator(), result->
+                {
+                assertEquals(next[0], result.getIndex());
+                assertArrayEquals(payload(next[0]++), result.getOutput());
+                });
+            assertEquals(count, next[0]);
+            assertThrows(IllegalArgumentException.class, ()->sealer.setBatchExecutor(null));
+            }
+        finally
+            {
+            executor.shutdown();
+            }
+        }
+
+    @Test
+    void keyAgreementBatch() throws Exception
+        {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+        kpg.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair sender = kpg.generateKeyPair();
+        KeyPair recipient = kpg.generateKeyPair();
+        List<byte[]> payloads = payloads(50);
+        List<byte[]> messages = new ArrayList<>();
+        for (BatchResult result : new SAFESealSealer(0).sealAll(sender.getPrivate(), recipient.getPublic(), payloads, 1L))
+            messages.add(result.getOutput());
+        List<BatchResult> revealed = new SAFESealRevealer(0).revealAll(sender.getPublic(), recipient.getPrivate(), messages);
+        for (BatchResult result : revealed)
+            assertArrayEquals(payloads.get(result.getIndex()), result.getOutput());
+        }
+
+    @Test
+    void rejectedItemAbortsBatch() throws Exception
+        {
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        AtomicInteger submitted = new AtomicInteger();
+        Executor refusing = task->
+            {
+            if (submitted.incrementAndGet() > 1100)
+                throw new RejectedExecutionException("full");
+            ForkJoinPool.commonPool().execute(task);
+            };
+        SAFESealSealer sealer = new SAFESealSealer();
+        sealer.setBatchExecutor(refusing);
+        List<BatchResult> handedOn = new ArrayList<>();
+        RejectedExecutionException e = assertThrows(RejectedExecutionException.class, ()->sealer.sealAll(keyPair.getPrivate(), null, payloads(1200).iterator(), 0L, handedOn::add));
+        // each submission beyond the in-flight limit hands one result on first, the rejected one included
+        assertEquals(1101-OrderedBatch.MAX_IN_FLIGHT, handedOn.size());
+        for (int i = 0; i < handedOn.size(); i++)
+            assertEquals(i, handedOn.get(i).getIndex());
+        assertTrue(e.getMessage().contains("item 1100"), e.getMessage());
+        }
+
+    @Test
+    void nullInputsFailWithoutProcessing()
+        {
+        List<byte[]> inputs = payloads(6);
+        inputs.set(1, null);
+        inputs.set(4, null);
+        List<Integer> sequences = Collections.synchronizedList(new ArrayList<>());
+        List<BatchResult> handedOn = new ArrayList<>();
+        OrderedBatch.run(inputs.iterator(), (sequence, input)->
+            {
+            sequences.add(sequence);
+            return input;
+            }, ForkJoinPool.commonPool(), handedOn::add);
+        assertEquals(6, handedOn.size());
+        for (int i = 0; i < handedOn.size(); i++)
+            {
+            assertEquals(i, handedOn.get(i).getIndex());
+            assertEquals((i != 1) && (i != 4), handedOn.get(i).isSuccess());
+            }
+        // the processed ones are numbered without gaps, e.g. for unique IDs
+        Collections.sort(sequences);
+        assertEquals(List.of(0, 1, 2, 3), sequences);
+        }
+
+    @Test
+    void keySetupFailuresAreReported() throws Exception
+        {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+        kpg.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair ec = kpg.generateKeyPair(); // version 2 needs RSA
+        List<BatchResult> handedOn = new ArrayList<>();
+        assertThrows(GeneralSecurityException.class, ()->new SAFESealSealer().sealAll(ec.getPrivate(), null, payloads(3).iterator(), 0L, handedOn::add));
+        assertThrows(BadPaddingException.class, ()->new SAFESealRevealer(2).revealAll(ec.getPublic(), null, payloads(3).iterator(), handedOn::add));
+        assertTrue(handedOn.isEmpty());
+        }
+
+    private static List<byte[]> payloads(final int count)
+        {
+        List<byte[]> payloads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            payloads.add(payload(i));
+        return payloads;
+        }
+
+    private static byte[] payload(final int i)
+        {
+        return ("OCMF|{\"RD\":[{\"RV\":"+i+",\"RU\":\"kWh\"}]}").getBytes(StandardCharsets.US_ASCII);
+        }
+}
@@ -1,6 +1,10 @@
 package com.metabit.custom.safe.safeseal;
 
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
 import com.metabit.custom.safe.iip.shared.SharedConstants;
+import com.metabit.custom.safe.safeseal.impl.CompressionDictionary;
+import com.metabit.custom.safe.safeseal.impl.CompressionStage;
+import com.metabit.custom.safe.safeseal.impl.SealedEnvelopeInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -20,8 +24,10 @@ import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.ECParameterSpec;
 import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.zip.Deflater;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 @Slf4j
@@ -138,6 +144,27 @@ class SAFESealCompressionTest
         return;
         }
 
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2})
+    void useCaseTestWithDictionary(int version)
+            throws IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, BadPaddingException
+        {
+        rsaKeyPair = generateRSAKeyPair(RSA_KEY_SIZE);
+        byte[] testPayload = OCMF_TEST_DATA.getBytes(StandardCharsets.UTF_8);
+        CompressionDictionary dictionary = CompressionDictionary.register(new CompressionDictionary(testPayload));
+
+        SAFESealSealer sealer = new SAFESealSealer(version);
+        sealer.setCompressionMode(true);
+        sealer.setCompressionStage(new CompressionStage(Deflater.BEST_SPEED, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, false, dictionary));
+        byte[] sealed = sealer.seal(rsaKeyPair.getPrivate(), null, testPayload, 42L);
+
+        SealedEnvelopeInfo info = SealedEnvelopeInfo.peek(sealed);
+        assertEquals(AlgorithmSpecCollection.COMPRESSION_DEFLATE_DICTIONARY.getOID(), info.getCompressionOID());
+        assertEquals(dictionary.getId(), info.getCompressionDictionaryId());
+        assertArrayEquals(testPayload, new SAFESealRevealer(version).reveal(rsaKeyPair.getPublic(), null, sealed));
+        return;
+        }
+
     // -----------------------------------------------------------------------------------------------------------------
     void generateECKeyPairs(final String curveName)
             throws NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException
@@ -1,6 +1,8 @@
 package com.metabit.custom.safe.safeseal;
 
 import com.metabit.custom.safe.iip.shared.SharedConstants;
+import com.metabit.custom.safe.safeseal.impl.CryptoFactoryImpl;
+import com.metabit.custom.safe.safeseal.impl.TransportEnvelopeCodec;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
@@ -17,7 +19,9 @@ import java.security.*;
 import java.security.spec.ECParameterSpec;
 import java.security.spec.RSAKeyGenParameterSpec;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SAFESealUseCaseTest
 {
@@ -63,6 +67,21 @@ class SAFESealUseCaseTest
         return;
         }
 
+    @Test
+    void useCaseTestWithX25519() throws IOException, NoSuchAlgorithmException, NoSuchProviderException, BadPaddingException
+        {
+        byte[] testPayload = "SAFE eV".getBytes(StandardCharsets.UTF_8);
+        for (Provider provider : new Provider[]{Security.getProvider("BC"), Security.getProvider("SunEC")})
+            {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("X25519", provider);
+            KeyPair sender = kpg.generateKeyPair();
+            KeyPair recipient = kpg.generateKeyPair();
+            byte[] sealed = new SAFESealSealer(0).seal(sender.getPrivate(), recipient.getPublic(), testPayload, System.currentTimeMillis());
+            assertEquals(SharedConstants.OID_X25519_ALGORITHM, new TransportEnvelopeCodec().peek(sealed).getKeyAgreementProtocolOID());
+            assertArrayEquals(testPayload, new SAFESealRevealer(0).reveal(sender.getPublic(), recipient.getPrivate(), sealed));
+            }
+        }
+
     //<editor-fold defaultstate="collapsed" desc="delombok">
     // -----------------------------------------------------------------------------------------------------------------
     //</editor-fold>
@@ -92,6 +111,31 @@ class SAFESealUseCaseTest
         return;
         }
 
+    @Test
+    void facadesShareTheCipherPool() throws GeneralSecurityException
+        {
+        rsaKeyPair = generateRSAKeyPair(2048);
+        byte[] testPayload = "SAFE eV".getBytes(StandardCharsets.UTF_8);
+        CryptoFactoryImpl shared = CryptoFactoryImpl.getSharedInstance();
+        for (int version = 1; version <= 2; version++)
+            {
+            // first round fills the pool
+            byte[] sealed = new SAFESealSealer(version).seal(rsaKeyPair.getPrivate(), null, testPayload, 1L);
+            new SAFESealRevealer(version).reveal(rsaKeyPair.getPublic(), null, sealed);
+            long hits = shared.getCipherPoolHits();
+            long misses = shared.getCipherPoolMisses();
+            // new facades per message, as e.g. per web request
+            for (int i = 0; i < 5; i++)
+                {
+                sealed = new SAFESealSealer(version).seal(rsaKeyPair.getPrivate(), null, testPayload, 2L+i);
+                assertArrayEquals(testPayload, new SAFESealRevealer(version).reveal(rsaKeyPair.getPublic(), null, sealed));
+                }
+            assertEquals(misses, shared.getCipherPoolMisses());
+            assertTrue(shared.getCipherPoolHits() >= hits+10);
+            }
+        return;
+        }
+
     // -----------------------------------------------------------------------------------------------------------------
     void generateECKeyPairs(final String curveName) throws NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException
         {
@@ -0,0 +1,56 @@
+package com.metabit.custom.safe.safeseal.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * compares plain deflate against deflate with the built-in preset dictionary, on the OCMF test payloads:
+ * total compressed size, and time per payload, for several deflate levels.
+ * run with environment variable benchmark=true, e.g.
+ * benchmark=true mvn test -Dtest=CompressionDictionaryBenchmark
+ */
+@EnabledIfEnvironmentVariable(named = "benchmark", matches = "true")
+class CompressionDictionaryBenchmark
+{
+    private static final int[] LEVELS = new int[]{Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION};
+    private static final int   ROUNDS = 2000;
+
+    @Test
+    void plainVersusPresetDictionary() throws Exception
+        {
+        List<byte[]> samples = CompressionDictionaryTest.loadOCMFSamples();
+        int rawSize = 0;
+        for (byte[] sample : samples)
+            rawSize += sample.length;
+        CompressionStage stage = CompressionStage.getSharedInstance();
+        System.out.printf("%d payloads, %d bytes uncompressed, dictionary %d bytes%n", samples.size(), rawSize, CompressionDictionary.getBuiltIn().getSize());
+        for (int level : LEVELS)
+            {
+            measure(stage, samples, level, null);
+            measure(stage, samples, level, CompressionDictionary.getBuiltIn());
+            }
+        }
+
+    private static void measure(CompressionStage stage, List<byte[]> samples, int level, CompressionDictionary dictionary) throws Exception
+        {
+        int size = 0;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++)
+            {
+            size = 0;
+            long start = System.nanoTime();
+            for (byte[] sample : samples)
+                {
+                byte[] compressed = stage.deflate(sample, level, Integer.MAX_VALUE, dictionary);
+                size += compressed.length;
+                stage.inflate(compressed, sample.length, dictionary);
+                }
+            best = Math.min(best, System.nanoTime()-start);
+            }
+        System.out.printf("level %d %-10s: %6d bytes, %6.1f us per payload (deflate+inflate)%n", level,
+                (dictionary == null) ? "plain" : "dictionary", size, best/1000.0/samples.size());
+        }
+}
@@ -0,0 +1,108 @@
+package com.metabit.custom.safe.safeseal.impl;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.iip2.SealingEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionDictionaryTest
+{
+    private static final String[] SAMPLE_FILES = new String[]{
+            "testdata/ocmf/destre10118001-2025-10-31-11_31_20-76358978.xml",
+            "testdata/xml_verification/destre10178001-2025-10-31-15_20_46-76421062.xml",
+            "testdata/xml_verification/destre10207002-2025-10-31-15_20_40-76421718.xml",
+            "testdata/xml_verification/destre10223002-2025-10-31-15_20_31-76423679.xml"};
+
+    @Test
+    void builtInDictionaryBeatsPlainDeflate() throws Exception
+        {
+        CompressionStage plain = new CompressionStage(Deflater.BEST_COMPRESSION, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, false);
+        CompressionStage preset = new CompressionStage(Deflater.BEST_SPEED, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, false, CompressionDictionary.getBuiltIn());
+        for (byte[] sample : loadOCMFSamples())
+            {
+            InternalTransportTuple itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+            byte[] compressed = preset.compress(sample, itt);
+            assertEquals(AlgorithmSpecCollection.COMPRESSION_DEFLATE_DICTIONARY.getOID(), itt.getCryptoSettings().getCompressionOID());
+            assertEquals(CompressionDictionary.getBuiltIn().getId(), itt.getCompressionDictionaryId());
+            assertTrue(compressed.length < plain.compress(sample, new InternalTransportTuple(new CryptoSettingsStruct(2, 0))).length);
+            assertArrayEquals(sample, preset.decompress(compressed, itt));
+            }
+        }
+
+    @Test
+    void unregisteredDictionaryIsRejected() throws Exception
+        {
+        CompressionDictionary unknown = new CompressionDictionary("not registered anywhere, not registered anywhere".getBytes(StandardCharsets.US_ASCII));
+        assertNull(CompressionDictionary.lookup(unknown.getId()));
+        CompressionStage stage = new CompressionStage(Deflater.BEST_SPEED, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, false, unknown);
+        InternalTransportTuple itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+        byte[] compressed = stage.compress("not registered anywhere, really not registered anywhere".getBytes(StandardCharsets.US_ASCII), itt);
+        assertThrows(NoSuchAlgorithmException.class, ()->stage.checkSupported(itt));
+        assertThrows(NoSuchAlgorithmException.class, ()->stage.decompress(compressed, itt));
+        }
+
+    @Test
+    void trainedDictionaryStaysWithinSize() throws Exception
+        {
+        List<byte[]> samples = loadOCMFSamples();
+        byte[] contents = DictionaryTrainer.train(samples, 512);
+        assertTrue(contents.length > 0);
+        assertTrue(contents.length <= 512);
+        CompressionDictionary trained = CompressionDictionary.register(new CompressionDictionary(contents));
+        assertSame(trained, CompressionDictionary.lookup(trained.getId()));
+        CompressionStage stage = new CompressionStage(Deflater.BEST_COMPRESSION, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, true, trained);
+        for (byte[] sample : samples)
+            {
+            InternalTransportTuple itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+            byte[] compressed = stage.compress(sample, itt);
+            assertTrue(compressed.length < stage.deflate(sample, Deflater.BEST_COMPRESSION, sample.length).length);
+            assertArrayEquals(sample, stage.decompress(compressed, itt));
+            }
+        assertThrows(IllegalArgumentException.class, ()->DictionaryTrainer.train(samples, CompressionDictionary.MAX_SIZE+1));
+        }
+
+    @Test
+    void dictionaryIdTravelsInTheEnvelope() throws Exception
+        {
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        CryptoSettingsStruct css = new CryptoSettingsStruct(2, 0);
+        SealingEngine sealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPrivate());
+        sealer.setCompressionMode(true);
+        sealer.setCompressionStage(new CompressionStage(Deflater.BEST_SPEED, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, false, CompressionDictionary.getBuiltIn()));
+        byte[] payload = loadOCMFSamples().get(0);
+        byte[] sealed = sealer.seal(payload, 1L);
+        assertEquals(CompressionDictionary.getBuiltIn().getId(), new TransportFormatConverter().unwrapTransportFormat(sealed).getCompressionDictionaryId());
+        // the revealer needs no configuration; the built-in dictionary is always registered.
+        SealingEngine revealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPublic());
+        assertArrayEquals(payload, revealer.reveal(sealed));
+        }
+
+    static List<byte[]> loadOCMFSamples() throws IOException
+        {
+        Pattern ocmf = Pattern.compile("OCMF\\|.*?(?=]]>)", Pattern.DOTALL);
+        List<byte[]> samples = new ArrayList<>();
+        for (String resourcePath : SAMPLE_FILES)
+            try (InputStream is = CompressionDictionaryTest.class.getClassLoader().getResourceAsStream(resourcePath))
+                {
+                assertNotNull(is, resourcePath);
+                Matcher matcher = ocmf.matcher(new String(is.readAllBytes(), StandardCharsets.UTF_8));
+                while (matcher.find())
+                    samples.add(matcher.group().getBytes(StandardCharsets.UTF_8));
+                }
+        assertFalse(samples.isEmpty());
+        return samples;
+        }
+}
@@ -0,0 +1,97 @@
+package com.metabit.custom.safe.safeseal.impl;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static com.metabit.custom.safe.safeseal.impl.CompressionPolicy.Decision.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionPolicyTest
+{
+    @Test
+    void entropyEstimate()
+        {
+        assertEquals(0.0, CompressionPolicy.entropy(new byte[1000]), 1e-9);
+        byte[] allValues = new byte[256*16];
+        for (int i = 0; i < allValues.length; i++)
+            allValues[i] = (byte) i;
+        assertEquals(8.0, CompressionPolicy.entropy(allValues), 1e-9);
+        }
+
+    @Test
+    void sampleCoversHeadAndTail()
+        {
+        byte[] payload = new byte[100000];
+        payload[0] = 1;
+        payload[payload.length-1] = 2;
+        byte[] sample = CompressionPolicy.sample(payload);
+        assertEquals(CompressionPolicy.SAMPLE_SIZE, sample.length);
+        assertEquals(1, sample[0]);
+        assertEquals(2, sample[sample.length-1]);
+        }
+
+    @Test
+    void decisions()
+        {
+        CompressionPolicy policy = new CompressionPolicy(1024*1024, CompressionPolicy.DEFAULT_MAX_RATIO);
+        assertEquals(NONE, policy.decide(random(100000)));
+        assertEquals(BEST, policy.decide(random(1000))); // too small to be worth sampling
+        assertEquals(BEST, policy.decide(text(100000)));
+        assertEquals(FAST, policy.decide(text(2*1024*1024)));
+        // random 7-bit data lands between the entropy bounds; the trial deflate finds it compressible.
+        byte[] sevenBit = random(60000);
+        for (int i = 0; i < sevenBit.length; i++)
+            sevenBit[i] &= 0x7F;
+        assertTrue(CompressionPolicy.entropy(CompressionPolicy.sample(sevenBit)) > CompressionPolicy.ENTROPY_COMPRESSIBLE);
+        assertEquals(BEST, policy.decide(sevenBit));
+        assertEquals(1, policy.getDecisionCount(NONE));
+        assertEquals(1, policy.getDecisionCount(FAST));
+        assertEquals(3, policy.getDecisionCount(BEST));
+        assertEquals(Arrays.asList("none", "fast", "best", "unproductive"), Arrays.asList(policy.getMetrics().keySet().toArray()));
+        assertThrows(IllegalArgumentException.class, ()->new CompressionPolicy(0, 1.5));
+        }
+
+    @Test
+    void stageFollowsThePolicy() throws Exception
+        {
+        CompressionPolicy policy = new CompressionPolicy(64*1024, CompressionPolicy.DEFAULT_MAX_RATIO);
+        CompressionStage stage = new CompressionStage(Deflater.BEST_COMPRESSION, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, false, null, policy);
+        InternalTransportTuple itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+        byte[] incompressible = random(100000);
+        assertSame(incompressible, stage.compress(incompressible, itt));
+        assertEquals(AlgorithmSpecCollection.COMPRESSION_NONE.getOID(), itt.getCryptoSettings().getCompressionOID());
+        // random data below the sampling size is tried, and fails.
+        byte[] small = Arrays.copyOf(incompressible, 1000);
+        assertSame(small, stage.compress(small, itt));
+        assertEquals(1, policy.getUnproductiveCount());
+
+        byte[] large = text(100000);
+        byte[] fast = stage.compress(large, itt);
+        assertEquals(AlgorithmSpecCollection.COMPRESSION_GZIP.getOID(), itt.getCryptoSettings().getCompressionOID());
+        assertArrayEquals(stage.deflate(large, Deflater.BEST_SPEED, large.length), fast);
+        assertArrayEquals(large, stage.decompress(fast, itt));
+        assertEquals(1, policy.getDecisionCount(FAST));
+        }
+
+    private static byte[] random(final int size)
+        {
+        byte[] result = new byte[size];
+        new Random(size).nextBytes(result);
+        return result;
+        }
+
+    private static byte[] text(final int size)
+        {
+        String[] words = "meter reading energy import export active kWh time stamp signature public key".split(" ");
+        StringBuilder builder = new StringBuilder(size+16);
+        Random random = new Random(size);
+        while (builder.length() < size)
+            builder.append(words[random.nextInt(words.length)]).append(' ');
+        return Arrays.copyOf(builder.toString().getBytes(StandardCharsets.US_ASCII), size);
+        }
+}
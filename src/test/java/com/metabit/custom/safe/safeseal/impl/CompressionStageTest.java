@@ -0,0 +1,138 @@
+package com.metabit.custom.safe.safeseal.impl;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.iip2.SealingEngine;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.BadPaddingException;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionStageTest
+{
+    @Test
+    void roundTripForVariousSizes() throws Exception
+        {
+        CompressionStage stage = new CompressionStage(Deflater.BEST_COMPRESSION, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, true);
+        for (int size : new int[]{1, 10, 255, 256, 257, 5000, 1024*1024})
+            {
+            byte[] payload = compressible(size);
+            InternalTransportTuple itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+            byte[] compressed = stage.compress(payload, itt);
+            if (compressed == payload)
+                {
+                assertEquals(AlgorithmSpecCollection.COMPRESSION_NONE.getOID(), itt.getCryptoSettings().getCompressionOID());
+                assertEquals(-1, itt.getUncompressedLength());
+                continue;
+                }
+            assertTrue(compressed.length < payload.length);
+            assertEquals(AlgorithmSpecCollection.COMPRESSION_GZIP.getOID(), itt.getCryptoSettings().getCompressionOID());
+            assertEquals(size, itt.getUncompressedLength());
+            assertArrayEquals(payload, stage.decompress(compressed, itt.getUncompressedLength()));
+            assertArrayEquals(payload, stage.decompress(compressed, -1));
+            }
+        }
+
+    @Test
+    void incompressibleDataStaysUnchanged() throws Exception
+        {
+        byte[] payload = new byte[100000];
+        new Random().nextBytes(payload);
+        InternalTransportTuple itt = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+        assertSame(payload, CompressionStage.getSharedInstance().compress(payload, itt));
+        assertEquals(AlgorithmSpecCollection.COMPRESSION_NONE.getOID(), itt.getCryptoSettings().getCompressionOID());
+        }
+
+    @Test
+    void decompressionIsBounded()
+        {
+        // 16 MB of zeroes deflate to a few KB.
+        byte[] bomb = CompressionStage.getSharedInstance().deflate(new byte[16*1024*1024], Deflater.BEST_COMPRESSION, Integer.MAX_VALUE);
+        assertNotNull(bomb);
+        CompressionStage limited = new CompressionStage(Deflater.BEST_COMPRESSION, 1024*1024, false);
+        assertThrows(DataFormatException.class, ()->limited.decompress(bomb, -1));
+        assertThrows(DataFormatException.class, ()->limited.decompress(bomb, 16*1024*1024));
+        }
+
+    @Test
+    void declaredLengthMustMatch() throws Exception
+        {
+        byte[] payload = compressible(10000);
+        CompressionStage stage = CompressionStage.getSharedInstance();
+        byte[] compressed = stage.deflate(payload, Deflater.BEST_COMPRESSION, payload.length);
+        assertArrayEquals(payload, stage.decompress(compressed, payload.length));
+        assertThrows(DataFormatException.class, ()->stage.decompress(compressed, payload.length-1));
+        assertThrows(DataFormatException.class, ()->stage.decompress(compressed, payload.length+1));
+        assertThrows(DataFormatException.class, ()->stage.decompress(Arrays.copyOf(compressed, compressed.length/2), -1));
+        }
+
+    @Test
+    void uncompressedLengthTravelsInTheEnvelope() throws Exception
+        {
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        CryptoSettingsStruct css = new CryptoSettingsStruct(2, 0);
+        SealingEngine sealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPrivate());
+        sealer.setCompressionMode(true);
+        sealer.setCompressionStage(new CompressionStage(Deflater.BEST_SPEED, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, true));
+        byte[] payload = compressible(20000);
+        byte[] sealed = sealer.seal(payload, 1L);
+        assertEquals(payload.length, new TransportFormatConverter().unwrapTransportFormat(sealed).getUncompressedLength());
+        SealingEngine revealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPublic());
+        assertArrayEquals(payload, revealer.reveal(sealed));
+        }
+
+    @Test
+    void declaredLengthBeyondExpansionIsRejected() throws Exception
+        {
+        byte[] payload = compressible(1000);
+        byte[] compressed = CompressionStage.getSharedInstance().deflate(payload, Deflater.BEST_COMPRESSION, payload.length);
+        DataFormatException e = assertThrows(DataFormatException.class, ()->CompressionStage.getSharedInstance().decompress(compressed, 200*1024*1024));
+        assertTrue(e.getMessage().contains("expand"));
+
+        // CONTEXT[5] is outside the authenticated data: a tampered value must fail before any large allocation.
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        CryptoSettingsStruct css = new CryptoSettingsStruct(2, 0);
+        SealingEngine sealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPrivate());
+        sealer.setCompressionMode(true);
+        sealer.setCompressionStage(new CompressionStage(Deflater.BEST_COMPRESSION, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, true));
+        byte[] sealed = sealer.seal(new byte[1000000], 1L);
+        byte[] declared = {(byte) 0xA5, 5, 2, 3, 0x0F, 0x42, 0x40}; // [5] INTEGER 1000000
+        int offset = indexOf(sealed, declared);
+        assertTrue(offset > 0);
+        byte[] tampered = sealed.clone();
+        tampered[offset+4] = 0x7F; // 8 MB, from about 1 KB of deflate data
+        tampered[offset+5] = (byte) 0xFF;
+        tampered[offset+6] = (byte) 0xFF;
+        assertEquals(0x7FFFFF, new TransportFormatConverter().unwrapTransportFormat(tampered).getUncompressedLength());
+        SealingEngine revealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPublic());
+        assertThrows(BadPaddingException.class, ()->revealer.reveal(tampered));
+        }
+
+    private static int indexOf(final byte[] data, final byte[] pattern)
+        {
+        outer:
+        for (int i = 0; i <= data.length-pattern.length; i++)
+            {
+            for (int j = 0; j < pattern.length; j++)
+                if (data[i+j] != pattern[j])
+                    continue outer;
+            return i;
+            }
+        return -1;
+        }
+
+    private static byte[] compressible(final int size)
+        {
+        byte[] result = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++)
+            result[i] = (byte) ('a'+random.nextInt(4));
+        return result;
+        }
+}
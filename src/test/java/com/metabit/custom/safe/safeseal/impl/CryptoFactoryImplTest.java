@@ -33,4 +33,39 @@ class CryptoFactoryImplTest
          }
      return;
      }
-}
\ No newline at end of file
+
+ @Test
+    void leasedCiphersAreReused() throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+     {
+     CryptoFactoryImpl cf = new CryptoFactoryImpl();
+     AlgorithmSpec rsa = AlgorithmSpecCollection.RSA2048;
+     Cipher first = cf.leaseCipher(rsa);
+     Cipher second = cf.leaseCipher(rsa);
+     Assertions.assertNotSame(first, second);
+     Assertions.assertEquals(2, cf.getCipherPoolMisses());
+     cf.releaseCipher(rsa, first);
+     Assertions.assertSame(first, cf.leaseCipher(rsa));
+     Assertions.assertEquals(1, cf.getCipherPoolHits());
+     // a different algorithm does not get the pooled RSA instance
+     cf.releaseCipher(rsa, second);
+     Cipher aes = cf.leaseCipher(AlgorithmSpecCollection.AES256CBC);
+     Assertions.assertNotSame(second, aes);
+     Assertions.assertEquals("AES/CBC/NoPadding", aes.getAlgorithm());
+     Assertions.assertEquals(3, cf.getCipherPoolMisses());
+     return;
+     }
+
+ @Test
+    void poolIsBounded() throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException
+     {
+     CryptoFactoryImpl cf = new CryptoFactoryImpl();
+     AlgorithmSpec aes = AlgorithmSpecCollection.AES256CBC;
+     for (int i = 0; i < CryptoFactoryImpl.MAX_POOLED_CIPHERS_PER_ALGORITHM+10; i++)
+         cf.releaseCipher(aes, cf.getCipherFromCipherSpec(aes));
+     for (int i = 0; i < CryptoFactoryImpl.MAX_POOLED_CIPHERS_PER_ALGORITHM+10; i++)
+         cf.leaseCipher(aes);
+     Assertions.assertEquals(CryptoFactoryImpl.MAX_POOLED_CIPHERS_PER_ALGORITHM, cf.getCipherPoolHits());
+     Assertions.assertEquals(10, cf.getCipherPoolMisses());
+     return;
+     }
+}
@@ -0,0 +1,86 @@
+package com.metabit.custom.safe.safeseal.impl;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.iip2.SealingEngine;
+import com.metabit.custom.safe.safeseal.SAFESealRevealer;
+import com.metabit.custom.safe.safeseal.SAFESealSealer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProviderSelectingCryptoFactoryTest
+{
+    private static ProviderSelectingCryptoFactory selectingFactory;
+
+    @BeforeAll
+    static void overallInit()
+        {
+        selectingFactory = new ProviderSelectingCryptoFactory();
+        }
+
+    @Test
+    void rsaStaysOnProviderWithMatchingTara()
+        {
+        // SunJCE returns full-size RSA blocks, which don't fit the usable block size with a tara of 1.
+        assertEquals("BC", selectingFactory.getSelectedProvider(AlgorithmSpecCollection.RSA1024).getName());
+        assertEquals("BC", selectingFactory.getSelectedProvider(AlgorithmSpecCollection.RSA2048).getName());
+        assertEquals("BC", selectingFactory.getSelectedProvider(AlgorithmSpecCollection.RSA4096).getName());
+        assertNotNull(selectingFactory.getSelectedProvider(AlgorithmSpecCollection.AES256CBC));
+        }
+
+    @Test
+    void singleProviderUsesThatProvider()
+        {
+        ProviderSelectingCryptoFactory onlySun = new ProviderSelectingCryptoFactory(Security.getProvider("SunJCE"));
+        assertEquals("SunJCE", onlySun.getSelectedProvider(AlgorithmSpecCollection.AES256CBC).getName());
+        assertThrows(IllegalArgumentException.class, ()->new ProviderSelectingCryptoFactory(new Provider[0]));
+        }
+
+    @Test
+    void facadesUseSharedInstanceWhenEnabled() throws Exception
+        {
+        assertFalse(ProviderSelectingCryptoFactory.isEnabled()); // off by default
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        byte[] payload = "OCMF|{}".getBytes(StandardCharsets.US_ASCII);
+        byte[] sealed;
+        System.setProperty(ProviderSelectingCryptoFactory.ENABLE_PROPERTY, "true");
+        try
+            {
+            assertTrue(ProviderSelectingCryptoFactory.isEnabled());
+            assertSame(ProviderSelectingCryptoFactory.getSharedInstance(), ProviderSelectingCryptoFactory.getSharedInstance());
+            sealed = new SAFESealSealer().seal(keyPair.getPrivate(), null, payload, 1L);
+            }
+        finally
+            {
+            System.clearProperty(ProviderSelectingCryptoFactory.ENABLE_PROPERTY);
+            }
+        assertArrayEquals(payload, new SAFESealRevealer(2).reveal(keyPair.getPublic(), null, sealed));
+        }
+
+    @Test
+    void sealedMessagesAreInterchangeable() throws Exception
+        {
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        CryptoSettingsStruct css = new CryptoSettingsStruct(2, 0);
+        SealingEngine selectingSealer = new SealingEngine(selectingFactory, css, keyPair.getPrivate());
+        SealingEngine selectingRevealer = new SealingEngine(selectingFactory, css, keyPair.getPublic());
+        SealingEngine plainSealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPrivate());
+        SealingEngine plainRevealer = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPublic());
+        Random random = new Random();
+        for (int i = 0; i < 10; i++)
+            {
+            byte[] payload = new byte[random.nextInt(20000)];
+            random.nextBytes(payload);
+            assertArrayEquals(payload, plainRevealer.reveal(selectingSealer.seal(payload, (long) i)));
+            assertArrayEquals(payload, selectingRevealer.reveal(plainSealer.seal(payload, (long) i)));
+            }
+        }
+}
@@ -0,0 +1,207 @@
+package com.metabit.custom.safe.safeseal.impl;
+
+import com.metabit.custom.safe.iip.shared.AlgorithmSpecCollection;
+import com.metabit.custom.safe.iip.shared.SharedTestingCode;
+import com.metabit.custom.safe.iip2.SAFESeal2;
+import com.metabit.custom.safe.iip2.SealingEngine;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransportEnvelopeCodecTest
+{
+    private final TransportEnvelopeCodec   codec     = new TransportEnvelopeCodec();
+    private final TransportFormatConverter converter = new TransportFormatConverter();
+
+    @Test
+    void integerSizesMatchDER() throws Exception
+        {
+        for (long value : new long[]{0, 1, 127, 128, 255, 256, 32767, 32768, Integer.MAX_VALUE, 0xFFFFFFFFL, Long.MAX_VALUE, -1, -128, -129, Long.MIN_VALUE})
+            assertEquals(new ASN1Integer(value).getEncoded().length, TransportEnvelopeCodec.integerTLV(value), "value "+value);
+        }
+
+    @Test
+    void version1WithRSA() throws Exception
+        {
+        InternalTransportTuple ids = new InternalTransportTuple(false);
+        ids.setEncryptedData("SAFE eV".getBytes(StandardCharsets.UTF_8));
+        ids.cryptoIV = "AESDUMMYIV".getBytes(StandardCharsets.US_ASCII);
+        assertSameAsConverter(ids);
+        }
+
+    @Test
+    void version1WithKeyAgreement() throws Exception
+        {
+        InternalTransportTuple ids = new InternalTransportTuple(true);
+        ids.setEncryptedData(random(300));
+        ids.keyDiversificationData = "ECDUMMYIV".getBytes(StandardCharsets.US_ASCII);
+        ids.cryptoIV = "AESDUMMYIV".getBytes(StandardCharsets.US_ASCII);
+        assertSameAsConverter(ids);
+        }
+
+    @Test
+    void version2WithAllOptionalFields() throws Exception
+        {
+        InternalTransportTuple ids = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+        ids.getCryptoSettings().setCompressionOID(AlgorithmSpecCollection.COMPRESSION_DEFLATE_DICTIONARY.getOID());
+        ids.setEphemeralSymmetricKeyBytes(random(16), random(16), random(16));
+        ids.setUncompressedLength(100000);
+        ids.setCompressionDictionaryId(0xFFFFFFFFL); // needs a leading zero byte
+        for (int size : new int[]{0, 127, 128, 255, 256, 65535, 65536, 70000})
+            {
+            ids.setEncryptedData(random(size));
+            assertSameAsConverter(ids);
+            }
+        }
+
+    @Test
+    void sealedEnvelopes() throws Exception
+        {
+        KeyPair keyPair = SharedTestingCode.generateRSAKeyPair(2048);
+        byte[] payload = "a payload, a payload, a payload, a payload".getBytes(StandardCharsets.US_ASCII);
+        SAFESeal2 safeSeal2 = new SAFESeal2(new CryptoFactoryImpl(), 2, 0);
+        safeSeal2.setCompressionMode(true);
+        assertSameParse(safeSeal2.seal(payload, keyPair.getPrivate(), null, 1L));
+        CryptoSettingsStruct css = new CryptoSettingsStruct(2, 0);
+        SealingEngine engine = new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPrivate());
+        engine.setCompressionMode(true);
+        engine.setCompressionStage(new CompressionStage(6, CompressionStage.DEFAULT_MAX_OUTPUT_SIZE, true, CompressionDictionary.getBuiltIn()));
+        byte[] sealed = engine.seal(payload, 2L);
+        assertSameParse(sealed);
+        assertArrayEquals(payload, new SealingEngine(new CryptoFactoryImpl(), css, keyPair.getPublic()).reveal(sealed));
+        }
+
+    @Test
+    void payloadIsASliceOfTheEnvelope()
+        {
+        InternalTransportTuple ids = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+        ids.setEphemeralSymmetricKeyBytes(random(16), random(16), random(16));
+        ids.setEncryptedData(new byte[1000]);
+        byte[] envelope = codec.wrapForTransport(ids);
+        InternalTransportTuple parsed = codec.unwrapTransportFormat(envelope);
+        ByteBuffer slice = parsed.getEncryptedDataSlice();
+        assertEquals(1000, slice.remaining());
+        assertTrue(slice.isReadOnly());
+        envelope[envelope.length-1] = 42;
+        assertEquals(42, slice.get(999)); // no copy taken
+        assertEquals(42, parsed.getEncryptedData()[999]);
+        }
+
+    @Test
+    void malformedEnvelopesAreRejected()
+        {
+        InternalTransportTuple ids = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+        ids.setEphemeralSymmetricKeyBytes(random(16), random(16), random(16));
+        ids.setEncryptedData(random(200));
+        byte[] envelope = codec.wrapForTransport(ids);
+        assertThrows(IllegalArgumentException.class, ()->codec.unwrapTransportFormat(Arrays.copyOf(envelope, envelope.length-1)));
+        assertThrows(IllegalArgumentException.class, ()->codec.unwrapTransportFormat(Arrays.copyOf(envelope, envelope.length+1)));
+        assertThrows(IllegalArgumentException.class, ()->codec.unwrapTransportFormat(new byte[0]));
+        byte[] indefinite = envelope.clone();
+        indefinite[1] = (byte) 0x80;
+        assertThrows(IllegalArgumentException.class, ()->codec.unwrapTransportFormat(indefinite));
+        byte[] wrongVersion = envelope.clone();
+        int oidOffset = 2+(envelope[1] & 0x7F); // long form length: 0x8n, then n bytes
+        wrongVersion[oidOffset+2+envelope[oidOffset+1]+2] = 3; // contents of the INTEGER following the SAFE seal OID
+        assertThrows(IllegalArgumentException.class, ()->codec.unwrapTransportFormat(wrongVersion));
+        }
+
+    @Test
+    void peekReadsTheHeaderOnly() throws Exception
+        {
+        InternalTransportTuple ids = new InternalTransportTuple(new CryptoSettingsStruct(2, 0));
+        ids.getCryptoSettings().setCompressionOID(AlgorithmSpecCollection.COMPRESSION_DEFLATE_DICTIONARY.getOID());
+        ids.setEphemeralSymmetricKeyBytes(random(16), random(16), random(16));
+        ids.setUncompressedLength(5000);
+        ids.setCompressionDictionaryId(12345);
+        ids.setEncryptedData(random(3000));
+        byte[] envelope = codec.wrapForTransport(ids);
+
+        SealedEnvelopeInfo info = SealedEnvelopeInfo.peek(envelope);
+        assertEquals(2, info.getProtocolVersion());
+        assertEquals(ids.getCryptoSettings().getEncryptionOID(), info.getEncryptionOID());
+        assertEquals(ids.getCryptoSettings().getEncryptionKeySize(), info.getEncryptionKeySize());
+        assertEquals(AlgorithmSpecCollection.COMPRESSION_DEFLATE_DICTIONARY.getOID(), info.getCompressionOID());
+        assertEquals(5000, info.getUncompressedLength());
+        assertEquals(12345, info.getCompressionDictionaryId());
+        assertNull(info.getKeyAgreementProtocolOID());
+        assertEquals(3000, info.getPayloadLength());
+        assertEquals(envelope.length-3000, info.getPayloadOffset());
+
+        // same envelope inside a larger direct buffer; offset is absolute, position and limit stay.
+        ByteBuffer direct = ByteBuffer.allocateDirect(envelope.length+20);
+        direct.position(10);
+        direct.put(envelope);
+        direct.position(10).limit(10+envelope.length);
+        SealedEnvelopeInfo fromBuffer = codec.peek(direct);
+        assertEquals(10, direct.position());
+        assertEquals(10+envelope.length, direct.limit());
+        assertEquals(info.getPayloadOffset()+10, fromBuffer.getPayloadOffset());
+        assertEquals(info.getPayloadLength(), fromBuffer.getPayloadLength());
+        assertEquals(info.getCompressionOID(), fromBuffer.getCompressionOID());
+        }
+
+    @Test
+    void peekOnVersion1() throws Exception
+        {
+        InternalTransportTuple ids = new InternalTransportTuple(true);
+        ids.setEncryptedData(random(100));
+        ids.keyDiversificationData = "ECDUMMYIV".getBytes(StandardCharsets.US_ASCII);
+        ids.cryptoIV = "AESDUMMYIV".getBytes(StandardCharsets.US_ASCII);
+        byte[] envelope = codec.wrapForTransport(ids);
+        SealedEnvelopeInfo info = codec.peek(envelope);
+        assertEquals(1, info.getProtocolVersion());
+        assertEquals(ids.getCryptoSettings().getPaddingOID(), info.getPaddingOID());
+        assertEquals(ids.getCryptoSettings().getKeyAgreementProtocolOID(), info.getKeyAgreementProtocolOID());
+        assertEquals(ids.getCryptoSettings().getCompressionOID(), info.getCompressionOID());
+        assertEquals(-1, info.getUncompressedLength());
+        assertEquals(100, info.getPayloadLength());
+        assertThrows(IllegalArgumentException.class, ()->codec.peek(Arrays.copyOf(envelope, envelope.length-1)));
+        assertThrows(IllegalArgumentException.class, ()->codec.peek(new byte[]{0x30, 0x00}));
+        }
+
+    private void assertSameAsConverter(final InternalTransportTuple ids) throws Exception
+        {
+        byte[] expected = converter.wrapForTransport(ids);
+        assertArrayEquals(expected, codec.wrapForTransport(ids));
+        assertSameParse(expected);
+        }
+
+    private void assertSameParse(final byte[] envelope) throws Exception
+        {
+        InternalTransportTuple reference = converter.unwrapTransportFormat(envelope);
+        InternalTransportTuple parsed = codec.unwrapTransportFormat(envelope);
+        CryptoSettingsStruct expected = reference.getCryptoSettings();
+        CryptoSettingsStruct actual = parsed.getCryptoSettings();
+        assertEquals(expected.getPaddingOID(), actual.getPaddingOID());
+        assertEquals(expected.getEncryptionOID(), actual.getEncryptionOID());
+        assertEquals(expected.getCompressionOID(), actual.getCompressionOID());
+        assertEquals(expected.getEncryptionKeySize(), actual.getEncryptionKeySize());
+        assertEquals(expected.getKeyAgreementProtocolOID(), actual.getKeyAgreementProtocolOID());
+        assertEquals(expected.getKeyAgreementCipherOID(), actual.getKeyAgreementCipherOID());
+        assertEquals(expected.getKeyDiversificationOID(), actual.getKeyDiversificationOID());
+        assertArrayEquals(reference.getKeyDiversificationData(), parsed.getKeyDiversificationData());
+        assertArrayEquals(reference.getCryptoIV(), parsed.getCryptoIV());
+        for (int i = 1; i <= 3; i++)
+            assertArrayEquals(reference.getEphemeralSymmetricKeyBytes(i), parsed.getEphemeralSymmetricKeyBytes(i));
+        assertEquals(reference.getUncompressedLength(), parsed.getUncompressedLength());
+        assertEquals(reference.getCompressionDictionaryId(), parsed.getCompressionDictionaryId());
+        assertArrayEquals(reference.getEncryptedData(), parsed.getEncryptedData());
+        // and back again
+        assertArrayEquals(converter.wrapForTransport(parsed), codec.wrapForTransport(reference));
+        }
+
+    private static byte[] random(final int size)
+        {
+        byte[] result = new byte[size];
+        new Random(size).nextBytes(result);
+        return result;
+        }
+}
@@ -0,0 +1,146 @@
+package com.metabit.custom.safe.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchApiTest
+{
+    static Javalin app;
+    static int PORT = 8081;
+    static final ObjectMapper JSON = new ObjectMapper();
+
+    @BeforeAll
+    static void start() {
+        app = ServerMain.create();
+        app.start(PORT);
+    }
+
+    @AfterAll
+    static void stop() {
+        if (app != null) app.stop();
+    }
+
+    @Test
+    void sealAndRevealBatch() throws Exception
+    {
+        KeyPair kp = KeyUtil.generateRsaKeyPair(2048);
+        String prvHeader = Base64.getEncoder().encodeToString(kp.getPrivate().getEncoded());
+        String pubHeader = Base64.getEncoder().encodeToString(kp.getPublic().getEncoded());
+
+        int count = 2000; // more than are kept in flight
+        StringBuilder request = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            if (i == 5)
+            {
+                request.append("{not json\n");
+            }
+            else if (i == 6)
+            {
+                request.append("{\"id\":6,\"payloadBase64\":\"").append(Base64.getEncoder().encodeToString(payload(6).getBytes(StandardCharsets.UTF_8))).append("\"}\n");
+            }
+            else if (i == 7)
+            {
+                request.append("\n{\"id\":7}\n"); // blank lines don't count
+            }
+            else
+            {
+                request.append("{\"id\":\"r").append(i).append("\",\"payloadText\":").append(JSON.writeValueAsString(payload(i))).append("}\n");
+            }
+        }
+
+        List<JsonNode> sealed = post("/api/seal/batch", request.toString(), BinaryController.HEADER_PRIVATE_KEY, prvHeader);
+        assertEquals(count, sealed.size());
+        StringBuilder revealRequest = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            JsonNode line = sealed.get(i);
+            assertEquals(i, line.get("index").asInt());
+            if (i == 5 || i == 7)
+            {
+                assertEquals("error", line.get("status").asText());
+                continue;
+            }
+            assertEquals("ok", line.get("status").asText(), line.toString());
+            revealRequest.append("{\"id\":").append(line.get("id")).append(",\"sealedBase64\":\"").append(line.get("base64").asText()).append("\"}\n");
+        }
+        assertEquals("invalid JSON", sealed.get(5).get("error").asText());
+        assertEquals(7, sealed.get(7).get("id").asInt());
+        revealRequest.append("{\"id\":\"bad\",\"sealedBase64\":\"MAA=\"}\n");
+
+        List<JsonNode> revealed = post("/api/reveal/batch", revealRequest.toString(), BinaryController.HEADER_PUBLIC_KEY, pubHeader);
+        assertEquals(count - 1, revealed.size());
+        for (JsonNode line : revealed.subList(0, count - 2))
+        {
+            assertEquals("ok", line.get("status").asText());
+            String id = line.get("id").asText();
+            int i = id.startsWith("r") ? Integer.parseInt(id.substring(1)) : Integer.parseInt(id);
+            assertEquals(payload(i), new String(Base64.getDecoder().decode(line.get("payloadBase64").asText()), StandardCharsets.UTF_8));
+        }
+        JsonNode bad = revealed.get(count - 2);
+        assertEquals("bad", bad.get("id").asText());
+        assertEquals("error", bad.get("status").asText());
+    }
+
+    @Test
+    void missingKeyReturns400() throws Exception
+    {
+        HttpResponse<String> resp = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/seal/batch"))
+                        .header("Content-Type", BatchController.NDJSON)
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"payloadText\":\"x\"}\n"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        assertEquals(400, resp.statusCode());
+    }
+
+    private static List<JsonNode> post(String path, String body, String header, String value) throws Exception
+    {
+        HttpResponse<Stream<String>> resp = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + path))
+                        .header("Content-Type", BatchController.NDJSON)
+                        .header(header, value)
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofLines()
+        );
+        assertEquals(200, resp.statusCode());
+        assertEquals(BatchController.NDJSON, resp.headers().firstValue("Content-Type").orElse(""));
+        List<JsonNode> lines = new ArrayList<>();
+        resp.body().forEach(line ->
+        {
+            try
+            {
+                lines.add(JSON.readTree(line));
+            }
+            catch (Exception e)
+            {
+                fail(line);
+            }
+        });
+        return lines;
+    }
+
+    private static String payload(int i)
+    {
+        return "OCMF|{\"RD\":[{\"RV\":" + i + ",\"RU\":\"kWh\"}]}";
+    }
+}
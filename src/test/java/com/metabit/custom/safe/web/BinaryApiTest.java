@@ -0,0 +1,117 @@
+package com.metabit.custom.safe.web;
+
+import io.javalin.Javalin;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryApiTest
+{
+    static Javalin app;
+    static int PORT = 8081;
+
+    @BeforeAll
+    static void start() {
+        app = ServerMain.create();
+        app.start(PORT);
+    }
+
+    @AfterAll
+    static void stop() {
+        if (app != null) app.stop();
+    }
+
+    @Test
+    void sealAndRevealRoundtrip() throws Exception
+    {
+        KeyPair kp = KeyUtil.generateRsaKeyPair(2048);
+        String prvHeader = Base64.getEncoder().encodeToString(kp.getPrivate().getEncoded());
+        String pubHeader = KeyUtil.toPemPublic((RSAPublicKey) kp.getPublic()).replace("\n", " ").trim(); // single-line PEM
+
+        byte[] payload = new byte[3 * 1024 * 1024]; // beyond Javalin's default body limit for ctx.bodyAsBytes()
+        new Random(42).nextBytes(payload);
+
+        HttpResponse<byte[]> sealResp = post("/api/v2/seal", payload, BinaryController.HEADER_PRIVATE_KEY, prvHeader);
+        assertEquals(200, sealResp.statusCode());
+        assertEquals("application/octet-stream", sealResp.headers().firstValue("Content-Type").orElse(""));
+        assertTrue(sealResp.body().length > payload.length);
+
+        HttpResponse<byte[]> revResp = post("/api/v2/reveal", sealResp.body(), BinaryController.HEADER_PUBLIC_KEY, pubHeader);
+        assertEquals(200, revResp.statusCode());
+        assertArrayEquals(payload, revResp.body());
+
+        byte[] tampered = sealResp.body().clone();
+        tampered[tampered.length - 1] ^= 1;
+        assertEquals(400, post("/api/v2/reveal", tampered, BinaryController.HEADER_PUBLIC_KEY, pubHeader).statusCode());
+    }
+
+    @Test
+    void missingOrInvalidKeyReturns400() throws Exception
+    {
+        HttpResponse<byte[]> resp = post("/api/v2/seal", new byte[]{1, 2, 3}, "X-Other", "x");
+        assertEquals(400, resp.statusCode());
+        assertTrue(new String(resp.body()).contains(BinaryController.HEADER_PRIVATE_KEY));
+
+        resp = post("/api/v2/reveal", new byte[]{1, 2, 3}, BinaryController.HEADER_PUBLIC_KEY, "INVALID!");
+        assertEquals(400, resp.statusCode());
+        assertTrue(new String(resp.body()).contains("Invalid RSA key"));
+    }
+
+    @Test
+    void bodyWithoutContentLength() throws Exception
+    {
+        KeyPair kp = KeyUtil.generateRsaKeyPair(2048);
+        byte[] payload = new byte[300 * 1024 + 17]; // a few times the initial buffer, not a multiple of it
+        new Random(7).nextBytes(payload);
+
+        HttpResponse<byte[]> sealResp = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/v2/seal"))
+                        .header(BinaryController.HEADER_PRIVATE_KEY, Base64.getEncoder().encodeToString(kp.getPrivate().getEncoded()))
+                        .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(payload))) // sent chunked
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, sealResp.statusCode());
+
+        String pubHeader = Base64.getEncoder().encodeToString(kp.getPublic().getEncoded());
+        assertArrayEquals(payload, post("/api/v2/reveal", sealResp.body(), BinaryController.HEADER_PUBLIC_KEY, pubHeader).body());
+    }
+
+    @Test
+    void unsupportedVersionReturns400() throws Exception
+    {
+        KeyPair kp = KeyUtil.generateRsaKeyPair(2048);
+        HttpResponse<byte[]> resp = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/v2/seal"))
+                        .header(BinaryController.HEADER_PRIVATE_KEY, Base64.getEncoder().encodeToString(kp.getPrivate().getEncoded()))
+                        .header(BinaryController.HEADER_VERSION, "7")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(new byte[]{1, 2, 3}))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(400, resp.statusCode());
+        assertTrue(new String(resp.body()).contains("algorithm version not supported"));
+    }
+
+    private static HttpResponse<byte[]> post(String path, byte[] body, String header, String value) throws Exception
+    {
+        return HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + path))
+                        .header("Content-Type", "application/octet-stream")
+                        .header(header, value)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray()
+        );
+    }
+}
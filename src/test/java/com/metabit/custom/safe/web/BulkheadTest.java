@@ -0,0 +1,113 @@
+package com.metabit.custom.safe.web;
+
+import io.javalin.Javalin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkheadTest
+{
+    static int PORT = 8081;
+    Javalin app;
+
+    @AfterEach
+    void stop() {
+        if (app != null) app.stop();
+    }
+
+    @Test
+    void rejectsBeyondCapacityWithRetryAfter() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        Bulkhead slow = new Bulkhead("slow", 1, 1);
+        app = Javalin.create();
+        app.get("/slow", slow.wrap(ctx ->
+        {
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            ctx.json(Map.of("thread", Thread.currentThread().getName()));
+        }));
+        app.get("/other", ctx -> ctx.result("ok"));
+        app.start(PORT);
+
+        HttpClient client = HttpClient.newHttpClient();
+        CompletableFuture<HttpResponse<String>> running = client.sendAsync(get("/slow"), HttpResponse.BodyHandlers.ofString());
+        waitFor(() -> slow.getMetrics().get("active") == 1);
+        CompletableFuture<HttpResponse<String>> queued = client.sendAsync(get("/slow"), HttpResponse.BodyHandlers.ofString());
+        waitFor(() -> slow.getMetrics().get("queued") == 1);
+
+        HttpResponse<String> rejected = client.send(get("/slow"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(429, rejected.statusCode());
+        assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(""));
+        assertTrue(rejected.body().contains("slow"));
+
+        // the request threads are not held by the waiting requests
+        assertEquals("ok", client.send(get("/other"), HttpResponse.BodyHandlers.ofString()).body());
+
+        release.countDown();
+        assertEquals(200, running.get(10, TimeUnit.SECONDS).statusCode());
+        HttpResponse<String> second = queued.get(10, TimeUnit.SECONDS);
+        assertEquals(200, second.statusCode());
+        assertTrue(second.body().contains("safe-slow-"));
+
+        Map<String, Long> metrics = slow.getMetrics();
+        assertEquals(2, metrics.get("accepted"));
+        assertEquals(1, metrics.get("rejected"));
+        assertEquals(2, metrics.get("completed"));
+        slow.shutdown();
+    }
+
+    @Test
+    void failuresReachTheExceptionHandler() throws Exception
+    {
+        Bulkhead bulkhead = new Bulkhead("failing", 1, 0);
+        app = Javalin.create();
+        app.get("/fail", bulkhead.wrap(ctx -> { throw new IllegalStateException("boom"); }));
+        app.exception(IllegalStateException.class, (e, ctx) -> ctx.status(503).result(e.getMessage()));
+        app.start(PORT);
+
+        HttpResponse<String> resp = HttpClient.newHttpClient().send(get("/fail"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(503, resp.statusCode());
+        assertEquals("boom", resp.body());
+        assertEquals(1, bulkhead.getMetrics().get("failed"));
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void serverRegistersBulkheadMetrics() throws Exception
+    {
+        app = ServerMain.create();
+        app.start(PORT);
+        HttpResponse<String> resp = HttpClient.newHttpClient().send(get("/api/metrics/bulkheads"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, resp.statusCode());
+        for (String name : new String[]{"seal", "batch", "keygen", "verify"})
+        {
+            assertTrue(resp.body().contains("\"" + name + "\""), resp.body());
+        }
+    }
+
+    private static HttpRequest get(String path)
+    {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + path)).GET().build();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean())
+        {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
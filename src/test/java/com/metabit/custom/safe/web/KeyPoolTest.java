@@ -0,0 +1,109 @@
+package com.metabit.custom.safe.web;
+
+import io.javalin.Javalin;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPoolTest
+{
+    static int PORT = 8081;
+
+    @Test
+    void servesFromPoolAndRefills() throws Exception
+    {
+        KeyPool pool = new KeyPool(Map.of(1024, 3, 2048, 0), 1);
+        try
+        {
+            assertEquals(Set.of(1024), pool.getKeySizes()); // depth 0 is not pooled
+            pool.start();
+            waitFor(() -> pool.getMetrics(1024).get("depth") == 3);
+
+            Set<KeyPair> handedOut = new HashSet<>();
+            for (int i = 0; i < 3; i++)
+            {
+                KeyPair keyPair = pool.take(1024);
+                assertEquals(1024, ((RSAPublicKey) keyPair.getPublic()).getModulus().bitLength());
+                assertTrue(handedOut.add(keyPair));
+            }
+            assertEquals(3, pool.getMetrics(1024).get("hits"));
+
+            waitFor(() -> pool.getMetrics(1024).get("refilled") == 6);
+            Map<String, Long> metrics = pool.getMetrics(1024);
+            assertEquals(3, metrics.get("depth"));
+            assertEquals(6, metrics.get("refilledLastMinute"));
+            assertFalse(handedOut.contains(pool.take(1024)));
+
+            // not pooled: generated on the spot, no metrics
+            assertEquals(2048, ((RSAPublicKey) pool.take(2048).getPublic()).getModulus().bitLength());
+            assertTrue(pool.getMetrics(2048).isEmpty());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void emptyPoolFallsBackToSynchronousGeneration() throws Exception
+    {
+        KeyPool pool = new KeyPool(Map.of(1024, 2), 1); // not started, so never filled
+        try
+        {
+            assertNotNull(pool.take(1024));
+            Map<String, Long> metrics = pool.getMetrics(1024);
+            assertEquals(0, metrics.get("hits"));
+            assertEquals(1, metrics.get("misses"));
+            assertEquals(0, metrics.get("refilled"));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void generateEndpointUsesPool() throws Exception
+    {
+        Javalin app = ServerMain.create();
+        app.start(PORT);
+        try
+        {
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<String> resp = client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/keys/generate?keySize=1024"))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, resp.statusCode());
+            assertTrue(resp.body().contains("BEGIN PRIVATE KEY"));
+
+            String metrics = client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/metrics/keypool")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            assertTrue(metrics.contains("\"rsa1024\"") && metrics.contains("\"rsa4096\""), metrics);
+        }
+        finally
+        {
+            app.stop();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean())
+        {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
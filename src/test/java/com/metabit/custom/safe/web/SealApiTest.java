@@ -1,5 +1,6 @@
 package com.metabit.custom.safe.web;
 
+import com.metabit.custom.safe.safeseal.KeyRegistry;
 import io.javalin.Javalin;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -10,6 +11,8 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.interfaces.RSAPrivateKey;
@@ -78,6 +81,64 @@ class SealApiTest
         assertEquals(payload, roundtrip);
     }
 
+    @Test
+    void sealAndRevealByKeyId() throws Exception
+    {
+        KeyPair kp = KeyUtil.generateRsaKeyPair(2048);
+        Path keyDirectory = Files.createTempDirectory("keys");
+        Files.writeString(keyDirectory.resolve("webtest.pem"), KeyUtil.toPemPrivate((RSAPrivateKey) kp.getPrivate()));
+        KeyRegistry.getSharedInstance().addDirectory(keyDirectory);
+
+        HttpResponse<String> sealResp = http().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/seal"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString("keyId=webtest&payloadText=" + url("by reference")))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        assertEquals(200, sealResp.statusCode());
+        String sealedBase64 = extractJsonValue(sealResp.body(), "base64");
+
+        // the public key is derived from the registered private key
+        HttpResponse<String> revResp = http().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/reveal"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString("keyId=webtest&sealedBase64=" + url(sealedBase64)))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        assertEquals(200, revResp.statusCode());
+        assertEquals("by reference", new String(Base64.getDecoder().decode(extractJsonValue(revResp.body(), "payloadBase64")), StandardCharsets.UTF_8));
+
+        HttpResponse<String> unknown = http().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/seal"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString("keyId=nosuchkey&payloadText=x"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        assertEquals(400, unknown.statusCode());
+
+        HttpResponse<String> list = http().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/keys")).GET().build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        assertTrue(list.body().contains("\"webtest\""));
+        assertFalse(list.body().contains("PRIVATE KEY"));
+    }
+
+    @Test
+    void compressionMetricsAreExposed() throws Exception
+    {
+        HttpResponse<String> resp = http().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/metrics/compression")).GET().build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        assertEquals(200, resp.statusCode());
+        assertTrue(resp.body().contains("\"none\""));
+        assertTrue(resp.body().contains("\"unproductive\""));
+    }
+
     private static HttpClient http() { return HttpClient.newHttpClient(); }
 
     private static String url(String s)